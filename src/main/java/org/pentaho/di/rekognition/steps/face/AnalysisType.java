@@ -0,0 +1,156 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.Attribute;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectTextRequest;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.Label;
+import com.amazonaws.services.rekognition.model.ModerationLabel;
+import com.amazonaws.services.rekognition.model.TextDetection;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The Rekognition analyses the step can run over each listed image.
+ *
+ * All selected analyses share the same listing pass and worker pool: each worker calls
+ * the selected APIs for one image and stores the results on a single ImageAnalysisResult,
+ * which is then turned into output rows by FaceAnalysisStep.
+ */
+public enum AnalysisType {
+
+  FACES {
+    @Override
+    void analyze( AmazonRekognition client, Image image, ImageAnalysisResult result ) {
+      result.setFaceDetails( client.detectFaces(
+          new DetectFacesRequest().withImage( image ).withAttributes( Attribute.ALL ) ).getFaceDetails() );
+    }
+
+    @Override
+    boolean isDone( ImageAnalysisResult result ) {
+      return result.getFaceDetails() != null;
+    }
+
+    @Override
+    void markEmpty( ImageAnalysisResult result ) {
+      result.setFaceDetails( Collections.<FaceDetail>emptyList() );
+    }
+  },
+
+  LABELS {
+    @Override
+    void analyze( AmazonRekognition client, Image image, ImageAnalysisResult result ) {
+      result.setLabels( client.detectLabels( new DetectLabelsRequest().withImage( image ) ).getLabels() );
+    }
+
+    @Override
+    boolean isDone( ImageAnalysisResult result ) {
+      return result.getLabels() != null;
+    }
+
+    @Override
+    void markEmpty( ImageAnalysisResult result ) {
+      result.setLabels( Collections.<Label>emptyList() );
+    }
+  },
+
+  TEXT {
+    @Override
+    void analyze( AmazonRekognition client, Image image, ImageAnalysisResult result ) {
+      result.setTextDetections( client.detectText( new DetectTextRequest().withImage( image ) ).getTextDetections() );
+    }
+
+    @Override
+    boolean isDone( ImageAnalysisResult result ) {
+      return result.getTextDetections() != null;
+    }
+
+    @Override
+    void markEmpty( ImageAnalysisResult result ) {
+      result.setTextDetections( Collections.<TextDetection>emptyList() );
+    }
+  },
+
+  MODERATION {
+    @Override
+    void analyze( AmazonRekognition client, Image image, ImageAnalysisResult result ) {
+      result.setModerationLabels( client.detectModerationLabels(
+          new DetectModerationLabelsRequest().withImage( image ) ).getModerationLabels() );
+    }
+
+    @Override
+    boolean isDone( ImageAnalysisResult result ) {
+      return result.getModerationLabels() != null;
+    }
+
+    @Override
+    void markEmpty( ImageAnalysisResult result ) {
+      result.setModerationLabels( Collections.<ModerationLabel>emptyList() );
+    }
+  };
+
+  /**
+   * Calls the Rekognition API for this analysis and stores its outcome on the result.
+   */
+  abstract void analyze( AmazonRekognition client, Image image, ImageAnalysisResult result );
+
+  /**
+   * @return whether the result holds the outcome of this analysis
+   */
+  abstract boolean isDone( ImageAnalysisResult result );
+
+  /**
+   * Stores an outcome without any detection, for an image that is not sent to Rekognition.
+   */
+  abstract void markEmpty( ImageAnalysisResult result );
+
+  /**
+   * Parses a comma separated list of analysis names (case insensitive), as stored in FaceAnalysisMeta.
+   * Unknown names are rejected; an empty list falls back to face analysis only.
+   *
+   * @param value comma separated analysis names, e.g. "FACES,LABELS"
+   * @return the set of analyses to run, never empty
+   */
+  public static Set<AnalysisType> parseList( String value ) {
+    Set<AnalysisType> types = EnumSet.noneOf( AnalysisType.class );
+    if ( value != null ) {
+      for ( String name : value.split( "," ) ) {
+        if ( !name.trim().isEmpty() ) {
+          types.add( AnalysisType.valueOf( name.trim().toUpperCase() ) );
+        }
+      }
+    }
+    if ( types.isEmpty() ) {
+      types.add( FACES );
+    }
+    return types;
+  }
+}
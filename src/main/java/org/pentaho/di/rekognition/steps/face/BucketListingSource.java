@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * Enumerates a bucket, or the keys under a prefix, with a single ListObjectsV2 continuation chain, 1000 keys
+ * per request.
+ */
+class BucketListingSource implements ImageSource {
+
+  private final AmazonS3 s3Client;
+  private final String bucketName;
+  private final String prefix;
+
+  BucketListingSource( AmazonS3 s3Client, String bucketName ) {
+    this( s3Client, bucketName, null );
+  }
+
+  /**
+   * @param prefix only lists the keys starting with it, null or "" for the whole bucket
+   */
+  BucketListingSource( AmazonS3 s3Client, String bucketName, String prefix ) {
+    this.s3Client = s3Client;
+    this.bucketName = bucketName;
+    this.prefix = prefix == null || prefix.isEmpty() ? null : prefix;
+  }
+
+  @Override
+  public void list( ImageSink sink ) throws KettleException {
+    ListObjectsV2Request req = new ListObjectsV2Request().withBucketName( bucketName ).withPrefix( prefix );
+    ListObjectsV2Result result;
+    do {
+      result = s3Client.listObjectsV2( req );
+      for ( S3ObjectSummary objectSummary : result.getObjectSummaries() ) {
+        if ( !sink.accept( objectSummary ) ) {
+          return;
+        }
+      }
+      req.setContinuationToken( result.getNextContinuationToken() );
+    } while ( result.isTruncated() );
+  }
+}
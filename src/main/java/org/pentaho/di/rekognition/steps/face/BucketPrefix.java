@@ -0,0 +1,126 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One bucket, or key prefix of a bucket, listed by the step, as configured in FaceAnalysisMeta:
+ * <pre>[s3://]bucket[/prefix][@weight]</pre>
+ * e.g. "photos/2018/@3" or "avatars". The weight is the share of the images handed to the workers while
+ * several sources have images waiting, 1 by default.
+ */
+class BucketPrefix {
+
+  private final String bucketName;
+  private final String prefix;
+  private final int weight;
+
+  BucketPrefix( String bucketName, String prefix, int weight ) {
+    this.bucketName = bucketName;
+    this.prefix = prefix;
+    this.weight = weight;
+  }
+
+  String getBucketName() {
+    return bucketName;
+  }
+
+  /**
+   * @return the key prefix, "" for the whole bucket
+   */
+  String getPrefix() {
+    return prefix;
+  }
+
+  int getWeight() {
+    return weight;
+  }
+
+  boolean contains( String bucketName, String key ) {
+    return this.bucketName.equals( bucketName ) && key.startsWith( prefix );
+  }
+
+  @Override
+  public String toString() {
+    return prefix.isEmpty() ? bucketName : bucketName + "/" + prefix;
+  }
+
+  /**
+   * @return the source holding the object, the one with the longest prefix when they overlap; null if none does
+   */
+  static BucketPrefix find( List<BucketPrefix> sources, String bucketName, String key ) {
+    BucketPrefix found = null;
+    for ( BucketPrefix source : sources ) {
+      if ( source.contains( bucketName, key )
+          && ( found == null || source.prefix.length() > found.prefix.length() ) ) {
+        found = source;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Parses a comma separated list of sources.
+   *
+   * @return the sources in configuration order, empty when the list is
+   * @throws IllegalArgumentException on an entry without bucket name or with an invalid weight
+   */
+  static List<BucketPrefix> parseList( String value ) {
+    List<BucketPrefix> sources = new ArrayList<>();
+    if ( value != null ) {
+      for ( String entry : value.split( "," ) ) {
+        if ( !entry.trim().isEmpty() ) {
+          sources.add( parse( entry.trim() ) );
+        }
+      }
+    }
+    return sources;
+  }
+
+  private static BucketPrefix parse( String entry ) {
+    int weight = 1;
+    int at = entry.lastIndexOf( '@' );
+    if ( at >= 0 ) {
+      try {
+        weight = Integer.parseInt( entry.substring( at + 1 ).trim() );
+      } catch ( NumberFormatException e ) {
+        throw new IllegalArgumentException( "Invalid weight in source " + entry, e );
+      }
+      if ( weight <= 0 ) {
+        throw new IllegalArgumentException( "Invalid weight in source " + entry );
+      }
+      entry = entry.substring( 0, at ).trim();
+    }
+    if ( entry.startsWith( "s3://" ) ) {
+      entry = entry.substring( "s3://".length() );
+    }
+    int slash = entry.indexOf( '/' );
+    String bucketName = slash < 0 ? entry : entry.substring( 0, slash );
+    if ( bucketName.isEmpty() ) {
+      throw new IllegalArgumentException( "No bucket name in source " + entry );
+    }
+    return new BucketPrefix( bucketName, slash < 0 ? "" : entry.substring( slash + 1 ), weight );
+  }
+}
@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable direct buffers holding downloaded images, so loading an image does not allocate (and later collect)
+ * a byte array of its size. Buffers are rounded up to a multiple of GRANULE bytes to be reusable by images of
+ * similar sizes. The pool allocates direct buffers up to a total capacity; past it, or for an image larger than a
+ * single buffer may be, it hands out plain heap buffers that are not kept.
+ */
+class BufferPool {
+
+  static final int GRANULE = 256 * 1024;
+
+  private final long maxPoolBytes;
+  private final int maxBufferBytes;
+  private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+  private final AtomicLong pooledBytes = new AtomicLong();
+
+  private final AtomicLong acquired = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+
+  /**
+   * @param maxPoolBytes   total capacity of the direct buffers the pool allocates
+   * @param maxBufferBytes largest buffer kept in the pool
+   */
+  BufferPool( long maxPoolBytes, int maxBufferBytes ) {
+    this.maxPoolBytes = maxPoolBytes;
+    this.maxBufferBytes = maxBufferBytes;
+  }
+
+  /**
+   * @return an empty buffer with a limit of size bytes, to be given back with release()
+   */
+  ByteBuffer acquire( int size ) {
+    acquired.incrementAndGet();
+    if ( size > maxBufferBytes ) {
+      return ByteBuffer.allocate( size );
+    }
+    for ( Iterator<ByteBuffer> it = free.iterator(); it.hasNext(); ) {
+      ByteBuffer buffer = it.next();
+      if ( buffer.capacity() >= size && free.removeFirstOccurrence( buffer ) ) {
+        reused.incrementAndGet();
+        buffer.clear().limit( size );
+        return buffer;
+      }
+    }
+    int capacity = (int) Math.min( maxBufferBytes, ( size + GRANULE - 1L ) / GRANULE * GRANULE );
+    // over budget, make room by dropping the least recently used free buffers, all too small for this size
+    while ( pooledBytes.get() + capacity > maxPoolBytes ) {
+      ByteBuffer unused = free.pollLast();
+      if ( unused == null ) {
+        break;
+      }
+      pooledBytes.addAndGet( -unused.capacity() );
+    }
+    if ( pooledBytes.addAndGet( capacity ) > maxPoolBytes ) {
+      pooledBytes.addAndGet( -capacity );
+      return ByteBuffer.allocate( size );
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect( capacity );
+    buffer.limit( size );
+    return buffer;
+  }
+
+  /**
+   * Gives a buffer back, its content must not be used anymore.
+   */
+  void release( ByteBuffer buffer ) {
+    if ( buffer != null && buffer.isDirect() ) {
+      free.addFirst( buffer );
+    }
+  }
+
+  /**
+   * @return the number of buffers handed out
+   */
+  long getAcquired() {
+    return acquired.get();
+  }
+
+  /**
+   * @return the number of buffers handed out again instead of being allocated
+   */
+  long getReused() {
+    return reused.get();
+  }
+}
@@ -0,0 +1,231 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates what a dry run learns about the images a real run would analyze: how many and how big, how many
+ * Rekognition calls are left after the duplicate hits, and how long a call takes from a few real ones.
+ *
+ * Mosaic batching makes one call per batch of small images. Clustering makes an IndexFaces call per image (instead
+ * of DetectFaces) and a SearchFaces call per face, counted from the mean number of faces on the calibration images.
+ *
+ * Duplicates within the run are found by content key, so the memory used grows with the number of distinct images
+ * when duplicate suppression is on.
+ */
+class CapacityEstimate {
+
+  // upper bounds of the size classes; 5 MB is the largest image sent as bytes, 15 MB the largest read from S3
+  static final long[] SIZE_LIMITS = { 64L << 10, 256L << 10, 1L << 20, 5L << 20, 15L << 20 };
+  static final String[] SIZE_CLASSES =
+    { "SIZE_UNDER_64KB", "SIZE_UNDER_256KB", "SIZE_UNDER_1MB", "SIZE_UNDER_5MB", "SIZE_UNDER_15MB", "SIZE_OVER_15MB" };
+
+  private final int callsPerImage;
+  // 0 without mosaic batching
+  private int mosaicBatchSize;
+  private long mosaicMaxImageSize;
+  private boolean clustering;
+
+  private long objects;
+  private long bytes;
+  private final long[] sizeCounts = new long[SIZE_CLASSES.length];
+  private long cached;
+  private long duplicates;
+  private long mosaicImages;
+  private final Set<String> contentKeys = new HashSet<>();
+  private long listingNanos;
+
+  // timed on the worker threads
+  private long calibrated;
+  private long calibrationNanos;
+  private long facedImages;
+  private long faces;
+
+  /**
+   * @param callsPerImage Rekognition calls of an analyzed image, one per analysis
+   */
+  CapacityEstimate( int callsPerImage ) {
+    this.callsPerImage = callsPerImage;
+  }
+
+  /**
+   * Counts the images a mosaic batcher would tile as one call per batch of up to batchSize images.
+   */
+  void setMosaic( int batchSize, long maxImageSize ) {
+    this.mosaicBatchSize = batchSize;
+    this.mosaicMaxImageSize = maxImageSize;
+  }
+
+  /**
+   * Adds a SearchFaces call per face of the analyzed images, as faces are clustered.
+   */
+  void setClustering( boolean clustering ) {
+    this.clustering = clustering;
+  }
+
+  /**
+   * Counts one listed image that passed the filters.
+   *
+   * @param contentKey the image's content key, null without duplicate suppression
+   * @param indexed    whether the content key is in the duplicate index of earlier runs
+   * @return true when a real run would call Rekognition for the image
+   */
+  boolean add( S3ObjectSummary objectSummary, String contentKey, boolean indexed ) {
+    objects++;
+    bytes += objectSummary.getSize();
+    int sizeClass = 0;
+    while ( sizeClass < SIZE_LIMITS.length && objectSummary.getSize() >= SIZE_LIMITS[sizeClass] ) {
+      sizeClass++;
+    }
+    sizeCounts[sizeClass]++;
+    if ( indexed ) {
+      cached++;
+      return false;
+    }
+    if ( contentKey != null && !contentKeys.add( contentKey ) ) {
+      duplicates++;
+      return false;
+    }
+    if ( mosaicBatchSize > 0 && objectSummary.getSize() > 0 && objectSummary.getSize() <= mosaicMaxImageSize ) {
+      mosaicImages++;
+    }
+    return true;
+  }
+
+  /**
+   * Records the time a worker took to analyze one calibration image.
+   */
+  synchronized void addCalibration( long nanos ) {
+    calibrated++;
+    calibrationNanos += nanos;
+  }
+
+  /**
+   * Records the number of faces found on one calibration image.
+   */
+  synchronized void addCalibrationFaces( int imageFaces ) {
+    facedImages++;
+    faces += imageFaces;
+  }
+
+  void setListingNanos( long listingNanos ) {
+    this.listingNanos = listingNanos;
+  }
+
+  long getObjects() {
+    return objects;
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the number of images a real run would send to Rekognition
+   */
+  long getAnalyzedImages() {
+    return objects - cached - duplicates;
+  }
+
+  /**
+   * @return the Rekognition calls of the analyzed images; partial mosaic batches flushed early add a few more
+   */
+  long getApiCalls() {
+    long calls = ( getAnalyzedImages() - mosaicImages ) * callsPerImage;
+    if ( mosaicImages > 0 ) {
+      calls += ( mosaicImages + mosaicBatchSize - 1 ) / mosaicBatchSize;
+    }
+    Double meanFaces = getMeanFaces();
+    if ( clustering && meanFaces != null ) {
+      calls += Math.round( getAnalyzedImages() * meanFaces );
+    }
+    return calls;
+  }
+
+  synchronized long getCalibrated() {
+    return calibrated;
+  }
+
+  /**
+   * @return the mean time a worker spends on one image, null without calibration
+   */
+  synchronized Double getMeanImageMillis() {
+    return calibrated == 0 ? null : calibrationNanos / (double) calibrated / TimeUnit.MILLISECONDS.toNanos( 1 );
+  }
+
+  /**
+   * @return the mean number of faces on the calibration images, null when no calibration image was analyzed
+   */
+  synchronized Double getMeanFaces() {
+    return facedImages == 0 ? null : faces / (double) facedImages;
+  }
+
+  /**
+   * Projects the wall-clock time of the real run. Listing and analysis overlap, so the run takes as long as the
+   * slowest of listing, the workers getting through the images, and the rate limit letting the calls through.
+   *
+   * @param threads       number of workers
+   * @param callRateLimit most Rekognition calls per second over all regions, 0 without limit
+   */
+  long getProjectedMillis( int threads, double callRateLimit ) {
+    double millis = TimeUnit.NANOSECONDS.toMillis( listingNanos );
+    Double meanImageMillis = getMeanImageMillis();
+    if ( meanImageMillis != null ) {
+      millis = Math.max( millis, getAnalyzedImages() * meanImageMillis / threads );
+    }
+    if ( callRateLimit > 0 ) {
+      millis = Math.max( millis, getApiCalls() * 1000 / callRateLimit );
+    }
+    return Math.round( millis );
+  }
+
+  /**
+   * @return every figure of the estimate by name, in report order
+   */
+  Map<String, Object> report( int threads, double callRateLimit ) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put( "OBJECTS", objects );
+    report.put( "BYTES", bytes );
+    for ( int i = 0; i < SIZE_CLASSES.length; i++ ) {
+      report.put( SIZE_CLASSES[i], sizeCounts[i] );
+    }
+    report.put( "CACHED_IMAGES", cached );
+    report.put( "DUPLICATE_IMAGES", duplicates );
+    report.put( "ANALYZED_IMAGES", getAnalyzedImages() );
+    report.put( "MOSAIC_IMAGES", mosaicImages );
+    report.put( "API_CALLS", getApiCalls() );
+    report.put( "CALIBRATION_IMAGES", getCalibrated() );
+    report.put( "MEAN_IMAGE_MILLIS", getMeanImageMillis() );
+    report.put( "MEAN_FACES", getMeanFaces() );
+    report.put( "LISTING_MILLIS", TimeUnit.NANOSECONDS.toMillis( listingNanos ) );
+    report.put( "PROJECTED_MILLIS", getProjectedMillis( threads, callRateLimit ) );
+    return report;
+  }
+}
@@ -0,0 +1,181 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.SdkClientException;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling Rekognition for a cool-down period when too many of the recent calls failed.
+ *
+ * Closed: calls go through, the outcome of the last WINDOW calls is kept. Once at least MIN_CALLS outcomes
+ * are known and the failure rate reaches the threshold, the breaker opens and calls fail at once with an
+ * OpenException. After the cool-down a single trial call is let through (half open): its success closes
+ * the breaker, its failure opens it again.
+ */
+class CircuitBreaker {
+
+  static final int WINDOW = 50;
+  static final int MIN_CALLS = 10;
+
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  /**
+   * Thrown instead of calling Rekognition while the breaker is open.
+   */
+  static class OpenException extends SdkClientException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAtNanos;
+
+    OpenException( long retryAtNanos ) {
+      super( "Rekognition circuit breaker is open, calls are paused" );
+      this.retryAtNanos = retryAtNanos;
+    }
+
+    /**
+     * @return System.nanoTime() value after which calls are tried again
+     */
+    long getRetryAtNanos() {
+      return retryAtNanos;
+    }
+  }
+
+  private final double failureRatio;
+  private final long coolDownNanos;
+  private final LongSupplier clock;
+
+  private final boolean[] failures = new boolean[WINDOW];
+  private int count;
+  private int next;
+  private int failureCount;
+
+  private State state = State.CLOSED;
+  private long openUntil;
+  private boolean trialInFlight;
+  private long opened;
+
+  /**
+   * @param failureRatio failure rate (0-1) opening the breaker
+   * @param coolDownNanos how long calls are paused once open
+   * @param clock nanosecond clock, System::nanoTime outside of tests
+   */
+  CircuitBreaker( double failureRatio, long coolDownNanos, LongSupplier clock ) {
+    this.failureRatio = failureRatio;
+    this.coolDownNanos = coolDownNanos;
+    this.clock = clock;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return how many times the breaker opened
+   */
+  synchronized long getOpened() {
+    return opened;
+  }
+
+  /**
+   * Asks for permission to make a call; every permitted call must be followed by onSuccess, onFailure or
+   * onAbandoned.
+   *
+   * @throws OpenException while the breaker is open, or half open with the trial call in flight
+   */
+  synchronized void acquire() {
+    long now = clock.getAsLong();
+    if ( state == State.OPEN && now - openUntil >= 0 ) {
+      state = State.HALF_OPEN;
+      trialInFlight = false;
+    }
+    if ( state == State.OPEN || ( state == State.HALF_OPEN && trialInFlight ) ) {
+      throw new OpenException( state == State.OPEN ? openUntil : now + coolDownNanos );
+    }
+    if ( state == State.HALF_OPEN ) {
+      trialInFlight = true;
+    }
+  }
+
+  synchronized void onSuccess() {
+    if ( state == State.HALF_OPEN ) {
+      reset();
+      state = State.CLOSED;
+      return;
+    }
+    record( false );
+  }
+
+  synchronized void onFailure() {
+    if ( state == State.HALF_OPEN ) {
+      open();
+      return;
+    }
+    record( true );
+    if ( state == State.CLOSED && count >= MIN_CALLS && failureCount >= failureRatio * count ) {
+      open();
+    }
+  }
+
+  /**
+   * Ends a call that was given up by the caller (cancelled or interrupted): it tells nothing about the
+   * service, so it counts neither way. An abandoned trial call lets the next call be the trial.
+   */
+  synchronized void onAbandoned() {
+    if ( state == State.HALF_OPEN ) {
+      trialInFlight = false;
+    }
+  }
+
+  private void record( boolean failure ) {
+    if ( count == WINDOW ) {
+      if ( failures[next] ) {
+        failureCount--;
+      }
+    } else {
+      count++;
+    }
+    failures[next] = failure;
+    if ( failure ) {
+      failureCount++;
+    }
+    next = ( next + 1 ) % WINDOW;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openUntil = clock.getAsLong() + coolDownNanos;
+    opened++;
+    reset();
+  }
+
+  private void reset() {
+    count = 0;
+    next = 0;
+    failureCount = 0;
+    trialInFlight = false;
+  }
+}
@@ -0,0 +1,105 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.CreateCollectionRequest;
+import com.amazonaws.services.rekognition.model.CreateCollectionResult;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectLabelsResult;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsResult;
+import com.amazonaws.services.rekognition.model.DetectTextRequest;
+import com.amazonaws.services.rekognition.model.DetectTextResult;
+import com.amazonaws.services.rekognition.model.IndexFacesRequest;
+import com.amazonaws.services.rekognition.model.IndexFacesResult;
+import com.amazonaws.services.rekognition.model.SearchFacesRequest;
+import com.amazonaws.services.rekognition.model.SearchFacesResult;
+
+import java.util.function.BiFunction;
+
+/**
+ * Base of the client wrappers adding call policies (hedging, timeouts, circuit breaking, region fan-out)
+ * around the Rekognition calls made by the step. Each supported call goes through invoke(); the others
+ * fail as unsupported.
+ */
+abstract class DelegatingRekognitionClient extends AbstractAmazonRekognition {
+
+  /**
+   * Runs one call.
+   *
+   * @param operation API operation name, e.g. "DetectFaces"
+   * @param api makes the call on the given client with the given request
+   */
+  protected abstract <R extends AmazonWebServiceRequest, T> T invoke( String operation, R request,
+                                                                      BiFunction<AmazonRekognition, R, T> api );
+
+  @Override
+  public DetectFacesResult detectFaces( DetectFacesRequest request ) {
+    return invoke( "DetectFaces", request, AmazonRekognition::detectFaces );
+  }
+
+  @Override
+  public DetectLabelsResult detectLabels( DetectLabelsRequest request ) {
+    return invoke( "DetectLabels", request, AmazonRekognition::detectLabels );
+  }
+
+  @Override
+  public DetectTextResult detectText( DetectTextRequest request ) {
+    return invoke( "DetectText", request, AmazonRekognition::detectText );
+  }
+
+  @Override
+  public DetectModerationLabelsResult detectModerationLabels( DetectModerationLabelsRequest request ) {
+    return invoke( "DetectModerationLabels", request, AmazonRekognition::detectModerationLabels );
+  }
+
+  @Override
+  public IndexFacesResult indexFaces( IndexFacesRequest request ) {
+    return invoke( "IndexFaces", request, AmazonRekognition::indexFaces );
+  }
+
+  @Override
+  public SearchFacesResult searchFaces( SearchFacesRequest request ) {
+    return invoke( "SearchFaces", request, AmazonRekognition::searchFaces );
+  }
+
+  @Override
+  public CreateCollectionResult createCollection( CreateCollectionRequest request ) {
+    return invoke( "CreateCollection", request, AmazonRekognition::createCollection );
+  }
+
+  /**
+   * @return whether the call changes a face collection, so sending it twice would not be harmless
+   */
+  static boolean isCollectionWrite( String operation ) {
+    return "IndexFaces".equals( operation ) || "CreateCollection".equals( operation );
+  }
+
+  @Override
+  public abstract void shutdown();
+}
@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of analysis results by image content (ETag and size), used to analyze identical images only once.
+ *
+ * Recently used results are kept in a bounded in-memory map. When a directory is configured, every result is
+ * also written there as one JSON file, so evicted entries are still found and later runs reuse the results
+ * of earlier ones. Only used from the step thread.
+ */
+class DuplicateIndex {
+
+  private final Map<String, ImageAnalysisResult> memory;
+  private final File directory;
+  private final String analysesSuffix;
+
+  DuplicateIndex( int maxEntries, File directory, Set<AnalysisType> analysisTypes ) {
+    this.memory = new LruMap<>( maxEntries );
+    this.directory = directory;
+    // a result can only be reused by a run that selected the same analyses
+    StringBuilder suffix = new StringBuilder();
+    for ( AnalysisType analysisType : analysisTypes ) {
+      suffix.append( '-' ).append( analysisType.name().charAt( 0 ) );
+    }
+    this.analysesSuffix = suffix.toString();
+  }
+
+  /**
+   * @return the content key of the object, or null when its content cannot be identified
+   */
+  String contentKey( S3ObjectSummary objectSummary ) {
+    String eTag = objectSummary.getETag();
+    if ( eTag == null || eTag.isEmpty() ) {
+      return null;
+    }
+    return eTag.replaceAll( "[^A-Za-z0-9.-]", "_" ) + "_" + objectSummary.getSize() + analysesSuffix;
+  }
+
+  /**
+   * @return the stored result for the content key, or null if this content was not analyzed yet
+   */
+  ImageAnalysisResult get( String contentKey ) throws IOException {
+    ImageAnalysisResult result = memory.get( contentKey );
+    if ( result == null && directory != null ) {
+      File file = file( contentKey );
+      if ( file.exists() ) {
+        result = ResultCodec.fromJson( Files.readAllBytes( file.toPath() ) );
+        memory.put( contentKey, result );
+      }
+    }
+    return result;
+  }
+
+  void put( String contentKey, ImageAnalysisResult result ) throws IOException {
+    memory.put( contentKey, result );
+    if ( directory != null ) {
+      File file = file( contentKey );
+      file.getParentFile().mkdirs();
+      File tmp = new File( file.getParentFile(), file.getName() + ".tmp" );
+      Files.write( tmp.toPath(), ResultCodec.toJson( result ) );
+      Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+  }
+
+  private File file( String contentKey ) {
+    // shard by the first ETag characters to keep directories small
+    return new File( new File( directory, contentKey.substring( 0, Math.min( 2, contentKey.length() ) ) ),
+        contentKey + ".json" );
+  }
+
+  /**
+   * Map in access order that drops its least recently used entry beyond a maximum size.
+   */
+  static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+
+    LruMap( int maxEntries ) {
+      super( 16, 0.75f, true );
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<K, V> eldest ) {
+      return size() > maxEntries;
+    }
+  }
+}
@@ -24,10 +24,24 @@ package org.pentaho.di.rekognition.steps.face;
 
 import com.amazonaws.services.rekognition.AmazonRekognition;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
 /**
  * This class is part of the demo step plug-in implementation.
  * It demonstrates the basics of developing a plug-in step for PDI. 
@@ -64,7 +78,150 @@ public class FaceAnalysisData extends BaseStepData implements StepDataInterface
   int fieldValueIndex = -1;
   int fieldConfidenceIndex = -1;
 
+  // optional image metadata fields, -1 when not part of the output
+  int fieldImageBucketIndex = -1;
+  int fieldImageSizeIndex = -1;
+  int fieldImageETagIndex = -1;
+  int fieldImageLastModifiedIndex = -1;
+  // sample rate field, only present when sampling
+  int fieldSampleRateIndex = -1;
+  // person cluster field, only present when faces are clustered
+  int fieldPersonClusterIndex = -1;
+  // source field, only present when several buckets or prefixes are listed
+  int fieldSourceIndex = -1;
+  // first of the face geometry fields, only present with face geometry; the others follow it
+  int fieldFaceGeometryIndex = -1;
+  // summary fields, only present with summary rows
+  int fieldImageCountIndex = -1;
+  int fieldFaceCountIndex = -1;
+  int fieldMaleFacesIndex = -1;
+  int fieldFemaleFacesIndex = -1;
+  int fieldSmilingFacesIndex = -1;
+  int fieldMeanAgeIndex = -1;
+  int fieldDominantEmotionIndex = -1;
+
+  // enumerates the images to analyze (bucket listing or inventory report)
+  ImageSource source;
+
+  // LastModified watermark of the previous run; objects at or before it are skipped
+  WatermarkStore watermarkStore;
+  Date watermark;
+  // most recent LastModified of the images emitted in this run
+  Date maxLastModified;
+  // when the current listing started; the watermark stays behind it (see WatermarkStore.cap)
+  Date listingStart;
+  long skippedByWatermark;
+
+  // the buckets or prefixes listed together, empty when a single bucket is
+  List<BucketPrefix> bucketSources = Collections.emptyList();
+
+  // the listing shared with other step instances through leases, null without lease coordination
+  LeasedListingSource leasedSource;
+
+  // keeps the step running on new images, null when the source is read once
+  WatchSource.Mode watchMode = WatchSource.Mode.NONE;
+  WatchSource watchSource;
+  // POLL keeps the watermark moving between listings, behind the images emitted last: the keys emitted with a
+  // LastModified after the watermark, so the next listings skip them; null for a source read once
+  Map<String, Date> recentKeys;
+
+  // picks the images analyzed when sampling, null when every image is analyzed
+  ImageSampler sampler;
+  long listedImages;
+  long sampledImages;
+
+  // summary rows computed in the step
+  FaceSummary.Level summaryLevel = FaceSummary.Level.NONE;
+  int summaryPrefixDepth;
+  // one accumulator per key prefix, emitted once every image was processed
+  final Map<String, FaceSummary> prefixSummaries = new LinkedHashMap<>();
+
+  // only estimates the run from the listing and a few calibration calls
+  boolean dryRun;
+  // most Rekognition calls per second over all regions, 0 when a region has no limit
+  double callRateLimit;
+
+  // worker pool running the selected analyses, shared by every listed image
+  ImageAnalyzer analyzer;
+  ExecutorService workers;
+  int maxInFlight;
+  // downloads the images needed on the client side, into pooled buffers
+  ImageLoader imageLoader;
+
+  // images submitted to the workers, in listing order, so output rows keep that order
+  final Deque<PendingImage> pending = new ArrayDeque<>();
+
+  // exact duplicate suppression by content (ETag and size), null when disabled
+  DuplicateIndex duplicateIndex;
+  // first occurrence of each content still being analyzed, duplicates listed meanwhile wait for it
+  final Map<String, CompletableFuture<ImageAnalysisResult>> inFlightByContent = new HashMap<>();
+  long duplicateImages;
+  long duplicateCallsSaved;
+
+  // the client spreading calls over several regions, null for a single region
+  MultiRegionRekognitionClient regionalClient;
+
+  // pauses Rekognition calls when failures spike, null when disabled
+  CircuitBreaker circuitBreaker;
+  long circuitRetries;
+  // oldest LastModified of the images sent to the error hop by the open breaker; the watermark stays before it
+  Date oldestDiverted;
+
+  // batches small images into composites for face analysis, null when disabled
+  MosaicBatcher mosaicBatcher;
+
+  // Haar cascade face detector running on the workers, null when local detection is off
+  LocalFaceDetector faceDetector;
+
+  // groups faces by person through a collection, null when disabled
+  FaceClusterer faceClusterer;
+  // cluster of the face whose rows are being emitted
+  String personCluster;
+
+  // drops small or poor faces before their rows are emitted, null when every face is kept
+  FaceGeometry.Gate faceGate;
+
+  // JSON sidecar objects next to the images, null when neither written nor reused
+  SidecarStore sidecarStore;
+  boolean writeSidecars;
+  boolean sidecarCache;
+
+  // result journal, written while analyzing or replayed instead of calling Rekognition
+  ResultJournal.Mode journalMode = ResultJournal.Mode.NONE;
+  File journalDirectory;
+  ResultJournal.Writer journalWriter;
+  long replayedImages;
+
+  // result rows written straight to files instead of the output rows, null when disabled
+  ResultFileSink.Format outputFileFormat = ResultFileSink.Format.NONE;
+  ResultFileSink outputFileSink;
+  long outputFileRows;
+
   public FaceAnalysisData() {
     super();
   }
+
+  /**
+   * An image handed to the worker pool (or resolved without calling Rekognition) and not emitted yet.
+   */
+  static class PendingImage {
+    final S3ObjectSummary objectSummary;
+    // content key for duplicate suppression, null if not tracked
+    final String contentKey;
+    // true when the result is reused from another image with the same content
+    final boolean duplicate;
+    final CompletableFuture<ImageAnalysisResult> result;
+    // the mosaic tile the result waits for (the result may be a later stage, e.g. the sidecar upload), or null
+    CompletableFuture<ImageAnalysisResult> tile;
+    // times the image was resubmitted after being refused by the open circuit breaker
+    int retries;
+
+    PendingImage( S3ObjectSummary objectSummary, String contentKey, boolean duplicate,
+                  CompletableFuture<ImageAnalysisResult> result ) {
+      this.objectSummary = objectSummary;
+      this.contentKey = contentKey;
+      this.duplicate = duplicate;
+      this.result = result;
+    }
+  }
 }
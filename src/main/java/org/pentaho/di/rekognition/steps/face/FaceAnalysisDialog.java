@@ -23,6 +23,7 @@
 package org.pentaho.di.rekognition.steps.face;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -33,6 +34,8 @@ import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
 import org.eclipse.swt.layout.FormLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Label;
@@ -79,6 +82,86 @@ public class FaceAnalysisDialog extends BaseStepDialog implements StepDialogInte
   // text field holding the name of the field to add to the row stream
   private LabelText wS3BucketName;
 
+  private LabelText wAnalysisTypes;
+  private LabelText wWorkerThreads;
+  private Button wIncludeImageMetadata;
+  private LabelText wSourceMode;
+  private LabelText wInventoryManifest;
+  private LabelText wWatermarkType;
+  private LabelText wWatermarkLocation;
+  private LabelText wListingThreads;
+  private Button wDuplicateSuppression;
+  private LabelText wDuplicateCacheSize;
+  private LabelText wDuplicateIndexDirectory;
+  private Button wSendImageBytes;
+  private LabelText wNearDuplicateDistance;
+  private LabelText wNearDuplicateWindow;
+  private Button wMosaicBatching;
+  private LabelText wMosaicColumns;
+  private LabelText wMosaicRows;
+  private LabelText wMosaicTileSize;
+  private LabelText wMosaicBatchSize;
+  private LabelText wMosaicMaxImageSize;
+  private Button wHedgeRequests;
+  private LabelText wHedgePercentile;
+  private LabelText wHedgeMaxPercent;
+  private LabelText wConnectionTimeout;
+  private LabelText wRequestTimeout;
+  private Button wAdaptiveTimeouts;
+  private Button wCircuitBreaker;
+  private LabelText wCircuitFailurePercent;
+  private LabelText wCircuitCoolDown;
+  private LabelText wRegions;
+  private LabelText wSamplingMode;
+  private LabelText wSampleRate;
+  private LabelText wSampleSize;
+  private LabelText wSampleStrataDepth;
+  private LabelText wSamplingSeed;
+  private LabelText wSummaryLevel;
+  private LabelText wSummaryPrefixDepth;
+  private Button wSummaryOnly;
+  private LabelText wJournalMode;
+  private LabelText wJournalDirectory;
+  private LabelText wOutputFileFormat;
+  private LabelText wOutputFileDirectory;
+  private Button wOutputFileCompress;
+  private LabelText wOutputFileRollSize;
+  private Button wWriteSidecars;
+  private Button wSidecarCache;
+  private LabelText wSidecarPrefix;
+  private LabelText wSidecarSuffix;
+  private Button wLeaseCoordination;
+  private LabelText wLeaseLocation;
+  private LabelText wLeaseDuration;
+  private LabelText wLeaseRanges;
+  private LabelText wLocalDetection;
+  private LabelText wLocalCascadeFile;
+  private LabelText wLocalMinNeighbors;
+  private Button wFaceClustering;
+  private LabelText wClusterCollection;
+  private LabelText wClusterMatchThreshold;
+  private LabelText wClusterCacheFile;
+  private LabelText wWatchMode;
+  private LabelText wWatchQueue;
+  private LabelText wWatchInterval;
+  private LabelText wWatchBatchSize;
+  private LabelText wMinImageSize;
+  private LabelText wBucketSources;
+  private LabelText wOrderingPolicy;
+  private LabelText wOrderingWindow;
+  private LabelText wOrderingPrefixDepth;
+  private Button wFaceGeometry;
+  private LabelText wMinFaceSize;
+  private LabelText wMinFaceSharpness;
+  private LabelText wMinFaceBrightness;
+  private Button wDryRun;
+  private LabelText wCalibrationSize;
+
+  // scrollable area holding the step settings, below the step name
+  private Composite wSettings;
+  private ModifyListener lsMod;
+  private SelectionAdapter lsSelMod;
+
   /**
    * The constructor should simply invoke super() and save the incoming meta
    * object to a local variable, so it can conveniently read and write settings
@@ -125,11 +208,16 @@ public class FaceAnalysisDialog extends BaseStepDialog implements StepDialogInte
 
     // The ModifyListener used on all controls. It will update the meta object to  
     // indicate that changes are being made.
-    ModifyListener lsMod = new ModifyListener() {
+    lsMod = new ModifyListener() {
       public void modifyText( ModifyEvent e ) {
         meta.setChanged();
       }
     };
+    lsSelMod = new SelectionAdapter() {
+      public void widgetSelected( SelectionEvent e ) {
+        meta.setChanged();
+      }
+    };
 
     // ------------------------------------------------------- //
     // SWT code for building the actual settings dialog        //
@@ -162,21 +250,110 @@ public class FaceAnalysisDialog extends BaseStepDialog implements StepDialogInte
     fdStepname.right = new FormAttachment( 100, 0 );
     wStepname.setLayoutData( fdStepname );
 
-    wS3BucketName = new LabelText( shell, BaseMessages.getString( PKG, "FaceAnalysis.FieldName.Label" ), null );
-    props.setLook(wS3BucketName);
-    wS3BucketName.addModifyListener( lsMod );
-    FormData fdValName = new FormData();
-    fdValName.left = new FormAttachment( 0, 0 );
-    fdValName.right = new FormAttachment( 100, 0 );
-    fdValName.top = new FormAttachment( wStepname, margin );
-    wS3BucketName.setLayoutData( fdValName );
-
     // OK and cancel buttons
     wOK = new Button( shell, SWT.PUSH );
     wOK.setText( BaseMessages.getString( PKG, "System.Button.OK" ) );
     wCancel = new Button( shell, SWT.PUSH );
     wCancel.setText( BaseMessages.getString( PKG, "System.Button.Cancel" ) );
-    setButtonPositions( new Button[] { wOK, wCancel }, margin, wS3BucketName);
+    setButtonPositions( new Button[] { wOK, wCancel }, margin, null );
+
+    // the settings live in a scrolled composite between the step name and the buttons
+    ScrolledComposite wScroll = new ScrolledComposite( shell, SWT.V_SCROLL | SWT.H_SCROLL );
+    FormData fdScroll = new FormData();
+    fdScroll.left = new FormAttachment( 0, 0 );
+    fdScroll.right = new FormAttachment( 100, 0 );
+    fdScroll.top = new FormAttachment( wStepname, margin );
+    fdScroll.bottom = new FormAttachment( wOK, -2 * margin );
+    wScroll.setLayoutData( fdScroll );
+
+    wSettings = new Composite( wScroll, SWT.NONE );
+    props.setLook( wSettings );
+    FormLayout settingsLayout = new FormLayout();
+    settingsLayout.marginWidth = 0;
+    settingsLayout.marginHeight = 0;
+    wSettings.setLayout( settingsLayout );
+
+    wS3BucketName = addLabelText( "FaceAnalysis.FieldName.Label", null );
+    wAnalysisTypes = addLabelText( "FaceAnalysis.AnalysisTypes.Label", wS3BucketName );
+    wWorkerThreads = addLabelText( "FaceAnalysis.WorkerThreads.Label", wAnalysisTypes );
+    wIncludeImageMetadata = addCheckBox( "FaceAnalysis.IncludeImageMetadata.Label", wWorkerThreads );
+    wSourceMode = addLabelText( "FaceAnalysis.SourceMode.Label", wIncludeImageMetadata );
+    wInventoryManifest = addLabelText( "FaceAnalysis.InventoryManifest.Label", wSourceMode );
+    wWatermarkType = addLabelText( "FaceAnalysis.WatermarkType.Label", wInventoryManifest );
+    wWatermarkLocation = addLabelText( "FaceAnalysis.WatermarkLocation.Label", wWatermarkType );
+    wListingThreads = addLabelText( "FaceAnalysis.ListingThreads.Label", wWatermarkLocation );
+    wDuplicateSuppression = addCheckBox( "FaceAnalysis.DuplicateSuppression.Label", wListingThreads );
+    wDuplicateCacheSize = addLabelText( "FaceAnalysis.DuplicateCacheSize.Label", wDuplicateSuppression );
+    wDuplicateIndexDirectory = addLabelText( "FaceAnalysis.DuplicateIndexDirectory.Label", wDuplicateCacheSize );
+    wSendImageBytes = addCheckBox( "FaceAnalysis.SendImageBytes.Label", wDuplicateIndexDirectory );
+    wNearDuplicateDistance = addLabelText( "FaceAnalysis.NearDuplicateDistance.Label", wSendImageBytes );
+    wNearDuplicateWindow = addLabelText( "FaceAnalysis.NearDuplicateWindow.Label", wNearDuplicateDistance );
+    wMosaicBatching = addCheckBox( "FaceAnalysis.MosaicBatching.Label", wNearDuplicateWindow );
+    wMosaicColumns = addLabelText( "FaceAnalysis.MosaicColumns.Label", wMosaicBatching );
+    wMosaicRows = addLabelText( "FaceAnalysis.MosaicRows.Label", wMosaicColumns );
+    wMosaicTileSize = addLabelText( "FaceAnalysis.MosaicTileSize.Label", wMosaicRows );
+    wMosaicBatchSize = addLabelText( "FaceAnalysis.MosaicBatchSize.Label", wMosaicTileSize );
+    wMosaicMaxImageSize = addLabelText( "FaceAnalysis.MosaicMaxImageSize.Label", wMosaicBatchSize );
+    wHedgeRequests = addCheckBox( "FaceAnalysis.HedgeRequests.Label", wMosaicMaxImageSize );
+    wHedgePercentile = addLabelText( "FaceAnalysis.HedgePercentile.Label", wHedgeRequests );
+    wHedgeMaxPercent = addLabelText( "FaceAnalysis.HedgeMaxPercent.Label", wHedgePercentile );
+    wConnectionTimeout = addLabelText( "FaceAnalysis.ConnectionTimeout.Label", wHedgeMaxPercent );
+    wRequestTimeout = addLabelText( "FaceAnalysis.RequestTimeout.Label", wConnectionTimeout );
+    wAdaptiveTimeouts = addCheckBox( "FaceAnalysis.AdaptiveTimeouts.Label", wRequestTimeout );
+    wCircuitBreaker = addCheckBox( "FaceAnalysis.CircuitBreaker.Label", wAdaptiveTimeouts );
+    wCircuitFailurePercent = addLabelText( "FaceAnalysis.CircuitFailurePercent.Label", wCircuitBreaker );
+    wCircuitCoolDown = addLabelText( "FaceAnalysis.CircuitCoolDown.Label", wCircuitFailurePercent );
+    wRegions = addLabelText( "FaceAnalysis.Regions.Label", wCircuitCoolDown );
+    wSamplingMode = addLabelText( "FaceAnalysis.SamplingMode.Label", wRegions );
+    wSampleRate = addLabelText( "FaceAnalysis.SampleRate.Label", wSamplingMode );
+    wSampleSize = addLabelText( "FaceAnalysis.SampleSize.Label", wSampleRate );
+    wSampleStrataDepth = addLabelText( "FaceAnalysis.SampleStrataDepth.Label", wSampleSize );
+    wSamplingSeed = addLabelText( "FaceAnalysis.SamplingSeed.Label", wSampleStrataDepth );
+    wSummaryLevel = addLabelText( "FaceAnalysis.SummaryLevel.Label", wSamplingSeed );
+    wSummaryPrefixDepth = addLabelText( "FaceAnalysis.SummaryPrefixDepth.Label", wSummaryLevel );
+    wSummaryOnly = addCheckBox( "FaceAnalysis.SummaryOnly.Label", wSummaryPrefixDepth );
+    wJournalMode = addLabelText( "FaceAnalysis.JournalMode.Label", wSummaryOnly );
+    wJournalDirectory = addLabelText( "FaceAnalysis.JournalDirectory.Label", wJournalMode );
+    wOutputFileFormat = addLabelText( "FaceAnalysis.OutputFileFormat.Label", wJournalDirectory );
+    wOutputFileDirectory = addLabelText( "FaceAnalysis.OutputFileDirectory.Label", wOutputFileFormat );
+    wOutputFileCompress = addCheckBox( "FaceAnalysis.OutputFileCompress.Label", wOutputFileDirectory );
+    wOutputFileRollSize = addLabelText( "FaceAnalysis.OutputFileRollSize.Label", wOutputFileCompress );
+    wWriteSidecars = addCheckBox( "FaceAnalysis.WriteSidecars.Label", wOutputFileRollSize );
+    wSidecarCache = addCheckBox( "FaceAnalysis.SidecarCache.Label", wWriteSidecars );
+    wSidecarPrefix = addLabelText( "FaceAnalysis.SidecarPrefix.Label", wSidecarCache );
+    wSidecarSuffix = addLabelText( "FaceAnalysis.SidecarSuffix.Label", wSidecarPrefix );
+    wLeaseCoordination = addCheckBox( "FaceAnalysis.LeaseCoordination.Label", wSidecarSuffix );
+    wLeaseLocation = addLabelText( "FaceAnalysis.LeaseLocation.Label", wLeaseCoordination );
+    wLeaseDuration = addLabelText( "FaceAnalysis.LeaseDuration.Label", wLeaseLocation );
+    wLeaseRanges = addLabelText( "FaceAnalysis.LeaseRanges.Label", wLeaseDuration );
+    wLocalDetection = addLabelText( "FaceAnalysis.LocalDetection.Label", wLeaseRanges );
+    wLocalCascadeFile = addLabelText( "FaceAnalysis.LocalCascadeFile.Label", wLocalDetection );
+    wLocalMinNeighbors = addLabelText( "FaceAnalysis.LocalMinNeighbors.Label", wLocalCascadeFile );
+    wFaceClustering = addCheckBox( "FaceAnalysis.FaceClustering.Label", wLocalMinNeighbors );
+    wClusterCollection = addLabelText( "FaceAnalysis.ClusterCollection.Label", wFaceClustering );
+    wClusterMatchThreshold = addLabelText( "FaceAnalysis.ClusterMatchThreshold.Label", wClusterCollection );
+    wClusterCacheFile = addLabelText( "FaceAnalysis.ClusterCacheFile.Label", wClusterMatchThreshold );
+    wWatchMode = addLabelText( "FaceAnalysis.WatchMode.Label", wClusterCacheFile );
+    wWatchQueue = addLabelText( "FaceAnalysis.WatchQueue.Label", wWatchMode );
+    wWatchInterval = addLabelText( "FaceAnalysis.WatchInterval.Label", wWatchQueue );
+    wWatchBatchSize = addLabelText( "FaceAnalysis.WatchBatchSize.Label", wWatchInterval );
+    wMinImageSize = addLabelText( "FaceAnalysis.MinImageSize.Label", wWatchBatchSize );
+    wBucketSources = addLabelText( "FaceAnalysis.BucketSources.Label", wMinImageSize );
+    wOrderingPolicy = addLabelText( "FaceAnalysis.OrderingPolicy.Label", wBucketSources );
+    wOrderingWindow = addLabelText( "FaceAnalysis.OrderingWindow.Label", wOrderingPolicy );
+    wOrderingPrefixDepth = addLabelText( "FaceAnalysis.OrderingPrefixDepth.Label", wOrderingWindow );
+    wFaceGeometry = addCheckBox( "FaceAnalysis.FaceGeometry.Label", wOrderingPrefixDepth );
+    wMinFaceSize = addLabelText( "FaceAnalysis.MinFaceSize.Label", wFaceGeometry );
+    wMinFaceSharpness = addLabelText( "FaceAnalysis.MinFaceSharpness.Label", wMinFaceSize );
+    wMinFaceBrightness = addLabelText( "FaceAnalysis.MinFaceBrightness.Label", wMinFaceSharpness );
+    wDryRun = addCheckBox( "FaceAnalysis.DryRun.Label", wMinFaceBrightness );
+    wCalibrationSize = addLabelText( "FaceAnalysis.CalibrationSize.Label", wDryRun );
+
+    wSettings.pack();
+    wScroll.setContent( wSettings );
+    wScroll.setExpandHorizontal( true );
+    wScroll.setExpandVertical( true );
+    wScroll.setMinSize( wSettings.computeSize( SWT.DEFAULT, SWT.DEFAULT ) );
 
     // Add listeners for cancel and OK
     lsCancel = new Listener() {
@@ -200,6 +377,65 @@ public class FaceAnalysisDialog extends BaseStepDialog implements StepDialogInte
     };
     wStepname.addSelectionListener( lsDef );
     wS3BucketName.addSelectionListener( lsDef );
+    wAnalysisTypes.addSelectionListener( lsDef );
+    wWorkerThreads.addSelectionListener( lsDef );
+    wSourceMode.addSelectionListener( lsDef );
+    wInventoryManifest.addSelectionListener( lsDef );
+    wWatermarkType.addSelectionListener( lsDef );
+    wWatermarkLocation.addSelectionListener( lsDef );
+    wListingThreads.addSelectionListener( lsDef );
+    wDuplicateCacheSize.addSelectionListener( lsDef );
+    wDuplicateIndexDirectory.addSelectionListener( lsDef );
+    wNearDuplicateDistance.addSelectionListener( lsDef );
+    wNearDuplicateWindow.addSelectionListener( lsDef );
+    wMosaicColumns.addSelectionListener( lsDef );
+    wMosaicRows.addSelectionListener( lsDef );
+    wMosaicTileSize.addSelectionListener( lsDef );
+    wMosaicBatchSize.addSelectionListener( lsDef );
+    wMosaicMaxImageSize.addSelectionListener( lsDef );
+    wHedgePercentile.addSelectionListener( lsDef );
+    wHedgeMaxPercent.addSelectionListener( lsDef );
+    wConnectionTimeout.addSelectionListener( lsDef );
+    wRequestTimeout.addSelectionListener( lsDef );
+    wCircuitFailurePercent.addSelectionListener( lsDef );
+    wCircuitCoolDown.addSelectionListener( lsDef );
+    wRegions.addSelectionListener( lsDef );
+    wSamplingMode.addSelectionListener( lsDef );
+    wSampleRate.addSelectionListener( lsDef );
+    wSampleSize.addSelectionListener( lsDef );
+    wSampleStrataDepth.addSelectionListener( lsDef );
+    wSamplingSeed.addSelectionListener( lsDef );
+    wSummaryLevel.addSelectionListener( lsDef );
+    wSummaryPrefixDepth.addSelectionListener( lsDef );
+    wJournalMode.addSelectionListener( lsDef );
+    wJournalDirectory.addSelectionListener( lsDef );
+    wOutputFileFormat.addSelectionListener( lsDef );
+    wOutputFileDirectory.addSelectionListener( lsDef );
+    wOutputFileRollSize.addSelectionListener( lsDef );
+    wSidecarPrefix.addSelectionListener( lsDef );
+    wSidecarSuffix.addSelectionListener( lsDef );
+    wLeaseLocation.addSelectionListener( lsDef );
+    wLeaseDuration.addSelectionListener( lsDef );
+    wLeaseRanges.addSelectionListener( lsDef );
+    wLocalDetection.addSelectionListener( lsDef );
+    wLocalCascadeFile.addSelectionListener( lsDef );
+    wLocalMinNeighbors.addSelectionListener( lsDef );
+    wClusterCollection.addSelectionListener( lsDef );
+    wClusterMatchThreshold.addSelectionListener( lsDef );
+    wClusterCacheFile.addSelectionListener( lsDef );
+    wWatchMode.addSelectionListener( lsDef );
+    wWatchQueue.addSelectionListener( lsDef );
+    wWatchInterval.addSelectionListener( lsDef );
+    wWatchBatchSize.addSelectionListener( lsDef );
+    wMinImageSize.addSelectionListener( lsDef );
+    wBucketSources.addSelectionListener( lsDef );
+    wOrderingPolicy.addSelectionListener( lsDef );
+    wOrderingWindow.addSelectionListener( lsDef );
+    wOrderingPrefixDepth.addSelectionListener( lsDef );
+    wMinFaceSize.addSelectionListener( lsDef );
+    wMinFaceSharpness.addSelectionListener( lsDef );
+    wMinFaceBrightness.addSelectionListener( lsDef );
+    wCalibrationSize.addSelectionListener( lsDef );
 
     // Detect X or ALT-F4 or something that kills this window and cancel the dialog properly
     shell.addShellListener( new ShellAdapter() {
@@ -231,13 +467,118 @@ public class FaceAnalysisDialog extends BaseStepDialog implements StepDialogInte
     return stepname;
   }
 
+  /**
+   * Adds a labeled text field to the settings area, below the given control.
+   */
+  private LabelText addLabelText( String labelKey, Control previous ) {
+    LabelText text = new LabelText( wSettings, BaseMessages.getString( PKG, labelKey ), null );
+    props.setLook( text );
+    text.addModifyListener( lsMod );
+    FormData fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.right = new FormAttachment( 100, 0 );
+    fd.top = previous == null ? new FormAttachment( 0, Const.MARGIN ) : new FormAttachment( previous, Const.MARGIN );
+    text.setLayoutData( fd );
+    return text;
+  }
+
+  /**
+   * Adds a check box to the settings area, below the given control.
+   */
+  private Button addCheckBox( String labelKey, Control previous ) {
+    Button button = new Button( wSettings, SWT.CHECK );
+    button.setText( BaseMessages.getString( PKG, labelKey ) );
+    props.setLook( button );
+    button.addSelectionListener( lsSelMod );
+    FormData fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.right = new FormAttachment( 100, 0 );
+    fd.top = new FormAttachment( previous, Const.MARGIN );
+    button.setLayoutData( fd );
+    return button;
+  }
+
   /**
    * This helper method puts the step configuration stored in the meta object
    * and puts it into the dialog controls.
    */
   private void populateDialog() {
     wStepname.selectAll();
-    wS3BucketName.setText( meta.getS3BucketName() );
+    wS3BucketName.setText( Const.NVL( meta.getS3BucketName(), "" ) );
+    wAnalysisTypes.setText( Const.NVL( meta.getAnalysisTypes(), "" ) );
+    wWorkerThreads.setText( Const.NVL( meta.getWorkerThreads(), "" ) );
+    wIncludeImageMetadata.setSelection( meta.isIncludeImageMetadata() );
+    wSourceMode.setText( Const.NVL( meta.getSourceMode(), "" ) );
+    wInventoryManifest.setText( Const.NVL( meta.getInventoryManifest(), "" ) );
+    wWatermarkType.setText( Const.NVL( meta.getWatermarkType(), "" ) );
+    wWatermarkLocation.setText( Const.NVL( meta.getWatermarkLocation(), "" ) );
+    wListingThreads.setText( Const.NVL( meta.getListingThreads(), "" ) );
+    wDuplicateSuppression.setSelection( meta.isDuplicateSuppression() );
+    wDuplicateCacheSize.setText( Const.NVL( meta.getDuplicateCacheSize(), "" ) );
+    wDuplicateIndexDirectory.setText( Const.NVL( meta.getDuplicateIndexDirectory(), "" ) );
+    wSendImageBytes.setSelection( meta.isSendImageBytes() );
+    wNearDuplicateDistance.setText( Const.NVL( meta.getNearDuplicateDistance(), "" ) );
+    wNearDuplicateWindow.setText( Const.NVL( meta.getNearDuplicateWindow(), "" ) );
+    wMosaicBatching.setSelection( meta.isMosaicBatching() );
+    wMosaicColumns.setText( Const.NVL( meta.getMosaicColumns(), "" ) );
+    wMosaicRows.setText( Const.NVL( meta.getMosaicRows(), "" ) );
+    wMosaicTileSize.setText( Const.NVL( meta.getMosaicTileSize(), "" ) );
+    wMosaicBatchSize.setText( Const.NVL( meta.getMosaicBatchSize(), "" ) );
+    wMosaicMaxImageSize.setText( Const.NVL( meta.getMosaicMaxImageSize(), "" ) );
+    wHedgeRequests.setSelection( meta.isHedgeRequests() );
+    wHedgePercentile.setText( Const.NVL( meta.getHedgePercentile(), "" ) );
+    wHedgeMaxPercent.setText( Const.NVL( meta.getHedgeMaxPercent(), "" ) );
+    wConnectionTimeout.setText( Const.NVL( meta.getConnectionTimeout(), "" ) );
+    wRequestTimeout.setText( Const.NVL( meta.getRequestTimeout(), "" ) );
+    wAdaptiveTimeouts.setSelection( meta.isAdaptiveTimeouts() );
+    wCircuitBreaker.setSelection( meta.isCircuitBreaker() );
+    wCircuitFailurePercent.setText( Const.NVL( meta.getCircuitFailurePercent(), "" ) );
+    wCircuitCoolDown.setText( Const.NVL( meta.getCircuitCoolDown(), "" ) );
+    wRegions.setText( Const.NVL( meta.getRegions(), "" ) );
+    wSamplingMode.setText( Const.NVL( meta.getSamplingMode(), "" ) );
+    wSampleRate.setText( Const.NVL( meta.getSampleRate(), "" ) );
+    wSampleSize.setText( Const.NVL( meta.getSampleSize(), "" ) );
+    wSampleStrataDepth.setText( Const.NVL( meta.getSampleStrataDepth(), "" ) );
+    wSamplingSeed.setText( Const.NVL( meta.getSamplingSeed(), "" ) );
+    wSummaryLevel.setText( Const.NVL( meta.getSummaryLevel(), "" ) );
+    wSummaryPrefixDepth.setText( Const.NVL( meta.getSummaryPrefixDepth(), "" ) );
+    wSummaryOnly.setSelection( meta.isSummaryOnly() );
+    wJournalMode.setText( Const.NVL( meta.getJournalMode(), "" ) );
+    wJournalDirectory.setText( Const.NVL( meta.getJournalDirectory(), "" ) );
+    wOutputFileFormat.setText( Const.NVL( meta.getOutputFileFormat(), "" ) );
+    wOutputFileDirectory.setText( Const.NVL( meta.getOutputFileDirectory(), "" ) );
+    wOutputFileCompress.setSelection( meta.isOutputFileCompress() );
+    wOutputFileRollSize.setText( Const.NVL( meta.getOutputFileRollSize(), "" ) );
+    wWriteSidecars.setSelection( meta.isWriteSidecars() );
+    wSidecarCache.setSelection( meta.isSidecarCache() );
+    wSidecarPrefix.setText( Const.NVL( meta.getSidecarPrefix(), "" ) );
+    wSidecarSuffix.setText( Const.NVL( meta.getSidecarSuffix(), "" ) );
+    wLeaseCoordination.setSelection( meta.isLeaseCoordination() );
+    wLeaseLocation.setText( Const.NVL( meta.getLeaseLocation(), "" ) );
+    wLeaseDuration.setText( Const.NVL( meta.getLeaseDuration(), "" ) );
+    wLeaseRanges.setText( Const.NVL( meta.getLeaseRanges(), "" ) );
+    wLocalDetection.setText( Const.NVL( meta.getLocalDetection(), "" ) );
+    wLocalCascadeFile.setText( Const.NVL( meta.getLocalCascadeFile(), "" ) );
+    wLocalMinNeighbors.setText( Const.NVL( meta.getLocalMinNeighbors(), "" ) );
+    wFaceClustering.setSelection( meta.isFaceClustering() );
+    wClusterCollection.setText( Const.NVL( meta.getClusterCollection(), "" ) );
+    wClusterMatchThreshold.setText( Const.NVL( meta.getClusterMatchThreshold(), "" ) );
+    wClusterCacheFile.setText( Const.NVL( meta.getClusterCacheFile(), "" ) );
+    wWatchMode.setText( Const.NVL( meta.getWatchMode(), "" ) );
+    wWatchQueue.setText( Const.NVL( meta.getWatchQueue(), "" ) );
+    wWatchInterval.setText( Const.NVL( meta.getWatchInterval(), "" ) );
+    wWatchBatchSize.setText( Const.NVL( meta.getWatchBatchSize(), "" ) );
+    wMinImageSize.setText( Const.NVL( meta.getMinImageSize(), "" ) );
+    wBucketSources.setText( Const.NVL( meta.getBucketSources(), "" ) );
+    wOrderingPolicy.setText( Const.NVL( meta.getOrderingPolicy(), "" ) );
+    wOrderingWindow.setText( Const.NVL( meta.getOrderingWindow(), "" ) );
+    wOrderingPrefixDepth.setText( Const.NVL( meta.getOrderingPrefixDepth(), "" ) );
+    wFaceGeometry.setSelection( meta.isFaceGeometry() );
+    wMinFaceSize.setText( Const.NVL( meta.getMinFaceSize(), "" ) );
+    wMinFaceSharpness.setText( Const.NVL( meta.getMinFaceSharpness(), "" ) );
+    wMinFaceBrightness.setText( Const.NVL( meta.getMinFaceBrightness(), "" ) );
+    wDryRun.setSelection( meta.isDryRun() );
+    wCalibrationSize.setText( Const.NVL( meta.getCalibrationSize(), "" ) );
   }
 
   /**
@@ -262,6 +603,80 @@ public class FaceAnalysisDialog extends BaseStepDialog implements StepDialogInte
     stepname = wStepname.getText();
     // Setting the  settings to the meta object
     meta.setS3BucketName( wS3BucketName.getText() );
+    meta.setAnalysisTypes( wAnalysisTypes.getText() );
+    meta.setWorkerThreads( wWorkerThreads.getText() );
+    meta.setIncludeImageMetadata( wIncludeImageMetadata.getSelection() );
+    meta.setSourceMode( wSourceMode.getText() );
+    meta.setInventoryManifest( wInventoryManifest.getText() );
+    meta.setWatermarkType( wWatermarkType.getText() );
+    meta.setWatermarkLocation( wWatermarkLocation.getText() );
+    meta.setListingThreads( wListingThreads.getText() );
+    meta.setDuplicateSuppression( wDuplicateSuppression.getSelection() );
+    meta.setDuplicateCacheSize( wDuplicateCacheSize.getText() );
+    meta.setDuplicateIndexDirectory( wDuplicateIndexDirectory.getText() );
+    meta.setSendImageBytes( wSendImageBytes.getSelection() );
+    meta.setNearDuplicateDistance( wNearDuplicateDistance.getText() );
+    meta.setNearDuplicateWindow( wNearDuplicateWindow.getText() );
+    meta.setMosaicBatching( wMosaicBatching.getSelection() );
+    meta.setMosaicColumns( wMosaicColumns.getText() );
+    meta.setMosaicRows( wMosaicRows.getText() );
+    meta.setMosaicTileSize( wMosaicTileSize.getText() );
+    meta.setMosaicBatchSize( wMosaicBatchSize.getText() );
+    meta.setMosaicMaxImageSize( wMosaicMaxImageSize.getText() );
+    meta.setHedgeRequests( wHedgeRequests.getSelection() );
+    meta.setHedgePercentile( wHedgePercentile.getText() );
+    meta.setHedgeMaxPercent( wHedgeMaxPercent.getText() );
+    meta.setConnectionTimeout( wConnectionTimeout.getText() );
+    meta.setRequestTimeout( wRequestTimeout.getText() );
+    meta.setAdaptiveTimeouts( wAdaptiveTimeouts.getSelection() );
+    meta.setCircuitBreaker( wCircuitBreaker.getSelection() );
+    meta.setCircuitFailurePercent( wCircuitFailurePercent.getText() );
+    meta.setCircuitCoolDown( wCircuitCoolDown.getText() );
+    meta.setRegions( wRegions.getText() );
+    meta.setSamplingMode( wSamplingMode.getText() );
+    meta.setSampleRate( wSampleRate.getText() );
+    meta.setSampleSize( wSampleSize.getText() );
+    meta.setSampleStrataDepth( wSampleStrataDepth.getText() );
+    meta.setSamplingSeed( wSamplingSeed.getText() );
+    meta.setSummaryLevel( wSummaryLevel.getText() );
+    meta.setSummaryPrefixDepth( wSummaryPrefixDepth.getText() );
+    meta.setSummaryOnly( wSummaryOnly.getSelection() );
+    meta.setJournalMode( wJournalMode.getText() );
+    meta.setJournalDirectory( wJournalDirectory.getText() );
+    meta.setOutputFileFormat( wOutputFileFormat.getText() );
+    meta.setOutputFileDirectory( wOutputFileDirectory.getText() );
+    meta.setOutputFileCompress( wOutputFileCompress.getSelection() );
+    meta.setOutputFileRollSize( wOutputFileRollSize.getText() );
+    meta.setWriteSidecars( wWriteSidecars.getSelection() );
+    meta.setSidecarCache( wSidecarCache.getSelection() );
+    meta.setSidecarPrefix( wSidecarPrefix.getText() );
+    meta.setSidecarSuffix( wSidecarSuffix.getText() );
+    meta.setLeaseCoordination( wLeaseCoordination.getSelection() );
+    meta.setLeaseLocation( wLeaseLocation.getText() );
+    meta.setLeaseDuration( wLeaseDuration.getText() );
+    meta.setLeaseRanges( wLeaseRanges.getText() );
+    meta.setLocalDetection( wLocalDetection.getText() );
+    meta.setLocalCascadeFile( wLocalCascadeFile.getText() );
+    meta.setLocalMinNeighbors( wLocalMinNeighbors.getText() );
+    meta.setFaceClustering( wFaceClustering.getSelection() );
+    meta.setClusterCollection( wClusterCollection.getText() );
+    meta.setClusterMatchThreshold( wClusterMatchThreshold.getText() );
+    meta.setClusterCacheFile( wClusterCacheFile.getText() );
+    meta.setWatchMode( wWatchMode.getText() );
+    meta.setWatchQueue( wWatchQueue.getText() );
+    meta.setWatchInterval( wWatchInterval.getText() );
+    meta.setWatchBatchSize( wWatchBatchSize.getText() );
+    meta.setMinImageSize( wMinImageSize.getText() );
+    meta.setBucketSources( wBucketSources.getText() );
+    meta.setOrderingPolicy( wOrderingPolicy.getText() );
+    meta.setOrderingWindow( wOrderingWindow.getText() );
+    meta.setOrderingPrefixDepth( wOrderingPrefixDepth.getText() );
+    meta.setFaceGeometry( wFaceGeometry.getSelection() );
+    meta.setMinFaceSize( wMinFaceSize.getText() );
+    meta.setMinFaceSharpness( wMinFaceSharpness.getText() );
+    meta.setMinFaceBrightness( wMinFaceBrightness.getText() );
+    meta.setDryRun( wDryRun.getSelection() );
+    meta.setCalibrationSize( wCalibrationSize.getText() );
     // close the SWT dialog window
     dispose();
   }
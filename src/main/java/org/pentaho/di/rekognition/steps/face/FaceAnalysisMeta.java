@@ -39,6 +39,9 @@ import org.pentaho.di.core.injection.Injection;
 import org.pentaho.di.core.injection.InjectionSupported;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.core.variables.VariableSpace;
@@ -104,6 +107,68 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
   public static final String FIELD_VALUE = "Value";
   public static final String FIELD_CONFIDENCE = "Confidence";
 
+  // optional image metadata fields, shared by the rows of every analysis
+  public static final String FIELD_IMAGE_BUCKET = "ImageBucket";
+  public static final String FIELD_IMAGE_SIZE = "ImageSize";
+  public static final String FIELD_IMAGE_ETAG = "ImageETag";
+  public static final String FIELD_IMAGE_LAST_MODIFIED = "ImageLastModified";
+
+  // added when sampling: fraction of the image's stratum that is analyzed
+  public static final String FIELD_SAMPLE_RATE = "SampleRate";
+
+  // added with summary rows, filled on the IMAGE_SUMMARY and PREFIX_SUMMARY rows only
+  public static final String FIELD_IMAGE_COUNT = "ImageCount";
+  public static final String FIELD_FACE_COUNT = "FaceCount";
+  public static final String FIELD_MALE_FACES = "MaleFaces";
+  public static final String FIELD_FEMALE_FACES = "FemaleFaces";
+  public static final String FIELD_SMILING_FACES = "SmilingFaces";
+  public static final String FIELD_MEAN_AGE = "MeanAge";
+  public static final String FIELD_DOMINANT_EMOTION = "DominantEmotion";
+
+  // added when faces are clustered: the person the face was matched to, on the rows of that face
+  public static final String FIELD_PERSON_CLUSTER = "PersonCluster";
+
+  // added when several buckets or prefixes are listed: the one the image came from
+  public static final String FIELD_SOURCE = "Source";
+
+  // added with face geometry, filled on the GEOMETRY row of each face (see FaceGeometry)
+  public static final String FIELD_FACE_LEFT = "FaceLeft";
+  public static final String FIELD_FACE_TOP = "FaceTop";
+  public static final String FIELD_FACE_WIDTH = "FaceWidth";
+  public static final String FIELD_FACE_HEIGHT = "FaceHeight";
+  public static final String FIELD_FACE_PITCH = "FacePitch";
+  public static final String FIELD_FACE_ROLL = "FaceRoll";
+  public static final String FIELD_FACE_YAW = "FaceYaw";
+  public static final String FIELD_FACE_BRIGHTNESS = "FaceBrightness";
+  public static final String FIELD_FACE_SHARPNESS = "FaceSharpness";
+  public static final String FIELD_FACE_LANDMARKS = "FaceLandmarks";
+
+  public static final String DEFAULT_WORKER_THREADS = "4";
+  public static final int DEFAULT_DUPLICATE_CACHE_SIZE = 100000;
+  public static final int DEFAULT_NEAR_DUPLICATE_WINDOW = 1000;
+  public static final int DEFAULT_MOSAIC_COLUMNS = 4;
+  public static final int DEFAULT_MOSAIC_ROWS = 4;
+  public static final int DEFAULT_MOSAIC_TILE_SIZE = 320;
+  public static final int DEFAULT_MOSAIC_MAX_IMAGE_SIZE = 256 * 1024;
+  public static final String DEFAULT_HEDGE_PERCENTILE = "95";
+  public static final String DEFAULT_HEDGE_MAX_PERCENT = "5";
+  public static final String DEFAULT_REGIONS = "us-east-1";
+  public static final String DEFAULT_SAMPLE_RATE = "0.01";
+  public static final int DEFAULT_SAMPLE_SIZE = 1000;
+  public static final int DEFAULT_CONNECTION_TIMEOUT = 30000;
+  public static final int DEFAULT_REQUEST_TIMEOUT = 60000;
+  public static final int DEFAULT_CIRCUIT_FAILURE_PERCENT = 50;
+  public static final int DEFAULT_CIRCUIT_COOL_DOWN = 30000;
+  public static final int DEFAULT_OUTPUT_FILE_ROLL_SIZE = 256;
+  public static final String DEFAULT_SIDECAR_SUFFIX = ".faces.json";
+  public static final int DEFAULT_LEASE_DURATION = 60000;
+  public static final int DEFAULT_LEASE_RANGES = 64;
+  public static final int DEFAULT_LOCAL_MIN_NEIGHBORS = 3;
+  public static final int DEFAULT_CLUSTER_MATCH_THRESHOLD = 90;
+  public static final long DEFAULT_WATCH_INTERVAL = 20000L;
+  public static final int DEFAULT_WATCH_BATCH_SIZE = 10;
+  public static final int DEFAULT_ORDERING_WINDOW = 10000;
+  public static final int DEFAULT_CALIBRATION_SIZE = 20;
 
   /**
    * Stores the name of the field added to the row-stream. 
@@ -111,72 +176,1211 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
   @Injection( name = "S3_BUCKET_NAME" )
   private String s3BucketName;
 
-  /**
-   * Constructor should call super() to make sure the base class has a chance to initialize properly.
-   */
-  public FaceAnalysisMeta() {
-    super();
+  /**
+   * Comma separated list of the Rekognition analyses to run on each image (see AnalysisType), may contain
+   * variables.
+   */
+  @Injection( name = "ANALYSIS_TYPES" )
+  private String analysisTypes;
+
+  /**
+   * Number of worker threads calling Rekognition, may contain variables.
+   */
+  @Injection( name = "WORKER_THREADS" )
+  private String workerThreads;
+
+  /**
+   * Whether to add the image bucket, size, ETag and last modified date to every output row.
+   */
+  @Injection( name = "INCLUDE_IMAGE_METADATA" )
+  private boolean includeImageMetadata;
+
+  /**
+   * Where the images come from, see SourceMode.
+   */
+  @Injection( name = "SOURCE_MODE" )
+  private String sourceMode;
+
+  /**
+   * Location of the S3 Inventory manifest.json (s3://bucket/key or local file) for the INVENTORY source mode.
+   */
+  @Injection( name = "INVENTORY_MANIFEST" )
+  private String inventoryManifest;
+
+  /**
+   * Where the LastModified watermark of the previous run is kept: NONE, FILE or VARIABLE.
+   */
+  @Injection( name = "WATERMARK_TYPE" )
+  private String watermarkType;
+
+  /**
+   * Watermark file path or variable name, depending on the watermark type.
+   */
+  @Injection( name = "WATERMARK_LOCATION" )
+  private String watermarkLocation;
+
+  /**
+   * Number of concurrent ListObjectsV2 chains used to list the bucket, 1 lists sequentially.
+   * May contain variables.
+   */
+  @Injection( name = "LISTING_THREADS" )
+  private String listingThreads;
+
+  /**
+   * Whether images with the same content (ETag and size) as an already analyzed image reuse its result.
+   */
+  @Injection( name = "DUPLICATE_SUPPRESSION" )
+  private boolean duplicateSuppression;
+
+  /**
+   * Maximum number of results kept in memory for duplicate suppression, may contain variables.
+   */
+  @Injection( name = "DUPLICATE_CACHE_SIZE" )
+  private String duplicateCacheSize;
+
+  /**
+   * Optional directory keeping the duplicate index on disk, so it outgrows memory and is reused by later runs.
+   */
+  @Injection( name = "DUPLICATE_INDEX_DIRECTORY" )
+  private String duplicateIndexDirectory;
+
+  /**
+   * Whether the workers download each image and send its bytes to Rekognition (byte mode), instead of
+   * letting Rekognition read the object from S3.
+   */
+  @Injection( name = "SEND_IMAGE_BYTES" )
+  private boolean sendImageBytes;
+
+  /**
+   * Maximum Hamming distance between the perceptual hashes of two images considered near-identical,
+   * empty to disable near-duplicate skipping. May contain variables.
+   */
+  @Injection( name = "NEAR_DUPLICATE_DISTANCE" )
+  private String nearDuplicateDistance;
+
+  /**
+   * Number of recently analyzed image hashes compared against, may contain variables.
+   */
+  @Injection( name = "NEAR_DUPLICATE_WINDOW" )
+  private String nearDuplicateWindow;
+
+  /**
+   * Whether small images are tiled into composite images, analyzing several of them with one DetectFaces call.
+   * Only used when face analysis is the only selected analysis.
+   */
+  @Injection( name = "MOSAIC_BATCHING" )
+  private boolean mosaicBatching;
+
+  /**
+   * Number of tile columns of a mosaic, may contain variables.
+   */
+  @Injection( name = "MOSAIC_COLUMNS" )
+  private String mosaicColumns;
+
+  /**
+   * Number of tile rows of a mosaic, may contain variables.
+   */
+  @Injection( name = "MOSAIC_ROWS" )
+  private String mosaicRows;
+
+  /**
+   * Size in pixels of a square mosaic tile, may contain variables.
+   */
+  @Injection( name = "MOSAIC_TILE_SIZE" )
+  private String mosaicTileSize;
+
+  /**
+   * Maximum number of images per mosaic (at most columns x rows), empty for a full grid. May contain variables.
+   */
+  @Injection( name = "MOSAIC_BATCH_SIZE" )
+  private String mosaicBatchSize;
+
+  /**
+   * Largest object size in bytes that is batched into mosaics, may contain variables.
+   */
+  @Injection( name = "MOSAIC_MAX_IMAGE_SIZE" )
+  private String mosaicMaxImageSize;
+
+  /**
+   * Whether slow Rekognition calls are hedged: a duplicate request is sent once a call takes longer than
+   * the configured latency percentile, the first response wins.
+   */
+  @Injection( name = "HEDGE_REQUESTS" )
+  private boolean hedgeRequests;
+
+  /**
+   * Percentile (0-100) of the observed latency after which a call is hedged, may contain variables.
+   */
+  @Injection( name = "HEDGE_PERCENTILE" )
+  private String hedgePercentile;
+
+  /**
+   * Maximum number of hedged requests, as a percentage of the recent calls. May contain variables.
+   */
+  @Injection( name = "HEDGE_MAX_PERCENT" )
+  private String hedgeMaxPercent;
+
+  /**
+   * Rekognition connection timeout in milliseconds, may contain variables.
+   */
+  @Injection( name = "CONNECTION_TIMEOUT" )
+  private String connectionTimeout;
+
+  /**
+   * Rekognition request timeout in milliseconds, the upper bound of adaptive timeouts. May contain variables.
+   */
+  @Injection( name = "REQUEST_TIMEOUT" )
+  private String requestTimeout;
+
+  /**
+   * Whether each request timeout is derived from the recently observed latencies, up to the request timeout.
+   */
+  @Injection( name = "ADAPTIVE_TIMEOUTS" )
+  private boolean adaptiveTimeouts;
+
+  /**
+   * Whether Rekognition calls are paused for a cool-down when too many recent calls failed.
+   */
+  @Injection( name = "CIRCUIT_BREAKER" )
+  private boolean circuitBreaker;
+
+  /**
+   * Percentage of failed recent calls opening the circuit breaker, may contain variables.
+   */
+  @Injection( name = "CIRCUIT_FAILURE_PERCENT" )
+  private String circuitFailurePercent;
+
+  /**
+   * How long calls are paused once the circuit breaker opens, in milliseconds. May contain variables.
+   */
+  @Injection( name = "CIRCUIT_COOL_DOWN" )
+  private String circuitCoolDown;
+
+  /**
+   * Comma separated Rekognition regions calls are spread over, each as region[=endpoint][@requestsPerSecond].
+   * The first one is the home region, also used for S3. May contain variables.
+   */
+  @Injection( name = "REGIONS" )
+  private String regions;
+
+  /**
+   * Sampling of the listed images: NONE, RATE (each image picked with the sample rate) or SIZE
+   * (a fixed number of images per stratum). May contain variables.
+   */
+  @Injection( name = "SAMPLING_MODE" )
+  private String samplingMode;
+
+  /**
+   * Fraction (0-1) of the images analyzed in RATE sampling mode, may contain variables.
+   */
+  @Injection( name = "SAMPLE_RATE" )
+  private String sampleRate;
+
+  /**
+   * Number of images analyzed per stratum in SIZE sampling mode, may contain variables.
+   */
+  @Injection( name = "SAMPLE_SIZE" )
+  private String sampleSize;
+
+  /**
+   * Number of leading key folders defining the sampling strata, 0 for one stratum per bucket. May contain variables.
+   */
+  @Injection( name = "SAMPLE_STRATA_DEPTH" )
+  private String sampleStrataDepth;
+
+  /**
+   * Seed of the sampling, the same seed picks the same images. May contain variables.
+   */
+  @Injection( name = "SAMPLING_SEED" )
+  private String samplingSeed;
+
+  /**
+   * Summary rows computed inside the step: NONE, IMAGE (one row per image) or PREFIX (one row per key prefix).
+   * May contain variables.
+   */
+  @Injection( name = "SUMMARY_LEVEL" )
+  private String summaryLevel;
+
+  /**
+   * Number of leading key folders of the PREFIX summaries, may contain variables.
+   */
+  @Injection( name = "SUMMARY_PREFIX_DEPTH" )
+  private String summaryPrefixDepth;
+
+  /**
+   * Whether only the summary rows are emitted, without the property rows.
+   */
+  @Injection( name = "SUMMARY_ONLY" )
+  private boolean summaryOnly;
+
+  /**
+   * What the step does with the result journal: NONE, WRITE (record every analysis result) or REPLAY
+   * (emit the rows from the journal instead of calling Rekognition). May contain variables.
+   */
+  @Injection( name = "JOURNAL_MODE" )
+  private String journalMode;
+
+  /**
+   * Directory of the result journal segments, may contain variables.
+   */
+  @Injection( name = "JOURNAL_DIRECTORY" )
+  private String journalDirectory;
+
+  /**
+   * Format of the result files written by the step itself instead of emitting the result rows: NONE, CSV or
+   * JSON (JSON Lines). May contain variables.
+   */
+  @Injection( name = "OUTPUT_FILE_FORMAT" )
+  private String outputFileFormat;
+
+  /**
+   * Directory of the result files, may contain variables.
+   */
+  @Injection( name = "OUTPUT_FILE_DIRECTORY" )
+  private String outputFileDirectory;
+
+  /**
+   * Whether the result files are gzip compressed.
+   */
+  @Injection( name = "OUTPUT_FILE_COMPRESS" )
+  private boolean outputFileCompress;
+
+  /**
+   * Size in MB after which a new result file is started, 0 for a single file. May contain variables.
+   */
+  @Injection( name = "OUTPUT_FILE_ROLL_SIZE" )
+  private String outputFileRollSize;
+
+  /**
+   * Whether the result of each image is written back to S3 as a JSON sidecar object next to the image.
+   */
+  @Injection( name = "WRITE_SIDECARS" )
+  private boolean writeSidecars;
+
+  /**
+   * Whether an up to date sidecar is used instead of analyzing the image again.
+   */
+  @Injection( name = "SIDECAR_CACHE" )
+  private boolean sidecarCache;
+
+  /**
+   * Key prefix of the sidecar objects, prepended to the image key. May contain variables.
+   */
+  @Injection( name = "SIDECAR_PREFIX" )
+  private String sidecarPrefix;
+
+  /**
+   * Key suffix of the sidecar objects, appended to the image key. May contain variables.
+   */
+  @Injection( name = "SIDECAR_SUFFIX" )
+  private String sidecarSuffix;
+
+  /**
+   * Whether the bucket is split with other step instances (e.g. on other Carte servers) through leases.
+   */
+  @Injection( name = "LEASE_COORDINATION" )
+  private boolean leaseCoordination;
+
+  /**
+   * Shared directory or s3://bucket/prefix holding the leases, one per backlog run. May contain variables.
+   */
+  @Injection( name = "LEASE_LOCATION" )
+  private String leaseLocation;
+
+  /**
+   * Lease duration in milliseconds, after which the unit of a silent instance is taken over. May contain
+   * variables.
+   */
+  @Injection( name = "LEASE_DURATION" )
+  private String leaseDuration;
+
+  /**
+   * Number of key ranges a bucket without top-level folders is split into, may contain variables.
+   */
+  @Injection( name = "LEASE_RANGES" )
+  private String leaseRanges;
+
+  /**
+   * Client side face detection: NONE, PRESCREEN (skip Rekognition face analysis for images without a local
+   * hit) or OFFLINE (local face boxes only).
+   */
+  @Injection( name = "LOCAL_DETECTION" )
+  private String localDetection;
+
+  /**
+   * OpenCV Haar cascade file used by the local face detector, may contain variables.
+   */
+  @Injection( name = "LOCAL_CASCADE_FILE" )
+  private String localCascadeFile;
+
+  /**
+   * Overlapping detections needed before a local hit counts as a face, may contain variables.
+   */
+  @Injection( name = "LOCAL_MIN_NEIGHBORS" )
+  private String localMinNeighbors;
+
+  /**
+   * Whether faces are indexed into a collection and grouped by person, adding the PersonCluster field.
+   */
+  @Injection( name = "FACE_CLUSTERING" )
+  private boolean faceClustering;
+
+  /**
+   * Rekognition collection the faces are indexed into, created when missing. May contain variables.
+   */
+  @Injection( name = "CLUSTER_COLLECTION" )
+  private String clusterCollection;
+
+  /**
+   * Minimum similarity (0-100) for two faces to belong to the same person, may contain variables.
+   */
+  @Injection( name = "CLUSTER_MATCH_THRESHOLD" )
+  private String clusterMatchThreshold;
+
+  /**
+   * File keeping the face to cluster assignments across runs, empty to keep them in memory. May contain
+   * variables.
+   */
+  @Injection( name = "CLUSTER_CACHE_FILE" )
+  private String clusterCacheFile;
+
+  /**
+   * NONE, QUEUE (S3 event notifications) or POLL (repeated listing), may contain variables.
+   */
+  @Injection( name = "WATCH_MODE" )
+  private String watchMode;
+
+  /**
+   * SQS queue URL receiving the bucket's notifications, or a local directory standing in for it. May
+   * contain variables.
+   */
+  @Injection( name = "WATCH_QUEUE" )
+  private String watchQueue;
+
+  /**
+   * Milliseconds between two listings (POLL) or longest wait for a notification (QUEUE), may contain
+   * variables.
+   */
+  @Injection( name = "WATCH_INTERVAL" )
+  private String watchInterval;
+
+  /**
+   * Most notifications handed to the workers as one micro-batch, may contain variables.
+   */
+  @Injection( name = "WATCH_BATCH_SIZE" )
+  private String watchBatchSize;
+
+  /**
+   * Smallest width and height (pixels) of an image worth analyzing, read from its header with a ranged GET;
+   * 0 analyzes every image. May contain variables.
+   */
+  @Injection( name = "MIN_IMAGE_SIZE" )
+  private String minImageSize;
+
+  /**
+   * Comma separated buckets or key prefixes listed together, as bucket[/prefix][@weight]; replaces the
+   * bucket name when set. May contain variables.
+   */
+  @Injection( name = "BUCKET_SOURCES" )
+  private String bucketSources;
+
+  /**
+   * NONE, NEWEST, SMALLEST or INTERLEAVE: the order in which listed images reach the workers, may contain
+   * variables.
+   */
+  @Injection( name = "ORDERING_POLICY" )
+  private String orderingPolicy;
+
+  /**
+   * Most listed images held back to be reordered, may contain variables.
+   */
+  @Injection( name = "ORDERING_WINDOW" )
+  private String orderingWindow;
+
+  /**
+   * Number of key folders telling the prefixes apart for INTERLEAVE, may contain variables.
+   */
+  @Injection( name = "ORDERING_PREFIX_DEPTH" )
+  private String orderingPrefixDepth;
+
+  /**
+   * Emits one GEOMETRY row per face with typed bounding box, pose and quality fields and the packed
+   * landmarks.
+   */
+  @Injection( name = "FACE_GEOMETRY" )
+  private boolean faceGeometry;
+
+  /**
+   * Smallest width and height of a face's bounding box, as a fraction of the image (0-1); smaller faces
+   * are dropped. May contain variables.
+   */
+  @Injection( name = "MIN_FACE_SIZE" )
+  private String minFaceSize;
+
+  /**
+   * Lowest sharpness (0-100) of a face kept, may contain variables.
+   */
+  @Injection( name = "MIN_FACE_SHARPNESS" )
+  private String minFaceSharpness;
+
+  /**
+   * Lowest brightness (0-100) of a face kept, may contain variables.
+   */
+  @Injection( name = "MIN_FACE_BRIGHTNESS" )
+  private String minFaceBrightness;
+
+  /**
+   * Only lists and filters the images and emits an estimate of the run instead of analyzing them.
+   */
+  @Injection( name = "DRY_RUN" )
+  private boolean dryRun;
+
+  /**
+   * Number of images really analyzed by a dry run to time the Rekognition calls, may contain variables.
+   */
+  @Injection( name = "CALIBRATION_SIZE" )
+  private String calibrationSize;
+
+  /**
+   * Constructor should call super() to make sure the base class has a chance to initialize properly.
+   */
+  public FaceAnalysisMeta() {
+    super();
+  }
+
+  /**
+   * Called by Spoon to get a new instance of the SWT dialog for the step.
+   * A standard implementation passing the arguments to the constructor of the step dialog is recommended.
+   * 
+   * @param shell    an SWT Shell
+   * @param meta     description of the step 
+   * @param transMeta  description of the the transformation 
+   * @param name    the name of the step
+   * @return       new instance of a dialog for this step 
+   */
+  public StepDialogInterface getDialog( Shell shell, StepMetaInterface meta, TransMeta transMeta, String name ) {
+    return new FaceAnalysisDialog( shell, meta, transMeta, name );
+  }
+
+  /**
+   * Called by PDI to get a new instance of the step implementation. 
+   * A standard implementation passing the arguments to the constructor of the step class is recommended.
+   * 
+   * @param stepMeta        description of the step
+   * @param stepDataInterface    instance of a step data class
+   * @param cnr          copy number
+   * @param transMeta        description of the transformation
+   * @param disp          runtime implementation of the transformation
+   * @return            the new instance of a step implementation 
+   */
+  public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
+      Trans disp ) {
+    return new FaceAnalysisStep( stepMeta, stepDataInterface, cnr, transMeta, disp );
+  }
+
+  /**
+   * Called by PDI to get a new instance of the step data class.
+   */
+  public StepDataInterface getStepData() {
+    return new FaceAnalysisData();
+  }
+
+  /**
+   * Images refused while the Rekognition circuit breaker is open can be sent to the error hop.
+   */
+  @Override
+  public boolean supportsErrorHandling() {
+    return true;
+  }
+
+  /**
+   * This method is called every time a new step is created and should allocate/set the step configuration
+   * to sensible defaults. The values set here will be used by Spoon when a new step is created.    
+   */
+  public void setDefault() {
+    setS3BucketName( "demo_field" );
+    setAnalysisTypes( AnalysisType.FACES.name() );
+    setWorkerThreads( DEFAULT_WORKER_THREADS );
+    setIncludeImageMetadata( false );
+    setSourceMode( SourceMode.LISTING.name() );
+    setInventoryManifest( "" );
+    setWatermarkType( WatermarkStore.Type.NONE.name() );
+    setWatermarkLocation( "" );
+    setListingThreads( "1" );
+    setDuplicateSuppression( false );
+    setDuplicateCacheSize( String.valueOf( DEFAULT_DUPLICATE_CACHE_SIZE ) );
+    setDuplicateIndexDirectory( "" );
+    setSendImageBytes( false );
+    setNearDuplicateDistance( "" );
+    setNearDuplicateWindow( String.valueOf( DEFAULT_NEAR_DUPLICATE_WINDOW ) );
+    setMosaicBatching( false );
+    setMosaicColumns( String.valueOf( DEFAULT_MOSAIC_COLUMNS ) );
+    setMosaicRows( String.valueOf( DEFAULT_MOSAIC_ROWS ) );
+    setMosaicTileSize( String.valueOf( DEFAULT_MOSAIC_TILE_SIZE ) );
+    setMosaicBatchSize( "" );
+    setMosaicMaxImageSize( String.valueOf( DEFAULT_MOSAIC_MAX_IMAGE_SIZE ) );
+    setHedgeRequests( false );
+    setHedgePercentile( DEFAULT_HEDGE_PERCENTILE );
+    setHedgeMaxPercent( DEFAULT_HEDGE_MAX_PERCENT );
+    setConnectionTimeout( String.valueOf( DEFAULT_CONNECTION_TIMEOUT ) );
+    setRequestTimeout( String.valueOf( DEFAULT_REQUEST_TIMEOUT ) );
+    setAdaptiveTimeouts( false );
+    setCircuitBreaker( false );
+    setCircuitFailurePercent( String.valueOf( DEFAULT_CIRCUIT_FAILURE_PERCENT ) );
+    setCircuitCoolDown( String.valueOf( DEFAULT_CIRCUIT_COOL_DOWN ) );
+    setRegions( DEFAULT_REGIONS );
+    setSamplingMode( "NONE" );
+    setSampleRate( DEFAULT_SAMPLE_RATE );
+    setSampleSize( String.valueOf( DEFAULT_SAMPLE_SIZE ) );
+    setSampleStrataDepth( "0" );
+    setSamplingSeed( "1" );
+    setSummaryLevel( "NONE" );
+    setSummaryPrefixDepth( "1" );
+    setSummaryOnly( false );
+    setJournalMode( "NONE" );
+    setJournalDirectory( "" );
+    setOutputFileFormat( "NONE" );
+    setOutputFileDirectory( "" );
+    setOutputFileCompress( false );
+    setOutputFileRollSize( String.valueOf( DEFAULT_OUTPUT_FILE_ROLL_SIZE ) );
+    setWriteSidecars( false );
+    setSidecarCache( false );
+    setSidecarPrefix( "" );
+    setSidecarSuffix( DEFAULT_SIDECAR_SUFFIX );
+    setLeaseCoordination( false );
+    setLeaseLocation( "" );
+    setLeaseDuration( String.valueOf( DEFAULT_LEASE_DURATION ) );
+    setLeaseRanges( String.valueOf( DEFAULT_LEASE_RANGES ) );
+    setLocalDetection( LocalFaceDetector.Mode.NONE.name() );
+    setLocalCascadeFile( "" );
+    setLocalMinNeighbors( String.valueOf( DEFAULT_LOCAL_MIN_NEIGHBORS ) );
+    setFaceClustering( false );
+    setClusterCollection( "" );
+    setClusterMatchThreshold( String.valueOf( DEFAULT_CLUSTER_MATCH_THRESHOLD ) );
+    setClusterCacheFile( "" );
+    setWatchMode( "NONE" );
+    setWatchQueue( "" );
+    setWatchInterval( String.valueOf( DEFAULT_WATCH_INTERVAL ) );
+    setWatchBatchSize( String.valueOf( DEFAULT_WATCH_BATCH_SIZE ) );
+    setMinImageSize( "0" );
+    setBucketSources( "" );
+    setOrderingPolicy( "NONE" );
+    setOrderingWindow( String.valueOf( DEFAULT_ORDERING_WINDOW ) );
+    setOrderingPrefixDepth( "1" );
+    setFaceGeometry( false );
+    setMinFaceSize( "0" );
+    setMinFaceSharpness( "0" );
+    setMinFaceBrightness( "0" );
+    setDryRun( false );
+    setCalibrationSize( String.valueOf( DEFAULT_CALIBRATION_SIZE ) );
+  }
+
+  /**
+   * Getter for the name of the field added by this step
+   * @return the name of the field added
+   */
+  public String getS3BucketName() {
+    return s3BucketName;
+  }
+
+  /**
+   * Setter for the name of the field added by this step
+   * @param s3BucketName the name of the field added
+   */
+  public void setS3BucketName(String s3BucketName) {
+    this.s3BucketName = s3BucketName;
+  }
+
+  public String getAnalysisTypes() {
+    return analysisTypes;
+  }
+
+  public void setAnalysisTypes( String analysisTypes ) {
+    this.analysisTypes = analysisTypes;
+  }
+
+  public String getWorkerThreads() {
+    return workerThreads;
+  }
+
+  public void setWorkerThreads( String workerThreads ) {
+    this.workerThreads = workerThreads;
+  }
+
+  public boolean isIncludeImageMetadata() {
+    return includeImageMetadata;
+  }
+
+  public void setIncludeImageMetadata( boolean includeImageMetadata ) {
+    this.includeImageMetadata = includeImageMetadata;
+  }
+
+  public String getSourceMode() {
+    return sourceMode;
+  }
+
+  public void setSourceMode( String sourceMode ) {
+    this.sourceMode = sourceMode;
+  }
+
+  public String getInventoryManifest() {
+    return inventoryManifest;
+  }
+
+  public void setInventoryManifest( String inventoryManifest ) {
+    this.inventoryManifest = inventoryManifest;
+  }
+
+  public String getWatermarkType() {
+    return watermarkType;
+  }
+
+  public void setWatermarkType( String watermarkType ) {
+    this.watermarkType = watermarkType;
+  }
+
+  public String getWatermarkLocation() {
+    return watermarkLocation;
+  }
+
+  public void setWatermarkLocation( String watermarkLocation ) {
+    this.watermarkLocation = watermarkLocation;
+  }
+
+  public String getListingThreads() {
+    return listingThreads;
+  }
+
+  public void setListingThreads( String listingThreads ) {
+    this.listingThreads = listingThreads;
+  }
+
+  public boolean isDuplicateSuppression() {
+    return duplicateSuppression;
+  }
+
+  public void setDuplicateSuppression( boolean duplicateSuppression ) {
+    this.duplicateSuppression = duplicateSuppression;
+  }
+
+  public String getDuplicateCacheSize() {
+    return duplicateCacheSize;
+  }
+
+  public void setDuplicateCacheSize( String duplicateCacheSize ) {
+    this.duplicateCacheSize = duplicateCacheSize;
+  }
+
+  public String getDuplicateIndexDirectory() {
+    return duplicateIndexDirectory;
+  }
+
+  public void setDuplicateIndexDirectory( String duplicateIndexDirectory ) {
+    this.duplicateIndexDirectory = duplicateIndexDirectory;
+  }
+
+  public boolean isSendImageBytes() {
+    return sendImageBytes;
+  }
+
+  public void setSendImageBytes( boolean sendImageBytes ) {
+    this.sendImageBytes = sendImageBytes;
+  }
+
+  public String getNearDuplicateDistance() {
+    return nearDuplicateDistance;
+  }
+
+  public void setNearDuplicateDistance( String nearDuplicateDistance ) {
+    this.nearDuplicateDistance = nearDuplicateDistance;
+  }
+
+  public String getNearDuplicateWindow() {
+    return nearDuplicateWindow;
+  }
+
+  public void setNearDuplicateWindow( String nearDuplicateWindow ) {
+    this.nearDuplicateWindow = nearDuplicateWindow;
+  }
+
+  public boolean isMosaicBatching() {
+    return mosaicBatching;
+  }
+
+  public void setMosaicBatching( boolean mosaicBatching ) {
+    this.mosaicBatching = mosaicBatching;
+  }
+
+  public String getMosaicColumns() {
+    return mosaicColumns;
+  }
+
+  public void setMosaicColumns( String mosaicColumns ) {
+    this.mosaicColumns = mosaicColumns;
+  }
+
+  public String getMosaicRows() {
+    return mosaicRows;
+  }
+
+  public void setMosaicRows( String mosaicRows ) {
+    this.mosaicRows = mosaicRows;
+  }
+
+  public String getMosaicTileSize() {
+    return mosaicTileSize;
+  }
+
+  public void setMosaicTileSize( String mosaicTileSize ) {
+    this.mosaicTileSize = mosaicTileSize;
+  }
+
+  public String getMosaicBatchSize() {
+    return mosaicBatchSize;
+  }
+
+  public void setMosaicBatchSize( String mosaicBatchSize ) {
+    this.mosaicBatchSize = mosaicBatchSize;
+  }
+
+  public String getMosaicMaxImageSize() {
+    return mosaicMaxImageSize;
+  }
+
+  public void setMosaicMaxImageSize( String mosaicMaxImageSize ) {
+    this.mosaicMaxImageSize = mosaicMaxImageSize;
+  }
+
+  public boolean isHedgeRequests() {
+    return hedgeRequests;
+  }
+
+  public void setHedgeRequests( boolean hedgeRequests ) {
+    this.hedgeRequests = hedgeRequests;
+  }
+
+  public String getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  public void setHedgePercentile( String hedgePercentile ) {
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  public String getHedgeMaxPercent() {
+    return hedgeMaxPercent;
+  }
+
+  public void setHedgeMaxPercent( String hedgeMaxPercent ) {
+    this.hedgeMaxPercent = hedgeMaxPercent;
+  }
+
+  public String getConnectionTimeout() {
+    return connectionTimeout;
+  }
+
+  public void setConnectionTimeout( String connectionTimeout ) {
+    this.connectionTimeout = connectionTimeout;
+  }
+
+  public String getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  public void setRequestTimeout( String requestTimeout ) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  public boolean isAdaptiveTimeouts() {
+    return adaptiveTimeouts;
+  }
+
+  public void setAdaptiveTimeouts( boolean adaptiveTimeouts ) {
+    this.adaptiveTimeouts = adaptiveTimeouts;
+  }
+
+  public boolean isCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  public void setCircuitBreaker( boolean circuitBreaker ) {
+    this.circuitBreaker = circuitBreaker;
   }
 
-  /**
-   * Called by Spoon to get a new instance of the SWT dialog for the step.
-   * A standard implementation passing the arguments to the constructor of the step dialog is recommended.
-   * 
-   * @param shell    an SWT Shell
-   * @param meta     description of the step 
-   * @param transMeta  description of the the transformation 
-   * @param name    the name of the step
-   * @return       new instance of a dialog for this step 
-   */
-  public StepDialogInterface getDialog( Shell shell, StepMetaInterface meta, TransMeta transMeta, String name ) {
-    return new FaceAnalysisDialog( shell, meta, transMeta, name );
+  public String getCircuitFailurePercent() {
+    return circuitFailurePercent;
   }
 
-  /**
-   * Called by PDI to get a new instance of the step implementation. 
-   * A standard implementation passing the arguments to the constructor of the step class is recommended.
-   * 
-   * @param stepMeta        description of the step
-   * @param stepDataInterface    instance of a step data class
-   * @param cnr          copy number
-   * @param transMeta        description of the transformation
-   * @param disp          runtime implementation of the transformation
-   * @return            the new instance of a step implementation 
-   */
-  public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
-      Trans disp ) {
-    return new FaceAnalysisStep( stepMeta, stepDataInterface, cnr, transMeta, disp );
+  public void setCircuitFailurePercent( String circuitFailurePercent ) {
+    this.circuitFailurePercent = circuitFailurePercent;
   }
 
-  /**
-   * Called by PDI to get a new instance of the step data class.
-   */
-  public StepDataInterface getStepData() {
-    return new FaceAnalysisData();
+  public String getCircuitCoolDown() {
+    return circuitCoolDown;
   }
 
-  /**
-   * This method is called every time a new step is created and should allocate/set the step configuration
-   * to sensible defaults. The values set here will be used by Spoon when a new step is created.    
-   */
-  public void setDefault() {
-    setS3BucketName( "demo_field" );
+  public void setCircuitCoolDown( String circuitCoolDown ) {
+    this.circuitCoolDown = circuitCoolDown;
   }
 
-  /**
-   * Getter for the name of the field added by this step
-   * @return the name of the field added
-   */
-  public String getS3BucketName() {
-    return s3BucketName;
+  public String getRegions() {
+    return regions;
   }
 
-  /**
-   * Setter for the name of the field added by this step
-   * @param s3BucketName the name of the field added
-   */
-  public void setS3BucketName(String s3BucketName) {
-    this.s3BucketName = s3BucketName;
+  public void setRegions( String regions ) {
+    this.regions = regions;
+  }
+
+  public String getSamplingMode() {
+    return samplingMode;
+  }
+
+  public void setSamplingMode( String samplingMode ) {
+    this.samplingMode = samplingMode;
+  }
+
+  public String getSampleRate() {
+    return sampleRate;
+  }
+
+  public void setSampleRate( String sampleRate ) {
+    this.sampleRate = sampleRate;
+  }
+
+  public String getSampleSize() {
+    return sampleSize;
+  }
+
+  public void setSampleSize( String sampleSize ) {
+    this.sampleSize = sampleSize;
+  }
+
+  public String getSampleStrataDepth() {
+    return sampleStrataDepth;
+  }
+
+  public void setSampleStrataDepth( String sampleStrataDepth ) {
+    this.sampleStrataDepth = sampleStrataDepth;
+  }
+
+  public String getSamplingSeed() {
+    return samplingSeed;
+  }
+
+  public void setSamplingSeed( String samplingSeed ) {
+    this.samplingSeed = samplingSeed;
+  }
+
+  public String getSummaryLevel() {
+    return summaryLevel;
+  }
+
+  public void setSummaryLevel( String summaryLevel ) {
+    this.summaryLevel = summaryLevel;
+  }
+
+  public String getSummaryPrefixDepth() {
+    return summaryPrefixDepth;
+  }
+
+  public void setSummaryPrefixDepth( String summaryPrefixDepth ) {
+    this.summaryPrefixDepth = summaryPrefixDepth;
+  }
+
+  public boolean isSummaryOnly() {
+    return summaryOnly;
+  }
+
+  public void setSummaryOnly( boolean summaryOnly ) {
+    this.summaryOnly = summaryOnly;
+  }
+
+  public String getJournalMode() {
+    return journalMode;
+  }
+
+  public void setJournalMode( String journalMode ) {
+    this.journalMode = journalMode;
+  }
+
+  public String getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  public void setJournalDirectory( String journalDirectory ) {
+    this.journalDirectory = journalDirectory;
+  }
+
+  public String getOutputFileFormat() {
+    return outputFileFormat;
+  }
+
+  public void setOutputFileFormat( String outputFileFormat ) {
+    this.outputFileFormat = outputFileFormat;
+  }
+
+  public String getOutputFileDirectory() {
+    return outputFileDirectory;
+  }
+
+  public void setOutputFileDirectory( String outputFileDirectory ) {
+    this.outputFileDirectory = outputFileDirectory;
+  }
+
+  public boolean isOutputFileCompress() {
+    return outputFileCompress;
+  }
+
+  public void setOutputFileCompress( boolean outputFileCompress ) {
+    this.outputFileCompress = outputFileCompress;
+  }
+
+  public String getOutputFileRollSize() {
+    return outputFileRollSize;
+  }
+
+  public void setOutputFileRollSize( String outputFileRollSize ) {
+    this.outputFileRollSize = outputFileRollSize;
+  }
+
+  public boolean isWriteSidecars() {
+    return writeSidecars;
+  }
+
+  public void setWriteSidecars( boolean writeSidecars ) {
+    this.writeSidecars = writeSidecars;
+  }
+
+  public boolean isSidecarCache() {
+    return sidecarCache;
+  }
+
+  public void setSidecarCache( boolean sidecarCache ) {
+    this.sidecarCache = sidecarCache;
+  }
+
+  public String getSidecarPrefix() {
+    return sidecarPrefix;
+  }
+
+  public void setSidecarPrefix( String sidecarPrefix ) {
+    this.sidecarPrefix = sidecarPrefix;
+  }
+
+  public String getSidecarSuffix() {
+    return sidecarSuffix;
+  }
+
+  public void setSidecarSuffix( String sidecarSuffix ) {
+    this.sidecarSuffix = sidecarSuffix;
+  }
+
+  public boolean isLeaseCoordination() {
+    return leaseCoordination;
+  }
+
+  public void setLeaseCoordination( boolean leaseCoordination ) {
+    this.leaseCoordination = leaseCoordination;
+  }
+
+  public String getLeaseLocation() {
+    return leaseLocation;
+  }
+
+  public void setLeaseLocation( String leaseLocation ) {
+    this.leaseLocation = leaseLocation;
+  }
+
+  public String getLeaseDuration() {
+    return leaseDuration;
+  }
+
+  public void setLeaseDuration( String leaseDuration ) {
+    this.leaseDuration = leaseDuration;
+  }
+
+  public String getLeaseRanges() {
+    return leaseRanges;
+  }
+
+  public void setLeaseRanges( String leaseRanges ) {
+    this.leaseRanges = leaseRanges;
+  }
+
+  public String getLocalDetection() {
+    return localDetection;
+  }
+
+  public void setLocalDetection( String localDetection ) {
+    this.localDetection = localDetection;
+  }
+
+  public String getLocalCascadeFile() {
+    return localCascadeFile;
+  }
+
+  public void setLocalCascadeFile( String localCascadeFile ) {
+    this.localCascadeFile = localCascadeFile;
+  }
+
+  public String getLocalMinNeighbors() {
+    return localMinNeighbors;
+  }
+
+  public void setLocalMinNeighbors( String localMinNeighbors ) {
+    this.localMinNeighbors = localMinNeighbors;
+  }
+
+  public boolean isFaceClustering() {
+    return faceClustering;
+  }
+
+  public void setFaceClustering( boolean faceClustering ) {
+    this.faceClustering = faceClustering;
+  }
+
+  public String getClusterCollection() {
+    return clusterCollection;
+  }
+
+  public void setClusterCollection( String clusterCollection ) {
+    this.clusterCollection = clusterCollection;
+  }
+
+  public String getClusterMatchThreshold() {
+    return clusterMatchThreshold;
+  }
+
+  public void setClusterMatchThreshold( String clusterMatchThreshold ) {
+    this.clusterMatchThreshold = clusterMatchThreshold;
+  }
+
+  public String getClusterCacheFile() {
+    return clusterCacheFile;
+  }
+
+  public void setClusterCacheFile( String clusterCacheFile ) {
+    this.clusterCacheFile = clusterCacheFile;
+  }
+
+  public String getWatchMode() {
+    return watchMode;
+  }
+
+  public void setWatchMode( String watchMode ) {
+    this.watchMode = watchMode;
+  }
+
+  public String getWatchQueue() {
+    return watchQueue;
+  }
+
+  public void setWatchQueue( String watchQueue ) {
+    this.watchQueue = watchQueue;
+  }
+
+  public String getWatchInterval() {
+    return watchInterval;
+  }
+
+  public void setWatchInterval( String watchInterval ) {
+    this.watchInterval = watchInterval;
+  }
+
+  public String getWatchBatchSize() {
+    return watchBatchSize;
+  }
+
+  public void setWatchBatchSize( String watchBatchSize ) {
+    this.watchBatchSize = watchBatchSize;
+  }
+
+  public String getMinImageSize() {
+    return minImageSize;
+  }
+
+  public void setMinImageSize( String minImageSize ) {
+    this.minImageSize = minImageSize;
+  }
+
+  public String getBucketSources() {
+    return bucketSources;
+  }
+
+  public void setBucketSources( String bucketSources ) {
+    this.bucketSources = bucketSources;
+  }
+
+  public String getOrderingPolicy() {
+    return orderingPolicy;
+  }
+
+  public void setOrderingPolicy( String orderingPolicy ) {
+    this.orderingPolicy = orderingPolicy;
+  }
+
+  public String getOrderingWindow() {
+    return orderingWindow;
+  }
+
+  public void setOrderingWindow( String orderingWindow ) {
+    this.orderingWindow = orderingWindow;
+  }
+
+  public String getOrderingPrefixDepth() {
+    return orderingPrefixDepth;
+  }
+
+  public void setOrderingPrefixDepth( String orderingPrefixDepth ) {
+    this.orderingPrefixDepth = orderingPrefixDepth;
+  }
+
+  public boolean isFaceGeometry() {
+    return faceGeometry;
+  }
+
+  public void setFaceGeometry( boolean faceGeometry ) {
+    this.faceGeometry = faceGeometry;
+  }
+
+  public String getMinFaceSize() {
+    return minFaceSize;
+  }
+
+  public void setMinFaceSize( String minFaceSize ) {
+    this.minFaceSize = minFaceSize;
+  }
+
+  public String getMinFaceSharpness() {
+    return minFaceSharpness;
+  }
+
+  public void setMinFaceSharpness( String minFaceSharpness ) {
+    this.minFaceSharpness = minFaceSharpness;
+  }
+
+  public String getMinFaceBrightness() {
+    return minFaceBrightness;
+  }
+
+  public void setMinFaceBrightness( String minFaceBrightness ) {
+    this.minFaceBrightness = minFaceBrightness;
+  }
+
+  public boolean isDryRun() {
+    return dryRun;
+  }
+
+  public void setDryRun( boolean dryRun ) {
+    this.dryRun = dryRun;
+  }
+
+  public String getCalibrationSize() {
+    return calibrationSize;
+  }
+
+  public void setCalibrationSize( String calibrationSize ) {
+    this.calibrationSize = calibrationSize;
   }
 
   /**
@@ -205,8 +1409,81 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
   public String getXML() throws KettleValueException {
     StringBuilder xml = new StringBuilder();
 
-    // only one field to serialize
     xml.append( XMLHandler.addTagValue( "s3BucketName", s3BucketName) );
+    xml.append( XMLHandler.addTagValue( "analysisTypes", analysisTypes ) );
+    xml.append( XMLHandler.addTagValue( "workerThreads", workerThreads ) );
+    xml.append( XMLHandler.addTagValue( "includeImageMetadata", includeImageMetadata ) );
+    xml.append( XMLHandler.addTagValue( "sourceMode", sourceMode ) );
+    xml.append( XMLHandler.addTagValue( "inventoryManifest", inventoryManifest ) );
+    xml.append( XMLHandler.addTagValue( "watermarkType", watermarkType ) );
+    xml.append( XMLHandler.addTagValue( "watermarkLocation", watermarkLocation ) );
+    xml.append( XMLHandler.addTagValue( "listingThreads", listingThreads ) );
+    xml.append( XMLHandler.addTagValue( "duplicateSuppression", duplicateSuppression ) );
+    xml.append( XMLHandler.addTagValue( "duplicateCacheSize", duplicateCacheSize ) );
+    xml.append( XMLHandler.addTagValue( "duplicateIndexDirectory", duplicateIndexDirectory ) );
+    xml.append( XMLHandler.addTagValue( "sendImageBytes", sendImageBytes ) );
+    xml.append( XMLHandler.addTagValue( "nearDuplicateDistance", nearDuplicateDistance ) );
+    xml.append( XMLHandler.addTagValue( "nearDuplicateWindow", nearDuplicateWindow ) );
+    xml.append( XMLHandler.addTagValue( "mosaicBatching", mosaicBatching ) );
+    xml.append( XMLHandler.addTagValue( "mosaicColumns", mosaicColumns ) );
+    xml.append( XMLHandler.addTagValue( "mosaicRows", mosaicRows ) );
+    xml.append( XMLHandler.addTagValue( "mosaicTileSize", mosaicTileSize ) );
+    xml.append( XMLHandler.addTagValue( "mosaicBatchSize", mosaicBatchSize ) );
+    xml.append( XMLHandler.addTagValue( "mosaicMaxImageSize", mosaicMaxImageSize ) );
+    xml.append( XMLHandler.addTagValue( "hedgeRequests", hedgeRequests ) );
+    xml.append( XMLHandler.addTagValue( "hedgePercentile", hedgePercentile ) );
+    xml.append( XMLHandler.addTagValue( "hedgeMaxPercent", hedgeMaxPercent ) );
+    xml.append( XMLHandler.addTagValue( "connectionTimeout", connectionTimeout ) );
+    xml.append( XMLHandler.addTagValue( "requestTimeout", requestTimeout ) );
+    xml.append( XMLHandler.addTagValue( "adaptiveTimeouts", adaptiveTimeouts ) );
+    xml.append( XMLHandler.addTagValue( "circuitBreaker", circuitBreaker ) );
+    xml.append( XMLHandler.addTagValue( "circuitFailurePercent", circuitFailurePercent ) );
+    xml.append( XMLHandler.addTagValue( "circuitCoolDown", circuitCoolDown ) );
+    xml.append( XMLHandler.addTagValue( "regions", regions ) );
+    xml.append( XMLHandler.addTagValue( "samplingMode", samplingMode ) );
+    xml.append( XMLHandler.addTagValue( "sampleRate", sampleRate ) );
+    xml.append( XMLHandler.addTagValue( "sampleSize", sampleSize ) );
+    xml.append( XMLHandler.addTagValue( "sampleStrataDepth", sampleStrataDepth ) );
+    xml.append( XMLHandler.addTagValue( "samplingSeed", samplingSeed ) );
+    xml.append( XMLHandler.addTagValue( "summaryLevel", summaryLevel ) );
+    xml.append( XMLHandler.addTagValue( "summaryPrefixDepth", summaryPrefixDepth ) );
+    xml.append( XMLHandler.addTagValue( "summaryOnly", summaryOnly ) );
+    xml.append( XMLHandler.addTagValue( "journalMode", journalMode ) );
+    xml.append( XMLHandler.addTagValue( "journalDirectory", journalDirectory ) );
+    xml.append( XMLHandler.addTagValue( "outputFileFormat", outputFileFormat ) );
+    xml.append( XMLHandler.addTagValue( "outputFileDirectory", outputFileDirectory ) );
+    xml.append( XMLHandler.addTagValue( "outputFileCompress", outputFileCompress ) );
+    xml.append( XMLHandler.addTagValue( "outputFileRollSize", outputFileRollSize ) );
+    xml.append( XMLHandler.addTagValue( "writeSidecars", writeSidecars ) );
+    xml.append( XMLHandler.addTagValue( "sidecarCache", sidecarCache ) );
+    xml.append( XMLHandler.addTagValue( "sidecarPrefix", sidecarPrefix ) );
+    xml.append( XMLHandler.addTagValue( "sidecarSuffix", sidecarSuffix ) );
+    xml.append( XMLHandler.addTagValue( "leaseCoordination", leaseCoordination ) );
+    xml.append( XMLHandler.addTagValue( "leaseLocation", leaseLocation ) );
+    xml.append( XMLHandler.addTagValue( "leaseDuration", leaseDuration ) );
+    xml.append( XMLHandler.addTagValue( "leaseRanges", leaseRanges ) );
+    xml.append( XMLHandler.addTagValue( "localDetection", localDetection ) );
+    xml.append( XMLHandler.addTagValue( "localCascadeFile", localCascadeFile ) );
+    xml.append( XMLHandler.addTagValue( "localMinNeighbors", localMinNeighbors ) );
+    xml.append( XMLHandler.addTagValue( "faceClustering", faceClustering ) );
+    xml.append( XMLHandler.addTagValue( "clusterCollection", clusterCollection ) );
+    xml.append( XMLHandler.addTagValue( "clusterMatchThreshold", clusterMatchThreshold ) );
+    xml.append( XMLHandler.addTagValue( "clusterCacheFile", clusterCacheFile ) );
+    xml.append( XMLHandler.addTagValue( "watchMode", watchMode ) );
+    xml.append( XMLHandler.addTagValue( "watchQueue", watchQueue ) );
+    xml.append( XMLHandler.addTagValue( "watchInterval", watchInterval ) );
+    xml.append( XMLHandler.addTagValue( "watchBatchSize", watchBatchSize ) );
+    xml.append( XMLHandler.addTagValue( "minImageSize", minImageSize ) );
+    xml.append( XMLHandler.addTagValue( "bucketSources", bucketSources ) );
+    xml.append( XMLHandler.addTagValue( "orderingPolicy", orderingPolicy ) );
+    xml.append( XMLHandler.addTagValue( "orderingWindow", orderingWindow ) );
+    xml.append( XMLHandler.addTagValue( "orderingPrefixDepth", orderingPrefixDepth ) );
+    xml.append( XMLHandler.addTagValue( "faceGeometry", faceGeometry ) );
+    xml.append( XMLHandler.addTagValue( "minFaceSize", minFaceSize ) );
+    xml.append( XMLHandler.addTagValue( "minFaceSharpness", minFaceSharpness ) );
+    xml.append( XMLHandler.addTagValue( "minFaceBrightness", minFaceBrightness ) );
+    xml.append( XMLHandler.addTagValue( "dryRun", dryRun ) );
+    xml.append( XMLHandler.addTagValue( "calibrationSize", calibrationSize ) );
     return xml.toString();
   }
 
@@ -223,6 +1500,80 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
   public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
     try {
       setS3BucketName( XMLHandler.getNodeValue( XMLHandler.getSubNode( stepnode, "s3BucketName" ) ) );
+      setAnalysisTypes( XMLHandler.getTagValue( stepnode, "analysisTypes" ) );
+      setWorkerThreads( XMLHandler.getTagValue( stepnode, "workerThreads" ) );
+      setIncludeImageMetadata( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "includeImageMetadata" ) ) );
+      setSourceMode( XMLHandler.getTagValue( stepnode, "sourceMode" ) );
+      setInventoryManifest( XMLHandler.getTagValue( stepnode, "inventoryManifest" ) );
+      setWatermarkType( XMLHandler.getTagValue( stepnode, "watermarkType" ) );
+      setWatermarkLocation( XMLHandler.getTagValue( stepnode, "watermarkLocation" ) );
+      setListingThreads( XMLHandler.getTagValue( stepnode, "listingThreads" ) );
+      setDuplicateSuppression( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "duplicateSuppression" ) ) );
+      setDuplicateCacheSize( XMLHandler.getTagValue( stepnode, "duplicateCacheSize" ) );
+      setDuplicateIndexDirectory( XMLHandler.getTagValue( stepnode, "duplicateIndexDirectory" ) );
+      setSendImageBytes( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "sendImageBytes" ) ) );
+      setNearDuplicateDistance( XMLHandler.getTagValue( stepnode, "nearDuplicateDistance" ) );
+      setNearDuplicateWindow( XMLHandler.getTagValue( stepnode, "nearDuplicateWindow" ) );
+      setMosaicBatching( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "mosaicBatching" ) ) );
+      setMosaicColumns( XMLHandler.getTagValue( stepnode, "mosaicColumns" ) );
+      setMosaicRows( XMLHandler.getTagValue( stepnode, "mosaicRows" ) );
+      setMosaicTileSize( XMLHandler.getTagValue( stepnode, "mosaicTileSize" ) );
+      setMosaicBatchSize( XMLHandler.getTagValue( stepnode, "mosaicBatchSize" ) );
+      setMosaicMaxImageSize( XMLHandler.getTagValue( stepnode, "mosaicMaxImageSize" ) );
+      setHedgeRequests( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "hedgeRequests" ) ) );
+      setHedgePercentile( XMLHandler.getTagValue( stepnode, "hedgePercentile" ) );
+      setHedgeMaxPercent( XMLHandler.getTagValue( stepnode, "hedgeMaxPercent" ) );
+      setConnectionTimeout( XMLHandler.getTagValue( stepnode, "connectionTimeout" ) );
+      setRequestTimeout( XMLHandler.getTagValue( stepnode, "requestTimeout" ) );
+      setAdaptiveTimeouts( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "adaptiveTimeouts" ) ) );
+      setCircuitBreaker( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "circuitBreaker" ) ) );
+      setCircuitFailurePercent( XMLHandler.getTagValue( stepnode, "circuitFailurePercent" ) );
+      setCircuitCoolDown( XMLHandler.getTagValue( stepnode, "circuitCoolDown" ) );
+      setRegions( XMLHandler.getTagValue( stepnode, "regions" ) );
+      setSamplingMode( XMLHandler.getTagValue( stepnode, "samplingMode" ) );
+      setSampleRate( XMLHandler.getTagValue( stepnode, "sampleRate" ) );
+      setSampleSize( XMLHandler.getTagValue( stepnode, "sampleSize" ) );
+      setSampleStrataDepth( XMLHandler.getTagValue( stepnode, "sampleStrataDepth" ) );
+      setSamplingSeed( XMLHandler.getTagValue( stepnode, "samplingSeed" ) );
+      setSummaryLevel( XMLHandler.getTagValue( stepnode, "summaryLevel" ) );
+      setSummaryPrefixDepth( XMLHandler.getTagValue( stepnode, "summaryPrefixDepth" ) );
+      setSummaryOnly( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "summaryOnly" ) ) );
+      setJournalMode( XMLHandler.getTagValue( stepnode, "journalMode" ) );
+      setJournalDirectory( XMLHandler.getTagValue( stepnode, "journalDirectory" ) );
+      setOutputFileFormat( XMLHandler.getTagValue( stepnode, "outputFileFormat" ) );
+      setOutputFileDirectory( XMLHandler.getTagValue( stepnode, "outputFileDirectory" ) );
+      setOutputFileCompress( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "outputFileCompress" ) ) );
+      setOutputFileRollSize( XMLHandler.getTagValue( stepnode, "outputFileRollSize" ) );
+      setWriteSidecars( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "writeSidecars" ) ) );
+      setSidecarCache( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "sidecarCache" ) ) );
+      setSidecarPrefix( XMLHandler.getTagValue( stepnode, "sidecarPrefix" ) );
+      setSidecarSuffix( XMLHandler.getTagValue( stepnode, "sidecarSuffix" ) );
+      setLeaseCoordination( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "leaseCoordination" ) ) );
+      setLeaseLocation( XMLHandler.getTagValue( stepnode, "leaseLocation" ) );
+      setLeaseDuration( XMLHandler.getTagValue( stepnode, "leaseDuration" ) );
+      setLeaseRanges( XMLHandler.getTagValue( stepnode, "leaseRanges" ) );
+      setLocalDetection( XMLHandler.getTagValue( stepnode, "localDetection" ) );
+      setLocalCascadeFile( XMLHandler.getTagValue( stepnode, "localCascadeFile" ) );
+      setLocalMinNeighbors( XMLHandler.getTagValue( stepnode, "localMinNeighbors" ) );
+      setFaceClustering( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "faceClustering" ) ) );
+      setClusterCollection( XMLHandler.getTagValue( stepnode, "clusterCollection" ) );
+      setClusterMatchThreshold( XMLHandler.getTagValue( stepnode, "clusterMatchThreshold" ) );
+      setClusterCacheFile( XMLHandler.getTagValue( stepnode, "clusterCacheFile" ) );
+      setWatchMode( XMLHandler.getTagValue( stepnode, "watchMode" ) );
+      setWatchQueue( XMLHandler.getTagValue( stepnode, "watchQueue" ) );
+      setWatchInterval( XMLHandler.getTagValue( stepnode, "watchInterval" ) );
+      setWatchBatchSize( XMLHandler.getTagValue( stepnode, "watchBatchSize" ) );
+      setMinImageSize( XMLHandler.getTagValue( stepnode, "minImageSize" ) );
+      setBucketSources( XMLHandler.getTagValue( stepnode, "bucketSources" ) );
+      setOrderingPolicy( XMLHandler.getTagValue( stepnode, "orderingPolicy" ) );
+      setOrderingWindow( XMLHandler.getTagValue( stepnode, "orderingWindow" ) );
+      setOrderingPrefixDepth( XMLHandler.getTagValue( stepnode, "orderingPrefixDepth" ) );
+      setFaceGeometry( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "faceGeometry" ) ) );
+      setMinFaceSize( XMLHandler.getTagValue( stepnode, "minFaceSize" ) );
+      setMinFaceSharpness( XMLHandler.getTagValue( stepnode, "minFaceSharpness" ) );
+      setMinFaceBrightness( XMLHandler.getTagValue( stepnode, "minFaceBrightness" ) );
+      setDryRun( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "dryRun" ) ) );
+      setCalibrationSize( XMLHandler.getTagValue( stepnode, "calibrationSize" ) );
     } catch ( Exception e ) {
       throw new KettleXMLException( "AWS Rekognize plugin unable to read step info from XML node", e );
     }
@@ -241,6 +1592,81 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
       throws KettleException {
     try {
       rep.saveStepAttribute( id_transformation, id_step, "s3BucketName", s3BucketName); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "analysisTypes", analysisTypes ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "workerThreads", workerThreads ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "includeImageMetadata", includeImageMetadata ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sourceMode", sourceMode ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "inventoryManifest", inventoryManifest ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "watermarkType", watermarkType ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "watermarkLocation", watermarkLocation ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "listingThreads", listingThreads ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "duplicateSuppression", duplicateSuppression ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "duplicateCacheSize", duplicateCacheSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "duplicateIndexDirectory",
+          duplicateIndexDirectory ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sendImageBytes", sendImageBytes ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "nearDuplicateDistance", nearDuplicateDistance ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "nearDuplicateWindow", nearDuplicateWindow ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "mosaicBatching", mosaicBatching ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "mosaicColumns", mosaicColumns ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "mosaicRows", mosaicRows ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "mosaicTileSize", mosaicTileSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "mosaicBatchSize", mosaicBatchSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "mosaicMaxImageSize", mosaicMaxImageSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "hedgeRequests", hedgeRequests ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "hedgePercentile", hedgePercentile ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "hedgeMaxPercent", hedgeMaxPercent ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "connectionTimeout", connectionTimeout ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "requestTimeout", requestTimeout ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "adaptiveTimeouts", adaptiveTimeouts ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "circuitBreaker", circuitBreaker ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "circuitFailurePercent", circuitFailurePercent ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "circuitCoolDown", circuitCoolDown ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "regions", regions ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "samplingMode", samplingMode ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sampleRate", sampleRate ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sampleSize", sampleSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sampleStrataDepth", sampleStrataDepth ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "samplingSeed", samplingSeed ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "summaryLevel", summaryLevel ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "summaryPrefixDepth", summaryPrefixDepth ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "summaryOnly", summaryOnly ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "journalMode", journalMode ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "journalDirectory", journalDirectory ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "outputFileFormat", outputFileFormat ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "outputFileDirectory", outputFileDirectory ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "outputFileCompress", outputFileCompress ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "outputFileRollSize", outputFileRollSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "writeSidecars", writeSidecars ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sidecarCache", sidecarCache ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sidecarPrefix", sidecarPrefix ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "sidecarSuffix", sidecarSuffix ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "leaseCoordination", leaseCoordination ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "leaseLocation", leaseLocation ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "leaseDuration", leaseDuration ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "leaseRanges", leaseRanges ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "localDetection", localDetection ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "localCascadeFile", localCascadeFile ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "localMinNeighbors", localMinNeighbors ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "faceClustering", faceClustering ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "clusterCollection", clusterCollection ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "clusterMatchThreshold", clusterMatchThreshold ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "clusterCacheFile", clusterCacheFile ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "watchMode", watchMode ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "watchQueue", watchQueue ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "watchInterval", watchInterval ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "watchBatchSize", watchBatchSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "minImageSize", minImageSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "bucketSources", bucketSources ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "orderingPolicy", orderingPolicy ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "orderingWindow", orderingWindow ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "orderingPrefixDepth", orderingPrefixDepth ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "faceGeometry", faceGeometry ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "minFaceSize", minFaceSize ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "minFaceSharpness", minFaceSharpness ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "minFaceBrightness", minFaceBrightness ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "dryRun", dryRun ); //$NON-NLS-1$
+      rep.saveStepAttribute( id_transformation, id_step, "calibrationSize", calibrationSize ); //$NON-NLS-1$
     } catch ( Exception e ) {
       throw new KettleException( "Unable to save step into repository: " + id_step, e );
     }
@@ -259,6 +1685,80 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
       throws KettleException {
     try {
       s3BucketName = rep.getStepAttributeString( id_step, "s3BucketName" ); //$NON-NLS-1$
+      analysisTypes = rep.getStepAttributeString( id_step, "analysisTypes" ); //$NON-NLS-1$
+      workerThreads = rep.getStepAttributeString( id_step, "workerThreads" ); //$NON-NLS-1$
+      includeImageMetadata = rep.getStepAttributeBoolean( id_step, "includeImageMetadata" ); //$NON-NLS-1$
+      sourceMode = rep.getStepAttributeString( id_step, "sourceMode" ); //$NON-NLS-1$
+      inventoryManifest = rep.getStepAttributeString( id_step, "inventoryManifest" ); //$NON-NLS-1$
+      watermarkType = rep.getStepAttributeString( id_step, "watermarkType" ); //$NON-NLS-1$
+      watermarkLocation = rep.getStepAttributeString( id_step, "watermarkLocation" ); //$NON-NLS-1$
+      listingThreads = rep.getStepAttributeString( id_step, "listingThreads" ); //$NON-NLS-1$
+      duplicateSuppression = rep.getStepAttributeBoolean( id_step, "duplicateSuppression" ); //$NON-NLS-1$
+      duplicateCacheSize = rep.getStepAttributeString( id_step, "duplicateCacheSize" ); //$NON-NLS-1$
+      duplicateIndexDirectory = rep.getStepAttributeString( id_step, "duplicateIndexDirectory" ); //$NON-NLS-1$
+      sendImageBytes = rep.getStepAttributeBoolean( id_step, "sendImageBytes" ); //$NON-NLS-1$
+      nearDuplicateDistance = rep.getStepAttributeString( id_step, "nearDuplicateDistance" ); //$NON-NLS-1$
+      nearDuplicateWindow = rep.getStepAttributeString( id_step, "nearDuplicateWindow" ); //$NON-NLS-1$
+      mosaicBatching = rep.getStepAttributeBoolean( id_step, "mosaicBatching" ); //$NON-NLS-1$
+      mosaicColumns = rep.getStepAttributeString( id_step, "mosaicColumns" ); //$NON-NLS-1$
+      mosaicRows = rep.getStepAttributeString( id_step, "mosaicRows" ); //$NON-NLS-1$
+      mosaicTileSize = rep.getStepAttributeString( id_step, "mosaicTileSize" ); //$NON-NLS-1$
+      mosaicBatchSize = rep.getStepAttributeString( id_step, "mosaicBatchSize" ); //$NON-NLS-1$
+      mosaicMaxImageSize = rep.getStepAttributeString( id_step, "mosaicMaxImageSize" ); //$NON-NLS-1$
+      hedgeRequests = rep.getStepAttributeBoolean( id_step, "hedgeRequests" ); //$NON-NLS-1$
+      hedgePercentile = rep.getStepAttributeString( id_step, "hedgePercentile" ); //$NON-NLS-1$
+      hedgeMaxPercent = rep.getStepAttributeString( id_step, "hedgeMaxPercent" ); //$NON-NLS-1$
+      connectionTimeout = rep.getStepAttributeString( id_step, "connectionTimeout" ); //$NON-NLS-1$
+      requestTimeout = rep.getStepAttributeString( id_step, "requestTimeout" ); //$NON-NLS-1$
+      adaptiveTimeouts = rep.getStepAttributeBoolean( id_step, "adaptiveTimeouts" ); //$NON-NLS-1$
+      circuitBreaker = rep.getStepAttributeBoolean( id_step, "circuitBreaker" ); //$NON-NLS-1$
+      circuitFailurePercent = rep.getStepAttributeString( id_step, "circuitFailurePercent" ); //$NON-NLS-1$
+      circuitCoolDown = rep.getStepAttributeString( id_step, "circuitCoolDown" ); //$NON-NLS-1$
+      regions = rep.getStepAttributeString( id_step, "regions" ); //$NON-NLS-1$
+      samplingMode = rep.getStepAttributeString( id_step, "samplingMode" ); //$NON-NLS-1$
+      sampleRate = rep.getStepAttributeString( id_step, "sampleRate" ); //$NON-NLS-1$
+      sampleSize = rep.getStepAttributeString( id_step, "sampleSize" ); //$NON-NLS-1$
+      sampleStrataDepth = rep.getStepAttributeString( id_step, "sampleStrataDepth" ); //$NON-NLS-1$
+      samplingSeed = rep.getStepAttributeString( id_step, "samplingSeed" ); //$NON-NLS-1$
+      summaryLevel = rep.getStepAttributeString( id_step, "summaryLevel" ); //$NON-NLS-1$
+      summaryPrefixDepth = rep.getStepAttributeString( id_step, "summaryPrefixDepth" ); //$NON-NLS-1$
+      summaryOnly = rep.getStepAttributeBoolean( id_step, "summaryOnly" ); //$NON-NLS-1$
+      journalMode = rep.getStepAttributeString( id_step, "journalMode" ); //$NON-NLS-1$
+      journalDirectory = rep.getStepAttributeString( id_step, "journalDirectory" ); //$NON-NLS-1$
+      outputFileFormat = rep.getStepAttributeString( id_step, "outputFileFormat" ); //$NON-NLS-1$
+      outputFileDirectory = rep.getStepAttributeString( id_step, "outputFileDirectory" ); //$NON-NLS-1$
+      outputFileCompress = rep.getStepAttributeBoolean( id_step, "outputFileCompress" ); //$NON-NLS-1$
+      outputFileRollSize = rep.getStepAttributeString( id_step, "outputFileRollSize" ); //$NON-NLS-1$
+      writeSidecars = rep.getStepAttributeBoolean( id_step, "writeSidecars" ); //$NON-NLS-1$
+      sidecarCache = rep.getStepAttributeBoolean( id_step, "sidecarCache" ); //$NON-NLS-1$
+      sidecarPrefix = rep.getStepAttributeString( id_step, "sidecarPrefix" ); //$NON-NLS-1$
+      sidecarSuffix = rep.getStepAttributeString( id_step, "sidecarSuffix" ); //$NON-NLS-1$
+      leaseCoordination = rep.getStepAttributeBoolean( id_step, "leaseCoordination" ); //$NON-NLS-1$
+      leaseLocation = rep.getStepAttributeString( id_step, "leaseLocation" ); //$NON-NLS-1$
+      leaseDuration = rep.getStepAttributeString( id_step, "leaseDuration" ); //$NON-NLS-1$
+      leaseRanges = rep.getStepAttributeString( id_step, "leaseRanges" ); //$NON-NLS-1$
+      localDetection = rep.getStepAttributeString( id_step, "localDetection" ); //$NON-NLS-1$
+      localCascadeFile = rep.getStepAttributeString( id_step, "localCascadeFile" ); //$NON-NLS-1$
+      localMinNeighbors = rep.getStepAttributeString( id_step, "localMinNeighbors" ); //$NON-NLS-1$
+      faceClustering = rep.getStepAttributeBoolean( id_step, "faceClustering" ); //$NON-NLS-1$
+      clusterCollection = rep.getStepAttributeString( id_step, "clusterCollection" ); //$NON-NLS-1$
+      clusterMatchThreshold = rep.getStepAttributeString( id_step, "clusterMatchThreshold" ); //$NON-NLS-1$
+      clusterCacheFile = rep.getStepAttributeString( id_step, "clusterCacheFile" ); //$NON-NLS-1$
+      watchMode = rep.getStepAttributeString( id_step, "watchMode" ); //$NON-NLS-1$
+      watchQueue = rep.getStepAttributeString( id_step, "watchQueue" ); //$NON-NLS-1$
+      watchInterval = rep.getStepAttributeString( id_step, "watchInterval" ); //$NON-NLS-1$
+      watchBatchSize = rep.getStepAttributeString( id_step, "watchBatchSize" ); //$NON-NLS-1$
+      minImageSize = rep.getStepAttributeString( id_step, "minImageSize" ); //$NON-NLS-1$
+      bucketSources = rep.getStepAttributeString( id_step, "bucketSources" ); //$NON-NLS-1$
+      orderingPolicy = rep.getStepAttributeString( id_step, "orderingPolicy" ); //$NON-NLS-1$
+      orderingWindow = rep.getStepAttributeString( id_step, "orderingWindow" ); //$NON-NLS-1$
+      orderingPrefixDepth = rep.getStepAttributeString( id_step, "orderingPrefixDepth" ); //$NON-NLS-1$
+      faceGeometry = rep.getStepAttributeBoolean( id_step, "faceGeometry" ); //$NON-NLS-1$
+      minFaceSize = rep.getStepAttributeString( id_step, "minFaceSize" ); //$NON-NLS-1$
+      minFaceSharpness = rep.getStepAttributeString( id_step, "minFaceSharpness" ); //$NON-NLS-1$
+      minFaceBrightness = rep.getStepAttributeString( id_step, "minFaceBrightness" ); //$NON-NLS-1$
+      dryRun = rep.getStepAttributeBoolean( id_step, "dryRun" ); //$NON-NLS-1$
+      calibrationSize = rep.getStepAttributeString( id_step, "calibrationSize" ); //$NON-NLS-1$
     } catch ( Exception e ) {
       throw new KettleException( "Unable to load step from repository", e );
     }
@@ -294,6 +1794,80 @@ public class FaceAnalysisMeta extends BaseStepMeta implements StepMetaInterface
     v.setOrigin( name );
     inputRowMeta.addValueMeta( v );
 
+    if ( includeImageMetadata ) {
+      addField( inputRowMeta, new ValueMetaString( FIELD_IMAGE_BUCKET ), name );
+      addField( inputRowMeta, new ValueMetaInteger( FIELD_IMAGE_SIZE ), name );
+      addField( inputRowMeta, new ValueMetaString( FIELD_IMAGE_ETAG ), name );
+      addField( inputRowMeta, new ValueMetaDate( FIELD_IMAGE_LAST_MODIFIED ), name );
+    }
+    if ( isSampling( space ) ) {
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_SAMPLE_RATE ), name );
+    }
+    if ( faceClustering ) {
+      addField( inputRowMeta, new ValueMetaString( FIELD_PERSON_CLUSTER ), name );
+    }
+    if ( hasBucketSources( space ) ) {
+      addField( inputRowMeta, new ValueMetaString( FIELD_SOURCE ), name );
+    }
+    if ( faceGeometry ) {
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_LEFT ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_TOP ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_WIDTH ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_HEIGHT ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_PITCH ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_ROLL ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_YAW ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_BRIGHTNESS ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_FACE_SHARPNESS ), name );
+      addField( inputRowMeta, new ValueMetaBinary( FIELD_FACE_LANDMARKS ), name );
+    }
+    if ( hasSummaries( space ) ) {
+      addField( inputRowMeta, new ValueMetaInteger( FIELD_IMAGE_COUNT ), name );
+      addField( inputRowMeta, new ValueMetaInteger( FIELD_FACE_COUNT ), name );
+      addField( inputRowMeta, new ValueMetaInteger( FIELD_MALE_FACES ), name );
+      addField( inputRowMeta, new ValueMetaInteger( FIELD_FEMALE_FACES ), name );
+      addField( inputRowMeta, new ValueMetaInteger( FIELD_SMILING_FACES ), name );
+      addField( inputRowMeta, new ValueMetaNumber( FIELD_MEAN_AGE ), name );
+      addField( inputRowMeta, new ValueMetaString( FIELD_DOMINANT_EMOTION ), name );
+    }
+  }
+
+  /**
+   * @return true when summary rows are emitted; an invalid level is reported by the step
+   */
+  private boolean hasSummaries( VariableSpace space ) {
+    try {
+      return FaceSummary.Level.parse( space == null ? summaryLevel : space.environmentSubstitute( summaryLevel ) )
+          != FaceSummary.Level.NONE;
+    } catch ( IllegalArgumentException e ) {
+      return true;
+    }
+  }
+
+  /**
+   * @return true when only a sample of the images is analyzed; an invalid mode is reported by the step
+   */
+  private boolean isSampling( VariableSpace space ) {
+    try {
+      return ImageSampler.Mode.parse( space == null ? samplingMode : space.environmentSubstitute( samplingMode ) )
+          != ImageSampler.Mode.NONE;
+    } catch ( IllegalArgumentException e ) {
+      return true;
+    }
+  }
+
+  /**
+   * @return true when several buckets or prefixes are listed instead of the single bucket
+   */
+  private boolean hasBucketSources( VariableSpace space ) {
+    String value = space == null ? bucketSources : space.environmentSubstitute( bucketSources );
+    return value != null && !value.trim().isEmpty();
+  }
+
+  private static void addField( RowMetaInterface rowMeta, ValueMetaInterface v, String origin ) {
+    v.setOrigin( origin );
+    rowMeta.addValueMeta( v );
+
   }
 
   /**
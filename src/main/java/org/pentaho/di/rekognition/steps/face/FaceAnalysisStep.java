@@ -24,15 +24,16 @@ package org.pentaho.di.rekognition.steps.face;
 
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.Protocol;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.rekognition.AmazonRekognition;
-import com.amazonaws.services.rekognition.AmazonRekognitionClientBuilder;
 import com.amazonaws.services.rekognition.model.*;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ListObjectsV2Request;
-import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.row.RowDataUtil;
@@ -47,8 +48,22 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * This class is part of the demo step plug-in implementation.
@@ -74,6 +89,11 @@ public class FaceAnalysisStep extends BaseStep implements StepInterface {
 
   private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
 
+  // error code of the rows sent to the error hop while the circuit breaker is open
+  static final String CIRCUIT_OPEN_ERROR_CODE = "REKOGNITION_CIRCUIT_OPEN";
+  // an image refused by the open circuit breaker this many times fails the step
+  static final int MAX_CIRCUIT_RETRIES = 5;
+
   /**
    * The constructor should simply pass on its arguments to the parent class.
    * 
@@ -118,22 +138,360 @@ public class FaceAnalysisStep extends BaseStep implements StepInterface {
     // AWS S3 and Rekognition API Initialization (sample code)
     ProfileCredentialsProvider credentialsProvider = new ProfileCredentialsProvider();
 
+    // one worker pool runs every selected analysis for an image, so the bucket is listed only once
+    int threads = Math.max( 1, Const.toInt( environmentSubstitute( meta.getWorkerThreads() ),
+        Integer.parseInt( FaceAnalysisMeta.DEFAULT_WORKER_THREADS ) ) );
+
+    int requestTimeout = Const.toInt( environmentSubstitute( meta.getRequestTimeout() ),
+        FaceAnalysisMeta.DEFAULT_REQUEST_TIMEOUT );
     ClientConfiguration clientConfig = new ClientConfiguration();
-    clientConfig.setConnectionTimeout(30000);
-    clientConfig.setRequestTimeout(60000);
+    clientConfig.setConnectionTimeout( Const.toInt( environmentSubstitute( meta.getConnectionTimeout() ),
+        FaceAnalysisMeta.DEFAULT_CONNECTION_TIMEOUT ) );
+    clientConfig.setRequestTimeout( requestTimeout );
     clientConfig.setProtocol(Protocol.HTTPS);
+    // a hedged call may have two requests open at once
+    int connections = meta.isHedgeRequests() ? threads * 2 : threads;
+    clientConfig.setMaxConnections( Math.max( ClientConfiguration.DEFAULT_MAX_CONNECTIONS, connections ) );
 
-    data.s3Client = AmazonS3ClientBuilder.standard()
-            .withCredentials(credentialsProvider)
-            .withRegion("us-east-1")
-            .build();
+    int listingThreads = Math.max( 1, Const.toInt( environmentSubstitute( meta.getListingThreads() ), 1 ) );
+    ClientConfiguration s3ClientConfig = new ClientConfiguration();
+    try {
+      data.bucketSources = BucketPrefix.parseList( environmentSubstitute( meta.getBucketSources() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.InvalidBucketSources", meta.getBucketSources() ), e );
+      return false;
+    }
+    // every bucket source is listed on its own thread
+    s3ClientConfig.setMaxConnections( Math.max( ClientConfiguration.DEFAULT_MAX_CONNECTIONS,
+        Math.max( listingThreads, data.bucketSources.size() ) ) );
 
-    data.rekognitionClient = AmazonRekognitionClientBuilder
-            .standard()
-            .withClientConfiguration(clientConfig)
+    List<RegionEndpoint> regions;
+    try {
+      regions = RegionEndpoint.parseList( environmentSubstitute( meta.getRegions() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.InvalidRegions", meta.getRegions() ), e );
+      return false;
+    }
+    for ( RegionEndpoint region : regions ) {
+      if ( region.getRateLimit() <= 0 ) {
+        data.callRateLimit = 0;
+        break;
+      }
+      data.callRateLimit += region.getRateLimit();
+    }
+
+    // buckets outside of the home region are reached through global bucket access
+    AmazonS3ClientBuilder s3ClientBuilder = AmazonS3ClientBuilder.standard()
+            .withClientConfiguration( s3ClientConfig )
             .withCredentials(credentialsProvider)
-            .withRegion("us-east-1")
-            .build();
+            .withRegion( regions.get( 0 ).getRegion() )
+            .withForceGlobalBucketAccessEnabled( true );
+    if ( FlightEvents.isAvailable() ) {
+      s3ClientBuilder.withRequestHandlers( new FlightEvents.Recorder() );
+    }
+    data.s3Client = s3ClientBuilder.build();
+
+    data.rekognitionClient = createRekognitionClient( regions, clientConfig, credentialsProvider );
+    if ( data.rekognitionClient instanceof MultiRegionRekognitionClient ) {
+      data.regionalClient = (MultiRegionRekognitionClient) data.rekognitionClient;
+    }
+    if ( meta.isCircuitBreaker() ) {
+      data.circuitBreaker = new CircuitBreaker( Const.toInt( environmentSubstitute( meta.getCircuitFailurePercent() ),
+          FaceAnalysisMeta.DEFAULT_CIRCUIT_FAILURE_PERCENT ) / 100.0,
+          TimeUnit.MILLISECONDS.toNanos( Const.toInt( environmentSubstitute( meta.getCircuitCoolDown() ),
+              FaceAnalysisMeta.DEFAULT_CIRCUIT_COOL_DOWN ) ), System::nanoTime );
+    }
+    if ( meta.isAdaptiveTimeouts() || data.circuitBreaker != null ) {
+      data.rekognitionClient = new ResilientRekognitionClient( data.rekognitionClient, requestTimeout,
+          meta.isAdaptiveTimeouts(), data.circuitBreaker );
+    }
+    // hedging goes on top, so each hedged attempt gets its own timeout and its own breaker outcome; the attempt
+    // cancelled because the other one answered first counts neither way
+    if ( meta.isHedgeRequests() ) {
+      data.rekognitionClient = new HedgedRekognitionClient( data.rekognitionClient,
+          Const.toDouble( environmentSubstitute( meta.getHedgePercentile() ),
+              Double.parseDouble( FaceAnalysisMeta.DEFAULT_HEDGE_PERCENTILE ) ),
+          Const.toDouble( environmentSubstitute( meta.getHedgeMaxPercent() ),
+              Double.parseDouble( FaceAnalysisMeta.DEFAULT_HEDGE_MAX_PERCENT ) ) / 100 );
+    }
+
+    try {
+      data.analyzer = new ImageAnalyzer( data.rekognitionClient, AnalysisType.parseList(
+          environmentSubstitute( meta.getAnalysisTypes() ) ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownAnalysisType", meta.getAnalysisTypes() ) );
+      return false;
+    }
+    data.workers = Executors.newFixedThreadPool( threads );
+    data.maxInFlight = threads * 2;
+
+    // other regions cannot read the images from S3, they need the image bytes
+    boolean sendImageBytes = meta.isSendImageBytes() || regions.size() > 1;
+    int nearDuplicateDistance = Const.toInt( environmentSubstitute( meta.getNearDuplicateDistance() ), -1 );
+    LocalFaceDetector.Mode localDetection;
+    try {
+      localDetection = LocalFaceDetector.Mode.parse( environmentSubstitute( meta.getLocalDetection() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownLocalDetection", meta.getLocalDetection() ) );
+      return false;
+    }
+    int minImageSize = Const.toInt( environmentSubstitute( meta.getMinImageSize() ), 0 );
+    // a worker holds one image at a time, kept in a pooled buffer unless it is too large to be sent as bytes
+    data.imageLoader = new ImageLoader( data.s3Client,
+        new BufferPool( (long) threads * ImageAnalyzer.MAX_IMAGE_BYTES, 2 * ImageAnalyzer.MAX_IMAGE_BYTES ),
+        minImageSize );
+    if ( sendImageBytes || nearDuplicateDistance >= 0 || localDetection != LocalFaceDetector.Mode.NONE
+        || minImageSize > 0 ) {
+      data.analyzer.setImageLoader( data.imageLoader, sendImageBytes );
+    }
+    if ( nearDuplicateDistance >= 0 ) {
+      data.analyzer.setNearDuplicateFilter( new NearDuplicateFilter( nearDuplicateDistance,
+          Const.toInt( environmentSubstitute( meta.getNearDuplicateWindow() ),
+              FaceAnalysisMeta.DEFAULT_NEAR_DUPLICATE_WINDOW ) ) );
+    }
+    if ( localDetection != LocalFaceDetector.Mode.NONE ) {
+      String cascadeFile = environmentSubstitute( meta.getLocalCascadeFile() );
+      if ( Const.isEmpty( cascadeFile ) ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoCascadeFile" ) );
+        return false;
+      }
+      try {
+        // one scan thread per image: the workers already analyze several images at once
+        data.faceDetector = new LocalFaceDetector( HaarCascade.load( new File( cascadeFile ) ),
+            Const.toInt( environmentSubstitute( meta.getLocalMinNeighbors() ),
+                FaceAnalysisMeta.DEFAULT_LOCAL_MIN_NEIGHBORS ), 1 );
+      } catch ( IOException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.CascadeFile", cascadeFile ), e );
+        return false;
+      }
+      data.analyzer.setFaceDetector( data.faceDetector, localDetection );
+    }
+
+    try {
+      data.journalMode = ResultJournal.Mode.parse( environmentSubstitute( meta.getJournalMode() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownJournalMode", meta.getJournalMode() ) );
+      return false;
+    }
+    if ( data.journalMode != ResultJournal.Mode.NONE ) {
+      String directory = environmentSubstitute( meta.getJournalDirectory() );
+      if ( Const.isEmpty( directory ) ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoJournalDirectory" ) );
+        return false;
+      }
+      data.journalDirectory = new File( directory );
+    }
+
+    if ( meta.isFaceClustering() ) {
+      // a replay calls no Rekognition API, and the journal does not record the clusters of the faces
+      if ( data.journalMode == ResultJournal.Mode.REPLAY ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.ClusteringReplay" ) );
+        return false;
+      }
+      String collection = environmentSubstitute( meta.getClusterCollection() );
+      if ( Const.isEmpty( collection ) ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoClusterCollection" ) );
+        return false;
+      }
+      String cacheFile = environmentSubstitute( meta.getClusterCacheFile() );
+      try {
+        data.faceClusterer = new FaceClusterer( collection,
+            (float) Const.toDouble( environmentSubstitute( meta.getClusterMatchThreshold() ),
+                FaceAnalysisMeta.DEFAULT_CLUSTER_MATCH_THRESHOLD ),
+            FaceClusterer.MAX_MATCHES, Const.isEmpty( cacheFile ) ? null : new File( cacheFile ) );
+      } catch ( IOException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.ClusterCache", cacheFile ), e );
+        return false;
+      }
+      try {
+        data.faceClusterer.createCollection( data.rekognitionClient );
+      } catch ( SdkBaseException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.ClusterCollection", collection ), e );
+        return false;
+      }
+      data.analyzer.setFaceClusterer( data.faceClusterer );
+    }
+
+    if ( meta.isWriteSidecars() || meta.isSidecarCache() ) {
+      try {
+        data.sidecarStore = new SidecarStore( data.s3Client,
+            Const.NVL( environmentSubstitute( meta.getSidecarPrefix() ), "" ),
+            Const.NVL( environmentSubstitute( meta.getSidecarSuffix() ), "" ), data.analyzer.getAnalysisTypes() );
+      } catch ( IllegalArgumentException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoSidecarKey" ) );
+        return false;
+      }
+      data.writeSidecars = meta.isWriteSidecars();
+      data.sidecarCache = meta.isSidecarCache();
+    }
+
+    if ( meta.isMosaicBatching() ) {
+      if ( data.sidecarCache ) {
+        // the sidecar of each image is read by a worker before deciding to analyze it, one image at a time
+        logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.MosaicSidecarCache" ) );
+      } else if ( data.faceDetector != null ) {
+        // the local detector decides per image whether Rekognition looks for faces at all
+        logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.MosaicLocalDetection" ) );
+      } else if ( data.faceClusterer != null ) {
+        // faces of a composite would be indexed under the wrong image
+        logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.MosaicClustering" ) );
+      } else if ( data.analyzer.getAnalysisTypes().equals( EnumSet.of( AnalysisType.FACES ) ) ) {
+        data.mosaicBatcher = createMosaicBatcher( meta, data );
+        // keep enough images in flight for every worker to have a full batch, plus the one being filled
+        data.maxInFlight = Math.max( data.maxInFlight, ( threads + 1 ) * data.mosaicBatcher.getBatchSize() );
+      } else {
+        logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.MosaicFacesOnly" ) );
+      }
+    }
+
+    if ( meta.isDuplicateSuppression() ) {
+      String directory = environmentSubstitute( meta.getDuplicateIndexDirectory() );
+      int cacheSize = Const.toInt( environmentSubstitute( meta.getDuplicateCacheSize() ),
+          FaceAnalysisMeta.DEFAULT_DUPLICATE_CACHE_SIZE );
+      data.duplicateIndex = new DuplicateIndex( cacheSize, Const.isEmpty( directory ) ? null : new File( directory ),
+          data.analyzer.getAnalysisTypes() );
+    }
+
+    if ( !data.bucketSources.isEmpty() && ( meta.isLeaseCoordination()
+        || SourceMode.parse( environmentSubstitute( meta.getSourceMode() ) ) == SourceMode.INVENTORY ) ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.BucketSourcesListing" ) );
+      return false;
+    }
+    if ( meta.isLeaseCoordination() && Const.isEmpty( environmentSubstitute( meta.getLeaseLocation() ) ) ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoLeaseLocation" ) );
+      return false;
+    }
+    try {
+      data.source = createSource( meta, data, listingThreads );
+    } catch ( IllegalArgumentException e ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownSourceMode", meta.getSourceMode() ) );
+      return false;
+    }
+    try {
+      data.watchMode = WatchSource.Mode.parse( environmentSubstitute( meta.getWatchMode() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownWatchMode", meta.getWatchMode() ) );
+      return false;
+    }
+    if ( data.watchMode == WatchSource.Mode.QUEUE && Const.isEmpty( environmentSubstitute( meta.getWatchQueue() ) ) ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoWatchQueue" ) );
+      return false;
+    }
+    // leased units are listed once and marked done, there is nothing left to watch
+    if ( data.watchMode != WatchSource.Mode.NONE && data.leasedSource != null ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.WatchLease" ) );
+      return false;
+    }
+
+    OrderedSource.Policy orderingPolicy;
+    try {
+      orderingPolicy = OrderedSource.Policy.parse( environmentSubstitute( meta.getOrderingPolicy() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownOrderingPolicy", meta.getOrderingPolicy() ) );
+      return false;
+    }
+    // held back images are not pending yet when a leased unit is marked done or a notification acknowledged
+    if ( orderingPolicy != OrderedSource.Policy.NONE
+        && ( data.leasedSource != null || data.watchMode == WatchSource.Mode.QUEUE ) ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.OrderingCheckpoint" ) );
+      return false;
+    }
+    data.source = OrderedSource.create( data.source, orderingPolicy,
+        Const.toInt( environmentSubstitute( meta.getOrderingWindow() ), FaceAnalysisMeta.DEFAULT_ORDERING_WINDOW ),
+        Math.max( 1, Const.toInt( environmentSubstitute( meta.getOrderingPrefixDepth() ), 1 ) ) );
+
+    try {
+      data.summaryLevel = FaceSummary.Level.parse( environmentSubstitute( meta.getSummaryLevel() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownSummaryLevel", meta.getSummaryLevel() ) );
+      return false;
+    }
+    data.summaryPrefixDepth = Const.toInt( environmentSubstitute( meta.getSummaryPrefixDepth() ), 1 );
+
+    FaceGeometry.Gate faceGate = new FaceGeometry.Gate(
+        Const.toDouble( environmentSubstitute( meta.getMinFaceSize() ), 0 ),
+        Const.toDouble( environmentSubstitute( meta.getMinFaceSharpness() ), 0 ),
+        Const.toDouble( environmentSubstitute( meta.getMinFaceBrightness() ), 0 ) );
+    data.faceGate = faceGate.isActive() ? faceGate : null;
+
+    try {
+      data.sampler = createSampler( meta );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownSamplingMode", meta.getSamplingMode() ) );
+      return false;
+    }
+    // a fixed size sample is only analyzed once the whole bucket was listed, after its units were marked done
+    if ( data.leasedSource != null && data.sampler instanceof ImageSampler.SizeSampler ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.LeaseSampleSize" ) );
+      return false;
+    }
+    // a fixed size sample is only analyzed once the source is exhausted, which a watched source never is
+    if ( data.watchMode != WatchSource.Mode.NONE && data.sampler instanceof ImageSampler.SizeSampler ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.WatchSampleSize" ) );
+      return false;
+    }
+
+    if ( data.journalMode == ResultJournal.Mode.REPLAY && data.watchMode != WatchSource.Mode.NONE ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.WatchReplay" ) );
+      return false;
+    }
+    // a dry run must neither mark leased units done, nor wait for images forever, nor estimate a past run
+    data.dryRun = meta.isDryRun();
+    if ( data.dryRun && ( data.watchMode != WatchSource.Mode.NONE || data.leasedSource != null
+        || data.journalMode == ResultJournal.Mode.REPLAY ) ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.DryRunSource" ) );
+      return false;
+    }
+    // the SearchFaces calls of clustering are estimated from the faces found on the calibration images
+    if ( data.dryRun && data.faceClusterer != null && Const.toInt( environmentSubstitute( meta.getCalibrationSize() ),
+        FaceAnalysisMeta.DEFAULT_CALIBRATION_SIZE ) <= 0 ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.DryRunClustering" ) );
+      return false;
+    }
+    if ( data.journalMode == ResultJournal.Mode.WRITE ) {
+      try {
+        data.journalWriter = new ResultJournal.Writer( data.journalDirectory, ResultJournal.DEFAULT_SEGMENT_RECORDS );
+      } catch ( IOException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.JournalIO", directory( data ) ), e );
+        return false;
+      }
+    }
+
+    try {
+      data.outputFileFormat = ResultFileSink.Format.parse( environmentSubstitute( meta.getOutputFileFormat() ) );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownOutputFileFormat", meta.getOutputFileFormat() ) );
+      return false;
+    }
+    if ( data.outputFileFormat != ResultFileSink.Format.NONE
+        && Const.isEmpty( environmentSubstitute( meta.getOutputFileDirectory() ) ) ) {
+      log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.NoOutputFileDirectory" ) );
+      return false;
+    }
+
+    try {
+      data.watermarkStore = createWatermarkStore( meta );
+    } catch ( IllegalArgumentException e ) {
+      log.logError(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.UnknownWatermarkType", meta.getWatermarkType() ) );
+      return false;
+    }
+
+    if ( data.watchMode != WatchSource.Mode.NONE ) {
+      data.watchSource = createWatchSource( meta, data, credentialsProvider, regions.get( 0 ).getRegion() );
+      data.source = data.watchSource;
+    }
+    if ( data.watchMode == WatchSource.Mode.POLL ) {
+      data.recentKeys = new HashMap<>();
+    }
 
     return true;
   }
@@ -183,9 +541,111 @@ public class FaceAnalysisStep extends BaseStep implements StepInterface {
       setOutputDone();
       return false;
     }
+    data.fieldImageBucketIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_IMAGE_BUCKET );
+    data.fieldImageSizeIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_IMAGE_SIZE );
+    data.fieldImageETagIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_IMAGE_ETAG );
+    data.fieldImageLastModifiedIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_IMAGE_LAST_MODIFIED );
+    data.fieldSampleRateIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_SAMPLE_RATE );
+    data.fieldPersonClusterIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_PERSON_CLUSTER );
+    data.fieldSourceIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_SOURCE );
+    data.fieldFaceGeometryIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_FACE_LEFT );
+    data.fieldImageCountIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_IMAGE_COUNT );
+    data.fieldFaceCountIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_FACE_COUNT );
+    data.fieldMaleFacesIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_MALE_FACES );
+    data.fieldFemaleFacesIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_FEMALE_FACES );
+    data.fieldSmilingFacesIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_SMILING_FACES );
+    data.fieldMeanAgeIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_MEAN_AGE );
+    data.fieldDominantEmotionIndex = data.outputRowMeta.indexOfValue( FaceAnalysisMeta.FIELD_DOMINANT_EMOTION );
+
+    if ( data.outputFileFormat != ResultFileSink.Format.NONE ) {
+      data.outputFileSink = createOutputFileSink( meta, data );
+    }
+
+    if ( data.journalMode == ResultJournal.Mode.REPLAY ) {
+      replayJournal( meta, data );
+      closeOutputFile( data );
+      setOutputDone();
+      return false;
+    }
 
+    if ( data.watermarkStore != null ) {
+      data.watermark = data.watermarkStore.load();
+      if ( data.watermark != null ) {
+        logBasic( BaseMessages.getString(
+            PKG, "FaceAnalysisStep.Log.Watermark", WatermarkStore.format( data.watermark ) ) );
+      }
+    }
 
+    if ( data.dryRun ) {
+      estimateAllImages( meta, data );
+      closeJournal( data );
+      closeOutputFile( data );
+      setOutputDone();
+      return false;
+    }
+
+    FlightEvents.RunEvent runEvent = FlightEvents.beginRun( getStepname() + "." + getCopy() );
     processAllImages(meta, data);
+    FlightEvents.endRun( runEvent, getLinesOutput() );
+
+    if ( data.duplicateIndex != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.DuplicatesSaved", data.duplicateImages,
+          data.duplicateCallsSaved ) );
+    }
+    if ( data.faceClusterer != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Clusters", data.faceClusterer.getIndexedFaces(),
+          data.faceClusterer.getSearches(), data.faceClusterer.getCachedFaces(), data.faceClusterer.getClusters(),
+          data.faceClusterer.getCachedImages() ) );
+    }
+    if ( data.faceGate != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.FacesDropped", data.faceGate.getDropped() ) );
+    }
+    if ( data.faceDetector != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.LocalDetection",
+          data.analyzer.getLocallyDetected() ) );
+    }
+    if ( data.imageLoader.getProbes() > 0 ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.HeaderProbes", data.imageLoader.getProbes(),
+          data.imageLoader.getTooSmall(), data.imageLoader.getBytesSkipped() ) );
+    }
+    if ( data.imageLoader.getBufferPool().getAcquired() > 0 ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.BufferPool",
+          data.imageLoader.getBufferPool().getReused(), data.imageLoader.getBufferPool().getAcquired() ) );
+    }
+    if ( data.analyzer.getNearDuplicateFilter() != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.NearDuplicates",
+          data.analyzer.getNearDuplicateFilter().getNearDuplicates() ) );
+    }
+    if ( data.rekognitionClient instanceof HedgedRekognitionClient ) {
+      HedgedRekognitionClient hedged = (HedgedRekognitionClient) data.rekognitionClient;
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Hedges", hedged.getHedges(),
+          hedged.getHedgesWon() ) );
+    }
+    if ( data.regionalClient != null ) {
+      logRegionCalls( data.regionalClient );
+    }
+    if ( data.circuitBreaker != null && data.circuitBreaker.getOpened() > 0 ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.CircuitBreaker", data.circuitBreaker.getOpened(),
+          data.circuitRetries ) );
+    }
+    if ( data.leasedSource != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.LeaseUnits", data.leasedSource.getUnitsDone() ) );
+    }
+    if ( data.watchSource != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Watch", data.watchSource.getImages(),
+          data.watchSource.getBatches() ) );
+    }
+    if ( data.sidecarStore != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Sidecars", data.sidecarStore.getHits(),
+          data.sidecarStore.getUploads() ) );
+    }
+    if ( data.mosaicBatcher != null ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.MosaicCalls", data.mosaicBatcher.getBatchedImages(),
+          data.mosaicBatcher.getCalls() ) );
+    }
+    closeJournal( data );
+    closeOutputFile( data );
+    commitWatermark( data );
 
     setOutputDone();
     return false;
@@ -211,7 +671,48 @@ public class FaceAnalysisStep extends BaseStep implements StepInterface {
     FaceAnalysisMeta meta = (FaceAnalysisMeta) smi;
     FaceAnalysisData data = (FaceAnalysisData) sdi;
 
-    // Add any step-specific initialization that may be needed here
+    if ( data.workers != null ) {
+      data.workers.shutdownNow();
+      data.workers = null;
+    }
+    data.pending.clear();
+    data.inFlightByContent.clear();
+    if ( data.faceDetector != null ) {
+      data.faceDetector.shutdown();
+      data.faceDetector = null;
+    }
+    if ( data.faceClusterer != null ) {
+      try {
+        data.faceClusterer.close();
+      } catch ( IOException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.ClusterCache",
+            environmentSubstitute( meta.getClusterCacheFile() ) ), e );
+      }
+      data.faceClusterer = null;
+    }
+    if ( data.journalWriter != null ) {
+      try {
+        data.journalWriter.close();
+      } catch ( IOException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.JournalIO", directory( data ) ), e );
+      }
+      data.journalWriter = null;
+    }
+    if ( data.outputFileSink != null ) {
+      try {
+        data.outputFileSink.close();
+      } catch ( IOException e ) {
+        log.logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.OutputFileIO",
+            environmentSubstitute( meta.getOutputFileDirectory() ) ), e );
+      }
+      data.outputFileSink = null;
+    }
+    if ( data.rekognitionClient != null ) {
+      data.rekognitionClient.shutdown();
+    }
+    if ( data.s3Client != null ) {
+      data.s3Client.shutdown();
+    }
 
     // Call superclass dispose()
     super.dispose( meta, data );
@@ -219,114 +720,896 @@ public class FaceAnalysisStep extends BaseStep implements StepInterface {
 
 
 
-  protected void putRowWithFaceProperty(FaceAnalysisData data, String imageFile, String faceId,
+  /**
+   * Emits the GEOMETRY row of a face: its bounding box, pose, quality and packed landmarks in typed fields.
+   */
+  protected void putGeometryRow( FaceAnalysisData data, ImageAnalysisResult image, FaceDetail faceDetail,
+                                 int faceNumber ) throws KettleStepException {
+    Object[] outputRow = createImageRow( data, image );
+    outputRow[data.fieldFaceIdIndex] = String.valueOf( faceNumber );
+    outputRow[data.fieldPropertyIndex] = "GEOMETRY";
+    outputRow[data.fieldConfidenceIndex] = FaceGeometry.toDouble( faceDetail.getConfidence() );
+    if ( data.fieldPersonClusterIndex >= 0 ) {
+      outputRow[data.fieldPersonClusterIndex] = data.personCluster;
+    }
+    Object[] geometry = FaceGeometry.values( faceDetail );
+    System.arraycopy( geometry, 0, outputRow, data.fieldFaceGeometryIndex, geometry.length );
+    emitRow( data, outputRow );
+  }
+
+  protected void putRowWithFaceProperty(FaceAnalysisData data, ImageAnalysisResult image, String faceId,
                                         String property, String value, Double confidence ) throws KettleStepException {
-    Object[] outputRow = RowDataUtil.allocateRowData(data.outputRowMeta.size());
-    outputRow[data.fieldImageFileIndex] = imageFile;
+    Object[] outputRow = createImageRow( data, image );
     outputRow[data.fieldFaceIdIndex] = faceId;
     outputRow[data.fieldPropertyIndex] = property;
     outputRow[data.fieldValueIndex] = value;
     outputRow[data.fieldConfidenceIndex] = confidence;
-    putRow(data.outputRowMeta, outputRow);
+    if ( data.fieldPersonClusterIndex >= 0 ) {
+      outputRow[data.fieldPersonClusterIndex] = data.personCluster;
+    }
+    emitRow( data, outputRow );
+  }
+
+  /**
+   * Passes a result row on, either to the next steps or to the result files.
+   */
+  protected void emitRow( FaceAnalysisData data, Object[] outputRow ) throws KettleStepException {
+    if ( data.outputFileSink == null ) {
+      putRow( data.outputRowMeta, outputRow );
+      return;
+    }
+    ResultFileSink.OutputFile completed;
+    try {
+      completed = data.outputFileSink.write( outputRow );
+    } catch ( IOException e ) {
+      throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.OutputFileIO",
+          data.outputFileSink.getDirectory() ), e );
+    }
+    incrementLinesOutput();
+    if ( completed != null ) {
+      putOutputFileRow( data, completed );
+    }
+  }
+
+  /**
+   * Emits the single row standing for a completed result file: its path, and the number of rows it holds as value.
+   */
+  protected void putOutputFileRow( FaceAnalysisData data, ResultFileSink.OutputFile file )
+      throws KettleStepException {
+    Object[] outputRow = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+    outputRow[data.fieldImageFileIndex] = file.file.getPath();
+    outputRow[data.fieldPropertyIndex] = "OUTPUT_FILE";
+    outputRow[data.fieldValueIndex] = String.valueOf( file.rows );
+    if ( data.fieldImageSizeIndex >= 0 ) {
+      outputRow[data.fieldImageSizeIndex] = file.bytes;
+    }
+    putRow( data.outputRowMeta, outputRow );
+    data.outputFileRows += file.rows;
+  }
+
+  protected ResultFileSink createOutputFileSink( FaceAnalysisMeta meta, FaceAnalysisData data )
+      throws KettleStepException {
+    String directory = environmentSubstitute( meta.getOutputFileDirectory() );
+    long rollBytes = Const.toLong( environmentSubstitute( meta.getOutputFileRollSize() ),
+        FaceAnalysisMeta.DEFAULT_OUTPUT_FILE_ROLL_SIZE ) * 1024 * 1024;
+    // one set of files per run and step copy
+    String baseName = String.format( "faces-%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS-%2$d", new Date(), getCopy() );
+    try {
+      return new ResultFileSink( new File( directory ), baseName, data.outputFileFormat, meta.isOutputFileCompress(),
+          rollBytes, data.outputRowMeta.getFieldNames() );
+    } catch ( IOException e ) {
+      throw new KettleStepException(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.OutputFileIO", directory ), e );
+    }
+  }
+
+  /**
+   * Completes the last result file and emits its row.
+   */
+  protected void closeOutputFile( FaceAnalysisData data ) throws KettleStepException {
+    if ( data.outputFileSink == null ) {
+      return;
+    }
+    ResultFileSink.OutputFile completed;
+    try {
+      completed = data.outputFileSink.closeFile();
+    } catch ( IOException e ) {
+      throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.OutputFileIO",
+          data.outputFileSink.getDirectory() ), e );
+    }
+    data.outputFileSink = null;
+    if ( completed != null ) {
+      putOutputFileRow( data, completed );
+    }
+    logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.OutputFileRows", data.outputFileRows ) );
+  }
+
+  /**
+   * @return an output row holding only the image fields
+   */
+  private Object[] createImageRow( FaceAnalysisData data, ImageAnalysisResult image ) {
+    Object[] outputRow = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+    outputRow[data.fieldImageFileIndex] = image.getKey();
+    if ( data.fieldImageBucketIndex >= 0 ) {
+      outputRow[data.fieldImageBucketIndex] = image.getBucketName();
+      outputRow[data.fieldImageSizeIndex] = image.getSize();
+      outputRow[data.fieldImageETagIndex] = image.getETag();
+      outputRow[data.fieldImageLastModifiedIndex] = image.getLastModified();
+    }
+    if ( data.fieldSampleRateIndex >= 0 && data.sampler != null ) {
+      outputRow[data.fieldSampleRateIndex] = data.sampler.getSampleRate( image.getBucketName(), image.getKey() );
+    }
+    if ( data.fieldSourceIndex >= 0 ) {
+      BucketPrefix source = BucketPrefix.find( data.bucketSources, image.getBucketName(), image.getKey() );
+      outputRow[data.fieldSourceIndex] = source == null ? null : source.toString();
+    }
+    return outputRow;
+  }
+
+
+  /**
+   * Creates the Rekognition client: a plain client for a single region without rate limit, otherwise a
+   * client spreading the calls over the regions.
+   */
+  protected AmazonRekognition createRekognitionClient( List<RegionEndpoint> regions, ClientConfiguration clientConfig,
+                                                       AWSCredentialsProvider credentialsProvider ) {
+    if ( regions.size() == 1 && regions.get( 0 ).getRateLimit() <= 0 ) {
+      return regions.get( 0 ).buildClient( clientConfig, credentialsProvider );
+    }
+    List<MultiRegionRekognitionClient.Region> clients = new ArrayList<>();
+    for ( RegionEndpoint region : regions ) {
+      RateLimiter rateLimiter =
+          region.getRateLimit() > 0 ? new RateLimiter( region.getRateLimit(), System::nanoTime ) : null;
+      clients.add( new MultiRegionRekognitionClient.Region( region,
+          region.buildClient( clientConfig, credentialsProvider ), rateLimiter ) );
+    }
+    return new MultiRegionRekognitionClient( clients );
+  }
+
+
+  /**
+   * Creates the mosaic batcher from the configured tile layout and limits.
+   */
+  protected MosaicBatcher createMosaicBatcher( FaceAnalysisMeta meta, FaceAnalysisData data ) {
+    int columns =
+        Const.toInt( environmentSubstitute( meta.getMosaicColumns() ), FaceAnalysisMeta.DEFAULT_MOSAIC_COLUMNS );
+    int rows = Const.toInt( environmentSubstitute( meta.getMosaicRows() ), FaceAnalysisMeta.DEFAULT_MOSAIC_ROWS );
+    return new MosaicBatcher( data.rekognitionClient, data.imageLoader, data.analyzer, columns, rows,
+        Const.toInt( environmentSubstitute( meta.getMosaicTileSize() ), FaceAnalysisMeta.DEFAULT_MOSAIC_TILE_SIZE ),
+        Const.toInt( environmentSubstitute( meta.getMosaicBatchSize() ), columns * rows ),
+        Const.toLong( environmentSubstitute( meta.getMosaicMaxImageSize() ),
+            FaceAnalysisMeta.DEFAULT_MOSAIC_MAX_IMAGE_SIZE ) );
+  }
+
+
+  private void logRegionCalls( MultiRegionRekognitionClient client ) {
+    StringBuilder calls = new StringBuilder();
+    for ( MultiRegionRekognitionClient.Region region : client.getRegions() ) {
+      calls.append( calls.length() == 0 ? "" : ", " ).append( region.endpoint ).append( '=' )
+          .append( region.getCalls() );
+    }
+    logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.RegionCalls", calls ) );
+  }
+
+
+  /**
+   * Creates the image source for the configured source mode.
+   */
+  protected ImageSource createSource( FaceAnalysisMeta meta, FaceAnalysisData data, int listingThreads ) {
+    switch ( SourceMode.parse( environmentSubstitute( meta.getSourceMode() ) ) ) {
+      case INVENTORY:
+        return new InventoryManifestSource( data.s3Client, environmentSubstitute( meta.getInventoryManifest() ),
+            Runtime.getRuntime().availableProcessors() );
+      case LISTING:
+      default:
+        if ( !data.bucketSources.isEmpty() ) {
+          return new MultiBucketSource( data.s3Client, data.bucketSources );
+        }
+        if ( meta.isLeaseCoordination() ) {
+          return createLeasedSource( meta, data );
+        }
+        if ( listingThreads > 1 ) {
+          return new ParallelListingSource( data.s3Client, environmentSubstitute( meta.getS3BucketName() ),
+              listingThreads );
+        }
+        return new BucketListingSource( data.s3Client, environmentSubstitute( meta.getS3BucketName() ) );
+    }
+  }
+
+
+  protected ImageSource createLeasedSource( FaceAnalysisMeta meta, FaceAnalysisData data ) {
+    String location = environmentSubstitute( meta.getLeaseLocation() );
+    // unique per run, so a restarted instance does not take the units of its crashed run for its own
+    String owner = Const.getHostname() + "/" + getStepname() + "." + getCopy() + "/" + UUID.randomUUID();
+    data.leasedSource = new LeasedListingSource( data.s3Client, environmentSubstitute( meta.getS3BucketName() ),
+        LeaseStore.open( location, data.s3Client ), owner,
+        Const.toLong( environmentSubstitute( meta.getLeaseDuration() ), FaceAnalysisMeta.DEFAULT_LEASE_DURATION ),
+        Const.toInt( environmentSubstitute( meta.getLeaseRanges() ), FaceAnalysisMeta.DEFAULT_LEASE_RANGES ),
+        () -> drainPending( meta, data ) );
+    return data.leasedSource;
   }
 
+  /**
+   * Wraps the configured source so the step keeps running and analyzes new images as they arrive: QUEUE reads
+   * the bucket's event notifications instead of the source, POLL lists the source again after every interval.
+   *
+   * @param homeRegion region of the SQS client when the queue URL does not tell
+   */
+  protected WatchSource createWatchSource( FaceAnalysisMeta meta, FaceAnalysisData data,
+                                           AWSCredentialsProvider credentialsProvider, String homeRegion ) {
+    long interval = Const.toLong( environmentSubstitute( meta.getWatchInterval() ),
+        FaceAnalysisMeta.DEFAULT_WATCH_INTERVAL );
+    if ( data.watchMode == WatchSource.Mode.QUEUE ) {
+      NotificationQueue queue = NotificationQueue.open( environmentSubstitute( meta.getWatchQueue() ),
+          region -> AmazonSQSClientBuilder.standard().withCredentials( credentialsProvider )
+              .withRegion( region == null ? homeRegion : region ).build() );
+      return new WatchSource.QueueSource( queue,
+          Math.max( 1, Const.toInt( environmentSubstitute( meta.getWatchBatchSize() ),
+              FaceAnalysisMeta.DEFAULT_WATCH_BATCH_SIZE ) ), interval, () -> drainPending( meta, data ),
+          message -> logError( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.MalformedNotification",
+              message ) ) );
+    }
+    return new WatchSource.PollingSource( data.source, interval, () -> {
+      if ( !drainPending( meta, data ) ) {
+        return false;
+      }
+      advanceWatermark( data );
+      return true;
+    } );
+  }
 
-  protected void processAllImages(FaceAnalysisMeta meta, FaceAnalysisData data) throws KettleStepException {
+  /**
+   * Creates the sampler for the configured sampling mode, null when every image is analyzed.
+   */
+  protected ImageSampler createSampler( FaceAnalysisMeta meta ) {
+    long seed = Const.toLong( environmentSubstitute( meta.getSamplingSeed() ), 1L );
+    int strataDepth = Const.toInt( environmentSubstitute( meta.getSampleStrataDepth() ), 0 );
+    switch ( ImageSampler.Mode.parse( environmentSubstitute( meta.getSamplingMode() ) ) ) {
+      case RATE:
+        return new ImageSampler.RateSampler( Const.toDouble( environmentSubstitute( meta.getSampleRate() ),
+            Double.parseDouble( FaceAnalysisMeta.DEFAULT_SAMPLE_RATE ) ), seed, strataDepth );
+      case SIZE:
+        return new ImageSampler.SizeSampler( Const.toInt( environmentSubstitute( meta.getSampleSize() ),
+            FaceAnalysisMeta.DEFAULT_SAMPLE_SIZE ), seed, strataDepth );
+      case NONE:
+      default:
+        return null;
+    }
+  }
 
-    ListObjectsV2Request req = new ListObjectsV2Request().withBucketName(meta.getS3BucketName()); //.withMaxKeys(2);
-    ListObjectsV2Result result;
+  /**
+   * Creates the watermark store for the configured watermark type, null when no watermark is kept.
+   */
+  protected WatermarkStore createWatermarkStore( FaceAnalysisMeta meta ) {
+    String location = environmentSubstitute( meta.getWatermarkLocation() );
+    switch ( WatermarkStore.Type.parse( environmentSubstitute( meta.getWatermarkType() ) ) ) {
+      case FILE:
+        return new WatermarkStore.FileStore( new File( location ) );
+      case VARIABLE:
+        Trans trans = getTrans();
+        return new WatermarkStore.VariableStore( location, this, this, trans,
+            trans == null ? null : trans.getParentJob() );
+      case NONE:
+      default:
+        return null;
+    }
+  }
 
-    do {
-      result = data.s3Client.listObjectsV2(req);
-      for (S3ObjectSummary objectSummary : result.getObjectSummaries()) {
-        System.out.printf(" - %s (size: %d)\n", objectSummary.getKey(), objectSummary.getSize());
+  /**
+   * Moves the watermark forward to the most recent image emitted by this run, but no further than the start of the
+   * listing (see WatermarkStore.cap) and before any image the open circuit breaker sent to the error hop. Only done
+   * after a clean, unsampled finish: a stopped or failed run leaves the previous watermark in place, so its images are
+   * retried.
+   */
+  protected void commitWatermark( FaceAnalysisData data ) throws KettleException {
+    // a sampled run leaves most images unanalyzed, the next full run must still see them
+    if ( data.watermarkStore == null || data.sampler != null || isStopped() || getErrors() > 0 ) {
+      return;
+    }
+    if ( data.skippedByWatermark > 0 ) {
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.SkippedByWatermark", data.skippedByWatermark ) );
+    }
+    Date watermark = WatermarkStore.capBefore( WatermarkStore.cap( data.maxLastModified, data.listingStart ),
+        data.oldestDiverted );
+    if ( watermark != null && ( data.watermark == null || watermark.after( data.watermark ) ) ) {
+      data.watermarkStore.save( watermark );
+      data.watermark = watermark;
+    }
+  }
 
-        DetectFacesRequest request = new DetectFacesRequest()
-            .withImage(new Image()
-                .withS3Object(new S3Object()
-                    .withName(objectSummary.getKey()).withBucket(meta.getS3BucketName())))
-            .withAttributes(Attribute.ALL);
 
-        DetectFacesResult facesResult = data.rekognitionClient.detectFaces( request );
-        List<FaceDetail> faceDetails = facesResult.getFaceDetails();
-        int faceNumber = 1;
-        for (FaceDetail faceDetail : faceDetails) {
-          processFaceDetails(meta, data, faceDetail, objectSummary.getKey(), faceNumber++);
+  /**
+   * Moves the watermark towards the most recent image emitted so far, between two listings of a watched source, so
+   * the next listing only hands over new images. The images emitted after the watermark are remembered instead.
+   * Saved right away, as a watching step only ends by being stopped.
+   */
+  protected void advanceWatermark( FaceAnalysisData data ) throws KettleException {
+    Date watermark = WatermarkStore.capBefore( WatermarkStore.cap( data.maxLastModified, data.listingStart ),
+        data.oldestDiverted );
+    // the next listing starts after the wait, this is a safe earlier bound
+    data.listingStart = new Date();
+    if ( watermark != null && ( data.watermark == null || watermark.after( data.watermark ) ) ) {
+      if ( data.watermarkStore != null && data.sampler == null && getErrors() == 0 ) {
+        data.watermarkStore.save( watermark );
+      }
+      data.watermark = watermark;
+    }
+    if ( data.watermark != null ) {
+      data.recentKeys.values().removeIf( lastModified -> !lastModified.after( data.watermark ) );
+    }
+  }
+
+
+  protected void processAllImages(FaceAnalysisMeta meta, FaceAnalysisData data) throws KettleException {
+
+    data.listingStart = new Date();
+
+    data.source.list( objectSummary -> {
+      if ( isStopped() ) {
+        return false;
+      }
+      if ( acceptImage( meta, data, objectSummary ) && sampleImage( data, objectSummary ) ) {
+        submitImage( meta, data, objectSummary );
+      }
+      return true;
+    } );
+
+    if ( data.sampler != null ) {
+      // fixed size samples are only known once every image was listed
+      for ( S3ObjectSummary objectSummary : data.sampler.drain() ) {
+        if ( isStopped() ) {
+          break;
+        }
+        data.sampledImages++;
+        submitImage( meta, data, objectSummary );
+      }
+      logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Sampled", data.sampledImages,
+          data.listedImages ) );
+    }
+
+    drainPending( meta, data );
+
+    emitPrefixSummaries( data );
+  }
+
+  /**
+   * Lists and filters the images like a real run, without emitting their rows: analyzes only a few of them to time
+   * the calls, then emits and logs the object count, size histogram, Rekognition calls left after duplicate hits,
+   * and projected run time.
+   */
+  protected void estimateAllImages( FaceAnalysisMeta meta, FaceAnalysisData data ) throws KettleException {
+    int threads = Math.max( 1, Const.toInt( environmentSubstitute( meta.getWorkerThreads() ),
+        Integer.parseInt( FaceAnalysisMeta.DEFAULT_WORKER_THREADS ) ) );
+    int calibrationSize = Math.max( 0, Const.toInt( environmentSubstitute( meta.getCalibrationSize() ),
+        FaceAnalysisMeta.DEFAULT_CALIBRATION_SIZE ) );
+    CapacityEstimate estimate = new CapacityEstimate( data.analyzer.getAnalysisTypes().size() );
+    if ( data.mosaicBatcher != null ) {
+      estimate.setMosaic( data.mosaicBatcher.getBatchSize(), data.mosaicBatcher.getMaxImageSize() );
+    }
+    estimate.setClustering( data.faceClusterer != null );
+    // the calibration faces are detected only, not indexed into the collection
+    data.analyzer.setFaceClusterer( null );
+    // times each image on its worker, without the wait in the pool's queue
+    Executor timedWorkers = task -> data.workers.execute( () -> {
+      long start = System.nanoTime();
+      try {
+        task.run();
+      } finally {
+        estimate.addCalibration( System.nanoTime() - start );
+      }
+    } );
+    List<CompletableFuture<ImageAnalysisResult>> calibration = new ArrayList<>();
+
+    long listingStart = System.nanoTime();
+    data.source.list( objectSummary -> {
+      if ( isStopped() ) {
+        return false;
+      }
+      if ( acceptImage( meta, data, objectSummary ) && sampleImage( data, objectSummary )
+          && estimateImage( data, estimate, objectSummary ) && calibration.size() < calibrationSize ) {
+        calibration.add( data.analyzer.submit( objectSummary, timedWorkers ) );
+      }
+      return true;
+    } );
+    if ( data.sampler != null ) {
+      for ( S3ObjectSummary objectSummary : data.sampler.drain() ) {
+        if ( isStopped() ) {
+          break;
+        }
+        if ( estimateImage( data, estimate, objectSummary ) && calibration.size() < calibrationSize ) {
+          calibration.add( data.analyzer.submit( objectSummary, timedWorkers ) );
         }
       }
-    } while (result.isTruncated());
+    }
+    estimate.setListingNanos( System.nanoTime() - listingStart );
+
+    for ( CompletableFuture<ImageAnalysisResult> result : calibration ) {
+      try {
+        List<FaceDetail> faceDetails = result.get().getFaceDetails();
+        if ( faceDetails != null ) {
+          estimate.addCalibrationFaces( faceDetails.size() );
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new KettleStepException( e );
+      } catch ( ExecutionException e ) {
+        // a failed call took its time as well, the estimate keeps it
+        logDetailed( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.CalibrationFailed", e.getCause() ) );
+      }
+    }
+
+    String scope = data.bucketSources.isEmpty() ? environmentSubstitute( meta.getS3BucketName() )
+        : environmentSubstitute( meta.getBucketSources() );
+    for ( Map.Entry<String, Object> figure : estimate.report( threads, data.callRateLimit ).entrySet() ) {
+      Object[] outputRow = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+      outputRow[data.fieldImageFileIndex] = scope;
+      outputRow[data.fieldPropertyIndex] = "ESTIMATE_" + figure.getKey();
+      outputRow[data.fieldValueIndex] = figure.getValue() == null ? null : String.valueOf( figure.getValue() );
+      emitRow( data, outputRow );
+    }
+    logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Estimate", estimate.getObjects(),
+        estimate.getBytes(), estimate.getAnalyzedImages(), estimate.getApiCalls(),
+        estimate.getProjectedMillis( threads, data.callRateLimit ) / 1000, estimate.getCalibrated() ) );
+  }
+
+  /**
+   * Counts one image for the estimate, checking the duplicate index like submitImage would.
+   *
+   * @return true when a real run would call Rekognition for the image
+   */
+  private boolean estimateImage( FaceAnalysisData data, CapacityEstimate estimate, S3ObjectSummary objectSummary )
+      throws KettleStepException {
+    String contentKey = data.duplicateIndex == null ? null : data.duplicateIndex.contentKey( objectSummary );
+    boolean indexed;
+    try {
+      indexed = contentKey != null && data.duplicateIndex.get( contentKey ) != null;
+    } catch ( IOException e ) {
+      throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.DuplicateIndex" ), e );
+    }
+    return estimate.add( objectSummary, contentKey, indexed );
+  }
+
+  /**
+   * Waits for every pending image and emits its rows.
+   *
+   * @return false if the step was stopped meanwhile
+   */
+  protected boolean drainPending( FaceAnalysisMeta meta, FaceAnalysisData data ) throws KettleStepException {
+    while ( !data.pending.isEmpty() && !isStopped() ) {
+      emitNextResult( meta, data );
+    }
+    return !isStopped();
+  }
+
+  /**
+   * Emits the rows of every result recorded in the journal, without listing the bucket or calling Rekognition.
+   * Journal segments are decoded in parallel, so rows of different segments come out interleaved.
+   */
+  protected void replayJournal( FaceAnalysisMeta meta, FaceAnalysisData data ) throws KettleException {
+    int threads = Math.max( 1, Const.toInt( environmentSubstitute( meta.getWorkerThreads() ),
+        Integer.parseInt( FaceAnalysisMeta.DEFAULT_WORKER_THREADS ) ) );
+    ResultJournal.replay( data.journalDirectory, threads, image -> {
+      if ( isStopped() ) {
+        return false;
+      }
+      processImageResult( meta, data, image );
+      data.replayedImages++;
+      return true;
+    }, BaseMessages.getString( PKG, "FaceAnalysisStep.Error.JournalIO", directory( data ) ) );
+
+    emitPrefixSummaries( data );
+    logBasic( BaseMessages.getString( PKG, "FaceAnalysisStep.Log.Replayed", data.replayedImages ) );
+  }
+
+  protected void emitPrefixSummaries( FaceAnalysisData data ) throws KettleStepException {
+    if ( !isStopped() ) {
+      for ( Map.Entry<String, FaceSummary> prefix : data.prefixSummaries.entrySet() ) {
+        putSummaryRow( data, prefix.getKey(), null, "PREFIX_SUMMARY", prefix.getValue() );
+      }
+    }
+    data.prefixSummaries.clear();
+  }
+
+  /**
+   * Flushes the last journal segment, so a finished run leaves a complete journal behind.
+   */
+  protected void closeJournal( FaceAnalysisData data ) throws KettleStepException {
+    if ( data.journalWriter == null ) {
+      return;
+    }
+    try {
+      data.journalWriter.close();
+    } catch ( IOException e ) {
+      throw new KettleStepException(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.JournalIO", directory( data ) ), e );
+    }
+    data.journalWriter = null;
+  }
+
+  private static String directory( FaceAnalysisData data ) {
+    return data.journalDirectory == null ? "" : data.journalDirectory.getPath();
+  }
+
+  /**
+   * Filters applied to every enumerated object, whatever the source mode.
+   *
+   * @return true if the object should be analyzed
+   */
+  protected boolean acceptImage( FaceAnalysisMeta meta, FaceAnalysisData data, S3ObjectSummary objectSummary ) {
+    // "folder" placeholder objects created by the S3 console are not images
+    if ( objectSummary.getKey().endsWith( "/" ) ) {
+      return false;
+    }
+    if ( data.sidecarStore != null && data.sidecarStore.isSidecar( objectSummary.getKey() ) ) {
+      return false;
+    }
+    if ( data.watermark != null && objectSummary.getLastModified() != null
+        && !objectSummary.getLastModified().after( data.watermark ) ) {
+      data.skippedByWatermark++;
+      return false;
+    }
+    // already emitted by an earlier listing of a watched source
+    if ( data.recentKeys != null && data.recentKeys.containsKey( objectSummary.getKey() ) ) {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the image is to be analyzed now, false when it is left out of the sample or held
+   *         back until the listing is complete
+   */
+  protected boolean sampleImage( FaceAnalysisData data, S3ObjectSummary objectSummary ) {
+    if ( data.sampler == null ) {
+      return true;
+    }
+    data.listedImages++;
+    if ( data.sampler.offer( objectSummary ) ) {
+      data.sampledImages++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Hands one listed image to the worker pool. Once the number of images in flight reaches the
+   * configured window, the oldest one is waited for and emitted first, keeping rows in listing order.
+   * Images whose content was already analyzed reuse that result instead of calling Rekognition.
+   */
+  protected void submitImage( FaceAnalysisMeta meta, FaceAnalysisData data, S3ObjectSummary objectSummary )
+      throws KettleStepException {
+    if ( isDetailed() ) {
+      logDetailed( String.format( " - %s (size: %d)", objectSummary.getKey(), objectSummary.getSize() ) );
+    }
+    String contentKey = data.duplicateIndex == null ? null : data.duplicateIndex.contentKey( objectSummary );
+    CompletableFuture<ImageAnalysisResult> result = contentKey == null ? null
+        : findDuplicateResult( data, contentKey, objectSummary );
+    boolean duplicate = result != null;
+    CompletableFuture<ImageAnalysisResult> tile = null;
+    if ( duplicate ) {
+      data.duplicateImages++;
+      data.duplicateCallsSaved += data.analyzer.getAnalysisTypes().size();
+      final CompletableFuture<ImageAnalysisResult> original = result;
+      result = withSidecar( data, objectSummary, () -> original );
+    } else {
+      if ( data.mosaicBatcher != null && data.mosaicBatcher.accepts( objectSummary ) ) {
+        // mosaic batching is off when sidecars are reused, so no lookup comes before the tile
+        tile = data.mosaicBatcher.add( objectSummary, data.workers );
+        result = withSidecar( data, tile );
+      } else {
+        result = withSidecar( data, objectSummary, () -> data.analyzer.submit( objectSummary, data.workers ) );
+      }
+      if ( contentKey != null ) {
+        data.inFlightByContent.put( contentKey, result );
+      }
+    }
+    FaceAnalysisData.PendingImage pendingImage =
+        new FaceAnalysisData.PendingImage( objectSummary, contentKey, duplicate, result );
+    pendingImage.tile = tile;
+    data.pending.addLast( pendingImage );
+    while ( data.pending.size() >= data.maxInFlight ) {
+      emitNextResult( meta, data );
+    }
+  }
 
+  /**
+   * Adds the sidecar handling to the analysis of an image. When sidecars are reused, the analysis only starts
+   * (on a worker) if the image has no up to date sidecar; when they are written, the result is uploaded once known.
+   */
+  private CompletableFuture<ImageAnalysisResult> withSidecar( FaceAnalysisData data, S3ObjectSummary objectSummary,
+      Supplier<CompletableFuture<ImageAnalysisResult>> analysis ) {
+    if ( !data.sidecarCache ) {
+      return withSidecar( data, analysis.get() );
+    }
+    return data.sidecarStore.lookup( objectSummary, data.workers ).thenCompose( cached -> cached != null
+        ? CompletableFuture.completedFuture( cached )
+        : withSidecar( data, analysis.get() ) );
+  }
+
+  /**
+   * @return the result, followed by the upload of its sidecar when sidecars are written
+   */
+  private CompletableFuture<ImageAnalysisResult> withSidecar( FaceAnalysisData data,
+                                                              CompletableFuture<ImageAnalysisResult> result ) {
+    return data.writeSidecars ? data.sidecarStore.upload( result, data.workers ) : result;
+  }
+
+  /**
+   * Looks for an earlier image with the same content, either still being analyzed or already indexed.
+   *
+   * @return the result to reuse for the object, or null if its content was not seen yet
+   */
+  private CompletableFuture<ImageAnalysisResult> findDuplicateResult( FaceAnalysisData data, String contentKey,
+                                                                      S3ObjectSummary objectSummary )
+      throws KettleStepException {
+    CompletableFuture<ImageAnalysisResult> original = data.inFlightByContent.get( contentKey );
+    if ( original != null ) {
+      return original.thenApply( result -> result.copyFor( objectSummary ) );
+    }
+    ImageAnalysisResult indexed;
+    try {
+      indexed = data.duplicateIndex.get( contentKey );
+    } catch ( IOException e ) {
+      throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.DuplicateIndex" ), e );
+    }
+    return indexed == null ? null : CompletableFuture.completedFuture( indexed.copyFor( objectSummary ) );
+  }
+
+  protected void emitNextResult( FaceAnalysisMeta meta, FaceAnalysisData data ) throws KettleStepException {
+    FaceAnalysisData.PendingImage next = data.pending.removeFirst();
+    if ( next.tile != null && !next.result.isDone() ) {
+      // a duplicate waits on its original, which is emitted (and flushed) first
+      data.mosaicBatcher.flushIfWaitingOn( next.tile, data.workers );
+    }
+    ImageAnalysisResult image;
+    try {
+      image = next.result.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleStepException( e );
+    } catch ( ExecutionException e ) {
+      if ( e.getCause() instanceof CircuitBreaker.OpenException ) {
+        divertImage( data, next, (CircuitBreaker.OpenException) e.getCause() );
+        return;
+      }
+      throw new KettleStepException(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.AnalysisFailed" ), e.getCause() );
+    }
+    processImageResult( meta, data, image );
+    if ( data.journalWriter != null ) {
+      try {
+        data.journalWriter.append( image );
+      } catch ( IOException e ) {
+        throw new KettleStepException(
+            BaseMessages.getString( PKG, "FaceAnalysisStep.Error.JournalIO", directory( data ) ), e );
+      }
+    }
+    if ( image.getLastModified() != null
+        && ( data.maxLastModified == null || image.getLastModified().after( data.maxLastModified ) ) ) {
+      data.maxLastModified = image.getLastModified();
+    }
+    if ( data.recentKeys != null && image.getLastModified() != null ) {
+      data.recentKeys.put( image.getKey(), image.getLastModified() );
+    }
+    if ( next.contentKey != null && !next.duplicate ) {
+      data.inFlightByContent.remove( next.contentKey );
+      try {
+        data.duplicateIndex.put( next.contentKey, image );
+      } catch ( IOException e ) {
+        throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.DuplicateIndex" ), e );
+      }
+    }
+  }
+
+  /**
+   * Handles an image refused by the open circuit breaker. With an error hop, the image goes there;
+   * otherwise it is submitted again once the breaker lets calls through, ahead of the other pending images.
+   */
+  protected void divertImage( FaceAnalysisData data, FaceAnalysisData.PendingImage image,
+                              CircuitBreaker.OpenException e ) throws KettleStepException {
+    if ( image.contentKey != null && !image.duplicate ) {
+      data.inFlightByContent.remove( image.contentKey );
+    }
+    if ( getStepMeta().isDoingErrorHandling() ) {
+      Date lastModified = image.objectSummary.getLastModified();
+      if ( lastModified != null && ( data.oldestDiverted == null || lastModified.before( data.oldestDiverted ) ) ) {
+        data.oldestDiverted = lastModified;
+      }
+      putError( data.outputRowMeta, createImageRow( data, new ImageAnalysisResult( image.objectSummary ) ), 1,
+          e.getMessage(), FaceAnalysisMeta.FIELD_IMAGE_FILE, CIRCUIT_OPEN_ERROR_CODE );
+      return;
+    }
+    if ( image.retries >= MAX_CIRCUIT_RETRIES ) {
+      throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.CircuitOpen",
+          image.objectSummary.getKey(), image.retries ), e );
+    }
+    // wait for the cool-down in short slices, so stopping the transformation is not delayed
+    long waitNanos;
+    while ( ( waitNanos = e.getRetryAtNanos() - System.nanoTime() ) > 0 && !isStopped() ) {
+      try {
+        Thread.sleep( Math.min( 1000L, TimeUnit.NANOSECONDS.toMillis( waitNanos ) + 1 ) );
+      } catch ( InterruptedException ie ) {
+        Thread.currentThread().interrupt();
+        throw new KettleStepException( ie );
+      }
+    }
+    FaceAnalysisData.PendingImage retry = new FaceAnalysisData.PendingImage( image.objectSummary, image.contentKey,
+        false, withSidecar( data, data.analyzer.submit( image.objectSummary, data.workers ) ) );
+    retry.retries = image.retries + 1;
+    if ( retry.contentKey != null ) {
+      data.inFlightByContent.put( retry.contentKey, retry.result );
+    }
+    data.pending.addFirst( retry );
+    data.circuitRetries++;
+  }
+
+  protected void processImageResult( FaceAnalysisMeta meta, FaceAnalysisData data, ImageAnalysisResult image )
+      throws KettleStepException {
+    FlightEvents.ImageRowsEvent event = FlightEvents.beginImage();
+    long rowsBefore = event == null ? 0 : getLinesOutput();
+    if ( data.faceGate != null ) {
+      // dropped faces count neither in the detail rows nor in the summaries
+      image = data.faceGate.apply( image );
+    }
+    if ( !meta.isSummaryOnly() || data.summaryLevel == FaceSummary.Level.NONE ) {
+      processDetailRows( meta, data, image );
+    }
+    switch ( data.summaryLevel ) {
+      case IMAGE:
+        FaceSummary summary = new FaceSummary();
+        summary.add( image );
+        putSummaryRow( data, image.getKey(), image, "IMAGE_SUMMARY", summary );
+        break;
+      case PREFIX:
+        data.prefixSummaries.computeIfAbsent( ImageSource.keyPrefix( image.getKey(), data.summaryPrefixDepth ),
+            prefix -> new FaceSummary() ).add( image );
+        break;
+      case NONE:
+      default:
+        break;
+    }
+    if ( event != null ) {
+      FlightEvents.endImage( event, image, getLinesOutput() - rowsBefore );
+    }
+  }
+
+  /**
+   * Emits one summary row.
+   *
+   * @param image the summarized image for an image summary, null for a prefix summary
+   */
+  protected void putSummaryRow( FaceAnalysisData data, String imageFile, ImageAnalysisResult image, String property,
+                                FaceSummary summary ) throws KettleStepException {
+    Object[] outputRow;
+    if ( image != null ) {
+      outputRow = createImageRow( data, image );
+    } else {
+      outputRow = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+      outputRow[data.fieldImageFileIndex] = imageFile;
+    }
+    outputRow[data.fieldPropertyIndex] = property;
+    outputRow[data.fieldImageCountIndex] = summary.getImages();
+    outputRow[data.fieldFaceCountIndex] = summary.getFaces();
+    outputRow[data.fieldMaleFacesIndex] = summary.getMaleFaces();
+    outputRow[data.fieldFemaleFacesIndex] = summary.getFemaleFaces();
+    outputRow[data.fieldSmilingFacesIndex] = summary.getSmilingFaces();
+    outputRow[data.fieldMeanAgeIndex] = summary.getMeanAge();
+    outputRow[data.fieldDominantEmotionIndex] = summary.getDominantEmotion();
+    emitRow( data, outputRow );
+  }
+
+  /**
+   * Emits the property rows of an image: one per face attribute, label, text or moderation label.
+   */
+  protected void processDetailRows( FaceAnalysisMeta meta, FaceAnalysisData data, ImageAnalysisResult image )
+      throws KettleStepException {
+    if ( image.getFaceDetails() != null ) {
+      List<String> clusters = resolveClusters( meta, data, image );
+      int faceNumber = 1;
+      for ( FaceDetail faceDetail : image.getFaceDetails() ) {
+        data.personCluster = clusters == null || faceNumber > clusters.size() ? null : clusters.get( faceNumber - 1 );
+        processFaceDetails( meta, data, faceDetail, image, faceNumber++ );
+      }
+      data.personCluster = null;
+    }
+    if ( image.getLabels() != null ) {
+      int labelNumber = 1;
+      for ( Label label : image.getLabels() ) {
+        putRowWithFaceProperty( data, image, "" + labelNumber++, "LABEL", label.getName(),
+            FaceGeometry.toDouble( label.getConfidence() ) );
+      }
+    }
+    if ( image.getTextDetections() != null ) {
+      for ( TextDetection text : image.getTextDetections() ) {
+        putRowWithFaceProperty( data, image, String.valueOf( text.getId() ), "TEXT_" + text.getType(),
+            text.getDetectedText(), FaceGeometry.toDouble( text.getConfidence() ) );
+      }
+    }
+    if ( image.getModerationLabels() != null ) {
+      int labelNumber = 1;
+      for ( ModerationLabel label : image.getModerationLabels() ) {
+        String value = Const.isEmpty( label.getParentName() ) ? label.getName()
+            : label.getParentName() + "/" + label.getName();
+        putRowWithFaceProperty( data, image, "" + labelNumber++, "MODERATION_LABEL", value,
+            FaceGeometry.toDouble( label.getConfidence() ) );
+      }
+    }
+  }
+
+  /**
+   * @return the person cluster of each face of the image, or null when faces are not clustered
+   */
+  private List<String> resolveClusters( FaceAnalysisMeta meta, FaceAnalysisData data, ImageAnalysisResult image )
+      throws KettleStepException {
+    if ( data.faceClusterer == null ) {
+      return null;
+    }
+    try {
+      return data.faceClusterer.resolve( image );
+    } catch ( IOException e ) {
+      throw new KettleStepException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.ClusterCache",
+          environmentSubstitute( meta.getClusterCacheFile() ) ), e );
+    }
   }
 
 
   private void processFaceDetails(FaceAnalysisMeta meta, FaceAnalysisData data,
-                                  FaceDetail faceDetail, String imageName, int faceNumber) throws KettleStepException {
+                                  FaceDetail faceDetail, ImageAnalysisResult image, int faceNumber) throws KettleStepException {
 
     //putRowWithFaceProperty(FaceAnalysisData data, String imageFile, String faceId,
     //    String property, String value, Double confidence ) throws KettleStepException {
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    if ( data.fieldFaceGeometryIndex >= 0 ) {
+      putGeometryRow( data, image, faceDetail, faceNumber );
+    }
+
+    if ( faceDetail.getAgeRange() == null ) {
+      // found by the local detector: a box without attributes or confidence
+      if ( data.fieldFaceGeometryIndex >= 0 ) {
+        return;
+      }
+      BoundingBox box = faceDetail.getBoundingBox();
+      putRowWithFaceProperty( data, image, "" + faceNumber, "BOUNDING_BOX", String.format( Locale.ROOT,
+          "%.4f,%.4f,%.4f,%.4f", box.getLeft(), box.getTop(), box.getWidth(), box.getHeight() ), null );
+      return;
+    }
+
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_AGERANGELOW", faceDetail.getAgeRange().getLow().toString(), new Double(faceDetail.getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_AGEGANGEHIGH", faceDetail.getAgeRange().getHigh().toString(), new Double(faceDetail.getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_BEARD",faceDetail.getBeard().getValue().toString(), new Double(faceDetail.getBeard().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_EYEGLASSES",faceDetail.getEyeglasses().getValue().toString(), new Double(faceDetail.getEyeglasses().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_EYESOPEN",faceDetail.getEyesOpen().getValue().toString(), new Double(faceDetail.getEyesOpen().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_GENDER",faceDetail.getGender().getValue(), new Double(faceDetail.getGender().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_SMILE",faceDetail.getSmile().getValue().toString(), new Double(faceDetail.getSmile().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_MOUTHOPEN",faceDetail.getMouthOpen().getValue().toString(), new Double(faceDetail.getMouthOpen().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_MUSTACHE",faceDetail.getMustache().getValue().toString(), new Double(faceDetail.getMustache().getConfidence()) );
 
-    putRowWithFaceProperty( data, imageName, ""+faceNumber,
+    putRowWithFaceProperty( data, image, ""+faceNumber,
         "DETAIL_SUNGLASSES",faceDetail.getSunglasses().getValue().toString(), new Double(faceDetail.getSunglasses().getConfidence()) );
 
     // last but not least, add a row per each emotion
     List<Emotion> emotions = faceDetail.getEmotions();
     for (Emotion emotion : emotions) {
-      putRowWithFaceProperty( data, imageName, ""+faceNumber,
+      putRowWithFaceProperty( data, image, ""+faceNumber,
           "EMOTION", emotion.getType(), new Double(emotion.getConfidence()) );
     }
-
-
-    /*
-
-    List<Landmark> landmarks = faceDetail.getLandmarks();
-    for (Landmark lm : landmarks) {
-      System.out.println("Landmark: " + lm.getType()
-          + ", x=" + lm.getX() + "; y=" + lm.getY());
-    }
-
-    Pose pose = faceDetail.getPose();
-    System.out.println("Pose: pitch=" + pose.getPitch() + "; roll=" + pose.getRoll() + "; yaw" + pose.getYaw());
-
-    ImageQuality quality = faceDetail.getQuality();
-    System.out.println("Quality: brightness=" + quality.getBrightness() + "; sharpness=" + quality.getSharpness());
-
-
-    BoundingBox bb = faceDetail.getBoundingBox();
-    System.out.println("BoundingBox: left=" + bb.getLeft() +
-                ", top=" + bb.getTop() + ", width=" + bb.getWidth() +
-                ", height=" + bb.getHeight());
-
-    Float confidence = faceDetail.getConfidence();
-    System.out.println("Confidence: " + confidence);
-
-    */
   }
   
 
@@ -0,0 +1,300 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.Attribute;
+import com.amazonaws.services.rekognition.model.CreateCollectionRequest;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.FaceMatch;
+import com.amazonaws.services.rekognition.model.FaceRecord;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.IndexFacesRequest;
+import com.amazonaws.services.rekognition.model.QualityFilter;
+import com.amazonaws.services.rekognition.model.ResourceAlreadyExistsException;
+import com.amazonaws.services.rekognition.model.SearchFacesRequest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups the faces of all images by person, with one IndexFaces call per image and one SearchFaces call per face
+ * instead of comparing every pair of images.
+ *
+ * The workers index each image into a Rekognition collection (this replaces DetectFaces: IndexFaces returns the same
+ * face details, plus a FaceId per face), then search the collection for every new face and keep the matching FaceIds
+ * on the result. The step thread resolves the clusters in emission order, without calling Rekognition:
+ *
+ * - a face matching a face with a known cluster joins that cluster (the best match first),
+ * - a face only matching unknown faces (indexed concurrently, or by an earlier run without cache) joins the cluster
+ *   named after its best match,
+ * - any other face starts a cluster named after its own FaceId.
+ *
+ * Faces indexed concurrently therefore land in the same cluster whichever is emitted first. The FaceId to cluster
+ * cache can be kept in a file, so later runs over the same collection keep the cluster ids and skip searching faces
+ * that are already known. The file also keeps the faces indexed for each image version (bucket, key and ETag):
+ * IndexFaces assigns new FaceIds on every call, so an image seen by an earlier run is not indexed again, its faces
+ * are taken from the file.
+ */
+class FaceClusterer implements Closeable {
+
+  // longest ExternalImageId accepted by IndexFaces
+  static final int MAX_EXTERNAL_ID = 255;
+  // matches kept per face: more only help when the best ones are not clustered yet
+  static final int MAX_MATCHES = 10;
+
+  private final String collectionId;
+  private final float matchThreshold;
+  private final int maxMatches;
+  private final Map<String, String> clusters = new ConcurrentHashMap<>();
+  // faces of the images indexed by earlier runs, by image version
+  private final Map<String, ImageAnalysisResult> indexedImages = new ConcurrentHashMap<>();
+  private final BufferedWriter cacheWriter;
+
+  private final AtomicLong indexedFaces = new AtomicLong();
+  private final AtomicLong searches = new AtomicLong();
+  private final AtomicLong cachedImages = new AtomicLong();
+  private long cachedFaces;
+  private long newClusters;
+
+  /**
+   * @param matchThreshold minimum similarity (0-100) for two faces to be the same person
+   * @param maxMatches     number of matches kept per face
+   * @param cacheFile      file holding the FaceId to cluster assignments across runs, null to keep them in memory
+   */
+  FaceClusterer( String collectionId, float matchThreshold, int maxMatches, File cacheFile ) throws IOException {
+    this.collectionId = collectionId;
+    this.matchThreshold = matchThreshold;
+    this.maxMatches = maxMatches;
+    if ( cacheFile == null ) {
+      cacheWriter = null;
+      return;
+    }
+    if ( cacheFile.isFile() ) {
+      try ( BufferedReader reader = new BufferedReader(
+          new InputStreamReader( new FileInputStream( cacheFile ), StandardCharsets.UTF_8 ) ) ) {
+        String line;
+        while ( ( line = reader.readLine() ) != null ) {
+          int tab = line.indexOf( '\t' );
+          if ( line.startsWith( "{" ) ) {
+            ImageAnalysisResult image = ResultCodec.fromJson( line.getBytes( StandardCharsets.UTF_8 ) );
+            indexedImages.put( imageVersion( image ), image );
+          } else if ( tab > 0 ) {
+            clusters.put( line.substring( 0, tab ), line.substring( tab + 1 ) );
+          }
+        }
+      }
+    }
+    cacheWriter = new BufferedWriter(
+        new OutputStreamWriter( new FileOutputStream( cacheFile, true ), StandardCharsets.UTF_8 ) );
+  }
+
+  String getCollectionId() {
+    return collectionId;
+  }
+
+  /**
+   * Creates the collection unless it exists already.
+   */
+  void createCollection( AmazonRekognition client ) {
+    try {
+      client.createCollection( new CreateCollectionRequest().withCollectionId( collectionId ) );
+    } catch ( ResourceAlreadyExistsException e ) {
+      // reused across runs
+    }
+  }
+
+  /**
+   * Indexes the faces of one image and searches the collection for each of them. Called from the workers.
+   * An image already indexed by an earlier run gets the faces recorded then, without calling Rekognition.
+   */
+  void index( AmazonRekognition client, Image image, ImageAnalysisResult result ) {
+    String imageVersion = result.getETag() == null ? null : imageVersion( result );
+    ImageAnalysisResult indexed = imageVersion == null ? null : indexedImages.get( imageVersion );
+    if ( indexed != null ) {
+      cachedImages.incrementAndGet();
+      result.setFaceDetails( indexed.getFaceDetails() );
+      result.setFaceIds( indexed.getFaceIds() );
+      // the faces were clustered by that run
+      result.setFaceMatches( null );
+      return;
+    }
+    // no quality filter: the same faces as DetectFaces, so clustering does not change the face rows
+    List<FaceRecord> records = client.indexFaces( new IndexFacesRequest()
+        .withCollectionId( collectionId )
+        .withImage( image )
+        .withExternalImageId( externalImageId( result.getKey() ) )
+        .withDetectionAttributes( Attribute.ALL )
+        .withQualityFilter( QualityFilter.NONE ) ).getFaceRecords();
+    List<FaceDetail> faceDetails = new ArrayList<>( records.size() );
+    List<String> faceIds = new ArrayList<>( records.size() );
+    List<List<String>> faceMatches = new ArrayList<>( records.size() );
+    for ( FaceRecord record : records ) {
+      String faceId = record.getFace().getFaceId();
+      faceDetails.add( record.getFaceDetail() );
+      faceIds.add( faceId );
+      faceMatches.add( clusters.containsKey( faceId ) ? Collections.<String>emptyList() : search( client, faceId ) );
+    }
+    indexedFaces.addAndGet( records.size() );
+    result.setFaceDetails( faceDetails );
+    result.setFaceIds( faceIds );
+    result.setFaceMatches( faceMatches );
+  }
+
+  private static String imageVersion( ImageAnalysisResult result ) {
+    return result.getBucketName() + "/" + result.getKey() + "#" + result.getETag();
+  }
+
+  private List<String> search( AmazonRekognition client, String faceId ) {
+    searches.incrementAndGet();
+    List<String> matches = new ArrayList<>();
+    for ( FaceMatch match : client.searchFaces( new SearchFacesRequest()
+        .withCollectionId( collectionId )
+        .withFaceId( faceId )
+        .withFaceMatchThreshold( matchThreshold )
+        .withMaxFaces( maxMatches ) ).getFaceMatches() ) {
+      // best match first, as returned
+      matches.add( match.getFace().getFaceId() );
+    }
+    return matches;
+  }
+
+  /**
+   * Assigns a cluster to every face of the result. Called from the step thread, in emission order.
+   *
+   * @return the cluster of each face, in face order, or null when the faces were not indexed
+   */
+  List<String> resolve( ImageAnalysisResult result ) throws IOException {
+    List<String> faceIds = result.getFaceIds();
+    if ( faceIds == null ) {
+      return null;
+    }
+    List<List<String>> faceMatches = result.getFaceMatches();
+    List<String> resolved = new ArrayList<>( faceIds.size() );
+    for ( int i = 0; i < faceIds.size(); i++ ) {
+      String faceId = faceIds.get( i );
+      String cluster = clusters.get( faceId );
+      if ( cluster != null ) {
+        cachedFaces++;
+      } else {
+        List<String> matches = faceMatches == null || i >= faceMatches.size() ? null : faceMatches.get( i );
+        cluster = cluster( faceId, matches == null ? Collections.<String>emptyList() : matches );
+      }
+      resolved.add( cluster );
+    }
+    if ( faceMatches != null && result.getETag() != null && cacheWriter != null ) {
+      // indexed by this run: later runs take its faces from the file
+      ImageAnalysisResult indexed = new ImageAnalysisResult();
+      indexed.setBucketName( result.getBucketName() );
+      indexed.setKey( result.getKey() );
+      indexed.setETag( result.getETag() );
+      indexed.setFaceDetails( result.getFaceDetails() );
+      indexed.setFaceIds( faceIds );
+      write( new String( ResultCodec.toJson( indexed ), StandardCharsets.UTF_8 ) );
+    }
+    return resolved;
+  }
+
+  private String cluster( String faceId, List<String> matches ) throws IOException {
+    String cluster = null;
+    for ( String match : matches ) {
+      cluster = clusters.get( match );
+      if ( cluster != null ) {
+        break;
+      }
+    }
+    if ( cluster == null ) {
+      cluster = matches.isEmpty() ? faceId : matches.get( 0 );
+      newClusters++;
+      if ( !cluster.equals( faceId ) ) {
+        assign( cluster, cluster );
+      }
+    }
+    assign( faceId, cluster );
+    return cluster;
+  }
+
+  private void assign( String faceId, String cluster ) throws IOException {
+    clusters.put( faceId, cluster );
+    if ( cacheWriter != null ) {
+      write( faceId + '\t' + cluster );
+    }
+  }
+
+  private void write( String line ) throws IOException {
+    cacheWriter.write( line );
+    cacheWriter.write( '\n' );
+  }
+
+  /**
+   * @return the key as an ExternalImageId, which only allows some characters
+   */
+  static String externalImageId( String key ) {
+    String id = key.replaceAll( "[^a-zA-Z0-9_.\\-:]", "_" );
+    return id.length() > MAX_EXTERNAL_ID ? id.substring( id.length() - MAX_EXTERNAL_ID ) : id;
+  }
+
+  long getIndexedFaces() {
+    return indexedFaces.get();
+  }
+
+  long getSearches() {
+    return searches.get();
+  }
+
+  long getCachedFaces() {
+    return cachedFaces;
+  }
+
+  /**
+   * @return the number of images whose faces were taken from the cache file instead of being indexed again
+   */
+  long getCachedImages() {
+    return cachedImages.get();
+  }
+
+  long getClusters() {
+    return newClusters;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if ( cacheWriter != null ) {
+      cacheWriter.close();
+    }
+  }
+}
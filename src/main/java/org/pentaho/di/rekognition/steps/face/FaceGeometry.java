@@ -0,0 +1,220 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.ImageQuality;
+import com.amazonaws.services.rekognition.model.Landmark;
+import com.amazonaws.services.rekognition.model.LandmarkType;
+import com.amazonaws.services.rekognition.model.Pose;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns the geometry of a face (bounding box, pose, quality and landmarks) into typed field values, one GEOMETRY
+ * row per face instead of a row per value, and drops the faces too small or too poor to be used.
+ *
+ * The landmarks are packed into a single binary value of fixed layout: for each type of LANDMARK_TYPES, in that
+ * order, the x and y of the landmark as big-endian floats (fractions of the image width and height), NaN when
+ * Rekognition did not return it.
+ */
+class FaceGeometry {
+
+  /**
+   * The landmark types in the packed layout. New types are only ever appended, so older readers stay valid.
+   */
+  static final LandmarkType[] LANDMARK_TYPES = {
+    LandmarkType.EyeLeft, LandmarkType.EyeRight, LandmarkType.Nose, LandmarkType.MouthLeft, LandmarkType.MouthRight,
+    LandmarkType.LeftEyeBrowLeft, LandmarkType.LeftEyeBrowRight, LandmarkType.LeftEyeBrowUp,
+    LandmarkType.RightEyeBrowLeft, LandmarkType.RightEyeBrowRight, LandmarkType.RightEyeBrowUp,
+    LandmarkType.LeftEyeLeft, LandmarkType.LeftEyeRight, LandmarkType.LeftEyeUp, LandmarkType.LeftEyeDown,
+    LandmarkType.RightEyeLeft, LandmarkType.RightEyeRight, LandmarkType.RightEyeUp, LandmarkType.RightEyeDown,
+    LandmarkType.NoseLeft, LandmarkType.NoseRight, LandmarkType.MouthUp, LandmarkType.MouthDown,
+    LandmarkType.LeftPupil, LandmarkType.RightPupil, LandmarkType.UpperJawlineLeft, LandmarkType.MidJawlineLeft,
+    LandmarkType.ChinBottom, LandmarkType.MidJawlineRight, LandmarkType.UpperJawlineRight
+  };
+
+  // number of field values of a face, in FaceAnalysisMeta order from FIELD_FACE_LEFT to FIELD_FACE_LANDMARKS
+  static final int FIELD_COUNT = 10;
+
+  private FaceGeometry() {
+  }
+
+  /**
+   * @return the field values of the face, null for the ones Rekognition did not return (the local detector only
+   *         finds a bounding box)
+   */
+  static Object[] values( FaceDetail face ) {
+    Object[] values = new Object[FIELD_COUNT];
+    BoundingBox box = face.getBoundingBox();
+    if ( box != null ) {
+      values[0] = toDouble( box.getLeft() );
+      values[1] = toDouble( box.getTop() );
+      values[2] = toDouble( box.getWidth() );
+      values[3] = toDouble( box.getHeight() );
+    }
+    Pose pose = face.getPose();
+    if ( pose != null ) {
+      values[4] = toDouble( pose.getPitch() );
+      values[5] = toDouble( pose.getRoll() );
+      values[6] = toDouble( pose.getYaw() );
+    }
+    ImageQuality quality = face.getQuality();
+    if ( quality != null ) {
+      values[7] = toDouble( quality.getBrightness() );
+      values[8] = toDouble( quality.getSharpness() );
+    }
+    if ( face.getLandmarks() != null && !face.getLandmarks().isEmpty() ) {
+      values[9] = packLandmarks( face.getLandmarks() );
+    }
+    return values;
+  }
+
+  /**
+   * @return the landmarks in the fixed layout, 8 bytes per type of LANDMARK_TYPES
+   */
+  static byte[] packLandmarks( List<Landmark> landmarks ) {
+    float[] points = new float[LANDMARK_TYPES.length * 2];
+    Arrays.fill( points, Float.NaN );
+    for ( Landmark landmark : landmarks ) {
+      int index = indexOf( landmark.getType() );
+      if ( index >= 0 && landmark.getX() != null && landmark.getY() != null ) {
+        points[index * 2] = landmark.getX();
+        points[index * 2 + 1] = landmark.getY();
+      }
+    }
+    ByteBuffer packed = ByteBuffer.allocate( points.length * 4 );
+    packed.asFloatBuffer().put( points );
+    return packed.array();
+  }
+
+  /**
+   * @return the x and y of the landmark of the given type, null when it is missing from the packed value
+   */
+  static float[] unpackLandmark( byte[] packed, LandmarkType type ) {
+    int index = indexOf( type.toString() );
+    if ( index < 0 || ( index + 1 ) * 8 > packed.length ) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap( packed );
+    float x = buffer.getFloat( index * 8 );
+    float y = buffer.getFloat( index * 8 + 4 );
+    return Float.isNaN( x ) || Float.isNaN( y ) ? null : new float[] { x, y };
+  }
+
+  private static int indexOf( String type ) {
+    for ( int i = 0; i < LANDMARK_TYPES.length; i++ ) {
+      if ( LANDMARK_TYPES[i].toString().equals( type ) ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the value widened to a Kettle number, null when Rekognition did not return it
+   */
+  static Double toDouble( Float value ) {
+    return value == null ? null : Double.valueOf( value );
+  }
+
+  /**
+   * Drops the faces whose bounding box is smaller than a fraction of the image, or whose sharpness or brightness
+   * is below a minimum. A face without the measure (e.g. no quality from the local detector) is kept.
+   */
+  static class Gate {
+    private final double minSize;
+    private final double minSharpness;
+    private final double minBrightness;
+    private long dropped;
+
+    Gate( double minSize, double minSharpness, double minBrightness ) {
+      this.minSize = minSize;
+      this.minSharpness = minSharpness;
+      this.minBrightness = minBrightness;
+    }
+
+    /**
+     * @return false when no face is ever dropped
+     */
+    boolean isActive() {
+      return minSize > 0 || minSharpness > 0 || minBrightness > 0;
+    }
+
+    /**
+     * @return the number of faces dropped so far
+     */
+    long getDropped() {
+      return dropped;
+    }
+
+    boolean accepts( FaceDetail face ) {
+      BoundingBox box = face.getBoundingBox();
+      if ( box != null && ( below( box.getWidth(), minSize ) || below( box.getHeight(), minSize ) ) ) {
+        return false;
+      }
+      ImageQuality quality = face.getQuality();
+      return quality == null
+          || !below( quality.getSharpness(), minSharpness ) && !below( quality.getBrightness(), minBrightness );
+    }
+
+    /**
+     * @return the image itself when every face passes, otherwise a copy holding only the faces that pass, along
+     *         with their FaceIds and matches when faces are clustered
+     */
+    ImageAnalysisResult apply( ImageAnalysisResult image ) {
+      List<FaceDetail> faces = image.getFaceDetails();
+      if ( faces == null ) {
+        return image;
+      }
+      List<FaceDetail> kept = new ArrayList<>();
+      List<String> keptIds = image.getFaceIds() == null ? null : new ArrayList<>();
+      List<List<String>> keptMatches = image.getFaceMatches() == null ? null : new ArrayList<>();
+      for ( int i = 0; i < faces.size(); i++ ) {
+        if ( !accepts( faces.get( i ) ) ) {
+          continue;
+        }
+        kept.add( faces.get( i ) );
+        if ( keptIds != null && i < image.getFaceIds().size() ) {
+          keptIds.add( image.getFaceIds().get( i ) );
+        }
+        if ( keptMatches != null && i < image.getFaceMatches().size() ) {
+          keptMatches.add( image.getFaceMatches().get( i ) );
+        }
+      }
+      if ( kept.size() == faces.size() ) {
+        return image;
+      }
+      dropped += faces.size() - kept.size();
+      return image.copyWithFaces( kept, keptIds, keptMatches );
+    }
+
+    private static boolean below( Float value, double minimum ) {
+      return value != null && value < minimum;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.model.Emotion;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the face analysis results of a group of images (one image, or all images under a key prefix)
+ * into the figures usually computed downstream with a Group By: face count, gender split, smiling faces,
+ * mean age and dominant emotion. The memory used does not depend on the number of images or faces added.
+ */
+class FaceSummary {
+
+  /**
+   * What the summary rows are computed for.
+   */
+  enum Level {
+    NONE, IMAGE, PREFIX;
+
+    static Level parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Level.valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  private long images;
+  private long faces;
+  private long maleFaces;
+  private long femaleFaces;
+  private long smilingFaces;
+  private double ageSum;
+  private long agedFaces;
+  // number of faces per top emotion, bounded by the number of emotion types
+  private final Map<String, Long> topEmotions = new HashMap<>();
+
+  void add( ImageAnalysisResult image ) {
+    images++;
+    if ( image.getFaceDetails() == null ) {
+      return;
+    }
+    for ( FaceDetail face : image.getFaceDetails() ) {
+      add( face );
+    }
+  }
+
+  private void add( FaceDetail face ) {
+    faces++;
+    if ( face.getGender() != null ) {
+      if ( "Male".equalsIgnoreCase( face.getGender().getValue() ) ) {
+        maleFaces++;
+      } else if ( "Female".equalsIgnoreCase( face.getGender().getValue() ) ) {
+        femaleFaces++;
+      }
+    }
+    if ( face.getSmile() != null && Boolean.TRUE.equals( face.getSmile().getValue() ) ) {
+      smilingFaces++;
+    }
+    if ( face.getAgeRange() != null && face.getAgeRange().getLow() != null && face.getAgeRange().getHigh() != null ) {
+      ageSum += ( face.getAgeRange().getLow() + face.getAgeRange().getHigh() ) / 2.0;
+      agedFaces++;
+    }
+    Emotion top = null;
+    if ( face.getEmotions() != null ) {
+      for ( Emotion emotion : face.getEmotions() ) {
+        if ( emotion.getConfidence() != null
+            && ( top == null || emotion.getConfidence() > top.getConfidence() ) ) {
+          top = emotion;
+        }
+      }
+    }
+    if ( top != null ) {
+      topEmotions.merge( top.getType(), 1L, Long::sum );
+    }
+  }
+
+  long getImages() {
+    return images;
+  }
+
+  long getFaces() {
+    return faces;
+  }
+
+  long getMaleFaces() {
+    return maleFaces;
+  }
+
+  long getFemaleFaces() {
+    return femaleFaces;
+  }
+
+  long getSmilingFaces() {
+    return smilingFaces;
+  }
+
+  /**
+   * @return the mean of the estimated age range midpoints, null when no face had an age range
+   */
+  Double getMeanAge() {
+    return agedFaces == 0 ? null : ageSum / agedFaces;
+  }
+
+  /**
+   * @return the emotion that is most often the top emotion of a face, null without faces
+   */
+  String getDominantEmotion() {
+    String dominant = null;
+    long count = 0;
+    for ( Map.Entry<String, Long> entry : topEmotions.entrySet() ) {
+      if ( entry.getValue() > count || ( entry.getValue() == count && entry.getKey().compareTo( dominant ) < 0 ) ) {
+        dominant = entry.getKey();
+        count = entry.getValue();
+      }
+    }
+    return dominant;
+  }
+}
@@ -0,0 +1,342 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectTextRequest;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.IndexFacesRequest;
+import com.amazonaws.services.rekognition.model.IndexFacesResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the phases of a run, so a slow run can be profiled in Mission Control and its
+ * GC pauses, blocked threads and network stalls lined up with the images being processed:
+ *
+ * - a Run event spanning the listing and analysis of all images,
+ * - a Listing event per S3 listing page and a Rekognition event per API call, recorded by a request handler
+ *   on the clients (including the SDK's retries, and whether any attempt was throttled),
+ * - an Image Rows event per image turned into output rows.
+ *
+ * When no recording is running, creating an event and checking isEnabled() is all that happens. The events need
+ * jdk.jfr (Java 8u262 and later); on older runtimes, isAvailable() is false and no event class is ever loaded.
+ */
+final class FlightEvents {
+
+  private static final boolean AVAILABLE = isJfrAvailable();
+
+  private FlightEvents() {
+  }
+
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName( "jdk.jfr.Event", false, FlightEvents.class.getClassLoader() );
+      return true;
+    } catch ( ClassNotFoundException | LinkageError e ) {
+      return false;
+    }
+  }
+
+  @Name( "org.pentaho.di.rekognition.Run" )
+  @Label( "Face Analysis Run" )
+  @Category( { "Pentaho", "Face Analysis" } )
+  @Description( "Listing and analysis of all images by one step copy" )
+  static class RunEvent extends Event {
+    @Label( "Step" )
+    String step;
+
+    @Label( "Rows" )
+    long rows;
+  }
+
+  @Name( "org.pentaho.di.rekognition.ImageRows" )
+  @Label( "Image Rows" )
+  @Category( { "Pentaho", "Face Analysis" } )
+  @Description( "Output rows of one analyzed image" )
+  static class ImageRowsEvent extends Event {
+    @Label( "Key" )
+    String key;
+
+    @Label( "Image Size" )
+    @DataAmount
+    long bytes;
+
+    @Label( "Faces" )
+    int faces;
+
+    @Label( "Rows" )
+    long rows;
+  }
+
+  @Name( "org.pentaho.di.rekognition.RekognitionCall" )
+  @Label( "Rekognition Call" )
+  @Category( { "Pentaho", "Face Analysis", "AWS" } )
+  @Description( "One Rekognition API call, including the retries of the AWS SDK" )
+  static class RekognitionCallEvent extends Event {
+    @Label( "Operation" )
+    String operation;
+
+    @Label( "Key" )
+    @Description( "Object key of the image, empty when its bytes were sent" )
+    String key;
+
+    @Label( "Image Bytes Sent" )
+    @DataAmount
+    long bytes;
+
+    @Label( "Faces" )
+    int faces;
+
+    @Label( "Retries" )
+    int retries;
+
+    @Label( "Throttled" )
+    @Description( "Whether any attempt was throttled" )
+    boolean throttled;
+
+    @Label( "Error" )
+    String error;
+  }
+
+  @Name( "org.pentaho.di.rekognition.Listing" )
+  @Label( "S3 Listing Page" )
+  @Category( { "Pentaho", "Face Analysis", "AWS" } )
+  @Description( "One page of an S3 bucket listing" )
+  static class ListingEvent extends Event {
+    @Label( "Bucket" )
+    String bucket;
+
+    @Label( "Prefix" )
+    String prefix;
+
+    @Label( "Keys" )
+    int keys;
+
+    @Label( "Truncated" )
+    boolean truncated;
+
+    @Label( "Retries" )
+    int retries;
+
+    @Label( "Throttled" )
+    @Description( "Whether any attempt was throttled" )
+    boolean throttled;
+
+    @Label( "Error" )
+    String error;
+  }
+
+  /**
+   * @return the started event, or null when there is nothing to record
+   */
+  static RunEvent beginRun( String step ) {
+    if ( !AVAILABLE ) {
+      return null;
+    }
+    RunEvent event = new RunEvent();
+    if ( !event.isEnabled() ) {
+      return null;
+    }
+    event.step = step;
+    event.begin();
+    return event;
+  }
+
+  static void endRun( RunEvent event, long rows ) {
+    if ( event != null ) {
+      event.rows = rows;
+      event.commit();
+    }
+  }
+
+  /**
+   * @return the started event, or null when there is nothing to record
+   */
+  static ImageRowsEvent beginImage() {
+    if ( !AVAILABLE ) {
+      return null;
+    }
+    ImageRowsEvent event = new ImageRowsEvent();
+    if ( !event.isEnabled() ) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endImage( ImageRowsEvent event, ImageAnalysisResult image, long rows ) {
+    if ( event != null ) {
+      event.end();
+      if ( event.shouldCommit() ) {
+        event.key = image.getKey();
+        event.bytes = image.getSize();
+        event.faces = image.getFaceDetails() == null ? 0 : image.getFaceDetails().size();
+        event.rows = rows;
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Records S3 listing pages and Rekognition calls. Only to be created when isAvailable().
+   */
+  static class Recorder extends RequestHandler2 {
+
+    private static final HandlerContextKey<Event> EVENT = new HandlerContextKey<>( "FlightEvent" );
+    private static final String REKOGNITION_MODEL = DetectFacesRequest.class.getPackage().getName() + ".";
+
+    @Override
+    public void beforeRequest( Request<?> request ) {
+      AmazonWebServiceRequest original = request.getOriginalRequest();
+      Event event;
+      if ( original instanceof ListObjectsV2Request ) {
+        event = new ListingEvent();
+      } else if ( original.getClass().getName().startsWith( REKOGNITION_MODEL ) ) {
+        event = new RekognitionCallEvent();
+      } else {
+        return;
+      }
+      if ( event.isEnabled() ) {
+        event.begin();
+        request.addHandlerContext( EVENT, event );
+      }
+    }
+
+    @Override
+    public void beforeAttempt( HandlerBeforeAttemptContext context ) {
+      Event event = context.getRequest().getHandlerContext( EVENT );
+      if ( event instanceof RekognitionCallEvent ) {
+        ( (RekognitionCallEvent) event ).retries++;
+      } else if ( event instanceof ListingEvent ) {
+        ( (ListingEvent) event ).retries++;
+      }
+    }
+
+    @Override
+    public void afterAttempt( HandlerAfterAttemptContext context ) {
+      Exception failure = context.getException();
+      if ( !( failure instanceof SdkBaseException )
+          || !RetryUtils.isThrottlingException( (SdkBaseException) failure ) ) {
+        return;
+      }
+      Event event = context.getRequest().getHandlerContext( EVENT );
+      if ( event instanceof RekognitionCallEvent ) {
+        ( (RekognitionCallEvent) event ).throttled = true;
+      } else if ( event instanceof ListingEvent ) {
+        ( (ListingEvent) event ).throttled = true;
+      }
+    }
+
+    @Override
+    public void afterResponse( Request<?> request, Response<?> response ) {
+      complete( request, response == null ? null : response.getAwsResponse(), null );
+    }
+
+    @Override
+    public void afterError( Request<?> request, Response<?> response, Exception e ) {
+      complete( request, null, e );
+    }
+
+    private static void complete( Request<?> request, Object result, Exception e ) {
+      Event event = request.getHandlerContext( EVENT );
+      if ( event == null ) {
+        return;
+      }
+      event.end();
+      if ( !event.shouldCommit() ) {
+        return;
+      }
+      AmazonWebServiceRequest original = request.getOriginalRequest();
+      String error = e == null ? null : e.getMessage();
+      if ( event instanceof ListingEvent ) {
+        ListingEvent listing = (ListingEvent) event;
+        ListObjectsV2Request listRequest = (ListObjectsV2Request) original;
+        listing.bucket = listRequest.getBucketName();
+        listing.prefix = listRequest.getPrefix();
+        if ( result instanceof ListObjectsV2Result ) {
+          listing.keys = ( (ListObjectsV2Result) result ).getKeyCount();
+          listing.truncated = ( (ListObjectsV2Result) result ).isTruncated();
+        }
+        // the first attempt is no retry
+        listing.retries = Math.max( 0, listing.retries - 1 );
+        listing.error = error;
+      } else {
+        RekognitionCallEvent call = (RekognitionCallEvent) event;
+        call.operation = request.getHandlerContext( HandlerContextKey.OPERATION_NAME );
+        Image image = image( original );
+        if ( image != null && image.getS3Object() != null ) {
+          call.key = image.getS3Object().getName();
+        }
+        if ( image != null && image.getBytes() != null ) {
+          call.bytes = image.getBytes().remaining();
+        }
+        if ( result instanceof DetectFacesResult && ( (DetectFacesResult) result ).getFaceDetails() != null ) {
+          call.faces = ( (DetectFacesResult) result ).getFaceDetails().size();
+        } else if ( result instanceof IndexFacesResult && ( (IndexFacesResult) result ).getFaceRecords() != null ) {
+          call.faces = ( (IndexFacesResult) result ).getFaceRecords().size();
+        }
+        call.retries = Math.max( 0, call.retries - 1 );
+        call.error = error;
+      }
+      event.commit();
+    }
+
+    private static Image image( AmazonWebServiceRequest request ) {
+      if ( request instanceof DetectFacesRequest ) {
+        return ( (DetectFacesRequest) request ).getImage();
+      } else if ( request instanceof DetectLabelsRequest ) {
+        return ( (DetectLabelsRequest) request ).getImage();
+      } else if ( request instanceof DetectTextRequest ) {
+        return ( (DetectTextRequest) request ).getImage();
+      } else if ( request instanceof DetectModerationLabelsRequest ) {
+        return ( (DetectModerationLabelsRequest) request ).getImage();
+      } else if ( request instanceof IndexFacesRequest ) {
+        return ( (IndexFacesRequest) request ).getImage();
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,341 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * A boosted cascade of Haar-like features, read from an OpenCV cascade file (the opencv-cascade-classifier
+ * format of the files shipped with OpenCV, e.g. haarcascade_frontalface_default.xml), and evaluated on integral
+ * images without any native code.
+ *
+ * The cascade is flattened into arrays once; evaluating a window at a given scale needs the features scaled to
+ * that window (see Scaled), which the scanning code prepares once per scale. Immutable, shared by all threads.
+ */
+class HaarCascade {
+
+  static final int MAX_RECTS = 3;
+
+  final int width;
+  final int height;
+
+  // stages: a window passes a stage when the sum of its weak classifiers reaches the stage threshold
+  final float[] stageThresholds;
+  final int[] stageFirstWeak;
+  final int[] stageWeakCounts;
+
+  // weak classifiers: small trees, nodes[] holds left, right, feature per node, leaf indexes are stored as -index
+  final int[] weakFirstNode;
+  final int[] weakFirstLeaf;
+  final int[] nodes;
+  final float[] nodeThresholds;
+  final float[] leafValues;
+
+  // features: up to MAX_RECTS weighted rectangles, x y w h per rectangle, unused ones have a zero weight
+  final int[] featureRects;
+  final float[] featureWeights;
+
+  private HaarCascade( int width, int height, List<float[]> stages, List<float[]> weaks, List<float[]> features ) {
+    this.width = width;
+    this.height = height;
+    int stageCount = stages.size();
+    stageThresholds = new float[stageCount];
+    stageFirstWeak = new int[stageCount];
+    stageWeakCounts = new int[stageCount];
+    int weakIndex = 0;
+    for ( int i = 0; i < stageCount; i++ ) {
+      stageThresholds[i] = stages.get( i )[0];
+      stageWeakCounts[i] = (int) stages.get( i )[1];
+      stageFirstWeak[i] = weakIndex;
+      weakIndex += stageWeakCounts[i];
+    }
+
+    weakFirstNode = new int[weaks.size()];
+    weakFirstLeaf = new int[weaks.size()];
+    List<Integer> nodeList = new ArrayList<>();
+    List<Float> thresholdList = new ArrayList<>();
+    List<Float> leafList = new ArrayList<>();
+    for ( int i = 0; i < weaks.size(); i++ ) {
+      float[] weak = weaks.get( i );
+      int nodeCount = (int) weak[0];
+      weakFirstNode[i] = thresholdList.size();
+      weakFirstLeaf[i] = leafList.size();
+      for ( int n = 0; n < nodeCount; n++ ) {
+        nodeList.add( (int) weak[1 + n * 4] );
+        nodeList.add( (int) weak[2 + n * 4] );
+        nodeList.add( (int) weak[3 + n * 4] );
+        thresholdList.add( weak[4 + n * 4] );
+      }
+      for ( int l = 1 + nodeCount * 4; l < weak.length; l++ ) {
+        leafList.add( weak[l] );
+      }
+    }
+    nodes = new int[nodeList.size()];
+    for ( int i = 0; i < nodes.length; i++ ) {
+      nodes[i] = nodeList.get( i );
+    }
+    nodeThresholds = new float[thresholdList.size()];
+    for ( int i = 0; i < nodeThresholds.length; i++ ) {
+      nodeThresholds[i] = thresholdList.get( i );
+    }
+    leafValues = new float[leafList.size()];
+    for ( int i = 0; i < leafValues.length; i++ ) {
+      leafValues[i] = leafList.get( i );
+    }
+
+    featureRects = new int[features.size() * MAX_RECTS * 4];
+    featureWeights = new float[features.size() * MAX_RECTS];
+    for ( int f = 0; f < features.size(); f++ ) {
+      float[] rects = features.get( f );
+      for ( int r = 0; r < rects.length / 5; r++ ) {
+        for ( int c = 0; c < 4; c++ ) {
+          featureRects[( f * MAX_RECTS + r ) * 4 + c] = (int) rects[r * 5 + c];
+        }
+        featureWeights[f * MAX_RECTS + r] = rects[r * 5 + 4];
+      }
+    }
+  }
+
+  int getStageCount() {
+    return stageThresholds.length;
+  }
+
+  /**
+   * Reads an OpenCV cascade file. Only Haar features without tilted rectangles are supported.
+   */
+  static HaarCascade load( File file ) throws IOException {
+    Document document;
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature( "http://apache.org/xml/features/disallow-doctype-decl", true );
+      document = factory.newDocumentBuilder().parse( file );
+    } catch ( ParserConfigurationException | SAXException e ) {
+      throw new IOException( "Unable to read cascade file " + file, e );
+    }
+    Element cascade = child( document.getDocumentElement(), "cascade" );
+    if ( cascade == null || !"HAAR".equals( text( cascade, "featureType" ) )
+        || !"BOOST".equals( text( cascade, "stageType" ) ) ) {
+      throw new IOException( "Not an OpenCV Haar cascade (opencv-cascade-classifier format): " + file );
+    }
+    int width = Integer.parseInt( text( cascade, "width" ) );
+    int height = Integer.parseInt( text( cascade, "height" ) );
+
+    List<float[]> stages = new ArrayList<>();
+    List<float[]> weaks = new ArrayList<>();
+    for ( Element stage : items( child( cascade, "stages" ) ) ) {
+      List<Element> stageWeaks = items( child( stage, "weakClassifiers" ) );
+      stages.add( new float[] { Float.parseFloat( text( stage, "stageThreshold" ) ), stageWeaks.size() } );
+      for ( Element weak : stageWeaks ) {
+        float[] nodeValues = numbers( text( weak, "internalNodes" ) );
+        float[] leaves = numbers( text( weak, "leafValues" ) );
+        float[] flat = new float[1 + nodeValues.length + leaves.length];
+        flat[0] = nodeValues.length / 4;
+        System.arraycopy( nodeValues, 0, flat, 1, nodeValues.length );
+        System.arraycopy( leaves, 0, flat, 1 + nodeValues.length, leaves.length );
+        weaks.add( flat );
+      }
+    }
+
+    List<float[]> features = new ArrayList<>();
+    for ( Element feature : items( child( cascade, "features" ) ) ) {
+      if ( "1".equals( text( feature, "tilted" ) ) ) {
+        throw new IOException( "Tilted Haar features are not supported: " + file );
+      }
+      List<Element> rects = items( child( feature, "rects" ) );
+      if ( rects.size() > MAX_RECTS ) {
+        throw new IOException( "Haar feature with more than " + MAX_RECTS + " rectangles: " + file );
+      }
+      float[] flat = new float[rects.size() * 5];
+      for ( int r = 0; r < rects.size(); r++ ) {
+        float[] rect = numbers( rects.get( r ).getTextContent() );
+        System.arraycopy( rect, 0, flat, r * 5, 5 );
+      }
+      features.add( flat );
+    }
+    return new HaarCascade( width, height, stages, weaks, features );
+  }
+
+  /**
+   * The cascade's features scaled to a window size. The first rectangle's weight is adjusted so each feature
+   * still sums to zero over a flat area once its rectangles were rounded to whole pixels.
+   */
+  static class Scaled {
+    final double scale;
+    final int windowWidth;
+    final int windowHeight;
+    // the variance is measured on the window without its one pixel border, as the cascade was trained
+    final int normX;
+    final int normY;
+    final int normWidth;
+    final int normHeight;
+    final int[] rects;
+    final float[] weights;
+
+    Scaled( HaarCascade cascade, double scale ) {
+      this.scale = scale;
+      windowWidth = (int) Math.round( cascade.width * scale );
+      windowHeight = (int) Math.round( cascade.height * scale );
+      normX = (int) Math.round( scale );
+      normY = normX;
+      normWidth = (int) Math.round( ( cascade.width - 2 ) * scale );
+      normHeight = (int) Math.round( ( cascade.height - 2 ) * scale );
+      rects = new int[cascade.featureRects.length];
+      weights = new float[cascade.featureWeights.length];
+      double inverseArea = 1.0 / ( normWidth * normHeight );
+      for ( int f = 0; f < cascade.featureWeights.length / MAX_RECTS; f++ ) {
+        double others = 0;
+        for ( int r = 0; r < MAX_RECTS; r++ ) {
+          int i = f * MAX_RECTS + r;
+          for ( int c = 0; c < 4; c++ ) {
+            rects[i * 4 + c] = (int) Math.round( cascade.featureRects[i * 4 + c] * scale );
+          }
+          // rounding must not push a rectangle out of the window
+          rects[i * 4 + 2] = Math.min( rects[i * 4 + 2], windowWidth - rects[i * 4] );
+          rects[i * 4 + 3] = Math.min( rects[i * 4 + 3], windowHeight - rects[i * 4 + 1] );
+          if ( r > 0 ) {
+            others += cascade.featureWeights[i] * rects[i * 4 + 2] * rects[i * 4 + 3];
+            weights[i] = (float) ( cascade.featureWeights[i] * inverseArea );
+          }
+        }
+        int first = f * MAX_RECTS;
+        int firstArea = rects[first * 4 + 2] * rects[first * 4 + 3];
+        weights[first] = firstArea == 0 ? 0f : (float) ( -others / firstArea * inverseArea );
+      }
+    }
+  }
+
+  /**
+   * Runs the cascade on one window.
+   *
+   * @param sums    integral image of the pixel values, (width + 1) x (height + 1)
+   * @param squares integral image of the squared pixel values
+   * @param stride  row length of the integral images (image width + 1)
+   * @return whether every stage accepted the window at (x, y)
+   */
+  boolean accepts( Scaled scaled, int[] sums, long[] squares, int stride, int x, int y ) {
+    int nx = x + scaled.normX;
+    int ny = y + scaled.normY;
+    double area = scaled.normWidth * (double) scaled.normHeight;
+    double mean = rectSum( sums, stride, nx, ny, scaled.normWidth, scaled.normHeight ) / area;
+    double variance = rectSum( squares, stride, nx, ny, scaled.normWidth, scaled.normHeight ) / area - mean * mean;
+    double deviation = variance > 1 ? Math.sqrt( variance ) : 1;
+
+    for ( int stage = 0; stage < stageThresholds.length; stage++ ) {
+      double stageSum = 0;
+      int lastWeak = stageFirstWeak[stage] + stageWeakCounts[stage];
+      for ( int weak = stageFirstWeak[stage]; weak < lastWeak; weak++ ) {
+        int node = 0;
+        do {
+          int n = weakFirstNode[weak] + node;
+          double value = featureValue( scaled, nodes[n * 3 + 2], sums, stride, x, y );
+          node = value < nodeThresholds[n] * deviation ? nodes[n * 3] : nodes[n * 3 + 1];
+        } while ( node > 0 );
+        stageSum += leafValues[weakFirstLeaf[weak] - node];
+      }
+      if ( stageSum < stageThresholds[stage] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double featureValue( Scaled scaled, int feature, int[] sums, int stride, int x, int y ) {
+    double value = 0;
+    for ( int r = 0; r < MAX_RECTS; r++ ) {
+      int i = feature * MAX_RECTS + r;
+      float weight = scaled.weights[i];
+      if ( weight != 0f ) {
+        value += weight * rectSum( sums, stride, x + scaled.rects[i * 4], y + scaled.rects[i * 4 + 1],
+            scaled.rects[i * 4 + 2], scaled.rects[i * 4 + 3] );
+      }
+    }
+    return value;
+  }
+
+  static long rectSum( int[] integral, int stride, int x, int y, int w, int h ) {
+    int top = y * stride;
+    int bottom = ( y + h ) * stride;
+    return (long) integral[bottom + x + w] - integral[bottom + x] - integral[top + x + w] + integral[top + x];
+  }
+
+  static long rectSum( long[] integral, int stride, int x, int y, int w, int h ) {
+    int top = y * stride;
+    int bottom = ( y + h ) * stride;
+    return integral[bottom + x + w] - integral[bottom + x] - integral[top + x + w] + integral[top + x];
+  }
+
+  private static Element child( Element parent, String name ) {
+    if ( parent == null ) {
+      return null;
+    }
+    for ( Node node = parent.getFirstChild(); node != null; node = node.getNextSibling() ) {
+      if ( node instanceof Element && name.equals( node.getNodeName() ) ) {
+        return (Element) node;
+      }
+    }
+    return null;
+  }
+
+  private static List<Element> items( Element parent ) throws IOException {
+    if ( parent == null ) {
+      throw new IOException( "Incomplete cascade file" );
+    }
+    List<Element> items = new ArrayList<>();
+    for ( Node node = parent.getFirstChild(); node != null; node = node.getNextSibling() ) {
+      if ( node instanceof Element ) {
+        items.add( (Element) node );
+      }
+    }
+    return items;
+  }
+
+  private static String text( Element parent, String name ) throws IOException {
+    Element element = child( parent, name );
+    if ( element == null ) {
+      return null;
+    }
+    return element.getTextContent().trim();
+  }
+
+  private static float[] numbers( String text ) throws IOException {
+    if ( text == null ) {
+      throw new IOException( "Incomplete cascade file" );
+    }
+    String[] parts = text.trim().split( "\\s+" );
+    float[] values = new float[parts.length];
+    for ( int i = 0; i < parts.length; i++ ) {
+      values[i] = Float.parseFloat( parts[i] );
+    }
+    return values;
+  }
+}
@@ -0,0 +1,175 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Rekognition client sending a second, identical request when a call takes longer than a percentile of the
+ * latencies observed so far for that operation. The first response wins and the other request is cancelled.
+ * Only the first request's own latency is recorded, so hedging does not pull the percentile down.
+ *
+ * Hedges are paid from a token bucket: every call adds maxHedgeRatio tokens, a hedge takes one, and the bucket
+ * holds at most the tokens of the last BUDGET_CALLS calls. A slow period therefore gets the hedges of the calls
+ * around it, not a budget saved up since the start of the run.
+ *
+ * No call is hedged before its operation has LatencyTracker.MIN_SAMPLES latency samples. Calls writing to a face
+ * collection are never hedged.
+ */
+class HedgedRekognitionClient extends DelegatingRekognitionClient {
+
+  // the hedge budget covers a window of about this many calls
+  static final int BUDGET_CALLS = 100;
+
+  private final AmazonRekognition delegate;
+  private final double percentile;
+  private final double maxHedgeRatio;
+  private final double maxHedgeTokens;
+  private final ExecutorService executor;
+  private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+  private double hedgeTokens;
+
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgesWon = new AtomicLong();
+
+  /**
+   * @param percentile latency percentile (0-100) after which a call is hedged
+   * @param maxHedgeRatio maximum number of hedged requests per call made, e.g. 0.05
+   */
+  HedgedRekognitionClient( AmazonRekognition delegate, double percentile, double maxHedgeRatio ) {
+    this.delegate = delegate;
+    this.percentile = percentile;
+    this.maxHedgeRatio = maxHedgeRatio;
+    this.maxHedgeTokens = Math.max( 1, maxHedgeRatio * BUDGET_CALLS );
+    this.executor = Executors.newCachedThreadPool( runnable -> {
+      Thread thread = new Thread( runnable, "rekognition-hedge" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+  }
+
+  long getHedges() {
+    return hedges.get();
+  }
+
+  long getHedgesWon() {
+    return hedgesWon.get();
+  }
+
+  @Override
+  protected <R extends AmazonWebServiceRequest, T> T invoke( String operation, R request,
+                                                             BiFunction<AmazonRekognition, R, T> api ) {
+    if ( isCollectionWrite( operation ) ) {
+      // a hedge would index the faces twice
+      return api.apply( delegate, request );
+    }
+    return call( operation, () -> api.apply( delegate, request ) );
+  }
+
+  @Override
+  public void shutdown() {
+    executor.shutdownNow();
+    delegate.shutdown();
+  }
+
+  <T> T call( String operation, Callable<T> request ) {
+    LatencyTracker tracker = trackers.computeIfAbsent( operation, name -> new LatencyTracker() );
+    addHedgeToken();
+    final long start = System.nanoTime();
+    CompletionService<T> completion = new ExecutorCompletionService<>( executor );
+    Future<T> primary = completion.submit( () -> {
+      T response = request.call();
+      // a primary cancelled because its hedge won never gets here
+      tracker.record( System.nanoTime() - start );
+      return response;
+    } );
+    Future<T> hedge = null;
+    try {
+      long hedgeDelay = tracker.percentile( percentile );
+      Future<T> done = hedgeDelay < 0 ? null : completion.poll( hedgeDelay, TimeUnit.NANOSECONDS );
+      if ( done == null && hedgeDelay >= 0 && tryAcquireHedge() ) {
+        hedge = completion.submit( request );
+      }
+      if ( done == null ) {
+        done = completion.take();
+      }
+      T result;
+      try {
+        result = done.get();
+      } catch ( ExecutionException e ) {
+        if ( hedge == null ) {
+          throw e;
+        }
+        // one request failed, the other one may still succeed
+        done = completion.take();
+        result = done.get();
+      }
+      if ( done == hedge ) {
+        hedgesWon.incrementAndGet();
+      }
+      return result;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new SdkClientException( "Interrupted while waiting for " + operation, e );
+    } catch ( ExecutionException e ) {
+      if ( e.getCause() instanceof RuntimeException ) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new SdkClientException( operation + " failed", e.getCause() );
+    } finally {
+      primary.cancel( true );
+      if ( hedge != null ) {
+        hedge.cancel( true );
+      }
+    }
+  }
+
+  synchronized void addHedgeToken() {
+    hedgeTokens = Math.min( maxHedgeTokens, hedgeTokens + maxHedgeRatio );
+  }
+
+  synchronized boolean tryAcquireHedge() {
+    if ( hedgeTokens < 1 ) {
+      return false;
+    }
+    hedgeTokens--;
+    hedges.incrementAndGet();
+    return true;
+  }
+}
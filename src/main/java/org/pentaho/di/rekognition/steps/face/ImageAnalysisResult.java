@@ -0,0 +1,190 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Label;
+import com.amazonaws.services.rekognition.model.ModerationLabel;
+import com.amazonaws.services.rekognition.model.TextDetection;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Holds the shared image metadata and the outcome of every analysis run for one image.
+ *
+ * Instances are filled by the worker threads (see ImageAnalyzer) and handed back to the
+ * step thread, which emits the output rows. A null analysis list means that analysis was
+ * not selected for the image.
+ */
+public class ImageAnalysisResult {
+
+  private String bucketName;
+  private String key;
+  private long size;
+  private String eTag;
+  private Date lastModified;
+
+  private List<FaceDetail> faceDetails;
+  private List<Label> labels;
+  private List<TextDetection> textDetections;
+  private List<ModerationLabel> moderationLabels;
+
+  // set when faces are clustered: the collection FaceId of each face, and the FaceIds it matched
+  private List<String> faceIds;
+  private List<List<String>> faceMatches;
+
+  public ImageAnalysisResult() {
+  }
+
+  public ImageAnalysisResult( S3ObjectSummary summary ) {
+    this.bucketName = summary.getBucketName();
+    this.key = summary.getKey();
+    this.size = summary.getSize();
+    this.eTag = summary.getETag();
+    this.lastModified = summary.getLastModified();
+  }
+
+  /**
+   * @return a result for another object with the same content, sharing this result's analyses
+   */
+  public ImageAnalysisResult copyFor( S3ObjectSummary summary ) {
+    ImageAnalysisResult copy = new ImageAnalysisResult( summary );
+    copy.faceDetails = faceDetails;
+    copy.labels = labels;
+    copy.textDetections = textDetections;
+    copy.moderationLabels = moderationLabels;
+    copy.faceIds = faceIds;
+    copy.faceMatches = faceMatches;
+    return copy;
+  }
+
+  /**
+   * @return a result for the same object with the same analyses, except for the given faces, FaceIds and matches
+   */
+  public ImageAnalysisResult copyWithFaces( List<FaceDetail> faceDetails, List<String> faceIds,
+                                            List<List<String>> faceMatches ) {
+    ImageAnalysisResult copy = new ImageAnalysisResult();
+    copy.bucketName = bucketName;
+    copy.key = key;
+    copy.size = size;
+    copy.eTag = eTag;
+    copy.lastModified = lastModified;
+    copy.faceDetails = faceDetails;
+    copy.labels = labels;
+    copy.textDetections = textDetections;
+    copy.moderationLabels = moderationLabels;
+    copy.faceIds = faceIds;
+    copy.faceMatches = faceMatches;
+    return copy;
+  }
+
+  public String getBucketName() {
+    return bucketName;
+  }
+
+  public void setBucketName( String bucketName ) {
+    this.bucketName = bucketName;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey( String key ) {
+    this.key = key;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public void setSize( long size ) {
+    this.size = size;
+  }
+
+  public String getETag() {
+    return eTag;
+  }
+
+  public void setETag( String eTag ) {
+    this.eTag = eTag;
+  }
+
+  public Date getLastModified() {
+    return lastModified;
+  }
+
+  public void setLastModified( Date lastModified ) {
+    this.lastModified = lastModified;
+  }
+
+  public List<FaceDetail> getFaceDetails() {
+    return faceDetails;
+  }
+
+  public void setFaceDetails( List<FaceDetail> faceDetails ) {
+    this.faceDetails = faceDetails;
+  }
+
+  public List<Label> getLabels() {
+    return labels;
+  }
+
+  public void setLabels( List<Label> labels ) {
+    this.labels = labels;
+  }
+
+  public List<TextDetection> getTextDetections() {
+    return textDetections;
+  }
+
+  public void setTextDetections( List<TextDetection> textDetections ) {
+    this.textDetections = textDetections;
+  }
+
+  public List<ModerationLabel> getModerationLabels() {
+    return moderationLabels;
+  }
+
+  public void setModerationLabels( List<ModerationLabel> moderationLabels ) {
+    this.moderationLabels = moderationLabels;
+  }
+
+  public List<String> getFaceIds() {
+    return faceIds;
+  }
+
+  public void setFaceIds( List<String> faceIds ) {
+    this.faceIds = faceIds;
+  }
+
+  public List<List<String>> getFaceMatches() {
+    return faceMatches;
+  }
+
+  public void setFaceMatches( List<List<String>> faceMatches ) {
+    this.faceMatches = faceMatches;
+  }
+}
@@ -0,0 +1,243 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the selected set of analyses for a single image. Called from the step's worker pool,
+ * so it must not touch any row handling: it only talks to S3 and Rekognition and fills in an
+ * ImageAnalysisResult.
+ *
+ * By default Rekognition reads the image from S3 itself. With an image loader, the worker downloads
+ * the image first, which allows sending the bytes to Rekognition (byte mode) and skipping near-identical
+ * images before calling it, or finding faces on the client (see LocalFaceDetector). An image the loader finds
+ * smaller than its minimum size is not sent to Rekognition: it gets empty results for every analysis.
+ */
+class ImageAnalyzer {
+
+  // largest image Rekognition accepts as raw bytes, bigger ones are still passed by S3 reference
+  static final int MAX_IMAGE_BYTES = 5 * 1024 * 1024;
+
+  private final AmazonRekognition rekognitionClient;
+  private final Set<AnalysisType> analysisTypes;
+
+  private ImageLoader imageLoader;
+  private boolean sendImageBytes;
+  private NearDuplicateFilter nearDuplicateFilter;
+  private LocalFaceDetector faceDetector;
+  private LocalFaceDetector.Mode detectionMode = LocalFaceDetector.Mode.NONE;
+  private final AtomicLong locallyDetected = new AtomicLong();
+  private FaceClusterer faceClusterer;
+
+  ImageAnalyzer( AmazonRekognition rekognitionClient, Set<AnalysisType> analysisTypes ) {
+    this.rekognitionClient = rekognitionClient;
+    this.analysisTypes = analysisTypes;
+  }
+
+  Set<AnalysisType> getAnalysisTypes() {
+    return analysisTypes;
+  }
+
+  /**
+   * Makes the workers download each image before analyzing it.
+   *
+   * @param sendImageBytes whether the downloaded bytes are sent to Rekognition instead of the S3 reference
+   */
+  void setImageLoader( ImageLoader imageLoader, boolean sendImageBytes ) {
+    this.imageLoader = imageLoader;
+    this.sendImageBytes = sendImageBytes;
+  }
+
+  /**
+   * Skips near-identical images, requires an image loader.
+   */
+  void setNearDuplicateFilter( NearDuplicateFilter nearDuplicateFilter ) {
+    this.nearDuplicateFilter = nearDuplicateFilter;
+  }
+
+  NearDuplicateFilter getNearDuplicateFilter() {
+    return nearDuplicateFilter;
+  }
+
+  /**
+   * Finds faces on the client, requires an image loader. PRESCREEN skips the Rekognition face analysis for
+   * images without a local hit, OFFLINE replaces it with the local boxes. Other analyses still call Rekognition,
+   * and so does an image the detector can't decode.
+   */
+  void setFaceDetector( LocalFaceDetector faceDetector, LocalFaceDetector.Mode detectionMode ) {
+    this.faceDetector = faceDetector;
+    this.detectionMode = detectionMode;
+  }
+
+  /**
+   * Indexes the faces into the clusterer's collection instead of only detecting them.
+   */
+  void setFaceClusterer( FaceClusterer faceClusterer ) {
+    this.faceClusterer = faceClusterer;
+  }
+
+  /**
+   * @return the number of images whose faces came from the local detector instead of Rekognition
+   */
+  long getLocallyDetected() {
+    return locallyDetected.get();
+  }
+
+  /**
+   * Schedules the analysis of one image on the given executor.
+   */
+  CompletableFuture<ImageAnalysisResult> submit( final S3ObjectSummary objectSummary, Executor workers ) {
+    if ( imageLoader == null ) {
+      return CompletableFuture.supplyAsync( () -> analyze( objectSummary ), workers );
+    }
+    final CompletableFuture<ImageAnalysisResult> result = new CompletableFuture<>();
+    workers.execute( () -> {
+      ByteBuffer bytes = null;
+      try {
+        if ( !sendImageBytes && nearDuplicateFilter == null && faceDetector == null ) {
+          // only the image size matters here, Rekognition reads the image from S3
+          result.complete( imageLoader.isLargeEnough( objectSummary ) ? analyze( objectSummary )
+              : analyzeNothing( objectSummary ) );
+          return;
+        }
+        bytes = imageLoader.load( objectSummary );
+        if ( bytes == null ) {
+          result.complete( analyzeNothing( objectSummary ) );
+          return;
+        }
+        CompletableFuture<ImageAnalysisResult> nearDuplicate = findNearDuplicate( bytes, result );
+        if ( nearDuplicate != null ) {
+          nearDuplicate.whenComplete( ( original, error ) -> {
+            if ( error != null ) {
+              // the image it resembles failed (the filter dropped it): analyze this one on its own
+              submit( objectSummary, workers ).whenComplete( ( own, ownError ) -> {
+                if ( ownError != null ) {
+                  result.completeExceptionally( ownError );
+                } else {
+                  result.complete( own );
+                }
+              } );
+            } else {
+              result.complete( original.copyFor( objectSummary ) );
+            }
+          } );
+        } else {
+          result.complete( analyze( objectSummary, sendImageBytes ? bytes : null, detectLocally( bytes ) ) );
+        }
+      } catch ( Throwable e ) {
+        result.completeExceptionally( e );
+      } finally {
+        // the SDK is done with the bytes once the calls returned
+        imageLoader.release( bytes );
+      }
+    } );
+    return result;
+  }
+
+  private CompletableFuture<ImageAnalysisResult> findNearDuplicate( ByteBuffer bytes,
+                                                                   CompletableFuture<ImageAnalysisResult> result ) {
+    if ( nearDuplicateFilter == null ) {
+      return null;
+    }
+    try {
+      return nearDuplicateFilter.findOrRegister( NearDuplicateFilter.dHash( bytes ), result );
+    } catch ( IOException e ) {
+      // not decodable on the client side (e.g. an unsupported format), let Rekognition decide
+      return null;
+    }
+  }
+
+  private List<FaceDetail> detectLocally( ByteBuffer bytes ) {
+    if ( faceDetector == null || !analysisTypes.contains( AnalysisType.FACES ) ) {
+      return null;
+    }
+    try {
+      return faceDetector.detect( bytes );
+    } catch ( IOException e ) {
+      // not decodable on the client side, let Rekognition decide
+      return null;
+    }
+  }
+
+  ImageAnalysisResult analyze( S3ObjectSummary objectSummary ) {
+    return analyze( objectSummary, null, null );
+  }
+
+  /**
+   * @param bytes      the image content to send, or null to let Rekognition read the object from S3
+   * @param localFaces the faces found by the local detector, or null when it did not run
+   */
+  ImageAnalysisResult analyze( S3ObjectSummary objectSummary, ByteBuffer bytes, List<FaceDetail> localFaces ) {
+    ImageAnalysisResult result = new ImageAnalysisResult( objectSummary );
+    boolean skipFaces = false;
+    if ( localFaces != null && ( detectionMode == LocalFaceDetector.Mode.OFFLINE || localFaces.isEmpty() ) ) {
+      result.setFaceDetails( localFaces.isEmpty() ? Collections.<FaceDetail>emptyList() : localFaces );
+      locallyDetected.incrementAndGet();
+      skipFaces = true;
+    }
+    Image image = new Image();
+    if ( bytes != null && bytes.remaining() <= MAX_IMAGE_BYTES ) {
+      image.setBytes( bytes.duplicate() );
+    } else {
+      image.setS3Object(
+          new S3Object().withBucket( objectSummary.getBucketName() ).withName( objectSummary.getKey() ) );
+    }
+    for ( AnalysisType analysisType : analysisTypes ) {
+      if ( analysisType != AnalysisType.FACES ) {
+        analysisType.analyze( rekognitionClient, image, result );
+      } else if ( !skipFaces ) {
+        if ( faceClusterer != null ) {
+          faceClusterer.index( rekognitionClient, image, result );
+        } else {
+          analysisType.analyze( rekognitionClient, image, result );
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return a result without any detection for each analysis, for an image too small to be worth analyzing
+   */
+  ImageAnalysisResult analyzeNothing( S3ObjectSummary objectSummary ) {
+    ImageAnalysisResult result = new ImageAnalysisResult( objectSummary );
+    for ( AnalysisType analysisType : analysisTypes ) {
+      analysisType.markEmpty( result );
+    }
+    return result;
+  }
+}
@@ -0,0 +1,339 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads image bytes from S3, for the analyses that need the image content on the client side
+ * (byte mode, perceptual hashing).
+ *
+ * With a minimum image size, an image is first fetched partially with a ranged GET, and only fetched further when
+ * its header (JPEG or PNG) does not show it is too small. Images are read into buffers of a BufferPool when given
+ * one; callers give the buffer back with release() once done with the content.
+ */
+class ImageLoader {
+
+  // bytes fetched to read the image size: enough for a PNG header, and for the frame header of a JPEG behind
+  // an EXIF segment of the largest size
+  static final int PROBE_BYTES = 64 * 1024;
+
+  private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+  private final AmazonS3 s3Client;
+  private final BufferPool bufferPool;
+  private final int minImageSize;
+
+  private final AtomicLong probes = new AtomicLong();
+  private final AtomicLong tooSmall = new AtomicLong();
+  private final AtomicLong bytesSkipped = new AtomicLong();
+
+  ImageLoader( AmazonS3 s3Client ) {
+    this( s3Client, null, 0 );
+  }
+
+  /**
+   * @param bufferPool   buffers the images are read into, null for a new buffer per image
+   * @param minImageSize smallest width and height (pixels) of an image worth analyzing, 0 to load every image
+   */
+  ImageLoader( AmazonS3 s3Client, BufferPool bufferPool, int minImageSize ) {
+    this.s3Client = s3Client;
+    this.bufferPool = bufferPool;
+    this.minImageSize = minImageSize;
+  }
+
+  /**
+   * The first bytes of an image, in a buffer large enough for the whole image when it is to be loaded.
+   */
+  private static class Probe {
+    final ByteBuffer buffer;
+    final long length;
+
+    Probe( ByteBuffer buffer, long length ) {
+      this.buffer = buffer;
+      this.length = length;
+    }
+  }
+
+  /**
+   * @return the content of the image, from its position to its limit; null when it is smaller than the minimum
+   *         image size
+   */
+  ByteBuffer load( S3ObjectSummary objectSummary ) throws IOException {
+    if ( !isProbed( objectSummary ) ) {
+      try ( S3Object object = s3Client.getObject( request( objectSummary ) ) ) {
+        ByteBuffer buffer = acquire( object.getObjectMetadata().getContentLength() );
+        try {
+          read( object, buffer );
+        } catch ( IOException | RuntimeException e ) {
+          release( buffer );
+          throw e;
+        }
+        buffer.flip();
+        return buffer;
+      }
+    }
+    Probe probe = probe( objectSummary, true );
+    ByteBuffer buffer = probe.buffer;
+    try {
+      int[] dimensions = dimensions( buffer, buffer.position() );
+      if ( isTooSmall( dimensions ) ) {
+        bytesSkipped.addAndGet( probe.length - buffer.position() );
+        return skip( buffer );
+      }
+      if ( buffer.position() < probe.length ) {
+        try ( S3Object rest = s3Client.getObject(
+            request( objectSummary ).withRange( buffer.position(), probe.length - 1 ) ) ) {
+          buffer.limit( (int) probe.length );
+          read( rest, buffer );
+        }
+        // the frame header of a JPEG may lie past the probed bytes
+        if ( dimensions == null && isTooSmall( dimensions( buffer, buffer.position() ) ) ) {
+          return skip( buffer );
+        }
+      }
+      buffer.flip();
+      return buffer;
+    } catch ( IOException | RuntimeException e ) {
+      release( buffer );
+      throw e;
+    }
+  }
+
+  /**
+   * Reads only the header of the image, for when its content is not needed otherwise.
+   *
+   * @return false when the image is smaller than the minimum image size
+   */
+  boolean isLargeEnough( S3ObjectSummary objectSummary ) throws IOException {
+    if ( !isProbed( objectSummary ) ) {
+      return true;
+    }
+    Probe probe = probe( objectSummary, false );
+    try {
+      if ( isTooSmall( dimensions( probe.buffer, probe.buffer.position() ) ) ) {
+        tooSmall.incrementAndGet();
+        bytesSkipped.addAndGet( probe.length - probe.buffer.position() );
+        return false;
+      }
+      return true;
+    } finally {
+      release( probe.buffer );
+    }
+  }
+
+  // an empty object can't be fetched with a range
+  private boolean isProbed( S3ObjectSummary objectSummary ) {
+    return minImageSize > 0 && objectSummary.getSize() > 0;
+  }
+
+  private static GetObjectRequest request( S3ObjectSummary objectSummary ) {
+    return new GetObjectRequest( objectSummary.getBucketName(), objectSummary.getKey() );
+  }
+
+  /**
+   * Fetches the first PROBE_BYTES of the image with a ranged GET.
+   *
+   * @param wholeImage whether the buffer is to receive the rest of the image too
+   */
+  private Probe probe( S3ObjectSummary objectSummary, boolean wholeImage ) throws IOException {
+    probes.incrementAndGet();
+    try ( S3Object object = s3Client.getObject( request( objectSummary ).withRange( 0, PROBE_BYTES - 1 ) ) ) {
+      // the length of the whole object comes from the Content-Range of the response
+      long length = object.getObjectMetadata().getInstanceLength();
+      if ( length <= 0 ) {
+        length = objectSummary.getSize();
+      }
+      long probed = Math.min( length, object.getObjectMetadata().getContentLength() );
+      ByteBuffer buffer = acquire( wholeImage ? length : probed );
+      buffer.limit( (int) probed );
+      try {
+        read( object, buffer );
+      } catch ( IOException | RuntimeException e ) {
+        release( buffer );
+        throw e;
+      }
+      return new Probe( buffer, length );
+    }
+  }
+
+  /**
+   * Gives back a buffer returned by load(), once its content is not used anymore.
+   */
+  void release( ByteBuffer buffer ) {
+    if ( bufferPool != null && buffer != null ) {
+      bufferPool.release( buffer );
+    }
+  }
+
+  BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * @return the number of images first fetched partially to read their size
+   */
+  long getProbes() {
+    return probes.get();
+  }
+
+  /**
+   * @return the number of images found smaller than the minimum image size
+   */
+  long getTooSmall() {
+    return tooSmall.get();
+  }
+
+  /**
+   * @return the bytes of the images too small to analyze that were not downloaded
+   */
+  long getBytesSkipped() {
+    return bytesSkipped.get();
+  }
+
+  private ByteBuffer skip( ByteBuffer buffer ) {
+    tooSmall.incrementAndGet();
+    release( buffer );
+    return null;
+  }
+
+  private boolean isTooSmall( int[] dimensions ) {
+    return dimensions != null && Math.min( dimensions[0], dimensions[1] ) < minImageSize;
+  }
+
+  private ByteBuffer acquire( long length ) throws IOException {
+    if ( length > Integer.MAX_VALUE - 8 ) {
+      throw new IOException( "Image too large to load: " + length + " bytes" );
+    }
+    return bufferPool == null ? ByteBuffer.allocate( (int) length ) : bufferPool.acquire( (int) length );
+  }
+
+  /**
+   * Reads the object content into the buffer, from its position up to its limit.
+   */
+  private static void read( S3Object object, ByteBuffer buffer ) throws IOException {
+    try ( InputStream in = object.getObjectContent() ) {
+      ReadableByteChannel channel = Channels.newChannel( in );
+      while ( buffer.hasRemaining() ) {
+        if ( channel.read( buffer ) < 0 ) {
+          throw new EOFException( "Object " + object.getKey() + " ended after " + buffer.position() + " bytes" );
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the width and height from the header of a JPEG or PNG image.
+   *
+   * @param length number of bytes of the image available in the buffer, from index 0
+   * @return {width, height}, null for another format or when the header lies past the available bytes
+   */
+  static int[] dimensions( ByteBuffer image, int length ) {
+    if ( length >= 24 && startsWith( image, PNG_SIGNATURE ) ) {
+      // the IHDR chunk comes first
+      return new int[] { image.getInt( 16 ), image.getInt( 20 ) };
+    }
+    if ( length < 4 || ( image.get( 0 ) & 0xff ) != 0xff || ( image.get( 1 ) & 0xff ) != 0xd8 ) {
+      return null;
+    }
+    int position = 2;
+    while ( position + 4 <= length ) {
+      if ( ( image.get( position ) & 0xff ) != 0xff ) {
+        return null;
+      }
+      int marker = image.get( position + 1 ) & 0xff;
+      if ( marker == 0xff ) {
+        // fill byte
+        position++;
+      } else if ( marker == 0x01 || marker >= 0xd0 && marker <= 0xd8 ) {
+        // markers without a segment
+        position += 2;
+      } else if ( marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc ) {
+        // start of frame: length, precision, height, width
+        return position + 9 <= length
+            ? new int[] { image.getShort( position + 7 ) & 0xffff, image.getShort( position + 5 ) & 0xffff } : null;
+      } else if ( marker == 0xd9 || marker == 0xda ) {
+        // end of image or start of scan before any frame header
+        return null;
+      } else {
+        position += 2 + ( image.getShort( position + 2 ) & 0xffff );
+      }
+    }
+    return null;
+  }
+
+  private static boolean startsWith( ByteBuffer image, byte[] prefix ) {
+    for ( int i = 0; i < prefix.length; i++ ) {
+      if ( image.get( i ) != prefix[i] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return a stream over the content of the buffer, from its position to its limit, leaving the buffer untouched
+   */
+  static InputStream stream( ByteBuffer buffer ) {
+    if ( buffer.hasArray() ) {
+      return new ByteArrayInputStream( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+    }
+    final ByteBuffer content = buffer.duplicate();
+    return new InputStream() {
+      @Override
+      public int read() {
+        return content.hasRemaining() ? content.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read( byte[] bytes, int offset, int length ) {
+        if ( length == 0 ) {
+          return 0;
+        }
+        if ( !content.hasRemaining() ) {
+          return -1;
+        }
+        int count = Math.min( length, content.remaining() );
+        content.get( bytes, offset, count );
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return content.remaining();
+      }
+    };
+  }
+}
@@ -0,0 +1,215 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Picks a sample of the listed images, for quick estimates over large buckets.
+ *
+ * Images are stratified by bucket and key prefix (the first N "folders" of the key), each stratum being
+ * sampled separately. Whether an image is picked only depends on the seed and its key, never on the listing order,
+ * so a run is reproducible even with parallel listing. The sample rate of each image's stratum is emitted
+ * with its rows, so downstream aggregations can reweight.
+ */
+abstract class ImageSampler {
+
+  /**
+   * How the sample is drawn.
+   */
+  enum Mode {
+    /**
+     * Every image is analyzed.
+     */
+    NONE,
+    /**
+     * Each image is picked with the same probability, while listing.
+     */
+    RATE,
+    /**
+     * A fixed number of images is picked per stratum, analyzed once the listing is complete.
+     */
+    SIZE;
+
+    static Mode parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Mode.valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  private final long seed;
+  private final int strataDepth;
+
+  ImageSampler( long seed, int strataDepth ) {
+    this.seed = seed;
+    this.strataDepth = strataDepth;
+  }
+
+  /**
+   * @return true when the image is to be analyzed right away; false when it is dropped, or held back
+   *         until the listing is complete (see drain)
+   */
+  abstract boolean offer( S3ObjectSummary objectSummary );
+
+  /**
+   * @return the held back images picked for the sample, in listing order
+   */
+  List<S3ObjectSummary> drain() {
+    return new ArrayList<>();
+  }
+
+  /**
+   * @return the fraction of the stratum of the given image that is analyzed
+   */
+  abstract double getSampleRate( String bucketName, String key );
+
+  /**
+   * @return the bucket followed by the key prefix holding the first strataDepth folders of the key
+   */
+  String stratum( String bucketName, String key ) {
+    return bucketName + "/" + ImageSource.keyPrefix( key, strataDepth );
+  }
+
+  /**
+   * @return a pseudo random value in [0, 1) derived from the seed and the key only
+   */
+  double position( String key ) {
+    // FNV-1a over the key bytes, then a final avalanche so close keys spread over the whole range
+    long hash = 0xcbf29ce484222325L ^ seed;
+    for ( byte b : key.getBytes( StandardCharsets.UTF_8 ) ) {
+      hash = ( hash ^ ( b & 0xff ) ) * 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return ( hash >>> 11 ) * 0x1.0p-53;
+  }
+
+  /**
+   * Bernoulli sampling: an image is picked when its position is below the rate, in every stratum alike.
+   */
+  static class RateSampler extends ImageSampler {
+    private final double rate;
+
+    RateSampler( double rate, long seed, int strataDepth ) {
+      super( seed, strataDepth );
+      this.rate = rate;
+    }
+
+    @Override
+    boolean offer( S3ObjectSummary objectSummary ) {
+      return position( objectSummary.getKey() ) < rate;
+    }
+
+    @Override
+    double getSampleRate( String bucketName, String key ) {
+      return rate;
+    }
+  }
+
+  /**
+   * Bottom-k sampling per stratum: the images with the lowest positions are kept in a bounded reservoir,
+   * which amounts to a uniform sample of fixed size without knowing the stratum size in advance.
+   */
+  static class SizeSampler extends ImageSampler {
+
+    private static class Candidate {
+      final S3ObjectSummary objectSummary;
+      final double position;
+      final long sequence;
+
+      Candidate( S3ObjectSummary objectSummary, double position, long sequence ) {
+        this.objectSummary = objectSummary;
+        this.position = position;
+        this.sequence = sequence;
+      }
+    }
+
+    private static class Stratum {
+      // highest position on top, the one to replace
+      final PriorityQueue<Candidate> reservoir =
+          new PriorityQueue<>( Comparator.comparingDouble( ( Candidate c ) -> c.position ).reversed() );
+      long seen;
+    }
+
+    private final int sampleSize;
+    private final Map<String, Stratum> strata = new HashMap<>();
+    private long sequence;
+
+    SizeSampler( int sampleSize, long seed, int strataDepth ) {
+      super( seed, strataDepth );
+      this.sampleSize = Math.max( 1, sampleSize );
+    }
+
+    @Override
+    boolean offer( S3ObjectSummary objectSummary ) {
+      Stratum stratum = strata.computeIfAbsent( stratum( objectSummary.getBucketName(), objectSummary.getKey() ),
+          prefix -> new Stratum() );
+      stratum.seen++;
+      Candidate candidate = new Candidate( objectSummary, position( objectSummary.getKey() ), sequence++ );
+      if ( stratum.reservoir.size() < sampleSize ) {
+        stratum.reservoir.add( candidate );
+      } else if ( candidate.position < stratum.reservoir.peek().position ) {
+        stratum.reservoir.poll();
+        stratum.reservoir.add( candidate );
+      }
+      return false;
+    }
+
+    @Override
+    List<S3ObjectSummary> drain() {
+      List<Candidate> picked = new ArrayList<>();
+      for ( Stratum stratum : strata.values() ) {
+        picked.addAll( stratum.reservoir );
+        stratum.reservoir.clear();
+      }
+      picked.sort( Comparator.comparingLong( c -> c.sequence ) );
+      List<S3ObjectSummary> summaries = new ArrayList<>( picked.size() );
+      for ( Candidate candidate : picked ) {
+        summaries.add( candidate.objectSummary );
+      }
+      return summaries;
+    }
+
+    @Override
+    double getSampleRate( String bucketName, String key ) {
+      Stratum stratum = strata.get( stratum( bucketName, key ) );
+      if ( stratum == null || stratum.seen == 0 ) {
+        return 1;
+      }
+      return Math.min( sampleSize, stratum.seen ) / (double) stratum.seen;
+    }
+  }
+}
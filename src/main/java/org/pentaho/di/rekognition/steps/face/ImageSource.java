@@ -0,0 +1,80 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * Produces the images to analyze. Implementations may enumerate objects using any number of threads,
+ * but must hand every object to the sink on the thread that called list(), so the step can keep
+ * all row handling on its own thread.
+ */
+interface ImageSource {
+
+  /**
+   * Receives the enumerated objects.
+   */
+  interface ImageSink {
+
+    /**
+     * @param objectSummary the next object to analyze
+     * @return false to stop the enumeration early (e.g. the step was stopped)
+     */
+    boolean accept( S3ObjectSummary objectSummary ) throws KettleException;
+  }
+
+  /**
+   * Lets a source wait for the step to finish the images handed over so far, e.g. before marking a unit of work
+   * done or acknowledging the notifications of the images.
+   */
+  interface Checkpoint {
+
+    /**
+     * @return false if the step is stopping
+     */
+    boolean awaitProcessed() throws KettleException;
+  }
+
+  /**
+   * Streams all objects of this source to the sink and returns once they are exhausted
+   * or the sink asked to stop.
+   */
+  void list( ImageSink sink ) throws KettleException;
+
+  /**
+   * @return the key prefix holding the first depth folders of the key (fewer if the key is not that deep),
+   *         "" for a depth of 0
+   */
+  static String keyPrefix( String key, int depth ) {
+    int end = 0;
+    for ( int level = 0; level < depth; level++ ) {
+      int slash = key.indexOf( '/', end );
+      if ( slash < 0 ) {
+        break;
+      }
+      end = slash + 1;
+    }
+    return key.substring( 0, end );
+  }
+}
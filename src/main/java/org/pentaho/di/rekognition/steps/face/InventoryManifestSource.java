@@ -0,0 +1,246 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3URI;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Enumerates the objects listed in an S3 Inventory report instead of paging ListObjectsV2.
+ *
+ * The manifest.json is read either from S3 (s3://bucket/key) or from the local file system, in which
+ * case the data files are looked up next to it by file name. Data files are parsed in parallel
+ * (see ParallelProducers), each streaming its (optionally gzipped) CSV rows to the sink. Only the
+ * CSV inventory format is supported; ORC and Parquet reports are rejected with an error, as their
+ * readers are not part of the plugin's dependencies.
+ */
+class InventoryManifestSource implements ImageSource {
+
+  private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
+
+  static final String FORMAT_CSV = "CSV";
+  private static final String S3_PREFIX = "s3://";
+  private static final String ARN_PREFIX = "arn:aws:s3:::";
+
+  private final AmazonS3 s3Client;
+  private final String manifestLocation;
+  private final int parserThreads;
+
+  InventoryManifestSource( AmazonS3 s3Client, String manifestLocation, int parserThreads ) {
+    this.s3Client = s3Client;
+    this.manifestLocation = manifestLocation;
+    this.parserThreads = Math.max( 1, parserThreads );
+  }
+
+  /**
+   * The parts of manifest.json the source needs.
+   */
+  static class Manifest {
+    String sourceBucket;
+    String destinationBucket;
+    String fileFormat;
+    String[] fileSchema;
+    final List<String> files = new ArrayList<>();
+  }
+
+  @Override
+  public void list( ImageSink sink ) throws KettleException {
+    final Manifest manifest;
+    try ( InputStream in = open( manifestLocation ) ) {
+      manifest = parseManifest( in );
+    } catch ( IOException e ) {
+      throw new KettleException(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.InventoryManifest", manifestLocation ), e );
+    }
+    if ( !FORMAT_CSV.equalsIgnoreCase( manifest.fileFormat ) ) {
+      throw new KettleException(
+          BaseMessages.getString( PKG, "FaceAnalysisStep.Error.InventoryFormat", manifest.fileFormat ) );
+    }
+
+    List<ParallelProducers.Producer<S3ObjectSummary>> producers = new ArrayList<>();
+    for ( final String file : manifest.files ) {
+      producers.add( emitter -> parseDataFile( manifest, file, emitter ) );
+    }
+    ParallelProducers.run( producers, parserThreads, sink::accept,
+        BaseMessages.getString( PKG, "FaceAnalysisStep.Error.InventoryDataFile" ) );
+  }
+
+  private void parseDataFile( Manifest manifest, String file, ParallelProducers.Emitter<S3ObjectSummary> emitter )
+      throws IOException {
+    InputStream in = openDataFile( manifest, file );
+    if ( file.endsWith( ".gz" ) ) {
+      in = new GZIPInputStream( in, 64 * 1024 );
+    }
+    try ( BufferedReader reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) ) {
+      String line;
+      while ( ( line = reader.readLine() ) != null ) {
+        if ( line.isEmpty() ) {
+          continue;
+        }
+        S3ObjectSummary objectSummary = toObjectSummary( manifest, parseCsvLine( line ) );
+        if ( objectSummary != null && !emitter.emit( objectSummary ) ) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps one inventory row onto an object summary, applying the filters ListObjectsV2 applies implicitly:
+   * only the latest version of an object is returned and delete markers are left out.
+   *
+   * @return the summary, or null when the row must be skipped
+   */
+  static S3ObjectSummary toObjectSummary( Manifest manifest, List<String> values )
+      throws UnsupportedEncodingException {
+    S3ObjectSummary objectSummary = new S3ObjectSummary();
+    objectSummary.setBucketName( manifest.sourceBucket );
+    for ( int i = 0; i < manifest.fileSchema.length && i < values.size(); i++ ) {
+      String value = values.get( i );
+      switch ( manifest.fileSchema[i] ) {
+        case "Bucket":
+          objectSummary.setBucketName( value );
+          break;
+        case "Key":
+          // inventory reports URL-encode the object keys
+          objectSummary.setKey( URLDecoder.decode( value, StandardCharsets.UTF_8.name() ) );
+          break;
+        case "IsLatest":
+          if ( "false".equalsIgnoreCase( value ) ) {
+            return null;
+          }
+          break;
+        case "IsDeleteMarker":
+          if ( "true".equalsIgnoreCase( value ) ) {
+            return null;
+          }
+          break;
+        case "Size":
+          objectSummary.setSize( value.isEmpty() ? 0L : Long.parseLong( value ) );
+          break;
+        case "LastModifiedDate":
+          objectSummary.setLastModified( value.isEmpty() ? null : Date.from( Instant.parse( value ) ) );
+          break;
+        case "ETag":
+          objectSummary.setETag( value );
+          break;
+        case "StorageClass":
+          objectSummary.setStorageClass( value );
+          break;
+        default:
+          break;
+      }
+    }
+    return objectSummary.getKey() == null ? null : objectSummary;
+  }
+
+  /**
+   * Splits one line of an inventory CSV file. Every value is enclosed in double quotes,
+   * embedded quotes are doubled.
+   */
+  static List<String> parseCsvLine( String line ) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for ( int i = 0; i < line.length(); i++ ) {
+      char c = line.charAt( i );
+      if ( quoted ) {
+        if ( c == '"' ) {
+          if ( i + 1 < line.length() && line.charAt( i + 1 ) == '"' ) {
+            value.append( '"' );
+            i++;
+          } else {
+            quoted = false;
+          }
+        } else {
+          value.append( c );
+        }
+      } else if ( c == '"' ) {
+        quoted = true;
+      } else if ( c == ',' ) {
+        values.add( value.toString() );
+        value.setLength( 0 );
+      } else {
+        value.append( c );
+      }
+    }
+    values.add( value.toString() );
+    return values;
+  }
+
+  static Manifest parseManifest( InputStream in ) throws IOException {
+    JsonNode root = new ObjectMapper().readTree( in );
+    Manifest manifest = new Manifest();
+    manifest.sourceBucket = root.path( "sourceBucket" ).asText( null );
+    manifest.destinationBucket = root.path( "destinationBucket" ).asText( "" );
+    if ( manifest.destinationBucket.startsWith( ARN_PREFIX ) ) {
+      manifest.destinationBucket = manifest.destinationBucket.substring( ARN_PREFIX.length() );
+    }
+    manifest.fileFormat = root.path( "fileFormat" ).asText( FORMAT_CSV );
+    String[] schema = root.path( "fileSchema" ).asText( "" ).split( "," );
+    for ( int i = 0; i < schema.length; i++ ) {
+      schema[i] = schema[i].trim();
+    }
+    manifest.fileSchema = schema;
+    for ( JsonNode file : root.path( "files" ) ) {
+      manifest.files.add( file.path( "key" ).asText() );
+    }
+    return manifest;
+  }
+
+  private InputStream open( String location ) throws IOException {
+    if ( location.startsWith( S3_PREFIX ) ) {
+      AmazonS3URI uri = new AmazonS3URI( location );
+      return s3Client.getObject( uri.getBucket(), uri.getKey() ).getObjectContent();
+    }
+    return new FileInputStream( location );
+  }
+
+  private InputStream openDataFile( Manifest manifest, String file ) throws IOException {
+    if ( manifestLocation.startsWith( S3_PREFIX ) ) {
+      return s3Client.getObject( manifest.destinationBucket, file ).getObjectContent();
+    }
+    File dir = new File( manifestLocation ).getAbsoluteFile().getParentFile();
+    return new FileInputStream( new File( dir, new File( file ).getName() ) );
+  }
+}
@@ -0,0 +1,67 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.util.Arrays;
+
+/**
+ * Latency percentiles over a sliding window of the most recent calls of one operation.
+ */
+class LatencyTracker {
+
+  static final int WINDOW = 512;
+  // no percentile until this many samples were recorded
+  static final int MIN_SAMPLES = 20;
+  // the sorted copy is refreshed every so many samples, not on every call
+  private static final int REFRESH_EVERY = 16;
+
+  private final long[] samples = new long[WINDOW];
+  private int count;
+  private int next;
+  private long[] sorted;
+  private int sinceRefresh;
+
+  synchronized void record( long nanos ) {
+    samples[next] = nanos;
+    next = ( next + 1 ) % WINDOW;
+    count = Math.min( count + 1, WINDOW );
+    sinceRefresh++;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the latency percentile in nanoseconds, -1 while fewer than MIN_SAMPLES were recorded
+   */
+  synchronized long percentile( double percentile ) {
+    if ( count < MIN_SAMPLES ) {
+      return -1;
+    }
+    if ( sorted == null || sinceRefresh >= REFRESH_EVERY ) {
+      sorted = Arrays.copyOf( samples, count );
+      Arrays.sort( sorted );
+      sinceRefresh = 0;
+    }
+    int index = (int) Math.ceil( percentile / 100 * sorted.length ) - 1;
+    return sorted[Math.max( 0, Math.min( sorted.length - 1, index ) )];
+  }
+}
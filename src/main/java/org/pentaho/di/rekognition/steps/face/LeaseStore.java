@@ -0,0 +1,329 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.function.LongSupplier;
+
+/**
+ * Shared store of the leases through which several step instances (possibly in different JVMs) split the work.
+ *
+ * A lease names a unit of work, its owner and the time it expires at; a unit whose lease expired, e.g. because
+ * its owner crashed, can be claimed by another owner. Once the work is done the lease is marked done and stays so.
+ * All updates are compare-and-swap operations on versioned records, implemented on a shared directory or on
+ * S3 conditional writes, so two owners never both win a claim.
+ *
+ * Expiry times are compared across machines, their clocks must agree to well within the lease duration.
+ */
+abstract class LeaseStore {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * A stored record and the version it was read at.
+   */
+  static class Record {
+    final byte[] content;
+    final String version;
+
+    Record( byte[] content, String version ) {
+      this.content = content;
+      this.version = version;
+    }
+  }
+
+  /**
+   * The state of one unit of work, as kept in its record.
+   */
+  static class Lease {
+    public String owner;
+    public long expiresAt;
+    public boolean done;
+
+    // version of the record this lease was read from or written as
+    transient String version;
+
+    Lease() {
+    }
+
+    Lease( String owner, long expiresAt, boolean done ) {
+      this.owner = owner;
+      this.expiresAt = expiresAt;
+      this.done = done;
+    }
+  }
+
+  private LongSupplier clock = System::currentTimeMillis;
+
+  /**
+   * @return the record, or null if it does not exist
+   */
+  abstract Record read( String name ) throws IOException;
+
+  /**
+   * Creates the record unless it already exists.
+   *
+   * @return the version written, or null if the record existed
+   */
+  abstract String create( String name, byte[] content ) throws IOException;
+
+  /**
+   * Replaces the record if it is still at the expected version.
+   *
+   * @return the version written, or null if the record changed meanwhile
+   */
+  abstract String replace( String name, String expectedVersion, byte[] content ) throws IOException;
+
+  void setClock( LongSupplier clock ) {
+    this.clock = clock;
+  }
+
+  long now() {
+    return clock.getAsLong();
+  }
+
+  /**
+   * Tries to take the unit for the owner, when it has no lease yet, its lease expired or already is the owner's.
+   *
+   * @return the owner's lease, a done lease when the unit is finished, or null when another owner holds it
+   */
+  Lease claim( String unit, String owner, long durationMillis ) throws IOException {
+    Record record = read( unit );
+    Lease lease = new Lease( owner, now() + durationMillis, false );
+    if ( record == null ) {
+      lease.version = create( unit, MAPPER.writeValueAsBytes( lease ) );
+      return lease.version == null ? null : lease;
+    }
+    Lease current = parse( record );
+    if ( current.done ) {
+      return current;
+    }
+    if ( !owner.equals( current.owner ) && current.expiresAt > now() ) {
+      return null;
+    }
+    lease.version = replace( unit, record.version, MAPPER.writeValueAsBytes( lease ) );
+    return lease.version == null ? null : lease;
+  }
+
+  /**
+   * Extends a lease held by its owner.
+   *
+   * @return the extended lease, or null if the lease was lost to another owner
+   */
+  Lease renew( String unit, Lease lease, long durationMillis ) throws IOException {
+    return update( unit, lease, new Lease( lease.owner, now() + durationMillis, false ) );
+  }
+
+  /**
+   * Marks the unit as done.
+   *
+   * @return false if the lease was lost to another owner before
+   */
+  boolean complete( String unit, Lease lease ) throws IOException {
+    return update( unit, lease, new Lease( lease.owner, lease.expiresAt, true ) ) != null;
+  }
+
+  private Lease update( String unit, Lease lease, Lease updated ) throws IOException {
+    updated.version = replace( unit, lease.version, MAPPER.writeValueAsBytes( updated ) );
+    return updated.version == null ? null : updated;
+  }
+
+  private static Lease parse( Record record ) throws IOException {
+    Lease lease = MAPPER.readValue( record.content, Lease.class );
+    lease.version = record.version;
+    return lease;
+  }
+
+  /**
+   * @param location a directory, or s3://bucket/prefix
+   */
+  static LeaseStore open( String location, AmazonS3 s3Client ) {
+    if ( location.startsWith( "s3://" ) ) {
+      String path = location.substring( "s3://".length() );
+      int slash = path.indexOf( '/' );
+      String bucket = slash < 0 ? path : path.substring( 0, slash );
+      String prefix = slash < 0 ? "" : path.substring( slash + 1 );
+      if ( !prefix.isEmpty() && !prefix.endsWith( "/" ) ) {
+        prefix += "/";
+      }
+      return new S3Store( s3Client, bucket, prefix );
+    }
+    return new FileStore( new File( location ) );
+  }
+
+  /**
+   * Keeps the records in a shared directory (e.g. a network file system). Each record is a sub directory holding
+   * one file per version; a version is written to a temporary file then hard linked under its number, which fails
+   * if another writer got there first. Replaced versions are deleted, except version 1 which stays as a tombstone
+   * so the record cannot be created again.
+   */
+  static class FileStore extends LeaseStore {
+
+    private final File directory;
+
+    FileStore( File directory ) {
+      this.directory = directory;
+    }
+
+    @Override
+    Record read( String name ) throws IOException {
+      File dir = new File( directory, name );
+      while ( true ) {
+        long latest = latestVersion( dir );
+        if ( latest == 0 ) {
+          return null;
+        }
+        try {
+          return new Record( Files.readAllBytes( versionFile( dir, latest ).toPath() ), String.valueOf( latest ) );
+        } catch ( NoSuchFileException e ) {
+          // replaced and cleaned up meanwhile, read the newer version
+        }
+      }
+    }
+
+    @Override
+    String create( String name, byte[] content ) throws IOException {
+      return write( new File( directory, name ), 1, content );
+    }
+
+    @Override
+    String replace( String name, String expectedVersion, byte[] content ) throws IOException {
+      File dir = new File( directory, name );
+      long expected = Long.parseLong( expectedVersion );
+      if ( latestVersion( dir ) != expected ) {
+        return null;
+      }
+      String version = write( dir, expected + 1, content );
+      if ( version != null && expected > 1 ) {
+        Files.deleteIfExists( versionFile( dir, expected ).toPath() );
+      }
+      return version;
+    }
+
+    private String write( File dir, long version, byte[] content ) throws IOException {
+      Files.createDirectories( dir.toPath() );
+      File tmp = File.createTempFile( "lease", ".tmp", dir );
+      try {
+        Files.write( tmp.toPath(), content );
+        Files.createLink( versionFile( dir, version ).toPath(), tmp.toPath() );
+        return String.valueOf( version );
+      } catch ( FileAlreadyExistsException e ) {
+        return null;
+      } finally {
+        Files.deleteIfExists( tmp.toPath() );
+      }
+    }
+
+    private static long latestVersion( File dir ) {
+      long latest = 0;
+      String[] names = dir.list();
+      if ( names != null ) {
+        for ( String name : names ) {
+          if ( name.endsWith( ".v" ) ) {
+            latest = Math.max( latest, Long.parseLong( name.substring( 0, name.length() - 2 ) ) );
+          }
+        }
+      }
+      return latest;
+    }
+
+    private static File versionFile( File dir, long version ) {
+      return new File( dir, String.format( "%012d.v", version ) );
+    }
+  }
+
+  /**
+   * Keeps each record in an S3 object, updated with conditional writes (If-None-Match to create,
+   * If-Match on the ETag to replace); the object's ETag is the record version.
+   */
+  static class S3Store extends LeaseStore {
+
+    private final AmazonS3 s3Client;
+    private final String bucket;
+    private final String prefix;
+
+    S3Store( AmazonS3 s3Client, String bucket, String prefix ) {
+      this.s3Client = s3Client;
+      this.bucket = bucket;
+      this.prefix = prefix;
+    }
+
+    @Override
+    Record read( String name ) throws IOException {
+      try ( S3Object object = s3Client.getObject( new GetObjectRequest( bucket, prefix + name ) );
+            InputStream in = object.getObjectContent() ) {
+        return new Record( IOUtils.toByteArray( in ), object.getObjectMetadata().getETag() );
+      } catch ( AmazonServiceException e ) {
+        if ( e.getStatusCode() == 404 ) {
+          return null;
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    String create( String name, byte[] content ) {
+      return put( name, "If-None-Match", "*", content );
+    }
+
+    @Override
+    String replace( String name, String expectedVersion, byte[] content ) {
+      // entity tags are quoted in conditional headers
+      return put( name, "If-Match", expectedVersion.startsWith( "\"" ) ? expectedVersion
+          : "\"" + expectedVersion + "\"", content );
+    }
+
+    private String put( String name, String condition, String value, byte[] content ) {
+      ObjectMetadata metadata = new ObjectMetadata();
+      metadata.setContentType( "application/json" );
+      metadata.setContentLength( content.length );
+      PutObjectRequest request = new PutObjectRequest( bucket, prefix + name, new ByteArrayInputStream( content ),
+          metadata );
+      request.putCustomRequestHeader( condition, value );
+      try {
+        return s3Client.putObject( request ).getETag();
+      } catch ( AmazonServiceException e ) {
+        // 412: the condition failed, 409: a concurrent conditional write to the same key won
+        if ( e.getStatusCode() == 412 || e.getStatusCode() == 409 || e.getStatusCode() == 404 ) {
+          return null;
+        }
+        throw e;
+      }
+    }
+  }
+}
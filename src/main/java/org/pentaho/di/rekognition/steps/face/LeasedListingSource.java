@@ -0,0 +1,302 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists a bucket in units of work claimed through leases, so several step instances, on the same or on different
+ * machines, split the bucket between them without analyzing any image twice.
+ *
+ * The first instance splits the bucket the way ParallelListingSource does (one unit per top-level folder, or
+ * key ranges for flat buckets) and records that plan in the lease store; the others read it, so all of them agree
+ * on the units. Each instance then claims free units one at a time, lists the claimed unit and, once every image
+ * of the unit was fully processed by the step, marks the unit done. A lease is renewed in the background while
+ * its unit is worked on; the unit of an instance that stopped or crashed becomes free again once its lease
+ * expires, and is picked up by the others. The lease store keeps the done units: each backlog run needs its own
+ * lease location.
+ */
+class LeasedListingSource implements ImageSource {
+
+  private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String DELIMITER = "/";
+
+  /**
+   * One unit of work: the keys under a prefix, the top-level keys, or a key range (lower, upper].
+   */
+  static class Unit {
+    public String prefix;
+    public boolean topLevel;
+    public String lower;
+    public String upper;
+
+    Unit() {
+    }
+
+    Unit( String prefix, boolean topLevel, String lower, String upper ) {
+      this.prefix = prefix;
+      this.topLevel = topLevel;
+      this.lower = lower;
+      this.upper = upper;
+    }
+  }
+
+  private enum Outcome {
+    DONE, LOST, STOPPED
+  }
+
+  /**
+   * The lease of the unit being listed, renewed by the heartbeat thread.
+   */
+  private static class HeldLease {
+    LeaseStore.Lease lease;
+    boolean lost;
+
+    HeldLease( LeaseStore.Lease lease ) {
+      this.lease = lease;
+    }
+  }
+
+  private final AmazonS3 s3Client;
+  private final String bucketName;
+  private final LeaseStore leaseStore;
+  private final String owner;
+  private final long leaseMillis;
+  private final int ranges;
+  private final Checkpoint checkpoint;
+
+  private int unitsDone;
+
+  /**
+   * @param owner  identifies this step instance, unique across all instances and runs
+   * @param ranges most key ranges a flat bucket is split into (fewer when it holds few keys)
+   */
+  LeasedListingSource( AmazonS3 s3Client, String bucketName, LeaseStore leaseStore, String owner, long leaseMillis,
+                       int ranges, Checkpoint checkpoint ) {
+    this.s3Client = s3Client;
+    this.bucketName = bucketName;
+    this.leaseStore = leaseStore;
+    this.owner = owner;
+    this.leaseMillis = leaseMillis;
+    this.ranges = ranges;
+    this.checkpoint = checkpoint;
+  }
+
+  @Override
+  public void list( ImageSink sink ) throws KettleException {
+    ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor( runnable -> {
+      Thread thread = new Thread( runnable, "lease-heartbeat-" + bucketName );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    try {
+      List<Unit> plan = loadPlan();
+      // start at an owner dependent unit, so instances starting together do not all race for the same units
+      Set<Integer> remaining = new LinkedHashSet<>();
+      int first = Math.floorMod( owner.hashCode(), plan.size() );
+      for ( int i = 0; i < plan.size(); i++ ) {
+        remaining.add( ( first + i ) % plan.size() );
+      }
+      while ( !remaining.isEmpty() ) {
+        boolean claimed = false;
+        for ( Iterator<Integer> it = remaining.iterator(); it.hasNext(); ) {
+          int index = it.next();
+          String name = unitName( index );
+          LeaseStore.Lease lease = leaseStore.claim( name, owner, leaseMillis );
+          if ( lease == null ) {
+            continue;
+          }
+          if ( lease.done ) {
+            it.remove();
+            continue;
+          }
+          claimed = true;
+          Outcome outcome = process( plan.get( index ), name, lease, sink, heartbeat );
+          if ( outcome == Outcome.STOPPED ) {
+            return;
+          }
+          if ( outcome == Outcome.DONE ) {
+            unitsDone++;
+            it.remove();
+          }
+        }
+        if ( !remaining.isEmpty() && !claimed ) {
+          // every remaining unit is held by another instance: wait for them to finish or for their leases to expire
+          if ( !checkpoint.awaitProcessed() ) {
+            return;
+          }
+          Thread.sleep( Math.max( 100L, leaseMillis / 4 ) );
+        }
+      }
+    } catch ( IOException e ) {
+      throw new KettleException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.LeaseStore", bucketName ), e );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( e );
+    } finally {
+      heartbeat.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the number of units this instance finished
+   */
+  int getUnitsDone() {
+    return unitsDone;
+  }
+
+  /**
+   * Lists a claimed unit, keeping its lease alive, and marks it done once its images were processed.
+   */
+  private Outcome process( Unit unit, final String name, LeaseStore.Lease lease, ImageSink sink,
+                           ScheduledExecutorService heartbeat ) throws KettleException, IOException {
+    final HeldLease held = new HeldLease( lease );
+    long period = Math.max( 1L, leaseMillis / 3 );
+    ScheduledFuture<?> beat = heartbeat.scheduleWithFixedDelay( () -> {
+      synchronized ( held ) {
+        if ( held.lost ) {
+          return;
+        }
+        try {
+          LeaseStore.Lease renewed = leaseStore.renew( name, held.lease, leaseMillis );
+          if ( renewed == null ) {
+            held.lost = true;
+          } else {
+            held.lease = renewed;
+          }
+        } catch ( Exception e ) {
+          // retried on the next beat, the lease is given up if it expires meanwhile
+        }
+      }
+    }, period, period, TimeUnit.MILLISECONDS );
+    try {
+      ListObjectsV2Request req = new ListObjectsV2Request().withBucketName( bucketName )
+          .withPrefix( unit.prefix ).withStartAfter( unit.lower ).withDelimiter( unit.topLevel ? DELIMITER : null );
+      ListObjectsV2Result result;
+      boolean more = true;
+      do {
+        result = s3Client.listObjectsV2( req );
+        for ( S3ObjectSummary objectSummary : result.getObjectSummaries() ) {
+          if ( unit.upper != null && objectSummary.getKey().compareTo( unit.upper ) > 0 ) {
+            more = false;
+            break;
+          }
+          if ( isLost( held ) ) {
+            return Outcome.LOST;
+          }
+          if ( !sink.accept( objectSummary ) ) {
+            return Outcome.STOPPED;
+          }
+        }
+        req.setContinuationToken( result.getNextContinuationToken() );
+      } while ( more && result.isTruncated() );
+
+      if ( !checkpoint.awaitProcessed() ) {
+        return Outcome.STOPPED;
+      }
+      beat.cancel( false );
+      synchronized ( held ) {
+        if ( isLost( held ) ) {
+          return Outcome.LOST;
+        }
+        return leaseStore.complete( name, held.lease ) ? Outcome.DONE : Outcome.LOST;
+      }
+    } finally {
+      beat.cancel( false );
+    }
+  }
+
+  private boolean isLost( HeldLease held ) {
+    synchronized ( held ) {
+      return held.lost || leaseStore.now() > held.lease.expiresAt;
+    }
+  }
+
+  private String unitName( int index ) {
+    return bucketName + "/unit-" + String.format( "%05d", index );
+  }
+
+  /**
+   * Reads the plan of the bucket from the lease store, or makes and records it when this instance is the first.
+   */
+  List<Unit> loadPlan() throws IOException {
+    String name = bucketName + "/plan";
+    LeaseStore.Record record = leaseStore.read( name );
+    if ( record == null ) {
+      List<Unit> plan = makePlan();
+      if ( leaseStore.create( name, MAPPER.writeValueAsBytes( plan ) ) != null ) {
+        return plan;
+      }
+      // another instance recorded its plan first
+      record = leaseStore.read( name );
+    }
+    return MAPPER.readValue( record.content, new TypeReference<List<Unit>>() { } );
+  }
+
+  private List<Unit> makePlan() {
+    List<String> prefixes = new ArrayList<>();
+    ListObjectsV2Request req = new ListObjectsV2Request().withBucketName( bucketName ).withDelimiter( DELIMITER );
+    ListObjectsV2Result result;
+    do {
+      result = s3Client.listObjectsV2( req );
+      prefixes.addAll( result.getCommonPrefixes() );
+      req.setContinuationToken( result.getNextContinuationToken() );
+    } while ( result.isTruncated() );
+
+    List<Unit> plan = new ArrayList<>();
+    if ( prefixes.size() >= 2 ) {
+      plan.add( new Unit( null, true, null, null ) );
+      for ( String prefix : prefixes ) {
+        plan.add( new Unit( prefix, false, null, null ) );
+      }
+    } else {
+      String lower = null;
+      for ( String upper : ParallelListingSource.findBoundaries( s3Client, bucketName, ranges ) ) {
+        plan.add( new Unit( null, false, lower, upper ) );
+        lower = upper;
+      }
+      plan.add( new Unit( null, false, lower, null ) );
+    }
+    return plan;
+  }
+}
@@ -0,0 +1,266 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Detects faces on the client with a Haar cascade (Viola-Jones), so images without a face never reach
+ * Rekognition, or so face boxes can be produced without calling it at all.
+ *
+ * The image is converted to gray levels, scaled down to at most MAX_SIDE pixels on its longest side, and
+ * scanned with windows growing by SCALE_FACTOR. Overlapping hits are then grouped; groups with more than
+ * minNeighbors hits become faces. The boxes are relative to the image size, as Rekognition returns them,
+ * and carry no confidence or attributes.
+ *
+ * With more than one scan thread, the scales of one image are scanned in parallel; the step leaves this at one
+ * since its workers already analyze several images at once. Thread-safe.
+ */
+class LocalFaceDetector {
+
+  enum Mode {
+    NONE, PRESCREEN, OFFLINE;
+
+    static Mode parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  static final int MAX_SIDE = 800;
+  static final double SCALE_FACTOR = 1.1;
+  // windows overlapping this much (relative to their size) are the same face
+  static final double GROUP_EPS = 0.2;
+
+  private final HaarCascade cascade;
+  private final int minNeighbors;
+  private final ExecutorService scanPool;
+
+  LocalFaceDetector( HaarCascade cascade, int minNeighbors, int scanThreads ) {
+    this.cascade = cascade;
+    this.minNeighbors = minNeighbors;
+    this.scanPool = scanThreads > 1 ? Executors.newFixedThreadPool( scanThreads, runnable -> {
+      Thread thread = new Thread( runnable, "face-detector" );
+      thread.setDaemon( true );
+      return thread;
+    } ) : null;
+  }
+
+  /**
+   * @throws IOException when the image can't be decoded on the client side
+   */
+  List<FaceDetail> detect( ByteBuffer imageBytes ) throws IOException {
+    BufferedImage image = ImageIO.read( ImageLoader.stream( imageBytes ) );
+    if ( image == null ) {
+      throw new IOException( "Unsupported image format" );
+    }
+    return detect( image );
+  }
+
+  List<FaceDetail> detect( BufferedImage image ) {
+    double shrink = Math.min( 1.0, MAX_SIDE / (double) Math.max( image.getWidth(), image.getHeight() ) );
+    int width = Math.max( 1, (int) ( image.getWidth() * shrink ) );
+    int height = Math.max( 1, (int) ( image.getHeight() * shrink ) );
+    int[] gray = gray( image, width, height );
+    List<int[]> windows = scan( gray, width, height );
+
+    List<FaceDetail> faces = new ArrayList<>();
+    for ( int[] face : group( windows, minNeighbors ) ) {
+      faces.add( new FaceDetail().withBoundingBox( new BoundingBox()
+          .withLeft( face[0] / (float) width )
+          .withTop( face[1] / (float) height )
+          .withWidth( face[2] / (float) width )
+          .withHeight( face[3] / (float) height ) ) );
+    }
+    return faces;
+  }
+
+  /**
+   * @return every accepted window as x, y, width, height in the pixels of the gray image
+   */
+  List<int[]> scan( int[] gray, int width, int height ) {
+    int stride = width + 1;
+    int[] sums = new int[stride * ( height + 1 )];
+    long[] squares = new long[stride * ( height + 1 )];
+    for ( int y = 0; y < height; y++ ) {
+      int rowSum = 0;
+      long rowSquares = 0;
+      for ( int x = 0; x < width; x++ ) {
+        int value = gray[y * width + x];
+        rowSum += value;
+        rowSquares += value * value;
+        sums[( y + 1 ) * stride + x + 1] = sums[y * stride + x + 1] + rowSum;
+        squares[( y + 1 ) * stride + x + 1] = squares[y * stride + x + 1] + rowSquares;
+      }
+    }
+
+    List<HaarCascade.Scaled> scales = new ArrayList<>();
+    for ( double scale = 1.0; cascade.width * scale <= width && cascade.height * scale <= height;
+          scale *= SCALE_FACTOR ) {
+      HaarCascade.Scaled scaled = new HaarCascade.Scaled( cascade, scale );
+      if ( scaled.windowWidth <= width && scaled.windowHeight <= height ) {
+        scales.add( scaled );
+      }
+    }
+
+    List<int[]> windows = new ArrayList<>();
+    if ( scanPool == null ) {
+      for ( HaarCascade.Scaled scaled : scales ) {
+        scanScale( scaled, sums, squares, width, height, windows );
+      }
+      return windows;
+    }
+    List<Future<List<int[]>>> futures = new ArrayList<>();
+    for ( HaarCascade.Scaled scaled : scales ) {
+      futures.add( scanPool.submit( () -> {
+        List<int[]> found = new ArrayList<>();
+        scanScale( scaled, sums, squares, width, height, found );
+        return found;
+      } ) );
+    }
+    try {
+      for ( Future<List<int[]>> future : futures ) {
+        windows.addAll( future.get() );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( e );
+    } catch ( ExecutionException e ) {
+      throw new IllegalStateException( e.getCause() );
+    }
+    return windows;
+  }
+
+  private void scanScale( HaarCascade.Scaled scaled, int[] sums, long[] squares, int width, int height,
+                          List<int[]> windows ) {
+    // small windows are scanned every other pixel, larger ones once per scale step
+    int step = Math.max( 1, (int) Math.round( scaled.scale < 2 ? 2 * scaled.scale : scaled.scale ) );
+    int stride = width + 1;
+    for ( int y = 0; y + scaled.windowHeight <= height; y += step ) {
+      for ( int x = 0; x + scaled.windowWidth <= width; x += step ) {
+        if ( cascade.accepts( scaled, sums, squares, stride, x, y ) ) {
+          windows.add( new int[] { x, y, scaled.windowWidth, scaled.windowHeight } );
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges overlapping windows into their average; groups with at most minNeighbors windows are dropped as noise.
+   */
+  static List<int[]> group( List<int[]> windows, int minNeighbors ) {
+    int count = windows.size();
+    int[] parent = new int[count];
+    for ( int i = 0; i < count; i++ ) {
+      parent[i] = i;
+    }
+    for ( int i = 0; i < count; i++ ) {
+      for ( int j = i + 1; j < count; j++ ) {
+        if ( similar( windows.get( i ), windows.get( j ) ) ) {
+          parent[root( parent, i )] = root( parent, j );
+        }
+      }
+    }
+
+    long[][] totals = new long[count][5];
+    for ( int i = 0; i < count; i++ ) {
+      long[] total = totals[root( parent, i )];
+      int[] window = windows.get( i );
+      for ( int c = 0; c < 4; c++ ) {
+        total[c] += window[c];
+      }
+      total[4]++;
+    }
+    List<int[]> groups = new ArrayList<>();
+    for ( long[] total : totals ) {
+      long members = total[4];
+      if ( members > minNeighbors ) {
+        groups.add( new int[] {
+          (int) Math.round( total[0] / (double) members ), (int) Math.round( total[1] / (double) members ),
+          (int) Math.round( total[2] / (double) members ), (int) Math.round( total[3] / (double) members ) } );
+      }
+    }
+    return groups;
+  }
+
+  private static boolean similar( int[] a, int[] b ) {
+    double delta = GROUP_EPS * ( Math.min( a[2], b[2] ) + Math.min( a[3], b[3] ) ) * 0.5;
+    return Math.abs( a[0] - b[0] ) <= delta && Math.abs( a[1] - b[1] ) <= delta
+        && Math.abs( a[0] + a[2] - b[0] - b[2] ) <= delta && Math.abs( a[1] + a[3] - b[1] - b[3] ) <= delta;
+  }
+
+  private static int root( int[] parent, int i ) {
+    while ( parent[i] != i ) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Luma of the image, sampled down to width x height by averaging the covered source pixels.
+   */
+  static int[] gray( BufferedImage image, int width, int height ) {
+    int sourceWidth = image.getWidth();
+    int sourceHeight = image.getHeight();
+    int[] row = new int[sourceWidth];
+    long[] sums = new long[width * height];
+    int[] counts = new int[width * height];
+    for ( int sy = 0; sy < sourceHeight; sy++ ) {
+      image.getRGB( 0, sy, sourceWidth, 1, row, 0, sourceWidth );
+      int y = Math.min( height - 1, (int) ( (long) sy * height / sourceHeight ) );
+      for ( int sx = 0; sx < sourceWidth; sx++ ) {
+        int rgb = row[sx];
+        int luma = ( 299 * ( ( rgb >> 16 ) & 0xff ) + 587 * ( ( rgb >> 8 ) & 0xff ) + 114 * ( rgb & 0xff ) ) / 1000;
+        int x = Math.min( width - 1, (int) ( (long) sx * width / sourceWidth ) );
+        sums[y * width + x] += luma;
+        counts[y * width + x]++;
+      }
+    }
+    int[] gray = new int[width * height];
+    for ( int i = 0; i < gray.length; i++ ) {
+      gray[i] = counts[i] == 0 ? 0 : (int) ( sums[i] / counts[i] );
+    }
+    return gray;
+  }
+
+  void shutdown() {
+    if ( scanPool != null ) {
+      scanPool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.Attribute;
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.Landmark;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Face analysis of small images in batches: up to columns x rows images are scaled into the tiles of one
+ * composite image, which is sent with a single DetectFaces call. Each returned face is mapped back to the
+ * tile it lies in, with its bounding box and landmarks made relative to that image again. Faces crossing
+ * a tile border cannot be attributed to one image and are discarded.
+ *
+ * Images are buffered on the step thread; a full batch (or a partial one the step is waiting for) is
+ * handed to the worker pool as a single task.
+ */
+class MosaicBatcher {
+
+  // a face may overhang its tile by this many pixels, Rekognition boxes are not pixel exact
+  private static final int BORDER_TOLERANCE = 2;
+
+  private final AmazonRekognition rekognitionClient;
+  private final ImageLoader imageLoader;
+  private final ImageAnalyzer fallback;
+  private final int columns;
+  private final int rows;
+  private final int tileSize;
+  private final int batchSize;
+  private final long maxImageSize;
+
+  private List<Tile> buffered = new ArrayList<>();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong batchedImages = new AtomicLong();
+
+  private static class Tile {
+    final S3ObjectSummary objectSummary;
+    final CompletableFuture<ImageAnalysisResult> result = new CompletableFuture<>();
+    BufferedImage image;
+    Rectangle placement;
+
+    Tile( S3ObjectSummary objectSummary ) {
+      this.objectSummary = objectSummary;
+    }
+  }
+
+  /**
+   * @param fallback analyzes images that cannot be decoded on the client side, one call each
+   * @param batchSize maximum number of images per composite, at most columns x rows
+   * @param maxImageSize largest object size (bytes) batched, bigger images are analyzed on their own
+   */
+  MosaicBatcher( AmazonRekognition rekognitionClient, ImageLoader imageLoader, ImageAnalyzer fallback,
+                 int columns, int rows, int tileSize, int batchSize, long maxImageSize ) {
+    this.rekognitionClient = rekognitionClient;
+    this.imageLoader = imageLoader;
+    this.fallback = fallback;
+    this.columns = Math.max( 1, columns );
+    this.rows = Math.max( 1, rows );
+    this.tileSize = Math.max( 1, tileSize );
+    this.batchSize = Math.max( 1, Math.min( batchSize, this.columns * this.rows ) );
+    this.maxImageSize = maxImageSize;
+  }
+
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  long getMaxImageSize() {
+    return maxImageSize;
+  }
+
+  long getCalls() {
+    return calls.get();
+  }
+
+  long getBatchedImages() {
+    return batchedImages.get();
+  }
+
+  boolean accepts( S3ObjectSummary objectSummary ) {
+    return objectSummary.getSize() > 0 && objectSummary.getSize() <= maxImageSize;
+  }
+
+  /**
+   * Adds an image to the current batch, which is submitted once full.
+   *
+   * @return the image's result, completed when its batch has been analyzed
+   */
+  CompletableFuture<ImageAnalysisResult> add( S3ObjectSummary objectSummary, Executor workers ) {
+    Tile tile = new Tile( objectSummary );
+    buffered.add( tile );
+    if ( buffered.size() >= batchSize ) {
+      flush( workers );
+    }
+    return tile.result;
+  }
+
+  /**
+   * Submits the current partial batch if it holds the given result, so the caller does not wait forever.
+   *
+   * @param result a future returned by add, not a stage derived from it
+   */
+  void flushIfWaitingOn( CompletableFuture<ImageAnalysisResult> result, Executor workers ) {
+    for ( Tile tile : buffered ) {
+      if ( tile.result == result ) {
+        flush( workers );
+        return;
+      }
+    }
+  }
+
+  void flush( Executor workers ) {
+    if ( buffered.isEmpty() ) {
+      return;
+    }
+    final List<Tile> batch = buffered;
+    buffered = new ArrayList<>();
+    workers.execute( () -> analyzeBatch( batch ) );
+  }
+
+  private void analyzeBatch( List<Tile> batch ) {
+    List<Tile> decoded = new ArrayList<>();
+    for ( Tile tile : batch ) {
+      ByteBuffer bytes = null;
+      try {
+        bytes = imageLoader.load( tile.objectSummary );
+        if ( bytes == null ) {
+          // below the minimum image size, too small to hold a detectable face
+          tile.result.complete( fallback.analyzeNothing( tile.objectSummary ) );
+          continue;
+        }
+        tile.image = ImageIO.read( ImageLoader.stream( bytes ) );
+        if ( tile.image != null ) {
+          decoded.add( tile );
+        } else {
+          // not decodable here (e.g. an unsupported format), let Rekognition read it on its own
+          tile.result.complete( fallback.analyze( tile.objectSummary, bytes, null ) );
+        }
+      } catch ( Throwable e ) {
+        tile.result.completeExceptionally( e );
+      } finally {
+        imageLoader.release( bytes );
+      }
+    }
+    if ( decoded.isEmpty() ) {
+      return;
+    }
+    try {
+      List<Rectangle> placements = new ArrayList<>();
+      BufferedImage composite = compose( decoded, placements );
+      List<FaceDetail> faces = rekognitionClient.detectFaces( new DetectFacesRequest()
+          .withImage( new Image().withBytes( ByteBuffer.wrap( encode( composite ) ) ) )
+          .withAttributes( Attribute.ALL ) ).getFaceDetails();
+      calls.incrementAndGet();
+      batchedImages.addAndGet( decoded.size() );
+
+      List<List<FaceDetail>> facesPerTile = new ArrayList<>();
+      for ( int i = 0; i < decoded.size(); i++ ) {
+        facesPerTile.add( new ArrayList<>() );
+      }
+      for ( FaceDetail face : faces ) {
+        int index = findTile( face.getBoundingBox(), composite.getWidth(), composite.getHeight(), placements );
+        if ( index >= 0 ) {
+          facesPerTile.get( index ).add(
+              toTile( face, placements.get( index ), composite.getWidth(), composite.getHeight() ) );
+        }
+      }
+      for ( int i = 0; i < decoded.size(); i++ ) {
+        ImageAnalysisResult result = new ImageAnalysisResult( decoded.get( i ).objectSummary );
+        result.setFaceDetails( facesPerTile.get( i ) );
+        decoded.get( i ).result.complete( result );
+      }
+    } catch ( Throwable e ) {
+      for ( Tile tile : decoded ) {
+        tile.result.completeExceptionally( e );
+      }
+    }
+  }
+
+  /**
+   * Draws the images row by row into a composite with just enough rows, each scaled to fit its tile
+   * keeping its aspect ratio.
+   *
+   * @param placements receives the rectangle each image was drawn into, in composite pixels
+   */
+  private BufferedImage compose( List<Tile> tiles, List<Rectangle> placements ) {
+    int usedRows = ( tiles.size() + columns - 1 ) / columns;
+    BufferedImage composite = new BufferedImage( columns * tileSize, usedRows * tileSize, BufferedImage.TYPE_INT_RGB );
+    Graphics2D graphics = composite.createGraphics();
+    try {
+      graphics.setColor( Color.BLACK );
+      graphics.fillRect( 0, 0, composite.getWidth(), composite.getHeight() );
+      graphics.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+      for ( int i = 0; i < tiles.size(); i++ ) {
+        BufferedImage image = tiles.get( i ).image;
+        Rectangle placement = place( i, image.getWidth(), image.getHeight() );
+        graphics.drawImage( image, placement.x, placement.y, placement.width, placement.height, null );
+        placements.add( placement );
+      }
+    } finally {
+      graphics.dispose();
+    }
+    return composite;
+  }
+
+  /**
+   * @return where the index-th image of a batch is drawn: scaled into its tile, centered
+   */
+  Rectangle place( int index, int imageWidth, int imageHeight ) {
+    double scale = Math.min( (double) tileSize / imageWidth, (double) tileSize / imageHeight );
+    int width = Math.max( 1, (int) Math.round( imageWidth * scale ) );
+    int height = Math.max( 1, (int) Math.round( imageHeight * scale ) );
+    int x = ( index % columns ) * tileSize + ( tileSize - width ) / 2;
+    int y = ( index / columns ) * tileSize + ( tileSize - height ) / 2;
+    return new Rectangle( x, y, width, height );
+  }
+
+  /**
+   * Finds the image a face belongs to.
+   *
+   * @param box face bounding box, as ratios of the composite size
+   * @return index of the placement holding the whole face, -1 when it crosses a tile border
+   */
+  static int findTile( BoundingBox box, int compositeWidth, int compositeHeight, List<Rectangle> placements ) {
+    double left = box.getLeft() * compositeWidth;
+    double top = box.getTop() * compositeHeight;
+    double right = left + box.getWidth() * compositeWidth;
+    double bottom = top + box.getHeight() * compositeHeight;
+    for ( int i = 0; i < placements.size(); i++ ) {
+      Rectangle placement = placements.get( i );
+      if ( left >= placement.x - BORDER_TOLERANCE && top >= placement.y - BORDER_TOLERANCE
+          && right <= placement.x + placement.width + BORDER_TOLERANCE
+          && bottom <= placement.y + placement.height + BORDER_TOLERANCE ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Makes the bounding box and landmarks of a face relative to the image drawn at the placement.
+   * Computed in float, the type of the Rekognition coordinates.
+   */
+  static FaceDetail toTile( FaceDetail face, Rectangle placement, int compositeWidth, int compositeHeight ) {
+    BoundingBox box = face.getBoundingBox();
+    face.setBoundingBox( new BoundingBox()
+        .withLeft( toTileX( box.getLeft(), placement, compositeWidth ) )
+        .withTop( toTileY( box.getTop(), placement, compositeHeight ) )
+        .withWidth( box.getWidth() * compositeWidth / placement.width )
+        .withHeight( box.getHeight() * compositeHeight / placement.height ) );
+    if ( face.getLandmarks() != null ) {
+      for ( Landmark landmark : face.getLandmarks() ) {
+        landmark.setX( toTileX( landmark.getX(), placement, compositeWidth ) );
+        landmark.setY( toTileY( landmark.getY(), placement, compositeHeight ) );
+      }
+    }
+    return face;
+  }
+
+  private static Float toTileX( Float x, Rectangle placement, int compositeWidth ) {
+    return x == null ? null : ( x * compositeWidth - placement.x ) / placement.width;
+  }
+
+  private static Float toTileY( Float y, Rectangle placement, int compositeHeight ) {
+    return y == null ? null : ( y * compositeHeight - placement.y ) / placement.height;
+  }
+
+  private static byte[] encode( BufferedImage composite ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( composite, "jpg", out );
+    return out.toByteArray();
+  }
+}
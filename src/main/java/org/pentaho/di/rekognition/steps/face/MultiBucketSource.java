@@ -0,0 +1,63 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists several buckets or key prefixes at once, one listing thread each, and hands their images over in
+ * weighted turns (see ParallelProducers.runFair): a bucket with millions of images does not hold back the small
+ * ones queued behind it, and each source keeps its share of the workers according to its weight.
+ */
+class MultiBucketSource implements ImageSource {
+
+  private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
+
+  private final AmazonS3 s3Client;
+  private final List<BucketPrefix> sources;
+
+  MultiBucketSource( AmazonS3 s3Client, List<BucketPrefix> sources ) {
+    this.s3Client = s3Client;
+    this.sources = sources;
+  }
+
+  @Override
+  public void list( ImageSink sink ) throws KettleException {
+    List<ParallelProducers.Producer<S3ObjectSummary>> producers = new ArrayList<>();
+    int[] weights = new int[sources.size()];
+    for ( int i = 0; i < sources.size(); i++ ) {
+      final BucketPrefix source = sources.get( i );
+      producers.add( emitter -> new BucketListingSource( s3Client, source.getBucketName(), source.getPrefix() )
+          .list( emitter::emit ) );
+      weights[i] = source.getWeight();
+    }
+    ParallelProducers.runFair( producers, weights, sink::accept,
+        BaseMessages.getString( PKG, "FaceAnalysisStep.Error.MultiBucketListing" ) );
+  }
+}
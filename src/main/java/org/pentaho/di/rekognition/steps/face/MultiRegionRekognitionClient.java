@@ -0,0 +1,230 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.CreateCollectionRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectTextRequest;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.IndexFacesRequest;
+import com.amazonaws.services.rekognition.model.SearchFacesRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiFunction;
+
+/**
+ * Spreads the Rekognition calls over several regions, so the step is no longer capped by one region's quota.
+ *
+ * Each call goes to a region picked at random, weighted by the inverse of its recent latency and lowered
+ * by its recent throttling. A region with a rate limit that has no call left is skipped for another one;
+ * when all are exhausted the call waits for the picked region. Images passed by S3 reference can only be
+ * read by Rekognition in the bucket's region, so those calls always go to the first (home) region, as do the
+ * calls on the face collection used for clustering.
+ */
+class MultiRegionRekognitionClient extends DelegatingRekognitionClient {
+
+  // weight of the latest call in the moving averages
+  static final double SMOOTHING = 0.2;
+
+  private final List<Region> regions;
+
+  /**
+   * Call statistics and limits of one region.
+   */
+  static class Region {
+    final RegionEndpoint endpoint;
+    final AmazonRekognition client;
+    final RateLimiter rateLimiter;
+
+    // moving average of the call latency in nanoseconds, 0 until the first call
+    private double latency;
+    // moving average of the throttled fraction of the calls
+    private double throttling;
+    private long calls;
+
+    Region( RegionEndpoint endpoint, AmazonRekognition client, RateLimiter rateLimiter ) {
+      this.endpoint = endpoint;
+      this.client = client;
+      this.rateLimiter = rateLimiter;
+    }
+
+    synchronized void onSuccess( long nanos ) {
+      latency = latency == 0 ? nanos : latency + SMOOTHING * ( nanos - latency );
+      throttling -= SMOOTHING * throttling;
+      calls++;
+    }
+
+    synchronized void onThrottled() {
+      throttling += SMOOTHING * ( 1 - throttling );
+      calls++;
+    }
+
+    /**
+     * @param defaultLatency latency assumed while this region has none
+     */
+    synchronized double weight( double defaultLatency ) {
+      double healthy = 1 - throttling;
+      return healthy * healthy / ( latency == 0 ? defaultLatency : latency );
+    }
+
+    synchronized double getLatency() {
+      return latency;
+    }
+
+    synchronized long getCalls() {
+      return calls;
+    }
+  }
+
+  MultiRegionRekognitionClient( List<Region> regions ) {
+    this.regions = regions;
+  }
+
+  List<Region> getRegions() {
+    return regions;
+  }
+
+  @Override
+  protected <R extends AmazonWebServiceRequest, T> T invoke( String operation, R request,
+                                                             BiFunction<AmazonRekognition, R, T> api ) {
+    Region region;
+    try {
+      region = acquireRegion( isS3Reference( request ) || isCollectionCall( request ) );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new AbortedException( e );
+    }
+    long start = System.nanoTime();
+    try {
+      T result = api.apply( region.client, request );
+      region.onSuccess( System.nanoTime() - start );
+      return result;
+    } catch ( SdkBaseException e ) {
+      if ( RetryUtils.isThrottlingException( e ) ) {
+        region.onThrottled();
+      }
+      throw e;
+    }
+  }
+
+  private Region acquireRegion( boolean homeOnly ) throws InterruptedException {
+    Region picked = homeOnly ? regions.get( 0 ) : pick( ThreadLocalRandom.current().nextDouble() );
+    if ( picked.rateLimiter == null || picked.rateLimiter.tryAcquire() ) {
+      return picked;
+    }
+    if ( !homeOnly ) {
+      for ( Region other : byWeight() ) {
+        if ( other != picked && ( other.rateLimiter == null || other.rateLimiter.tryAcquire() ) ) {
+          return other;
+        }
+      }
+    }
+    picked.rateLimiter.acquire();
+    return picked;
+  }
+
+  /**
+   * @param random uniform in [0, 1)
+   * @return the region the random value falls in, each region covering a share proportional to its weight
+   */
+  Region pick( double random ) {
+    double defaultLatency = defaultLatency();
+    double total = 0;
+    double[] weights = new double[regions.size()];
+    for ( int i = 0; i < weights.length; i++ ) {
+      weights[i] = regions.get( i ).weight( defaultLatency );
+      total += weights[i];
+    }
+    double target = random * total;
+    for ( int i = 0; i < weights.length; i++ ) {
+      target -= weights[i];
+      if ( target < 0 ) {
+        return regions.get( i );
+      }
+    }
+    return regions.get( regions.size() - 1 );
+  }
+
+  private List<Region> byWeight() {
+    final double defaultLatency = defaultLatency();
+    List<Region> sorted = new ArrayList<>( regions );
+    Collections.sort( sorted, Comparator.comparingDouble( region -> -region.weight( defaultLatency ) ) );
+    return sorted;
+  }
+
+  /**
+   * @return the mean latency of the regions called so far, so new regions get an average share; 1 if none
+   */
+  private double defaultLatency() {
+    double sum = 0;
+    int known = 0;
+    for ( Region region : regions ) {
+      double latency = region.getLatency();
+      if ( latency > 0 ) {
+        sum += latency;
+        known++;
+      }
+    }
+    return known == 0 ? 1 : sum / known;
+  }
+
+  private static boolean isS3Reference( AmazonWebServiceRequest request ) {
+    Image image = null;
+    if ( request instanceof DetectFacesRequest ) {
+      image = ( (DetectFacesRequest) request ).getImage();
+    } else if ( request instanceof DetectLabelsRequest ) {
+      image = ( (DetectLabelsRequest) request ).getImage();
+    } else if ( request instanceof DetectTextRequest ) {
+      image = ( (DetectTextRequest) request ).getImage();
+    } else if ( request instanceof DetectModerationLabelsRequest ) {
+      image = ( (DetectModerationLabelsRequest) request ).getImage();
+    }
+    return image != null && image.getS3Object() != null;
+  }
+
+  /**
+   * @return true for calls on a face collection, which only exists in the home region
+   */
+  private static boolean isCollectionCall( AmazonWebServiceRequest request ) {
+    return request instanceof IndexFacesRequest || request instanceof SearchFacesRequest
+        || request instanceof CreateCollectionRequest;
+  }
+
+  @Override
+  public void shutdown() {
+    for ( Region region : regions ) {
+      region.client.shutdown();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Skips images that look almost the same as a recently analyzed one (burst shots, CCTV frames), using a
+ * 64 bit difference hash (dHash) of a 9x8 grayscale thumbnail. Two images whose hashes differ in at most
+ * maxDistance bits share the first image's result.
+ *
+ * Hashes are computed by the worker threads; the bounded window of recent hashes is shared and synchronized.
+ */
+class NearDuplicateFilter {
+
+  private static final int HASH_WIDTH = 9;
+  private static final int HASH_HEIGHT = 8;
+  private static final int SAMPLES_PER_CELL = 16;
+
+  private final int maxDistance;
+  private final int windowSize;
+  private final Deque<Entry> window = new ArrayDeque<>();
+  private final AtomicLong nearDuplicates = new AtomicLong();
+
+  private static class Entry {
+    final long hash;
+    final CompletableFuture<ImageAnalysisResult> result;
+
+    Entry( long hash, CompletableFuture<ImageAnalysisResult> result ) {
+      this.hash = hash;
+      this.result = result;
+    }
+  }
+
+  NearDuplicateFilter( int maxDistance, int windowSize ) {
+    this.maxDistance = maxDistance;
+    this.windowSize = Math.max( 1, windowSize );
+  }
+
+  /**
+   * Looks for a recent image within the Hamming distance. If none is found, the given result is registered
+   * for the hash, so the following near-identical images reuse it. A result that fails is dropped from the
+   * window, so the next near-identical image is analyzed on its own instead of inheriting the error.
+   *
+   * @return the result of the near-identical image, or null when the image must be analyzed
+   */
+  synchronized CompletableFuture<ImageAnalysisResult> findOrRegister( long hash,
+                                                                     CompletableFuture<ImageAnalysisResult> result ) {
+    // most recent first: bursts are usually consecutive
+    for ( Iterator<Entry> it = window.descendingIterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if ( entry.result.isCompletedExceptionally() ) {
+        it.remove();
+      } else if ( Long.bitCount( entry.hash ^ hash ) <= maxDistance ) {
+        nearDuplicates.incrementAndGet();
+        return entry.result;
+      }
+    }
+    final Entry entry = new Entry( hash, result );
+    window.addLast( entry );
+    if ( window.size() > windowSize ) {
+      window.removeFirst();
+    }
+    result.whenComplete( ( analyzed, error ) -> {
+      if ( error != null ) {
+        forget( entry );
+      }
+    } );
+    return null;
+  }
+
+  private synchronized void forget( Entry entry ) {
+    window.remove( entry );
+  }
+
+  long getNearDuplicates() {
+    return nearDuplicates.get();
+  }
+
+  /**
+   * Computes the difference hash of an encoded image: each bit tells whether a pixel of the downscaled
+   * grayscale image is brighter than its right neighbour.
+   *
+   * @throws IOException when the image format cannot be decoded
+   */
+  static long dHash( byte[] imageBytes ) throws IOException {
+    return dHash( ByteBuffer.wrap( imageBytes ) );
+  }
+
+  static long dHash( ByteBuffer imageBytes ) throws IOException {
+    BufferedImage image = ImageIO.read( ImageLoader.stream( imageBytes ) );
+    if ( image == null ) {
+      throw new IOException( "Unsupported image format" );
+    }
+    return dHash( image );
+  }
+
+  static long dHash( BufferedImage image ) {
+    int[][] gray = downscaleGray( image );
+    long hash = 0;
+    for ( int y = 0; y < HASH_HEIGHT; y++ ) {
+      for ( int x = 0; x < HASH_WIDTH - 1; x++ ) {
+        hash = ( hash << 1 ) | ( gray[y][x] > gray[y][x + 1] ? 1 : 0 );
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Averages the luminance of each cell of a HASH_WIDTH x HASH_HEIGHT grid, sampling at most
+   * SAMPLES_PER_CELL x SAMPLES_PER_CELL pixels per cell so large images stay cheap to hash.
+   */
+  private static int[][] downscaleGray( BufferedImage image ) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[][] gray = new int[HASH_HEIGHT][HASH_WIDTH];
+    for ( int cy = 0; cy < HASH_HEIGHT; cy++ ) {
+      int y0 = cy * height / HASH_HEIGHT;
+      int y1 = Math.max( y0 + 1, ( cy + 1 ) * height / HASH_HEIGHT );
+      int stepY = Math.max( 1, ( y1 - y0 ) / SAMPLES_PER_CELL );
+      for ( int cx = 0; cx < HASH_WIDTH; cx++ ) {
+        int x0 = cx * width / HASH_WIDTH;
+        int x1 = Math.max( x0 + 1, ( cx + 1 ) * width / HASH_WIDTH );
+        int stepX = Math.max( 1, ( x1 - x0 ) / SAMPLES_PER_CELL );
+        long sum = 0;
+        int count = 0;
+        for ( int y = y0; y < y1 && y < height; y += stepY ) {
+          for ( int x = x0; x < x1 && x < width; x += stepX ) {
+            int rgb = image.getRGB( x, y );
+            sum += ( 299 * ( ( rgb >> 16 ) & 0xff ) + 587 * ( ( rgb >> 8 ) & 0xff ) + 114 * ( rgb & 0xff ) ) / 1000;
+            count++;
+          }
+        }
+        gray[cy][cx] = count == 0 ? 0 : (int) ( sum / count );
+      }
+    }
+    return gray;
+  }
+}
@@ -0,0 +1,274 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Queue of S3 object-created notifications, consumed by the watch mode to analyze images as they arrive.
+ *
+ * Messages are S3 event notifications, either sent to the queue directly or through an SNS topic. Messages are only
+ * acknowledged (deleted) once the step emitted the rows of their images, so a crash leads to images analyzed twice
+ * rather than missed. Messages without object-created records, e.g. the test event S3 sends when notifications are
+ * configured, are acknowledged without producing images. So are malformed messages, which are reported with the
+ * batch instead of failing the step on every attempt to receive them.
+ */
+abstract class NotificationQueue implements Closeable {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Pattern SQS_HOST = Pattern.compile( "https://(?:sqs\\.)?([a-z0-9-]+)\\.(?:queue\\.)?amazonaws" );
+
+  /**
+   * Received messages: the images they announce, the receipts to acknowledge them with, and the description
+   * of the messages that could not be parsed.
+   */
+  static class Batch {
+    final List<S3ObjectSummary> images = new ArrayList<>();
+    final List<String> receipts = new ArrayList<>();
+    final List<String> malformed = new ArrayList<>();
+
+    boolean isEmpty() {
+      return receipts.isEmpty();
+    }
+  }
+
+  /**
+   * Waits for messages, returning as soon as some arrived or the wait is over.
+   *
+   * @param maxMessages most messages to return
+   * @param waitMillis  longest wait for a first message, the batch is empty after that
+   */
+  abstract Batch receive( int maxMessages, long waitMillis ) throws IOException, InterruptedException;
+
+  /**
+   * Removes the messages of a batch whose images were all processed.
+   */
+  abstract void acknowledge( Batch batch ) throws IOException;
+
+  @Override
+  public void close() throws IOException {
+  }
+
+  /**
+   * @param location   an SQS queue URL, or a local directory standing in for a queue
+   * @param sqsClients creates the SQS client for a region (null when the URL does not tell)
+   */
+  static NotificationQueue open( String location, Function<String, AmazonSQS> sqsClients ) {
+    if ( location.startsWith( "https://" ) ) {
+      return new SqsQueue( sqsClients.apply( sqsRegion( location ) ), location );
+    }
+    return new DirectoryQueue( new File( location ) );
+  }
+
+  /**
+   * @return the region of an SQS queue URL, null if it can't be told from the URL
+   */
+  static String sqsRegion( String queueUrl ) {
+    Matcher matcher = SQS_HOST.matcher( queueUrl );
+    return matcher.lookingAt() ? matcher.group( 1 ) : null;
+  }
+
+  /**
+   * Adds the objects created according to one message body to the batch, or records the message as malformed.
+   *
+   * @param id identifies the message in the report of a malformed one
+   */
+  static void addMessage( String id, String body, Batch batch ) {
+    try {
+      parseMessage( body, batch );
+    } catch ( IOException | IllegalArgumentException e ) {
+      // e.g. truncated JSON, or a key with an invalid URL escape
+      batch.malformed.add( id + ": " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Adds the objects created according to one message body to the batch.
+   */
+  static void parseMessage( String body, Batch batch ) throws IOException {
+    JsonNode message = MAPPER.readTree( body );
+    // delivered through SNS: the S3 event is the notification's message
+    if ( "Notification".equals( message.path( "Type" ).asText() ) && message.has( "Message" ) ) {
+      message = MAPPER.readTree( message.get( "Message" ).asText() );
+    }
+    for ( JsonNode record : message.path( "Records" ) ) {
+      if ( !record.path( "eventName" ).asText().startsWith( "ObjectCreated:" ) ) {
+        continue;
+      }
+      JsonNode s3 = record.path( "s3" );
+      S3ObjectSummary summary = new S3ObjectSummary();
+      summary.setBucketName( s3.path( "bucket" ).path( "name" ).asText() );
+      // keys are URL encoded in event notifications, with spaces as '+'
+      summary.setKey( URLDecoder.decode( s3.path( "object" ).path( "key" ).asText(), "UTF-8" ) );
+      summary.setSize( s3.path( "object" ).path( "size" ).asLong() );
+      if ( s3.path( "object" ).has( "eTag" ) ) {
+        summary.setETag( s3.path( "object" ).get( "eTag" ).asText() );
+      }
+      try {
+        summary.setLastModified( Date.from( Instant.parse( record.path( "eventTime" ).asText() ) ) );
+      } catch ( DateTimeParseException e ) {
+        // the image is still analyzed, only without a modification time
+      }
+      batch.images.add( summary );
+    }
+  }
+
+  /**
+   * An SQS queue, read with long polling. SQS returns at most 10 messages per call, larger batches take several
+   * calls without waiting once the first messages arrived.
+   */
+  static class SqsQueue extends NotificationQueue {
+
+    static final int MAX_MESSAGES = 10;
+    static final int MAX_WAIT_SECONDS = 20;
+
+    private final AmazonSQS sqsClient;
+    private final String queueUrl;
+
+    SqsQueue( AmazonSQS sqsClient, String queueUrl ) {
+      this.sqsClient = sqsClient;
+      this.queueUrl = queueUrl;
+    }
+
+    @Override
+    Batch receive( int maxMessages, long waitMillis ) throws IOException {
+      Batch batch = new Batch();
+      int waitSeconds = (int) Math.min( MAX_WAIT_SECONDS, ( waitMillis + 999 ) / 1000 );
+      while ( batch.receipts.size() < maxMessages ) {
+        int count = Math.min( MAX_MESSAGES, maxMessages - batch.receipts.size() );
+        List<Message> messages = sqsClient.receiveMessage( new ReceiveMessageRequest( queueUrl )
+            .withMaxNumberOfMessages( count )
+            .withWaitTimeSeconds( batch.isEmpty() ? waitSeconds : 0 ) ).getMessages();
+        for ( Message message : messages ) {
+          addMessage( message.getMessageId(), message.getBody(), batch );
+          batch.receipts.add( message.getReceiptHandle() );
+        }
+        if ( messages.size() < count ) {
+          break;
+        }
+      }
+      return batch;
+    }
+
+    @Override
+    void acknowledge( Batch batch ) throws IOException {
+      for ( int start = 0; start < batch.receipts.size(); start += MAX_MESSAGES ) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        for ( int i = start; i < Math.min( start + MAX_MESSAGES, batch.receipts.size() ); i++ ) {
+          entries.add( new DeleteMessageBatchRequestEntry( String.valueOf( i ), batch.receipts.get( i ) ) );
+        }
+        DeleteMessageBatchResult result = sqsClient.deleteMessageBatch( new DeleteMessageBatchRequest( queueUrl,
+            entries ) );
+        if ( !result.getFailed().isEmpty() ) {
+          BatchResultErrorEntry failed = result.getFailed().get( 0 );
+          throw new IOException( "Unable to delete " + result.getFailed().size() + " messages from " + queueUrl
+              + ": " + failed.getMessage() );
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      sqsClient.shutdown();
+    }
+  }
+
+  /**
+   * Local stand-in for a queue, e.g. to try a transformation without AWS: every file dropped into the directory
+   * is one message, received in file name order and deleted once acknowledged. Files starting with a dot are
+   * ignored, so a message can be written under a hidden name and renamed when complete.
+   */
+  static class DirectoryQueue extends NotificationQueue {
+
+    static final long POLL_MILLIS = 200;
+
+    private final File directory;
+
+    DirectoryQueue( File directory ) {
+      this.directory = directory;
+    }
+
+    @Override
+    Batch receive( int maxMessages, long waitMillis ) throws IOException, InterruptedException {
+      long deadline = System.currentTimeMillis() + waitMillis;
+      Batch batch = new Batch();
+      while ( true ) {
+        File[] files = directory.listFiles( file -> file.isFile() && !file.getName().startsWith( "." ) );
+        if ( files == null ) {
+          throw new IOException( "Not a directory: " + directory );
+        }
+        Arrays.sort( files );
+        for ( File file : files ) {
+          if ( batch.receipts.size() >= maxMessages ) {
+            break;
+          }
+          try {
+            addMessage( file.getName(), new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ),
+                batch );
+          } catch ( NoSuchFileException e ) {
+            continue;
+          }
+          batch.receipts.add( file.getName() );
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if ( !batch.isEmpty() || remaining <= 0 ) {
+          return batch;
+        }
+        Thread.sleep( Math.min( POLL_MILLIS, remaining ) );
+      }
+    }
+
+    @Override
+    void acknowledge( Batch batch ) throws IOException {
+      for ( String receipt : batch.receipts ) {
+        Files.deleteIfExists( new File( directory, receipt ).toPath() );
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reorders the images of another source before they reach the workers, within a bounded window.
+ *
+ * The window holds up to a fixed number of listed images; once it is full, each new image lets the next one by
+ * the policy out. The order is therefore only exact for sources smaller than the window, and for larger ones
+ * stays local to the images listed around the same time, but memory stays bounded and analysis starts as soon
+ * as the window is full. Whatever is left is handed over once the delegate is exhausted.
+ */
+class OrderedSource implements ImageSource {
+
+  /**
+   * The order in which the images of the window are handed over.
+   */
+  enum Policy {
+    /**
+     * Listing order, the images are not held back.
+     */
+    NONE,
+    /**
+     * Most recently modified first.
+     */
+    NEWEST,
+    /**
+     * Smallest first, for a fast first result.
+     */
+    SMALLEST,
+    /**
+     * One image of each key prefix in turn, spreading the S3 reads over the prefixes.
+     */
+    INTERLEAVE;
+
+    /**
+     * @return the policy with the given name (case insensitive), NONE when empty
+     */
+    static Policy parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Policy.valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  /**
+   * The images held back, in the policy's order.
+   */
+  interface Window {
+
+    void add( S3ObjectSummary objectSummary );
+
+    /**
+     * @return the next image to hand over, null when empty
+     */
+    S3ObjectSummary poll();
+
+    int size();
+  }
+
+  static final Comparator<S3ObjectSummary> NEWEST_FIRST =
+      Comparator.comparing( S3ObjectSummary::getLastModified, Comparator.nullsLast( Comparator.<Date>reverseOrder() ) )
+          .thenComparing( S3ObjectSummary::getKey );
+
+  static final Comparator<S3ObjectSummary> SMALLEST_FIRST =
+      Comparator.comparingLong( S3ObjectSummary::getSize ).thenComparing( S3ObjectSummary::getKey );
+
+  private final ImageSource delegate;
+  private final Window window;
+  private final int windowSize;
+
+  OrderedSource( ImageSource delegate, Window window, int windowSize ) {
+    this.delegate = delegate;
+    this.window = window;
+    this.windowSize = Math.max( 1, windowSize );
+  }
+
+  /**
+   * @param prefixDepth number of key folders telling the prefixes apart, for INTERLEAVE
+   * @return the delegate itself for NONE, the delegate wrapped in a window with the policy's order otherwise
+   */
+  static ImageSource create( ImageSource delegate, Policy policy, int windowSize, int prefixDepth ) {
+    switch ( policy ) {
+      case NEWEST:
+        return new OrderedSource( delegate, new PriorityWindow( NEWEST_FIRST ), windowSize );
+      case SMALLEST:
+        return new OrderedSource( delegate, new PriorityWindow( SMALLEST_FIRST ), windowSize );
+      case INTERLEAVE:
+        return new OrderedSource( delegate, new InterleavingWindow( prefixDepth ), windowSize );
+      case NONE:
+      default:
+        return delegate;
+    }
+  }
+
+  @Override
+  public void list( ImageSink sink ) throws KettleException {
+    boolean[] stopped = new boolean[1];
+    delegate.list( objectSummary -> {
+      window.add( objectSummary );
+      while ( window.size() >= windowSize ) {
+        if ( !sink.accept( window.poll() ) ) {
+          stopped[0] = true;
+          return false;
+        }
+      }
+      return true;
+    } );
+    while ( !stopped[0] && window.size() > 0 ) {
+      stopped[0] = !sink.accept( window.poll() );
+    }
+  }
+
+  /**
+   * Hands the images over by a fixed order of their attributes.
+   */
+  static class PriorityWindow implements Window {
+    private final PriorityQueue<S3ObjectSummary> queue;
+
+    PriorityWindow( Comparator<S3ObjectSummary> order ) {
+      queue = new PriorityQueue<>( order );
+    }
+
+    @Override
+    public void add( S3ObjectSummary objectSummary ) {
+      queue.add( objectSummary );
+    }
+
+    @Override
+    public S3ObjectSummary poll() {
+      return queue.poll();
+    }
+
+    @Override
+    public int size() {
+      return queue.size();
+    }
+  }
+
+  /**
+   * Hands the images over one prefix after the other, each prefix in listing order. The prefix of an image is its
+   * bucket and the first folders of its key, so the sources of a multi bucket listing are told apart as well.
+   */
+  static class InterleavingWindow implements Window {
+    private final int prefixDepth;
+    private final Map<String, ArrayDeque<S3ObjectSummary>> prefixes = new HashMap<>();
+    // the prefixes holding images, the next one to hand an image over first
+    private final ArrayDeque<String> turns = new ArrayDeque<>();
+    private int size;
+
+    InterleavingWindow( int prefixDepth ) {
+      this.prefixDepth = prefixDepth;
+    }
+
+    @Override
+    public void add( S3ObjectSummary objectSummary ) {
+      String prefix = objectSummary.getBucketName() + "/"
+          + ImageSource.keyPrefix( objectSummary.getKey(), prefixDepth );
+      ArrayDeque<S3ObjectSummary> images = prefixes.get( prefix );
+      if ( images == null ) {
+        images = new ArrayDeque<>();
+        prefixes.put( prefix, images );
+        turns.addLast( prefix );
+      }
+      images.addLast( objectSummary );
+      size++;
+    }
+
+    @Override
+    public S3ObjectSummary poll() {
+      String prefix = turns.pollFirst();
+      if ( prefix == null ) {
+        return null;
+      }
+      ArrayDeque<S3ObjectSummary> images = prefixes.get( prefix );
+      S3ObjectSummary objectSummary = images.pollFirst();
+      if ( images.isEmpty() ) {
+        prefixes.remove( prefix );
+      } else {
+        turns.addLast( prefix );
+      }
+      size--;
+      return objectSummary;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
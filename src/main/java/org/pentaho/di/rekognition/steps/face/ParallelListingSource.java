@@ -0,0 +1,249 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Lists a bucket with several concurrent ListObjectsV2 continuation chains.
+ *
+ * The top-level "folders" are discovered first with a delimiter listing; each of them is then listed
+ * by its own chain. Buckets with fewer than two top-level prefixes (flat buckets) are split instead into
+ * lexicographic key ranges (lower, upper], listed from StartAfter = lower until a key passes upper.
+ * The range boundaries are derived from the keys present (see findBoundaries), so flat buckets whose keys
+ * share a long prefix are split as well; keys beyond the last boundary fall into the last, unbounded range.
+ */
+class ParallelListingSource implements ImageSource {
+
+  private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
+
+  private static final String DELIMITER = "/";
+  private static final char FIRST_KEY_CHAR = ' ';
+  private static final char LAST_KEY_CHAR = '~';
+  private static final BigInteger KEY_BASE = BigInteger.valueOf( LAST_KEY_CHAR - FIRST_KEY_CHAR + 2 );
+  // keys per probe page: ranges holding fewer keys than this are not split further
+  private static final int PROBE_PAGE_KEYS = 1000;
+  // bounds the probes spent on estimating the last key (about 7 per character)
+  private static final int MAX_ESTIMATE_CHARS = 24;
+
+  private final AmazonS3 s3Client;
+  private final String bucketName;
+  private final int threads;
+
+  ParallelListingSource( AmazonS3 s3Client, String bucketName, int threads ) {
+    this.s3Client = s3Client;
+    this.bucketName = bucketName;
+    this.threads = Math.max( 1, threads );
+  }
+
+  @Override
+  public void list( ImageSink sink ) throws KettleException {
+    List<String> prefixes = new ArrayList<>();
+    List<S3ObjectSummary> topLevelObjects = new ArrayList<>();
+    ListObjectsV2Request req = new ListObjectsV2Request().withBucketName( bucketName ).withDelimiter( DELIMITER );
+    ListObjectsV2Result result;
+    do {
+      result = s3Client.listObjectsV2( req );
+      prefixes.addAll( result.getCommonPrefixes() );
+      topLevelObjects.addAll( result.getObjectSummaries() );
+      req.setContinuationToken( result.getNextContinuationToken() );
+    } while ( result.isTruncated() );
+
+    List<ParallelProducers.Producer<S3ObjectSummary>> producers = new ArrayList<>();
+    if ( prefixes.size() >= 2 ) {
+      for ( S3ObjectSummary objectSummary : topLevelObjects ) {
+        if ( !sink.accept( objectSummary ) ) {
+          return;
+        }
+      }
+      for ( final String prefix : prefixes ) {
+        producers.add( emitter -> listRange( prefix, null, null, emitter ) );
+      }
+    } else {
+      String lower = null;
+      for ( String upper : findBoundaries( s3Client, bucketName, threads * 4 ) ) {
+        final String from = lower;
+        producers.add( emitter -> listRange( null, from, upper, emitter ) );
+        lower = upper;
+      }
+      final String from = lower;
+      producers.add( emitter -> listRange( null, from, null, emitter ) );
+    }
+    ParallelProducers.run( producers, threads, sink::accept,
+        BaseMessages.getString( PKG, "FaceAnalysisStep.Error.ParallelListing", bucketName ) );
+  }
+
+  /**
+   * Lists the keys under the prefix (if any) that fall in (startAfter, upper], following the continuation chain.
+   */
+  private void listRange( String prefix, String startAfter, String upper,
+                          ParallelProducers.Emitter<S3ObjectSummary> emitter ) {
+    ListObjectsV2Request req = new ListObjectsV2Request().withBucketName( bucketName ).withPrefix( prefix )
+        .withStartAfter( startAfter );
+    ListObjectsV2Result result;
+    do {
+      result = s3Client.listObjectsV2( req );
+      for ( S3ObjectSummary objectSummary : result.getObjectSummaries() ) {
+        if ( upper != null && objectSummary.getKey().compareTo( upper ) > 0 ) {
+          return;
+        }
+        if ( !emitter.emit( objectSummary ) ) {
+          return;
+        }
+      }
+      req.setContinuationToken( result.getNextContinuationToken() );
+    } while ( result.isTruncated() );
+  }
+
+  /**
+   * Finds the inner boundaries of up to the given number of key ranges, in increasing order, from the keys
+   * actually present in the bucket.
+   *
+   * The span of the keys is found first: the first key, and the last one narrowed down character by character
+   * with single-key probes until it differs from the first key. Ranges that still hold more than a page of keys
+   * are then halved, widest first, at the midpoint between their first key and their upper end, so keys sharing
+   * a long common prefix (IMG_0001.jpg, 2023-05-01-...) are split as evenly as keys spread over the alphabet.
+   * Ranges that fit in a page are left alone. Several ranges per thread keep the threads busy when keys are
+   * unevenly spread.
+   */
+  static List<String> findBoundaries( AmazonS3 s3Client, String bucketName, int count ) {
+    List<String> boundaries = new ArrayList<>();
+    String first = firstKeyAfter( s3Client, bucketName, null );
+    if ( first == null || count < 2 ) {
+      return boundaries;
+    }
+    // ranges (lower, upper] still to look at; the last one is unbounded, upper is only the estimated last key
+    Deque<String[]> ranges = new ArrayDeque<>();
+    ranges.add( new String[] { null, lastKeyEstimate( s3Client, bucketName, first ) } );
+    while ( !ranges.isEmpty() && boundaries.size() + 1 < count ) {
+      String[] range = ranges.poll();
+      ListObjectsV2Result page = s3Client.listObjectsV2( new ListObjectsV2Request().withBucketName( bucketName )
+          .withStartAfter( range[0] ).withMaxKeys( PROBE_PAGE_KEYS ) );
+      List<S3ObjectSummary> objectSummaries = page.getObjectSummaries();
+      if ( !page.isTruncated() || objectSummaries.isEmpty()
+          || objectSummaries.get( objectSummaries.size() - 1 ).getKey().compareTo( range[1] ) > 0 ) {
+        continue; // fits in a page
+      }
+      String middle = midpoint( objectSummaries.get( 0 ).getKey(), range[1] );
+      if ( middle == null ) {
+        continue;
+      }
+      boundaries.add( middle );
+      ranges.add( new String[] { range[0], middle } );
+      ranges.add( new String[] { middle, range[1] } );
+    }
+    Collections.sort( boundaries );
+    return boundaries;
+  }
+
+  /**
+   * Narrows down the last key of the bucket, one character at a time, by probing for keys after
+   * prefix + c. Stops one character after the prefix leaves the first key, which is enough to split the span.
+   *
+   * @return a string at or just below the last key, followed by the last printable character
+   */
+  private static String lastKeyEstimate( AmazonS3 s3Client, String bucketName, String first ) {
+    StringBuilder prefix = new StringBuilder();
+    int pastFirst = 0;
+    while ( prefix.length() < MAX_ESTIMATE_CHARS && pastFirst < 2 ) {
+      if ( firstKeyAfter( s3Client, bucketName, prefix.toString() + FIRST_KEY_CHAR ) == null ) {
+        break;
+      }
+      // the largest c with a key after prefix + c
+      char low = FIRST_KEY_CHAR;
+      char high = LAST_KEY_CHAR;
+      while ( low < high ) {
+        char c = (char) ( ( low + high + 1 ) / 2 );
+        if ( firstKeyAfter( s3Client, bucketName, prefix.toString() + c ) != null ) {
+          low = c;
+        } else {
+          high = (char) ( c - 1 );
+        }
+      }
+      prefix.append( low );
+      if ( pastFirst > 0 || !first.startsWith( prefix.toString() ) ) {
+        pastFirst++;
+      }
+    }
+    return prefix.toString() + LAST_KEY_CHAR;
+  }
+
+  private static String firstKeyAfter( AmazonS3 s3Client, String bucketName, String startAfter ) {
+    List<S3ObjectSummary> objectSummaries = s3Client.listObjectsV2( new ListObjectsV2Request()
+        .withBucketName( bucketName ).withStartAfter( startAfter ).withMaxKeys( 1 ) ).getObjectSummaries();
+    return objectSummaries.isEmpty() ? null : objectSummaries.get( 0 ).getKey();
+  }
+
+  /**
+   * Computes a key halfway between two keys, reading them as numbers whose digits are the printable ASCII
+   * characters (other characters are clamped to the nearest printable one).
+   *
+   * @return a key strictly between lower and upper, or null if there is none at this precision
+   */
+  static String midpoint( String lower, String upper ) {
+    int length = Math.max( lower.length(), upper.length() ) + 1;
+    BigInteger middle = toNumber( lower, length ).add( toNumber( upper, length ) ).shiftRight( 1 );
+    char[] chars = new char[length];
+    for ( int i = length - 1; i >= 0; i-- ) {
+      BigInteger[] digit = middle.divideAndRemainder( KEY_BASE );
+      chars[i] = (char) ( FIRST_KEY_CHAR - 1 + digit[1].intValue() );
+      middle = digit[0];
+    }
+    int end = length;
+    while ( end > 0 && chars[end - 1] < FIRST_KEY_CHAR ) {
+      end--;
+    }
+    for ( int i = 0; i < end; i++ ) {
+      chars[i] = (char) Math.max( chars[i], FIRST_KEY_CHAR );
+    }
+    String key = new String( chars, 0, end );
+    return key.compareTo( lower ) > 0 && key.compareTo( upper ) < 0 ? key : null;
+  }
+
+  /**
+   * @return the key as a number: one digit per character, 0 past the end of the key
+   */
+  private static BigInteger toNumber( String key, int length ) {
+    BigInteger number = BigInteger.ZERO;
+    for ( int i = 0; i < length; i++ ) {
+      int digit = 0;
+      if ( i < key.length() ) {
+        digit = Math.max( FIRST_KEY_CHAR, Math.min( LAST_KEY_CHAR, key.charAt( i ) ) ) - FIRST_KEY_CHAR + 1;
+      }
+      number = number.multiply( KEY_BASE ).add( BigInteger.valueOf( digit ) );
+    }
+    return number;
+  }
+}
@@ -0,0 +1,275 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs several producers (inventory data files, listing ranges, journal segments, ...) on a thread pool and
+ * merges their output into a single sink on the calling thread, through a bounded queue. The first producer
+ * failure stops the enumeration and is rethrown to the caller.
+ *
+ * run() merges in arrival order. runFair() gives each producer its own queue and takes from them in weighted
+ * turns, so a producer with a lot of output (a huge bucket) does not crowd out the others.
+ */
+final class ParallelProducers {
+
+  private static final int QUEUE_SIZE = 10000;
+  // per producer with fair merging: about one listing page, so little is buffered ahead of the sink
+  private static final int FAIR_QUEUE_SIZE = 1000;
+
+  // marks the end of one producer in the queue
+  private static final Object END_OF_PRODUCER = new Object();
+
+  /**
+   * Enumerates one part of a source, on a pool thread.
+   */
+  interface Producer<T> {
+    void produce( Emitter<T> emitter ) throws Exception;
+  }
+
+  /**
+   * Hands items from a producer to the merging thread.
+   */
+  interface Emitter<T> {
+
+    /**
+     * @return false once the enumeration was cancelled, the producer should then return
+     */
+    boolean emit( T item );
+  }
+
+  /**
+   * Receives the merged items, on the calling thread.
+   */
+  interface Sink<T> {
+
+    /**
+     * @return false to stop the enumeration early
+     */
+    boolean accept( T item ) throws KettleException;
+  }
+
+  /**
+   * Wraps a producer failure so it can travel through the queue.
+   */
+  private static class Failure {
+    final Exception cause;
+
+    Failure( Exception cause ) {
+      this.cause = cause;
+    }
+  }
+
+  private ParallelProducers() {
+  }
+
+  /**
+   * Runs the producers with at most the given number of threads and passes everything they emit
+   * to the sink, on the calling thread. Returns once all producers are done or the sink asked to stop.
+   *
+   * @param errorMessage message of the KettleException thrown when a producer fails
+   */
+  static <T> void run( List<? extends Producer<T>> producers, int threads, Sink<T> sink, String errorMessage )
+      throws KettleException {
+    if ( producers.isEmpty() ) {
+      return;
+    }
+    final BlockingQueue<Object> queue = new ArrayBlockingQueue<>( QUEUE_SIZE );
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    final Emitter<T> emitter = item -> enqueue( queue, item, cancelled );
+    ExecutorService pool = Executors.newFixedThreadPool( Math.max( 1, Math.min( threads, producers.size() ) ) );
+    try {
+      for ( final Producer<T> producer : producers ) {
+        pool.execute( () -> {
+          Object last = END_OF_PRODUCER;
+          try {
+            producer.produce( emitter );
+          } catch ( Exception e ) {
+            last = new Failure( e );
+          }
+          enqueue( queue, last, cancelled );
+        } );
+      }
+      pool.shutdown();
+
+      int remaining = producers.size();
+      while ( remaining > 0 ) {
+        Object item = queue.take();
+        if ( item == END_OF_PRODUCER ) {
+          remaining--;
+        } else if ( item instanceof Failure ) {
+          throw new KettleException( errorMessage, ( (Failure) item ).cause );
+        } else if ( !sink.accept( castItem( item ) ) ) {
+          return;
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( e );
+    } finally {
+      cancelled.set( true );
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs every producer on its own thread and passes what they emit to the sink, on the calling thread, taking
+   * turns by smooth weighted round robin among the producers that have items waiting. A producer with twice the
+   * weight of another gets twice its items through while both have some; a producer with nothing waiting is
+   * skipped rather than waited for. Returns once all producers are done or the sink asked to stop.
+   *
+   * @param weights      the positive weight of each producer
+   * @param errorMessage message of the KettleException thrown when a producer fails
+   */
+  static <T> void runFair( List<? extends Producer<T>> producers, int[] weights, Sink<T> sink, String errorMessage )
+      throws KettleException {
+    if ( producers.isEmpty() ) {
+      return;
+    }
+    final int count = producers.size();
+    final List<BlockingQueue<Object>> queues = new ArrayList<>();
+    // one permit per item or end marker waiting in any queue
+    final Semaphore waiting = new Semaphore( 0 );
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    ExecutorService pool = Executors.newFixedThreadPool( count );
+    try {
+      for ( int i = 0; i < count; i++ ) {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>( FAIR_QUEUE_SIZE );
+        final Producer<T> producer = producers.get( i );
+        queues.add( queue );
+        pool.execute( () -> {
+          Object last = END_OF_PRODUCER;
+          try {
+            producer.produce( item -> {
+              if ( !enqueue( queue, item, cancelled ) ) {
+                return false;
+              }
+              waiting.release();
+              return true;
+            } );
+          } catch ( Exception e ) {
+            last = new Failure( e );
+          }
+          if ( enqueue( queue, last, cancelled ) ) {
+            waiting.release();
+          }
+        } );
+      }
+      pool.shutdown();
+
+      WeightedTurns turns = new WeightedTurns( weights );
+      boolean[] ready = new boolean[count];
+      boolean[] done = new boolean[count];
+      int remaining = count;
+      while ( remaining > 0 ) {
+        waiting.acquire();
+        for ( int i = 0; i < count; i++ ) {
+          ready[i] = !done[i] && !queues.get( i ).isEmpty();
+        }
+        int pick = turns.next( ready );
+        Object item = queues.get( pick ).poll();
+        if ( item == END_OF_PRODUCER ) {
+          done[pick] = true;
+          remaining--;
+        } else if ( item instanceof Failure ) {
+          throw new KettleException( errorMessage, ( (Failure) item ).cause );
+        } else if ( !sink.accept( castItem( item ) ) ) {
+          return;
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( e );
+    } finally {
+      cancelled.set( true );
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Smooth weighted round robin: every turn, each ready producer earns its weight in credits and the richest one
+   * is picked and pays back the weights of all ready producers. Over any stretch where the same producers are
+   * ready, each is picked in proportion to its weight, and the picks are spread rather than bunched.
+   */
+  static class WeightedTurns {
+    private final int[] weights;
+    private final int[] credits;
+
+    WeightedTurns( int[] weights ) {
+      this.weights = weights;
+      this.credits = new int[weights.length];
+    }
+
+    /**
+     * @param ready which producers have an item waiting, at least one
+     * @return the producer whose item is taken next
+     */
+    int next( boolean[] ready ) {
+      int pick = -1;
+      int total = 0;
+      for ( int i = 0; i < weights.length; i++ ) {
+        if ( ready[i] ) {
+          credits[i] += weights[i];
+          total += weights[i];
+          if ( pick < 0 || credits[i] > credits[pick] ) {
+            pick = i;
+          }
+        }
+      }
+      credits[pick] -= total;
+      return pick;
+    }
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static <T> T castItem( Object item ) {
+    return (T) item;
+  }
+
+  /**
+   * Puts an item on the queue, giving up once the enumeration has been cancelled.
+   */
+  private static boolean enqueue( BlockingQueue<Object> queue, Object item, AtomicBoolean cancelled ) {
+    try {
+      while ( !cancelled.get() ) {
+        if ( queue.offer( item, 100, TimeUnit.MILLISECONDS ) ) {
+          return true;
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+}
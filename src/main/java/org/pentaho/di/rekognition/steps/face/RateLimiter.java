@@ -0,0 +1,83 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the calls per second sent to one region. Allows bursts of up to one second
+ * worth of calls.
+ */
+class RateLimiter {
+
+  private final double permitsPerNano;
+  private final double maxPermits;
+  private final LongSupplier clock;
+  private double permits;
+  private long lastRefill;
+
+  RateLimiter( double permitsPerSecond, LongSupplier clock ) {
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos( 1 );
+    this.maxPermits = Math.max( 1, permitsPerSecond );
+    this.clock = clock;
+    this.permits = maxPermits;
+    this.lastRefill = clock.getAsLong();
+  }
+
+  /**
+   * @return true if a call may be made now
+   */
+  synchronized boolean tryAcquire() {
+    refill();
+    if ( permits >= 1 ) {
+      permits -= 1;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Waits until a call may be made.
+   */
+  void acquire() throws InterruptedException {
+    while ( true ) {
+      long waitNanos;
+      synchronized ( this ) {
+        refill();
+        if ( permits >= 1 ) {
+          permits -= 1;
+          return;
+        }
+        waitNanos = (long) Math.ceil( ( 1 - permits ) / permitsPerNano );
+      }
+      TimeUnit.NANOSECONDS.sleep( waitNanos );
+    }
+  }
+
+  private void refill() {
+    long now = clock.getAsLong();
+    permits = Math.min( maxPermits, permits + ( now - lastRefill ) * permitsPerNano );
+    lastRefill = now;
+  }
+}
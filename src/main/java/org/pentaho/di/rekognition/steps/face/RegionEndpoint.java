@@ -0,0 +1,129 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.AmazonRekognitionClientBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One Rekognition region the step sends calls to, as configured in FaceAnalysisMeta:
+ * <pre>region[=endpoint][@requestsPerSecond]</pre>
+ * e.g. "us-east-1@50" or "eu-west-1=http://localhost:4566". The endpoint overrides the region's default
+ * one (a VPC endpoint or a local stand-in), the region is still used for request signing.
+ */
+class RegionEndpoint {
+
+  private final String region;
+  private final String endpoint;
+  private final double rateLimit;
+
+  /**
+   * @param endpoint service endpoint URL, null for the region's default
+   * @param rateLimit maximum requests per second, 0 for no limit
+   */
+  RegionEndpoint( String region, String endpoint, double rateLimit ) {
+    this.region = region;
+    this.endpoint = endpoint;
+    this.rateLimit = rateLimit;
+  }
+
+  String getRegion() {
+    return region;
+  }
+
+  String getEndpoint() {
+    return endpoint;
+  }
+
+  double getRateLimit() {
+    return rateLimit;
+  }
+
+  AmazonRekognition buildClient( ClientConfiguration clientConfig, AWSCredentialsProvider credentialsProvider ) {
+    AmazonRekognitionClientBuilder builder = AmazonRekognitionClientBuilder.standard()
+        .withClientConfiguration( clientConfig )
+        .withCredentials( credentialsProvider );
+    if ( endpoint != null ) {
+      builder.withEndpointConfiguration( new AwsClientBuilder.EndpointConfiguration( endpoint, region ) );
+    } else {
+      builder.withRegion( region );
+    }
+    if ( FlightEvents.isAvailable() ) {
+      builder.withRequestHandlers( new FlightEvents.Recorder() );
+    }
+    return builder.build();
+  }
+
+  @Override
+  public String toString() {
+    return endpoint == null ? region : region + "=" + endpoint;
+  }
+
+  /**
+   * Parses a comma separated list of regions. Region names are checked only when no endpoint is given.
+   *
+   * @return the regions in configuration order, never empty: us-east-1 when the list is empty
+   * @throws IllegalArgumentException on an unknown region or an invalid rate limit
+   */
+  static List<RegionEndpoint> parseList( String value ) {
+    List<RegionEndpoint> regions = new ArrayList<>();
+    if ( value != null ) {
+      for ( String entry : value.split( "," ) ) {
+        if ( !entry.trim().isEmpty() ) {
+          regions.add( parse( entry.trim() ) );
+        }
+      }
+    }
+    if ( regions.isEmpty() ) {
+      regions.add( new RegionEndpoint( Regions.US_EAST_1.getName(), null, 0 ) );
+    }
+    return regions;
+  }
+
+  private static RegionEndpoint parse( String entry ) {
+    double rateLimit = 0;
+    int at = entry.lastIndexOf( '@' );
+    if ( at >= 0 ) {
+      try {
+        rateLimit = Double.parseDouble( entry.substring( at + 1 ).trim() );
+      } catch ( NumberFormatException e ) {
+        throw new IllegalArgumentException( "Invalid rate limit in region " + entry, e );
+      }
+      entry = entry.substring( 0, at ).trim();
+    }
+    int equals = entry.indexOf( '=' );
+    if ( equals >= 0 ) {
+      return new RegionEndpoint( entry.substring( 0, equals ).trim(), entry.substring( equals + 1 ).trim(),
+          rateLimit );
+    }
+    // fails on unknown region names
+    return new RegionEndpoint( Regions.fromName( entry ).getName(), null, rateLimit );
+  }
+}
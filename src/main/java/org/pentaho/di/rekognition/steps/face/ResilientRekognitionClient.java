@@ -0,0 +1,160 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Rekognition client with latency-aware request timeouts and an optional circuit breaker.
+ *
+ * Each call gets a timeout of a multiple of the p99 latency recently observed for its operation, kept
+ * between a floor and the configured maximum, so a degraded endpoint no longer holds a worker for the
+ * whole maximum on every call. Server side failures, throttling and timeouts count against the circuit
+ * breaker; invalid requests (e.g. an unsupported image) do not. Calls given up by the caller, such as the
+ * losing attempt of a hedged call, count neither way.
+ */
+class ResilientRekognitionClient extends DelegatingRekognitionClient {
+
+  static final double TIMEOUT_PERCENTILE = 99;
+  static final int TIMEOUT_MULTIPLIER = 3;
+  static final long MIN_TIMEOUT_MILLIS = 2000;
+
+  private final AmazonRekognition delegate;
+  private final long maxTimeoutMillis;
+  private final boolean adaptiveTimeouts;
+  private final CircuitBreaker circuitBreaker;
+  private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxTimeoutMillis request timeout used until enough latencies are known, and upper bound after
+   * @param circuitBreaker null to never pause calls
+   */
+  ResilientRekognitionClient( AmazonRekognition delegate, long maxTimeoutMillis, boolean adaptiveTimeouts,
+                              CircuitBreaker circuitBreaker ) {
+    this.delegate = delegate;
+    this.maxTimeoutMillis = maxTimeoutMillis;
+    this.adaptiveTimeouts = adaptiveTimeouts;
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  @Override
+  protected <R extends AmazonWebServiceRequest, T> T invoke( String operation, R request,
+                                                             BiFunction<AmazonRekognition, R, T> api ) {
+    LatencyTracker tracker = trackers.computeIfAbsent( operation, name -> new LatencyTracker() );
+    if ( circuitBreaker != null ) {
+      circuitBreaker.acquire();
+    }
+    long start = System.nanoTime();
+    try {
+      T result = api.apply( delegate, withTimeout( request, tracker ) );
+      tracker.record( System.nanoTime() - start );
+      if ( circuitBreaker != null ) {
+        circuitBreaker.onSuccess();
+      }
+      return result;
+    } catch ( RuntimeException e ) {
+      if ( circuitBreaker != null ) {
+        if ( isAbandoned( e ) ) {
+          circuitBreaker.onAbandoned();
+        } else if ( isOutageFailure( e ) ) {
+          circuitBreaker.onFailure();
+        } else {
+          // the service answered, only this request was wrong
+          circuitBreaker.onSuccess();
+        }
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private <R extends AmazonWebServiceRequest> R withTimeout( R request, LatencyTracker tracker ) {
+    if ( !adaptiveTimeouts ) {
+      return request;
+    }
+    // requests may be shared between hedged attempts, so the timeout is set on a copy
+    R copy = (R) request.clone();
+    copy.setSdkRequestTimeout( (int) timeoutMillis( tracker.percentile( TIMEOUT_PERCENTILE ), maxTimeoutMillis ) );
+    return copy;
+  }
+
+  /**
+   * @param p99Nanos latency percentile in nanoseconds, negative when not known yet
+   * @return the request timeout to use, in milliseconds
+   */
+  static long timeoutMillis( long p99Nanos, long maxTimeoutMillis ) {
+    if ( p99Nanos < 0 ) {
+      return maxTimeoutMillis;
+    }
+    long adaptive = TimeUnit.NANOSECONDS.toMillis( p99Nanos ) * TIMEOUT_MULTIPLIER;
+    return Math.min( maxTimeoutMillis, Math.max( MIN_TIMEOUT_MILLIS, adaptive ) );
+  }
+
+  /**
+   * @return true when the call failed because the calling thread was interrupted, e.g. when the hedging client
+   *         cancelled the slower attempt: the SDK then aborts the request
+   */
+  static boolean isAbandoned( RuntimeException e ) {
+    if ( e instanceof AbortedException || Thread.currentThread().isInterrupted() ) {
+      return true;
+    }
+    for ( Throwable cause = e.getCause(); cause != null; cause = cause.getCause() ) {
+      if ( cause instanceof InterruptedException || cause instanceof ClosedByInterruptException ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true for failures telling the service is unhealthy: server errors, throttling, timeouts and
+   *         connection problems
+   */
+  static boolean isOutageFailure( RuntimeException e ) {
+    if ( e instanceof AmazonServiceException ) {
+      return ( (AmazonServiceException) e ).getErrorType() == AmazonServiceException.ErrorType.Service
+          || RetryUtils.isThrottlingException( (SdkBaseException) e );
+    }
+    return e instanceof SdkBaseException;
+  }
+}
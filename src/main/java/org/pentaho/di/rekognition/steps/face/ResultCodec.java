@@ -0,0 +1,57 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * Converts ImageAnalysisResult instances to and from JSON, for the results the step keeps outside of memory.
+ *
+ * Fields are mapped directly: the Rekognition model classes have overloaded setters (String and enum)
+ * that bean-style mapping cannot resolve, while their field names match the API's JSON names.
+ */
+final class ResultCodec {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false )
+      .setSerializationInclusion( JsonInclude.Include.NON_NULL )
+      .setVisibility( PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE )
+      .setVisibility( PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY );
+
+  private ResultCodec() {
+  }
+
+  static byte[] toJson( ImageAnalysisResult result ) throws IOException {
+    return MAPPER.writeValueAsBytes( result );
+  }
+
+  static ImageAnalysisResult fromJson( byte[] json ) throws IOException {
+    return MAPPER.readValue( json, ImageAnalysisResult.class );
+  }
+}
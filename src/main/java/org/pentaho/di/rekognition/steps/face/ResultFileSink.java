@@ -0,0 +1,313 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes output rows straight to CSV or JSON Lines files, for bulk runs that would otherwise only pass the rows
+ * to a text file output step. Rows are encoded on the step thread into a large buffer over a file channel,
+ * optionally gzip compressed, and a new file is started once the current one reaches the roll size.
+ *
+ * Not thread safe, used from the step thread only.
+ */
+class ResultFileSink implements Closeable {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * Layout of the result files.
+   */
+  enum Format {
+    NONE, CSV, JSON;
+
+    static Format parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Format.valueOf( value.trim().toUpperCase() );
+    }
+
+    String extension() {
+      return this == JSON ? ".jsonl" : ".csv";
+    }
+  }
+
+  /**
+   * A completed result file.
+   */
+  static class OutputFile {
+    final File file;
+    final long rows;
+    final long bytes;
+
+    OutputFile( File file, long rows, long bytes ) {
+      this.file = file;
+      this.rows = rows;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Counts the bytes reaching the file, after compression.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count;
+
+    CountingOutputStream( OutputStream out ) {
+      super( out );
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      out.write( b );
+      count++;
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      out.write( b, off, len );
+      count += len;
+    }
+  }
+
+  private final File directory;
+  private final String baseName;
+  private final Format format;
+  private final boolean compress;
+  private final long rollBytes;
+  private final String[] fieldNames;
+
+  private final StringBuilder line = new StringBuilder( 256 );
+  private int fileNumber;
+  private File currentFile;
+  private CountingOutputStream counter;
+  private Writer writer;
+  private long rows;
+
+  /**
+   * @param baseName   start of the file names, followed by a sequence number and the extension
+   * @param rollBytes  size of the written file (compressed if so) after which a new one is started, 0 for no limit
+   * @param fieldNames names of the row fields, in row order
+   */
+  ResultFileSink( File directory, String baseName, Format format, boolean compress, long rollBytes,
+                  String[] fieldNames ) throws IOException {
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Unable to create output directory " + directory );
+    }
+    this.directory = directory;
+    this.baseName = baseName;
+    this.format = format;
+    this.compress = compress;
+    this.rollBytes = rollBytes;
+    this.fieldNames = fieldNames.clone();
+  }
+
+  File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Appends one row.
+   *
+   * @return the file completed by this row when it reached the roll size, null otherwise
+   */
+  OutputFile write( Object[] row ) throws IOException {
+    if ( writer == null ) {
+      open();
+    }
+    line.setLength( 0 );
+    if ( format == Format.JSON ) {
+      appendJson( row );
+    } else {
+      appendCsv( row );
+    }
+    line.append( '\n' );
+    writer.append( line );
+    rows++;
+    if ( rollBytes > 0 && counter.count >= rollBytes ) {
+      return closeFile();
+    }
+    return null;
+  }
+
+  /**
+   * Completes the current file.
+   *
+   * @return the completed file, null if no row was written since the last one
+   */
+  OutputFile closeFile() throws IOException {
+    if ( writer == null ) {
+      return null;
+    }
+    try {
+      writer.close();
+    } finally {
+      writer = null;
+    }
+    return new OutputFile( currentFile, rows, counter.count );
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeFile();
+  }
+
+  private void open() throws IOException {
+    currentFile = new File( directory, String.format( "%s-%05d%s%s", baseName, ++fileNumber, format.extension(),
+        compress ? ".gz" : "" ) );
+    counter = new CountingOutputStream( Channels.newOutputStream( FileChannel.open( currentFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) );
+    OutputStream out = compress ? new GZIPOutputStream( counter, BUFFER_SIZE ) : counter;
+    writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ), BUFFER_SIZE );
+    rows = 0;
+    if ( format == Format.CSV ) {
+      line.setLength( 0 );
+      for ( int i = 0; i < fieldNames.length; i++ ) {
+        if ( i > 0 ) {
+          line.append( ',' );
+        }
+        appendCsvValue( fieldNames[i] );
+      }
+      writer.append( line ).append( '\n' );
+    }
+  }
+
+  private void appendCsv( Object[] row ) {
+    for ( int i = 0; i < fieldNames.length; i++ ) {
+      if ( i > 0 ) {
+        line.append( ',' );
+      }
+      Object value = i < row.length ? row[i] : null;
+      if ( value instanceof String ) {
+        appendCsvValue( (String) value );
+      } else if ( value != null ) {
+        line.append( format( value ) );
+      }
+    }
+  }
+
+  private void appendCsvValue( String value ) {
+    boolean quote = false;
+    for ( int i = 0; i < value.length() && !quote; i++ ) {
+      char c = value.charAt( i );
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if ( !quote ) {
+      line.append( value );
+      return;
+    }
+    line.append( '"' );
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      if ( c == '"' ) {
+        line.append( '"' );
+      }
+      line.append( c );
+    }
+    line.append( '"' );
+  }
+
+  private void appendJson( Object[] row ) {
+    line.append( '{' );
+    boolean first = true;
+    for ( int i = 0; i < fieldNames.length; i++ ) {
+      Object value = i < row.length ? row[i] : null;
+      if ( value == null ) {
+        continue;
+      }
+      if ( !first ) {
+        line.append( ',' );
+      }
+      first = false;
+      appendJsonString( fieldNames[i] );
+      line.append( ':' );
+      if ( value instanceof Number && !isNonFinite( value ) ) {
+        line.append( format( value ) );
+      } else {
+        appendJsonString( format( value ) );
+      }
+    }
+    line.append( '}' );
+  }
+
+  private void appendJsonString( String value ) {
+    line.append( '"' );
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      switch ( c ) {
+        case '"':
+          line.append( "\\\"" );
+          break;
+        case '\\':
+          line.append( "\\\\" );
+          break;
+        case '\n':
+          line.append( "\\n" );
+          break;
+        case '\r':
+          line.append( "\\r" );
+          break;
+        case '\t':
+          line.append( "\\t" );
+          break;
+        default:
+          if ( c < 0x20 ) {
+            line.append( String.format( "\\u%04x", (int) c ) );
+          } else {
+            line.append( c );
+          }
+      }
+    }
+    line.append( '"' );
+  }
+
+  private static boolean isNonFinite( Object value ) {
+    return value instanceof Double && ( ( (Double) value ).isNaN() || ( (Double) value ).isInfinite() );
+  }
+
+  private static String format( Object value ) {
+    if ( value instanceof Date ) {
+      return ( (Date) value ).toInstant().toString();
+    }
+    if ( value instanceof byte[] ) {
+      // e.g. the packed face landmarks
+      return Base64.getEncoder().encodeToString( (byte[]) value );
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,189 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only journal of the analysis results emitted by the step, so downstream logic can be re-run
+ * from disk without calling Rekognition again.
+ *
+ * The journal is a directory of gzipped segment files (journal-000001.rkj.gz, ...). A segment starts with
+ * a magic number and holds records made of a 4 byte length followed by the result as JSON (see ResultCodec),
+ * with the image key, its metadata and the raw output of every analysis. Each run appends new segments;
+ * a segment cut short by a crash is replayed up to its last complete record.
+ */
+final class ResultJournal {
+
+  static final int MAGIC = 0x524b4a31; // "RKJ1"
+  static final int DEFAULT_SEGMENT_RECORDS = 50000;
+
+  private static final Pattern SEGMENT_NAME = Pattern.compile( "journal-(\\d+)\\.rkj\\.gz" );
+
+  /**
+   * What the step does with the journal.
+   */
+  enum Mode {
+    NONE, WRITE, REPLAY;
+
+    static Mode parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Mode.valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  private ResultJournal() {
+  }
+
+  /**
+   * Appends results to new segments of a journal directory. Used from the step thread only.
+   */
+  static class Writer implements Closeable {
+
+    private final File directory;
+    private final int segmentRecords;
+    private int nextSegment;
+    private DataOutputStream out;
+    private int records;
+
+    Writer( File directory, int segmentRecords ) throws IOException {
+      if ( !directory.isDirectory() && !directory.mkdirs() ) {
+        throw new IOException( "Unable to create journal directory " + directory );
+      }
+      this.directory = directory;
+      this.segmentRecords = Math.max( 1, segmentRecords );
+      this.nextSegment = segmentNumber( last( segments( directory ) ) ) + 1;
+    }
+
+    void append( ImageAnalysisResult result ) throws IOException {
+      if ( out == null ) {
+        File segment = new File( directory, String.format( "journal-%06d.rkj.gz", nextSegment++ ) );
+        out = new DataOutputStream( new GZIPOutputStream( new BufferedOutputStream(
+            new FileOutputStream( segment ) ), 64 * 1024 ) );
+        out.writeInt( MAGIC );
+        records = 0;
+      }
+      byte[] json = ResultCodec.toJson( result );
+      out.writeInt( json.length );
+      out.write( json );
+      if ( ++records >= segmentRecords ) {
+        close();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if ( out != null ) {
+        try {
+          out.close();
+        } finally {
+          out = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Streams every result of the journal to the sink, on the calling thread. Segments are read and decoded
+   * in parallel, so results of different segments are interleaved; within a segment the write order is kept.
+   *
+   * @param errorMessage message of the KettleException thrown when a segment cannot be read
+   */
+  static void replay( File directory, int threads, ParallelProducers.Sink<ImageAnalysisResult> sink,
+                      String errorMessage ) throws KettleException {
+    List<ParallelProducers.Producer<ImageAnalysisResult>> producers = new ArrayList<>();
+    for ( final File segment : segments( directory ) ) {
+      producers.add( emitter -> readSegment( segment, emitter ) );
+    }
+    ParallelProducers.run( producers, threads, sink, errorMessage );
+  }
+
+  static void readSegment( File segment, ParallelProducers.Emitter<ImageAnalysisResult> emitter )
+      throws IOException {
+    try ( DataInputStream in = new DataInputStream( new BufferedInputStream(
+        new GZIPInputStream( new FileInputStream( segment ), 64 * 1024 ) ) ) ) {
+      if ( in.readInt() != MAGIC ) {
+        throw new IOException( "Not a result journal segment: " + segment );
+      }
+      while ( true ) {
+        byte[] json;
+        try {
+          json = new byte[in.readInt()];
+          in.readFully( json );
+        } catch ( EOFException e ) {
+          // end of the segment, or the incomplete last record of an interrupted run
+          return;
+        }
+        if ( !emitter.emit( ResultCodec.fromJson( json ) ) ) {
+          return;
+        }
+      }
+    } catch ( EOFException e ) {
+      // a segment interrupted before its first record was complete
+    }
+  }
+
+  /**
+   * @return the segment files of the journal directory, in write order
+   */
+  static List<File> segments( File directory ) {
+    File[] files = directory.listFiles( ( dir, name ) -> SEGMENT_NAME.matcher( name ).matches() );
+    if ( files == null ) {
+      return new ArrayList<>();
+    }
+    Arrays.sort( files, ( a, b ) -> Integer.compare( segmentNumber( a ), segmentNumber( b ) ) );
+    return new ArrayList<>( Arrays.asList( files ) );
+  }
+
+  private static File last( List<File> segments ) {
+    return segments.isEmpty() ? null : segments.get( segments.size() - 1 );
+  }
+
+  private static int segmentNumber( File segment ) {
+    if ( segment == null ) {
+      return 0;
+    }
+    Matcher matcher = SEGMENT_NAME.matcher( segment.getName() );
+    return matcher.matches() ? Integer.parseInt( matcher.group( 1 ) ) : 0;
+  }
+}
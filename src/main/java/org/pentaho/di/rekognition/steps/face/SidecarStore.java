@@ -0,0 +1,172 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the analysis result of each image in a JSON sidecar object next to it, in the image's bucket, under
+ * the image key with a configurable prefix and suffix (e.g. photos/a.jpg.faces.json).
+ *
+ * Sidecars are read and written by the worker threads, so uploads run in parallel with the analyses. A sidecar
+ * recorded for the same image content (ETag and size) with every selected analysis is up to date, and can
+ * be used instead of analyzing the image again.
+ */
+class SidecarStore {
+
+  static final String CONTENT_TYPE = "application/json";
+
+  private final AmazonS3 s3Client;
+  private final String prefix;
+  private final String suffix;
+  private final Set<AnalysisType> analysisTypes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong uploads = new AtomicLong();
+
+  SidecarStore( AmazonS3 s3Client, String prefix, String suffix, Set<AnalysisType> analysisTypes ) {
+    if ( prefix.isEmpty() && suffix.isEmpty() ) {
+      throw new IllegalArgumentException( "A sidecar needs a key prefix or suffix" );
+    }
+    this.s3Client = s3Client;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.analysisTypes = analysisTypes;
+  }
+
+  String sidecarKey( String imageKey ) {
+    return prefix + imageKey + suffix;
+  }
+
+  /**
+   * @return whether the object is a sidecar itself, and so must not be analyzed
+   */
+  boolean isSidecar( String key ) {
+    return ( prefix.isEmpty() || key.startsWith( prefix ) ) && ( suffix.isEmpty() || key.endsWith( suffix ) );
+  }
+
+  /**
+   * Reads the sidecar of an image on the given executor.
+   *
+   * @return a future of the up to date result, or of null when the image has to be analyzed
+   */
+  CompletableFuture<ImageAnalysisResult> lookup( final S3ObjectSummary image, Executor workers ) {
+    return CompletableFuture.supplyAsync( () -> {
+      try {
+        ImageAnalysisResult cached = load( image );
+        if ( cached != null ) {
+          hits.incrementAndGet();
+        }
+        return cached;
+      } catch ( IOException e ) {
+        throw new UncheckedIOException( e );
+      }
+    }, workers );
+  }
+
+  /**
+   * Uploads the sidecar of the result once it is available, on the given executor.
+   *
+   * @return a future completed with the same result once the sidecar was written
+   */
+  CompletableFuture<ImageAnalysisResult> upload( CompletableFuture<ImageAnalysisResult> result, Executor workers ) {
+    return result.thenApplyAsync( image -> {
+      save( image );
+      return image;
+    }, workers );
+  }
+
+  /**
+   * @return the result stored for the image, or null when there is no sidecar or it is out of date
+   */
+  ImageAnalysisResult load( S3ObjectSummary image ) throws IOException {
+    byte[] json;
+    try ( S3Object object = s3Client.getObject( image.getBucketName(), sidecarKey( image.getKey() ) );
+          InputStream in = object.getObjectContent() ) {
+      json = IOUtils.toByteArray( in );
+    } catch ( AmazonServiceException e ) {
+      if ( e.getStatusCode() == 404 ) {
+        return null;
+      }
+      throw e;
+    }
+    ImageAnalysisResult stored;
+    try {
+      stored = ResultCodec.fromJson( json );
+    } catch ( IOException e ) {
+      // not written by this step, or by an incompatible version: analyze again and overwrite it
+      return null;
+    }
+    return isUpToDate( stored, image ) ? stored.copyFor( image ) : null;
+  }
+
+  void save( ImageAnalysisResult result ) {
+    byte[] json;
+    try {
+      json = ResultCodec.toJson( result );
+    } catch ( IOException e ) {
+      throw new UncheckedIOException( e );
+    }
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentType( CONTENT_TYPE );
+    metadata.setContentLength( json.length );
+    s3Client.putObject( result.getBucketName(), sidecarKey( result.getKey() ), new ByteArrayInputStream( json ),
+        metadata );
+    uploads.incrementAndGet();
+  }
+
+  boolean isUpToDate( ImageAnalysisResult stored, S3ObjectSummary image ) {
+    if ( image.getETag() == null || !image.getETag().equals( stored.getETag() )
+        || image.getSize() != stored.getSize() ) {
+      return false;
+    }
+    for ( AnalysisType analysisType : analysisTypes ) {
+      if ( !analysisType.isDone( stored ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getUploads() {
+    return uploads.get();
+  }
+}
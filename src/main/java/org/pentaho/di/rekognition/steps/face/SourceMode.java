@@ -0,0 +1,49 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+/**
+ * Where FaceAnalysisStep gets the images to analyze from.
+ */
+public enum SourceMode {
+
+  /**
+   * Pages through the bucket with ListObjectsV2.
+   */
+  LISTING,
+
+  /**
+   * Reads the keys from an S3 Inventory manifest and its data files.
+   */
+  INVENTORY;
+
+  /**
+   * @return the mode with the given name (case insensitive), LISTING when empty
+   */
+  public static SourceMode parse( String value ) {
+    if ( value == null || value.trim().isEmpty() ) {
+      return LISTING;
+    }
+    return SourceMode.valueOf( value.trim().toUpperCase() );
+  }
+}
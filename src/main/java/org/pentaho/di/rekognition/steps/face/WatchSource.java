@@ -0,0 +1,202 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the step running and hands it new images as they arrive, until the step is stopped.
+ *
+ * QUEUE consumes the S3 object-created notifications of a queue (see NotificationQueue) in micro-batches: a
+ * batch is handed over as soon as its first messages arrived, and acknowledged once the step emitted the rows of
+ * its images. POLL lists the bucket again and again, relying on the step's watermark to hand over only the images
+ * that were not analyzed yet; it needs no notification setup, at the cost of a listing per interval.
+ */
+abstract class WatchSource implements ImageSource {
+
+  private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
+
+  // how often a wait between two polls checks whether the step was stopped
+  static final long STOP_CHECK_MILLIS = 100;
+
+  /**
+   * How the step watches for new images.
+   */
+  enum Mode {
+    NONE, QUEUE, POLL;
+
+    /**
+     * @return the mode with the given name (case insensitive), NONE when empty
+     */
+    static Mode parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Mode.valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  protected final Checkpoint checkpoint;
+
+  protected long batches;
+  protected long images;
+
+  WatchSource( Checkpoint checkpoint ) {
+    this.checkpoint = checkpoint;
+  }
+
+  /**
+   * @return the number of non-empty batches (QUEUE) or listing passes (POLL) done so far
+   */
+  long getBatches() {
+    return batches;
+  }
+
+  /**
+   * @return the number of images handed over so far
+   */
+  long getImages() {
+    return images;
+  }
+
+  /**
+   * Consumes a notification queue. Delivery is at least once: the messages of a batch are acknowledged after its
+   * images were processed, so a batch interrupted by a stop or a crash is received again by the next run.
+   */
+  static class QueueSource extends WatchSource {
+
+    private final NotificationQueue queue;
+    private final int batchSize;
+    private final long waitMillis;
+    private final Consumer<String> malformedLog;
+
+    private long malformed;
+
+    /**
+     * @param batchSize    most messages per micro-batch
+     * @param waitMillis   longest wait for the first message of a batch, before checking whether the step was stopped
+     * @param malformedLog reports each malformed message, which is acknowledged with its batch
+     */
+    QueueSource( NotificationQueue queue, int batchSize, long waitMillis, Checkpoint checkpoint,
+                 Consumer<String> malformedLog ) {
+      super( checkpoint );
+      this.queue = queue;
+      this.batchSize = batchSize;
+      this.waitMillis = waitMillis;
+      this.malformedLog = malformedLog;
+    }
+
+    /**
+     * @return the number of malformed messages skipped so far
+     */
+    long getMalformed() {
+      return malformed;
+    }
+
+    @Override
+    public void list( ImageSink sink ) throws KettleException {
+      try {
+        while ( true ) {
+          NotificationQueue.Batch batch = queue.receive( batchSize, waitMillis );
+          for ( String message : batch.malformed ) {
+            malformed++;
+            malformedLog.accept( message );
+          }
+          for ( S3ObjectSummary objectSummary : batch.images ) {
+            images++;
+            if ( !sink.accept( objectSummary ) ) {
+              return;
+            }
+          }
+          if ( !checkpoint.awaitProcessed() ) {
+            return;
+          }
+          if ( !batch.isEmpty() ) {
+            batches++;
+            queue.acknowledge( batch );
+          }
+        }
+      } catch ( IOException e ) {
+        throw new KettleException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.WatchQueue" ), e );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new KettleException( e );
+      } finally {
+        try {
+          queue.close();
+        } catch ( IOException e ) {
+          // nothing left to acknowledge
+        }
+      }
+    }
+  }
+
+  /**
+   * Lists another source over and over, waiting an interval between the end of a pass and the start of the next.
+   */
+  static class PollingSource extends WatchSource {
+
+    private final ImageSource delegate;
+    private final long intervalMillis;
+
+    PollingSource( ImageSource delegate, long intervalMillis, Checkpoint checkpoint ) {
+      super( checkpoint );
+      this.delegate = delegate;
+      this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void list( ImageSink sink ) throws KettleException {
+      final boolean[] stopped = new boolean[1];
+      while ( true ) {
+        delegate.list( objectSummary -> {
+          images++;
+          stopped[0] = !sink.accept( objectSummary );
+          return !stopped[0];
+        } );
+        if ( stopped[0] || !checkpoint.awaitProcessed() ) {
+          return;
+        }
+        batches++;
+        long deadline = System.currentTimeMillis() + intervalMillis;
+        long remaining;
+        while ( ( remaining = deadline - System.currentTimeMillis() ) > 0 ) {
+          try {
+            Thread.sleep( Math.min( STOP_CHECK_MILLIS, remaining ) );
+          } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new KettleException( e );
+          }
+          if ( !checkpoint.awaitProcessed() ) {
+            return;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/**
+ * Remembers the most recent S3 LastModified date fully processed by a previous run, so the next run
+ * only analyzes newer objects. The watermark is kept as an ISO-8601 instant, either in a local file
+ * or in a Kettle variable.
+ */
+abstract class WatermarkStore {
+
+  private static final Class<?> PKG = FaceAnalysisMeta.class; // for i18n purposes
+
+  /**
+   * Where the watermark is kept.
+   */
+  enum Type {
+    NONE, FILE, VARIABLE;
+
+    static Type parse( String value ) {
+      if ( value == null || value.trim().isEmpty() ) {
+        return NONE;
+      }
+      return Type.valueOf( value.trim().toUpperCase() );
+    }
+  }
+
+  // how far S3's clock may be ahead of this host's: requests are only signed valid within 15 minutes of it
+  static final long CLOCK_SKEW_MILLIS = 15 * 60 * 1000L;
+
+  /**
+   * Keeps a run's watermark behind the start of its listing. An object uploaded during the run, under a key the
+   * listing already passed, was not seen; its LastModified is after the listing start but may be before that of
+   * an image listed later, so the most recent image emitted alone would hide it from the next run.
+   *
+   * @param maxLastModified most recent LastModified emitted by the run, may be null
+   * @param listingStart    when the listing started, on this host's clock
+   * @return the earlier of maxLastModified and the listing start less the clock skew margin, null when nothing
+   *         was emitted
+   */
+  static Date cap( Date maxLastModified, Date listingStart ) {
+    if ( maxLastModified == null || listingStart == null ) {
+      return maxLastModified;
+    }
+    Date limit = new Date( listingStart.getTime() - CLOCK_SKEW_MILLIS );
+    return maxLastModified.after( limit ) ? limit : maxLastModified;
+  }
+
+  /**
+   * Keeps a run's watermark before the oldest image it left unanalyzed (e.g. sent to the error hop while the
+   * circuit breaker was open), so the next run lists that image again.
+   *
+   * @param watermark      the watermark to save, may be null
+   * @param oldestSkipped  oldest LastModified of the images left unanalyzed, null when there are none
+   * @return the earlier of the watermark and just before oldestSkipped
+   */
+  static Date capBefore( Date watermark, Date oldestSkipped ) {
+    if ( watermark == null || oldestSkipped == null ) {
+      return watermark;
+    }
+    Date limit = new Date( oldestSkipped.getTime() - 1 );
+    return watermark.after( limit ) ? limit : watermark;
+  }
+
+  /**
+   * @return the stored watermark, or null if none was recorded yet
+   */
+  abstract Date load() throws KettleException;
+
+  abstract void save( Date watermark ) throws KettleException;
+
+  static Date parse( String value ) throws KettleException {
+    if ( value == null || value.trim().isEmpty() ) {
+      return null;
+    }
+    try {
+      return Date.from( Instant.parse( value.trim() ) );
+    } catch ( DateTimeParseException e ) {
+      throw new KettleException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.InvalidWatermark", value ), e );
+    }
+  }
+
+  static String format( Date watermark ) {
+    return watermark.toInstant().toString();
+  }
+
+  /**
+   * Keeps the watermark in a local file. The file is replaced atomically, so an interrupted
+   * save never leaves a truncated watermark behind.
+   */
+  static class FileStore extends WatermarkStore {
+
+    private final File file;
+
+    FileStore( File file ) {
+      this.file = file;
+    }
+
+    @Override
+    Date load() throws KettleException {
+      if ( !file.exists() ) {
+        return null;
+      }
+      try {
+        return parse( new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ) );
+      } catch ( IOException e ) {
+        throw new KettleException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.WatermarkIO", file ), e );
+      }
+    }
+
+    @Override
+    void save( Date watermark ) throws KettleException {
+      try {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if ( dir != null ) {
+          dir.mkdirs();
+        }
+        File tmp = new File( dir, file.getName() + ".tmp" );
+        Files.write( tmp.toPath(), format( watermark ).getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      } catch ( IOException e ) {
+        throw new KettleException( BaseMessages.getString( PKG, "FaceAnalysisStep.Error.WatermarkIO", file ), e );
+      }
+    }
+  }
+
+  /**
+   * Reads the watermark from a variable and, on save, sets it on every given variable space
+   * (typically the transformation and its parent job), so the following runs of a job loop see it.
+   */
+  static class VariableStore extends WatermarkStore {
+
+    private final String name;
+    private final VariableSpace source;
+    private final VariableSpace[] targets;
+
+    VariableStore( String name, VariableSpace source, VariableSpace... targets ) {
+      this.name = name;
+      this.source = source;
+      this.targets = targets;
+    }
+
+    @Override
+    Date load() throws KettleException {
+      return parse( source.getVariable( name ) );
+    }
+
+    @Override
+    void save( Date watermark ) {
+      String value = format( watermark );
+      for ( VariableSpace target : targets ) {
+        if ( target != null ) {
+          target.setVariable( name, value );
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+public class AnalysisTypeTest {
+
+  @Test
+  public void testParseList() {
+    assertEquals( EnumSet.of( AnalysisType.FACES ), AnalysisType.parseList( null ) );
+    assertEquals( EnumSet.of( AnalysisType.FACES ), AnalysisType.parseList( " , " ) );
+    assertEquals( EnumSet.of( AnalysisType.FACES, AnalysisType.LABELS, AnalysisType.MODERATION ),
+        AnalysisType.parseList( "labels, Faces,MODERATION" ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testParseListUnknown() {
+    AnalysisType.parseList( "FACES,CELEBRITIES" );
+  }
+}
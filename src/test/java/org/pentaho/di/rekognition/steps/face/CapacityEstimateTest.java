@@ -0,0 +1,114 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class CapacityEstimateTest {
+
+  @Test
+  public void testCountsAndHistogram() {
+    CapacityEstimate estimate = new CapacityEstimate( 2 );
+    assertTrue( estimate.add( image( 10 << 10 ), "a", false ) );
+    assertTrue( estimate.add( image( 2 << 20 ), "b", false ) );
+    assertFalse( estimate.add( image( 2 << 20 ), "b", false ) );
+    assertFalse( estimate.add( image( 20 << 20 ), "c", true ) );
+    assertTrue( estimate.add( image( 64 << 10 ), null, false ) );
+
+    Map<String, Object> report = estimate.report( 4, 0 );
+    assertEquals( 5L, report.get( "OBJECTS" ) );
+    assertEquals( ( 10L << 10 ) + ( 4L << 20 ) + ( 20L << 20 ) + ( 64L << 10 ), report.get( "BYTES" ) );
+    assertEquals( 1L, report.get( "SIZE_UNDER_64KB" ) );
+    assertEquals( 1L, report.get( "SIZE_UNDER_256KB" ) );
+    assertEquals( 2L, report.get( "SIZE_UNDER_5MB" ) );
+    assertEquals( 1L, report.get( "SIZE_OVER_15MB" ) );
+    assertEquals( 1L, report.get( "CACHED_IMAGES" ) );
+    assertEquals( 1L, report.get( "DUPLICATE_IMAGES" ) );
+    assertEquals( 3L, report.get( "ANALYZED_IMAGES" ) );
+    assertEquals( 6L, report.get( "API_CALLS" ) );
+    assertNull( report.get( "MEAN_IMAGE_MILLIS" ) );
+  }
+
+  @Test
+  public void testProjection() {
+    CapacityEstimate estimate = new CapacityEstimate( 1 );
+    for ( int i = 0; i < 1000; i++ ) {
+      estimate.add( image( 1000 ), null, false );
+    }
+    estimate.setListingNanos( TimeUnit.SECONDS.toNanos( 1 ) );
+    estimate.addCalibration( TimeUnit.MILLISECONDS.toNanos( 300 ) );
+    estimate.addCalibration( TimeUnit.MILLISECONDS.toNanos( 500 ) );
+    assertEquals( 400.0, estimate.getMeanImageMillis(), 1e-9 );
+    // 1000 images of 400 ms over 4 workers
+    assertEquals( 100000L, estimate.getProjectedMillis( 4, 0 ) );
+    // 5 calls per second hold the run back more than the workers
+    assertEquals( 200000L, estimate.getProjectedMillis( 4, 5 ) );
+    // listing outlasts the analysis of a few images
+    CapacityEstimate small = new CapacityEstimate( 1 );
+    small.add( image( 1000 ), null, false );
+    small.setListingNanos( TimeUnit.SECONDS.toNanos( 1 ) );
+    small.addCalibration( TimeUnit.MILLISECONDS.toNanos( 400 ) );
+    assertEquals( 1000L, small.getProjectedMillis( 4, 0 ) );
+  }
+
+  @Test
+  public void testMosaicAndClusteringCalls() {
+    CapacityEstimate estimate = new CapacityEstimate( 1 );
+    estimate.setMosaic( 4, 100 << 10 );
+    for ( int i = 0; i < 10; i++ ) {
+      estimate.add( image( 50 << 10 ), null, false );
+    }
+    estimate.add( image( 1 << 20 ), null, false );
+    // 10 tiled images in 3 batches, and one image analyzed alone
+    assertEquals( 10L, estimate.report( 1, 0 ).get( "MOSAIC_IMAGES" ) );
+    assertEquals( 4L, estimate.getApiCalls() );
+
+    CapacityEstimate clustered = new CapacityEstimate( 1 );
+    clustered.setClustering( true );
+    for ( int i = 0; i < 10; i++ ) {
+      clustered.add( image( 1 << 20 ), null, false );
+    }
+    assertEquals( 10L, clustered.getApiCalls() );
+    clustered.addCalibrationFaces( 1 );
+    clustered.addCalibrationFaces( 2 );
+    // an IndexFaces call per image and a SearchFaces call for each of 1.5 faces per image
+    assertEquals( 1.5, clustered.getMeanFaces(), 1e-9 );
+    assertEquals( 25L, clustered.getApiCalls() );
+  }
+
+  private static S3ObjectSummary image( long size ) {
+    S3ObjectSummary objectSummary = new S3ObjectSummary();
+    objectSummary.setKey( "image.jpg" );
+    objectSummary.setSize( size );
+    return objectSummary;
+  }
+}
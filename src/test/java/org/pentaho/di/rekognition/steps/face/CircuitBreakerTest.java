@@ -0,0 +1,203 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.InvalidImageFormatException;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  private static final long COOL_DOWN = TimeUnit.SECONDS.toNanos( 30 );
+
+  @Test
+  public void testOpensOnFailureRateAndRecovers() {
+    AtomicLong clock = new AtomicLong();
+    CircuitBreaker breaker = new CircuitBreaker( 0.5, COOL_DOWN, clock::get );
+    for ( int i = 0; i < CircuitBreaker.MIN_CALLS - 1; i++ ) {
+      breaker.acquire();
+      breaker.onFailure();
+    }
+    // not enough calls yet to judge
+    assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+    breaker.acquire();
+    breaker.onFailure();
+    assertEquals( CircuitBreaker.State.OPEN, breaker.getState() );
+    assertRefused( breaker, COOL_DOWN );
+
+    clock.set( COOL_DOWN );
+    breaker.acquire();
+    // only one trial call while half open
+    assertRefused( breaker, 2 * COOL_DOWN );
+    breaker.onSuccess();
+    assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+    assertEquals( 1, breaker.getOpened() );
+  }
+
+  @Test
+  public void testFailedTrialReopens() {
+    AtomicLong clock = new AtomicLong();
+    CircuitBreaker breaker = new CircuitBreaker( 0.5, COOL_DOWN, clock::get );
+    for ( int i = 0; i < CircuitBreaker.MIN_CALLS; i++ ) {
+      breaker.acquire();
+      breaker.onFailure();
+    }
+    clock.set( COOL_DOWN );
+    breaker.acquire();
+    breaker.onFailure();
+    assertEquals( CircuitBreaker.State.OPEN, breaker.getState() );
+    assertRefused( breaker, 2 * COOL_DOWN );
+  }
+
+  @Test
+  public void testLowFailureRateStaysClosed() {
+    CircuitBreaker breaker = new CircuitBreaker( 0.5, COOL_DOWN, System::nanoTime );
+    for ( int i = 0; i < CircuitBreaker.WINDOW * 2; i++ ) {
+      breaker.acquire();
+      if ( i % 3 == 0 ) {
+        breaker.onFailure();
+      } else {
+        breaker.onSuccess();
+      }
+    }
+    assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+  }
+
+  @Test
+  public void testAdaptiveTimeout() {
+    assertEquals( 60000, ResilientRekognitionClient.timeoutMillis( -1, 60000 ) );
+    assertEquals( ResilientRekognitionClient.MIN_TIMEOUT_MILLIS,
+        ResilientRekognitionClient.timeoutMillis( TimeUnit.MILLISECONDS.toNanos( 100 ), 60000 ) );
+    assertEquals( 4500, ResilientRekognitionClient.timeoutMillis( TimeUnit.MILLISECONDS.toNanos( 1500 ), 60000 ) );
+    assertEquals( 60000, ResilientRekognitionClient.timeoutMillis( TimeUnit.SECONDS.toNanos( 40 ), 60000 ) );
+  }
+
+  @Test
+  public void testOnlyOutagesOpenTheBreaker() {
+    AmazonServiceException serverError = new AmazonServiceException( "internal" );
+    serverError.setErrorType( AmazonServiceException.ErrorType.Service );
+    AmazonServiceException badImage = new InvalidImageFormatException( "bad image" );
+    badImage.setErrorType( AmazonServiceException.ErrorType.Client );
+    assertTrue( ResilientRekognitionClient.isOutageFailure( serverError ) );
+    assertTrue( ResilientRekognitionClient.isOutageFailure( new SdkClientException( "timeout" ) ) );
+    assertFalse( ResilientRekognitionClient.isOutageFailure( badImage ) );
+
+    AmazonRekognition delegate = mock( AmazonRekognition.class );
+    when( delegate.detectFaces( any( DetectFacesRequest.class ) ) ).thenThrow( serverError );
+    CircuitBreaker breaker = new CircuitBreaker( 0.5, COOL_DOWN, System::nanoTime );
+    ResilientRekognitionClient client = new ResilientRekognitionClient( delegate, 60000, true, breaker );
+    for ( int i = 0; i < CircuitBreaker.MIN_CALLS + 5; i++ ) {
+      try {
+        client.detectFaces( new DetectFacesRequest() );
+        fail( "call should fail" );
+      } catch ( CircuitBreaker.OpenException e ) {
+        // expected once open
+      } catch ( AmazonServiceException e ) {
+        assertEquals( serverError, e );
+      }
+    }
+    verify( delegate, times( CircuitBreaker.MIN_CALLS ) ).detectFaces( any( DetectFacesRequest.class ) );
+  }
+
+  @Test
+  public void testAbandonedTrialLetsTheNextCallTry() {
+    AtomicLong clock = new AtomicLong();
+    CircuitBreaker breaker = new CircuitBreaker( 0.5, COOL_DOWN, clock::get );
+    for ( int i = 0; i < CircuitBreaker.MIN_CALLS; i++ ) {
+      breaker.acquire();
+      breaker.onFailure();
+    }
+    clock.addAndGet( COOL_DOWN );
+    breaker.acquire();
+    breaker.onAbandoned();
+    assertEquals( CircuitBreaker.State.HALF_OPEN, breaker.getState() );
+    breaker.acquire();
+    breaker.onSuccess();
+    assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+  }
+
+  @Test
+  public void testHedgedLosersDoNotOpenTheBreaker() {
+    assertTrue( ResilientRekognitionClient.isAbandoned( new AbortedException() ) );
+    assertTrue( ResilientRekognitionClient.isAbandoned(
+        new SdkClientException( "interrupted", new InterruptedException() ) ) );
+    assertFalse( ResilientRekognitionClient.isAbandoned( new SdkClientException( "timeout" ) ) );
+
+    // a slow but healthy backend: once the latencies are known, every first attempt is slow and its hedge
+    // answers at once, so half of the attempts are cancelled
+    final Set<Object> seen = Collections.synchronizedSet( Collections.newSetFromMap( new IdentityHashMap<>() ) );
+    AmazonRekognition delegate = mock( AmazonRekognition.class );
+    when( delegate.detectFaces( any( DetectFacesRequest.class ) ) ).thenAnswer( invocation -> {
+      // the hedge sends the same request object again
+      boolean first = seen.add( invocation.getArguments()[0] );
+      if ( first && seen.size() > LatencyTracker.MIN_SAMPLES ) {
+        try {
+          Thread.sleep( 100 );
+        } catch ( InterruptedException e ) {
+          // like the SDK, an interrupted request is aborted
+          Thread.currentThread().interrupt();
+          throw new AbortedException();
+        }
+      }
+      return new DetectFacesResult();
+    } );
+    CircuitBreaker breaker = new CircuitBreaker( 0.5, COOL_DOWN, System::nanoTime );
+    HedgedRekognitionClient client = new HedgedRekognitionClient(
+        new ResilientRekognitionClient( delegate, 60000, false, breaker ), 50, 1 );
+    for ( int i = 0; i < LatencyTracker.MIN_SAMPLES + CircuitBreaker.WINDOW; i++ ) {
+      client.detectFaces( new DetectFacesRequest() );
+    }
+    assertTrue( client.getHedgesWon() > CircuitBreaker.WINDOW / 2 );
+    assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+    assertEquals( 0, breaker.getOpened() );
+  }
+
+  private static void assertRefused( CircuitBreaker breaker, long retryAt ) {
+    try {
+      breaker.acquire();
+      fail( "breaker should refuse the call" );
+    } catch ( CircuitBreaker.OpenException e ) {
+      assertEquals( retryAt, e.getRetryAtNanos() );
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import com.amazonaws.services.rekognition.model.AgeRange;
+import com.amazonaws.services.rekognition.model.Emotion;
+import com.amazonaws.services.rekognition.model.EmotionName;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Gender;
+import com.amazonaws.services.rekognition.model.GenderType;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class DuplicateIndexTest {
+
+  @Test
+  public void testContentKey() {
+    DuplicateIndex faces = new DuplicateIndex( 10, null, EnumSet.of( AnalysisType.FACES ) );
+    DuplicateIndex all = new DuplicateIndex( 10, null, EnumSet.allOf( AnalysisType.class ) );
+    assertNull( faces.contentKey( summary( "a.jpg", "", 10 ) ) );
+    String key = faces.contentKey( summary( "a.jpg", "abc", 10 ) );
+    assertEquals( key, faces.contentKey( summary( "b.jpg", "abc", 10 ) ) );
+    assertNotEquals( key, faces.contentKey( summary( "a.jpg", "abc", 11 ) ) );
+    assertNotEquals( key, all.contentKey( summary( "a.jpg", "abc", 10 ) ) );
+  }
+
+  @Test
+  public void testDiskIndexSurvivesEvictionAndRuns() throws Exception {
+    File dir = Files.createTempDirectory( "dedup" ).toFile();
+    DuplicateIndex index = new DuplicateIndex( 1, dir, EnumSet.of( AnalysisType.FACES ) );
+    ImageAnalysisResult first = new ImageAnalysisResult( summary( "a.jpg", "abc-2", 10 ) );
+    first.setFaceDetails( Collections.singletonList( new FaceDetail().withConfidence( 99f )
+        .withAgeRange( new AgeRange().withLow( 20 ).withHigh( 30 ) )
+        .withGender( new Gender().withValue( GenderType.Female ).withConfidence( 98f ) )
+        .withEmotions( new Emotion().withType( EmotionName.CALM ).withConfidence( 90f ) ) ) );
+    String firstKey = index.contentKey( summary( "a.jpg", "abc-2", 10 ) );
+    index.put( firstKey, first );
+    S3ObjectSummary other = summary( "b.jpg", "def", 10 );
+    index.put( index.contentKey( other ), new ImageAnalysisResult( other ) );
+
+    // evicted from memory, read back from disk; and found again by a new index (next run)
+    assertEquals( first.getFaceDetails(), index.get( firstKey ).getFaceDetails() );
+    DuplicateIndex nextRun = new DuplicateIndex( 1, dir, EnumSet.of( AnalysisType.FACES ) );
+    ImageAnalysisResult reused = nextRun.get( firstKey ).copyFor( summary( "copy/a.jpg", "abc-2", 10 ) );
+    assertEquals( "copy/a.jpg", reused.getKey() );
+    assertEquals( first.getFaceDetails(), reused.getFaceDetails() );
+    assertNull( nextRun.get( "unknown_1-F" ) );
+  }
+
+  private static S3ObjectSummary summary( String key, String eTag, long size ) {
+    S3ObjectSummary objectSummary = new S3ObjectSummary();
+    objectSummary.setBucketName( "bucket" );
+    objectSummary.setKey( key );
+    objectSummary.setETag( eTag );
+    objectSummary.setSize( size );
+    return objectSummary;
+  }
+}
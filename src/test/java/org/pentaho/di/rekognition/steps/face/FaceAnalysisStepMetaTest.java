@@ -138,6 +138,52 @@ public class FaceAnalysisStepMetaTest {
     assertEquals( rowMeta.getFieldNames()[0], "ImageFile" );
   }
 
+  @Test
+  public void testImageMetadataFields() throws KettleStepException {
+    FaceAnalysisMeta m = new FaceAnalysisMeta();
+    m.setDefault();
+    m.setIncludeImageMetadata( true );
+
+    RowMetaInterface rowMeta = new RowMeta();
+    m.getFields( rowMeta, "demo_step", null, null, null, null, null );
+
+    assertEquals( 9, rowMeta.size() );
+    assertEquals( FaceAnalysisMeta.FIELD_IMAGE_BUCKET, rowMeta.getFieldNames()[5] );
+    assertEquals( ValueMetaInterface.TYPE_INTEGER, rowMeta.getValueMeta( 6 ).getType() );
+    assertEquals( ValueMetaInterface.TYPE_DATE, rowMeta.getValueMeta( 8 ).getType() );
+  }
+
+  @Test
+  public void testSampleRateField() throws KettleStepException {
+    FaceAnalysisMeta m = new FaceAnalysisMeta();
+    m.setDefault();
+
+    RowMetaInterface rowMeta = new RowMeta();
+    m.getFields( rowMeta, "demo_step", null, null, null, null, null );
+    assertEquals( -1, rowMeta.indexOfValue( FaceAnalysisMeta.FIELD_SAMPLE_RATE ) );
+
+    m.setSamplingMode( "RATE" );
+    rowMeta = new RowMeta();
+    m.getFields( rowMeta, "demo_step", null, null, null, null, null );
+    assertEquals( 5, rowMeta.indexOfValue( FaceAnalysisMeta.FIELD_SAMPLE_RATE ) );
+    assertEquals( ValueMetaInterface.TYPE_NUMBER, rowMeta.getValueMeta( 5 ).getType() );
+  }
+
+  @Test
+  public void testSummaryFields() throws KettleStepException {
+    FaceAnalysisMeta m = new FaceAnalysisMeta();
+    m.setDefault();
+    m.setSummaryLevel( "PREFIX" );
+
+    RowMetaInterface rowMeta = new RowMeta();
+    m.getFields( rowMeta, "demo_step", null, null, null, null, null );
+
+    assertEquals( 12, rowMeta.size() );
+    assertEquals( FaceAnalysisMeta.FIELD_IMAGE_COUNT, rowMeta.getFieldNames()[5] );
+    assertEquals( ValueMetaInterface.TYPE_NUMBER, rowMeta.getValueMeta( 10 ).getType() );
+    assertEquals( FaceAnalysisMeta.FIELD_DOMINANT_EMOTION, rowMeta.getFieldNames()[11] );
+  }
+
   @Test
   public void testLoadSave() throws KettleException {
 
@@ -147,7 +193,21 @@ public class FaceAnalysisStepMetaTest {
      *
      * If needed, add a Map if the getter or setter method does not follow typical naming conventions.
      */
-    List<String> attributes = Arrays.asList( "s3BucketName" );
+    List<String> attributes = Arrays.asList( "s3BucketName", "analysisTypes", "workerThreads", "includeImageMetadata",
+        "sourceMode", "inventoryManifest", "watermarkType", "watermarkLocation", "listingThreads",
+        "duplicateSuppression", "duplicateCacheSize", "duplicateIndexDirectory", "sendImageBytes",
+        "nearDuplicateDistance", "nearDuplicateWindow", "mosaicBatching", "mosaicColumns", "mosaicRows",
+        "mosaicTileSize", "mosaicBatchSize", "mosaicMaxImageSize", "hedgeRequests", "hedgePercentile",
+        "hedgeMaxPercent", "connectionTimeout", "requestTimeout", "adaptiveTimeouts", "circuitBreaker",
+        "circuitFailurePercent", "circuitCoolDown", "regions", "samplingMode", "sampleRate", "sampleSize",
+        "sampleStrataDepth", "samplingSeed", "summaryLevel", "summaryPrefixDepth", "summaryOnly", "journalMode",
+        "journalDirectory", "outputFileFormat", "outputFileDirectory", "outputFileCompress",
+        "outputFileRollSize", "writeSidecars", "sidecarCache", "sidecarPrefix", "sidecarSuffix",
+        "leaseCoordination", "leaseLocation", "leaseDuration", "leaseRanges", "localDetection",
+        "localCascadeFile", "localMinNeighbors", "faceClustering", "clusterCollection", "clusterMatchThreshold",
+        "clusterCacheFile", "watchMode", "watchQueue", "watchInterval", "watchBatchSize", "minImageSize",
+        "bucketSources", "orderingPolicy", "orderingWindow", "orderingPrefixDepth", "faceGeometry",
+        "minFaceSize", "minFaceSharpness", "minFaceBrightness", "dryRun", "calibrationSize" );
 
     /*
      * If custom object types are used, additional arguments may need to be passed to the LoadSaveTester.
@@ -0,0 +1,196 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.Face;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.FaceMatch;
+import com.amazonaws.services.rekognition.model.FaceRecord;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.IndexFacesRequest;
+import com.amazonaws.services.rekognition.model.IndexFacesResult;
+import com.amazonaws.services.rekognition.model.SearchFacesRequest;
+import com.amazonaws.services.rekognition.model.SearchFacesResult;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+public class FaceClustererTest {
+
+  @Test
+  public void testIndexSearchesEveryNewFace() throws Exception {
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.indexFaces( any( IndexFacesRequest.class ) ) ).thenReturn( new IndexFacesResult().withFaceRecords(
+        record( "f1" ), record( "f2" ) ) );
+    when( client.searchFaces( any( SearchFacesRequest.class ) ) ).thenReturn( new SearchFacesResult()
+        .withFaceMatches( match( "f9" ), match( "f8" ) ) );
+
+    FaceClusterer clusterer = new FaceClusterer( "people", 90f, 10, null );
+    ImageAnalysisResult result = result( "photos/a b.jpg" );
+    clusterer.index( client, new Image(), result );
+
+    assertEquals( 2, result.getFaceDetails().size() );
+    assertEquals( Arrays.asList( "f1", "f2" ), result.getFaceIds() );
+    assertEquals( Arrays.asList( "f9", "f8" ), result.getFaceMatches().get( 0 ) );
+    assertEquals( 2, clusterer.getSearches() );
+    verify( client ).indexFaces( argThat( new ArgumentMatcher<IndexFacesRequest>() {
+      @Override
+      public boolean matches( Object request ) {
+        return "photos_a_b.jpg".equals( ( (IndexFacesRequest) request ).getExternalImageId() )
+            && "people".equals( ( (IndexFacesRequest) request ).getCollectionId() );
+      }
+    } ) );
+  }
+
+  @Test
+  public void testResolveInEmissionOrder() throws Exception {
+    FaceClusterer clusterer = new FaceClusterer( "people", 90f, 10, null );
+    assertEquals( Collections.singletonList( "f1" ), clusterer.resolve( indexed( "f1" ) ) );
+    // matches a known face
+    assertEquals( Collections.singletonList( "f1" ), clusterer.resolve( indexed( "f2", "f1" ) ) );
+    // f3 and f4 were indexed concurrently: each matches the other, which is not clustered yet
+    assertEquals( Collections.singletonList( "f4" ), clusterer.resolve( indexed( "f3", "f4" ) ) );
+    assertEquals( Collections.singletonList( "f4" ), clusterer.resolve( indexed( "f4", "f3" ) ) );
+    // unknown best match, known second match
+    assertEquals( Collections.singletonList( "f1" ), clusterer.resolve( indexed( "f5", "f7", "f2" ) ) );
+    assertEquals( 2, clusterer.getClusters() );
+    assertEquals( 1, clusterer.getCachedFaces() );
+    assertNull( clusterer.resolve( result( "a.jpg" ) ) );
+  }
+
+  @Test
+  public void testCacheFileKeepsClustersAcrossRuns() throws Exception {
+    File cacheFile = new File( Files.createTempDirectory( "clusters" ).toFile(), "clusters.tsv" );
+    try ( FaceClusterer first = new FaceClusterer( "people", 90f, 10, cacheFile ) ) {
+      first.resolve( indexed( "f1" ) );
+      first.resolve( indexed( "f2", "f1" ) );
+    }
+
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.indexFaces( any( IndexFacesRequest.class ) ) ).thenReturn( new IndexFacesResult().withFaceRecords(
+        record( "f2" ) ) );
+    try ( FaceClusterer second = new FaceClusterer( "people", 90f, 10, cacheFile ) ) {
+      ImageAnalysisResult result = result( "a.jpg" );
+      second.index( client, new Image(), result );
+      // known faces are not searched again
+      verify( client, never() ).searchFaces( any( SearchFacesRequest.class ) );
+      assertEquals( Collections.singletonList( "f1" ), second.resolve( result ) );
+      assertEquals( Collections.singletonList( "f1" ), second.resolve( indexed( "f6", "f2" ) ) );
+    }
+    List<String> lines = Files.readAllLines( cacheFile.toPath() );
+    assertEquals( Arrays.asList( "f1\tf1", "f2\tf1", "f6\tf1" ), lines );
+  }
+
+  @Test
+  public void testImagesIndexedByAnEarlierRunAreNotIndexedAgain() throws Exception {
+    File cacheFile = new File( Files.createTempDirectory( "clusters" ).toFile(), "clusters.tsv" );
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.indexFaces( any( IndexFacesRequest.class ) ) ).thenReturn( new IndexFacesResult().withFaceRecords(
+        record( "f1" ), record( "f2" ) ) );
+    when( client.searchFaces( any( SearchFacesRequest.class ) ) ).thenReturn( new SearchFacesResult()
+        .withFaceMatches( Collections.<FaceMatch>emptyList() ) );
+    List<String> firstClusters;
+    try ( FaceClusterer first = new FaceClusterer( "people", 90f, 10, cacheFile ) ) {
+      ImageAnalysisResult result = result( "photos", "a.jpg", "\"abc\"" );
+      first.index( client, new Image(), result );
+      firstClusters = first.resolve( result );
+    }
+    verify( client ).indexFaces( any( IndexFacesRequest.class ) );
+    verify( client, times( 2 ) ).searchFaces( any( SearchFacesRequest.class ) );
+
+    AmazonRekognition secondClient = mock( AmazonRekognition.class );
+    try ( FaceClusterer second = new FaceClusterer( "people", 90f, 10, cacheFile ) ) {
+      ImageAnalysisResult result = result( "photos", "a.jpg", "\"abc\"" );
+      second.index( secondClient, new Image(), result );
+      assertEquals( Arrays.asList( "f1", "f2" ), result.getFaceIds() );
+      assertEquals( 2, result.getFaceDetails().size() );
+      assertEquals( firstClusters, second.resolve( result ) );
+      assertEquals( 1, second.getCachedImages() );
+
+      // another version of the image is indexed
+      when( secondClient.indexFaces( any( IndexFacesRequest.class ) ) ).thenReturn( new IndexFacesResult()
+          .withFaceRecords( record( "f3" ) ) );
+      when( secondClient.searchFaces( any( SearchFacesRequest.class ) ) ).thenReturn( new SearchFacesResult()
+          .withFaceMatches( Collections.<FaceMatch>emptyList() ) );
+      second.index( secondClient, new Image(), result( "photos", "a.jpg", "\"def\"" ) );
+    }
+    verify( secondClient, times( 1 ) ).indexFaces( any( IndexFacesRequest.class ) );
+    verify( secondClient, times( 1 ) ).searchFaces( any( SearchFacesRequest.class ) );
+  }
+
+  @Test
+  public void testExternalImageId() {
+    assertEquals( "2019_01_b_a-1.jpg", FaceClusterer.externalImageId( "2019/01/b+a-1.jpg" ) );
+    char[] longKey = new char[300];
+    Arrays.fill( longKey, 'k' );
+    assertEquals( FaceClusterer.MAX_EXTERNAL_ID, FaceClusterer.externalImageId( new String( longKey ) ).length() );
+  }
+
+  private static FaceRecord record( String faceId ) {
+    return new FaceRecord().withFace( new Face().withFaceId( faceId ) ).withFaceDetail( new FaceDetail() );
+  }
+
+  private static FaceMatch match( String faceId ) {
+    return new FaceMatch().withFace( new Face().withFaceId( faceId ) ).withSimilarity( 95f );
+  }
+
+  private static ImageAnalysisResult result( String key ) {
+    return result( null, key, null );
+  }
+
+  private static ImageAnalysisResult result( String bucketName, String key, String eTag ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( bucketName );
+    summary.setKey( key );
+    summary.setETag( eTag );
+    return new ImageAnalysisResult( summary );
+  }
+
+  /**
+   * @return a result with one indexed face and the faces it matched, best first
+   */
+  private static ImageAnalysisResult indexed( String faceId, String... matches ) {
+    ImageAnalysisResult result = result( faceId + ".jpg" );
+    result.setFaceDetails( Collections.singletonList( new FaceDetail() ) );
+    result.setFaceIds( Collections.singletonList( faceId ) );
+    result.setFaceMatches( Collections.singletonList( Arrays.asList( matches ) ) );
+    return result;
+  }
+}
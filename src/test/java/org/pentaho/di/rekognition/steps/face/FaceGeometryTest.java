@@ -0,0 +1,97 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.ImageQuality;
+import com.amazonaws.services.rekognition.model.Landmark;
+import com.amazonaws.services.rekognition.model.LandmarkType;
+import com.amazonaws.services.rekognition.model.Pose;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class FaceGeometryTest {
+
+  @Test
+  public void testValues() {
+    FaceDetail face = face( 0.5f, 80f, 60f )
+        .withPose( new Pose().withPitch( 1f ).withRoll( 2f ).withYaw( 3f ) )
+        .withLandmarks( new Landmark().withType( LandmarkType.Nose ).withX( 0.25f ).withY( 0.75f ) );
+    Object[] values = FaceGeometry.values( face );
+    assertEquals( FaceGeometry.FIELD_COUNT, values.length );
+    assertEquals( 0.1, (Double) values[0], 1e-6 );
+    assertEquals( 0.5, (Double) values[2], 1e-6 );
+    assertEquals( 3.0, (Double) values[6], 1e-6 );
+    assertEquals( 60.0, (Double) values[7], 1e-6 );
+    assertEquals( 80.0, (Double) values[8], 1e-6 );
+    byte[] landmarks = (byte[]) values[9];
+    assertEquals( FaceGeometry.LANDMARK_TYPES.length * 8, landmarks.length );
+    assertArrayEquals( new float[] { 0.25f, 0.75f }, FaceGeometry.unpackLandmark( landmarks, LandmarkType.Nose ), 0f );
+    assertNull( FaceGeometry.unpackLandmark( landmarks, LandmarkType.EyeLeft ) );
+  }
+
+  @Test
+  public void testBoxOnlyFace() {
+    Object[] values = FaceGeometry.values( new FaceDetail().withBoundingBox( new BoundingBox().withLeft( 0.1f )
+        .withTop( 0.2f ).withWidth( 0.3f ).withHeight( 0.4f ) ) );
+    assertEquals( 0.4, (Double) values[3], 1e-6 );
+    assertNull( values[4] );
+    assertNull( values[8] );
+    assertNull( values[9] );
+  }
+
+  @Test
+  public void testGateDropsSmallAndBlurryFaces() {
+    FaceGeometry.Gate gate = new FaceGeometry.Gate( 0.1, 50, 0 );
+    ImageAnalysisResult image = new ImageAnalysisResult( new S3ObjectSummary() );
+    image.setFaceDetails( Arrays.asList( face( 0.5f, 80f, 60f ), face( 0.05f, 80f, 60f ), face( 0.5f, 20f, 60f ),
+        face( 0.2f, 90f, 10f ) ) );
+    image.setFaceIds( Arrays.asList( "a", "b", "c", "d" ) );
+    ImageAnalysisResult gated = gate.apply( image );
+    assertEquals( 2, gated.getFaceDetails().size() );
+    assertEquals( Arrays.asList( "a", "d" ), gated.getFaceIds() );
+    assertNull( gated.getFaceMatches() );
+    assertEquals( 2, gate.getDropped() );
+    assertSame( gated, gate.apply( gated ) );
+  }
+
+  @Test
+  public void testInactiveGate() {
+    assertFalse( new FaceGeometry.Gate( 0, 0, 0 ).isActive() );
+  }
+
+  private static FaceDetail face( float size, float sharpness, float brightness ) {
+    return new FaceDetail()
+        .withBoundingBox( new BoundingBox().withLeft( 0.1f ).withTop( 0.1f ).withWidth( size ).withHeight( size ) )
+        .withQuality( new ImageQuality().withSharpness( sharpness ).withBrightness( brightness ) );
+  }
+}
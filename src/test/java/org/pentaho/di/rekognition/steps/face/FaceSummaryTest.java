@@ -0,0 +1,90 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.amazonaws.services.rekognition.model.AgeRange;
+import com.amazonaws.services.rekognition.model.Emotion;
+import com.amazonaws.services.rekognition.model.EmotionName;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Gender;
+import com.amazonaws.services.rekognition.model.GenderType;
+import com.amazonaws.services.rekognition.model.Smile;
+import org.junit.Test;
+
+public class FaceSummaryTest {
+
+  @Test
+  public void testSummary() {
+    FaceSummary summary = new FaceSummary();
+    summary.add( image( face( GenderType.Male, 20, 30, true, EmotionName.HAPPY ),
+        face( GenderType.Female, 40, 50, false, EmotionName.CALM ) ) );
+    summary.add( image( face( GenderType.Female, 30, 30, true, EmotionName.HAPPY ) ) );
+    summary.add( new ImageAnalysisResult() );
+
+    assertEquals( 3, summary.getImages() );
+    assertEquals( 3, summary.getFaces() );
+    assertEquals( 1, summary.getMaleFaces() );
+    assertEquals( 2, summary.getFemaleFaces() );
+    assertEquals( 2, summary.getSmilingFaces() );
+    assertEquals( ( 25 + 45 + 30 ) / 3.0, summary.getMeanAge(), 1e-9 );
+    assertEquals( "HAPPY", summary.getDominantEmotion() );
+  }
+
+  @Test
+  public void testEmptySummary() {
+    FaceSummary summary = new FaceSummary();
+    summary.add( image() );
+    assertEquals( 1, summary.getImages() );
+    assertEquals( 0, summary.getFaces() );
+    assertNull( summary.getMeanAge() );
+    assertNull( summary.getDominantEmotion() );
+  }
+
+  @Test
+  public void testKeyPrefix() {
+    assertEquals( "", ImageSource.keyPrefix( "a/b/c.jpg", 0 ) );
+    assertEquals( "a/", ImageSource.keyPrefix( "a/b/c.jpg", 1 ) );
+    assertEquals( "a/b/", ImageSource.keyPrefix( "a/b/c.jpg", 3 ) );
+    assertEquals( "", ImageSource.keyPrefix( "c.jpg", 2 ) );
+  }
+
+  private static ImageAnalysisResult image( FaceDetail... faces ) {
+    ImageAnalysisResult image = new ImageAnalysisResult();
+    image.setFaceDetails( faces.length == 0 ? Collections.<FaceDetail>emptyList() : Arrays.asList( faces ) );
+    return image;
+  }
+
+  private static FaceDetail face( GenderType gender, int low, int high, boolean smile, EmotionName top ) {
+    return new FaceDetail()
+        .withGender( new Gender().withValue( gender ).withConfidence( 99f ) )
+        .withAgeRange( new AgeRange().withLow( low ).withHigh( high ) )
+        .withSmile( new Smile().withValue( smile ).withConfidence( 90f ) )
+        .withEmotions( new Emotion().withType( EmotionName.SAD ).withConfidence( 10f ),
+            new Emotion().withType( top ).withConfidence( 80f ) );
+  }
+}
@@ -0,0 +1,159 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.S3Object;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+public class FlightEventsTest {
+
+  @Test
+  public void testNothingRecordedWithoutRecording() {
+    assumeTrue( FlightEvents.isAvailable() );
+    assertNull( FlightEvents.beginImage() );
+    assertNull( FlightEvents.beginRun( "step.0" ) );
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    assumeTrue( FlightEvents.isAvailable() );
+    List<RecordedEvent> events = record( () -> {
+      FlightEvents.Recorder recorder = new FlightEvents.Recorder();
+
+      DefaultRequest<DetectFacesRequest> detect = new DefaultRequest<>( new DetectFacesRequest().withImage(
+          new Image().withS3Object( new S3Object().withBucket( "bucket" ).withName( "a.jpg" ) ) ), "Rekognition" );
+      detect.addHandlerContext( HandlerContextKey.OPERATION_NAME, "DetectFaces" );
+      recorder.beforeRequest( detect );
+      recorder.beforeAttempt( HandlerBeforeAttemptContext.builder().withRequest( detect ).build() );
+      AmazonServiceException throttled = new AmazonServiceException( "Rate exceeded" );
+      throttled.setErrorCode( "ThrottlingException" );
+      recorder.afterAttempt( HandlerAfterAttemptContext.builder().withRequest( detect ).withException( throttled )
+          .build() );
+      recorder.beforeAttempt( HandlerBeforeAttemptContext.builder().withRequest( detect ).build() );
+      recorder.afterResponse( detect, new Response<>( new DetectFacesResult().withFaceDetails( new FaceDetail(),
+          new FaceDetail() ), null ) );
+
+      DefaultRequest<DetectFacesRequest> bytes = new DefaultRequest<>( new DetectFacesRequest().withImage(
+          new Image().withBytes( ByteBuffer.wrap( new byte[100] ) ) ), "Rekognition" );
+      recorder.beforeRequest( bytes );
+      recorder.beforeAttempt( HandlerBeforeAttemptContext.builder().withRequest( bytes ).build() );
+      recorder.afterError( bytes, null, new AmazonServiceException( "Invalid image" ) );
+
+      ListObjectsV2Result page = new ListObjectsV2Result();
+      page.setKeyCount( 7 );
+      page.setTruncated( true );
+      DefaultRequest<ListObjectsV2Request> list = new DefaultRequest<>( new ListObjectsV2Request()
+          .withBucketName( "bucket" ).withPrefix( "2019/" ), "Amazon S3" );
+      recorder.beforeRequest( list );
+      recorder.beforeAttempt( HandlerBeforeAttemptContext.builder().withRequest( list ).build() );
+      recorder.afterResponse( list, new Response<>( page, null ) );
+
+      S3ObjectSummary summary = new S3ObjectSummary();
+      summary.setKey( "a.jpg" );
+      summary.setSize( 1234 );
+      ImageAnalysisResult image = new ImageAnalysisResult( summary );
+      image.setFaceDetails( Collections.singletonList( new FaceDetail() ) );
+      FlightEvents.endImage( FlightEvents.beginImage(), image, 12 );
+    } );
+
+    assertEquals( 4, events.size() );
+    RecordedEvent call = events.get( 0 );
+    assertEquals( "DetectFaces", call.getString( "operation" ) );
+    assertEquals( "a.jpg", call.getString( "key" ) );
+    assertEquals( 2, call.getInt( "faces" ) );
+    assertEquals( 1, call.getInt( "retries" ) );
+    assertTrue( call.getBoolean( "throttled" ) );
+    assertNull( call.getString( "error" ) );
+
+    RecordedEvent failed = events.get( 1 );
+    assertNull( failed.getString( "key" ) );
+    assertEquals( 100, failed.getLong( "bytes" ) );
+    assertEquals( 0, failed.getInt( "retries" ) );
+    assertFalse( failed.getBoolean( "throttled" ) );
+    assertTrue( failed.getString( "error" ).startsWith( "Invalid image" ) );
+
+    RecordedEvent listing = events.get( 2 );
+    assertEquals( "bucket", listing.getString( "bucket" ) );
+    assertEquals( "2019/", listing.getString( "prefix" ) );
+    assertEquals( 7, listing.getInt( "keys" ) );
+    assertTrue( listing.getBoolean( "truncated" ) );
+
+    RecordedEvent rows = events.get( 3 );
+    assertEquals( "a.jpg", rows.getString( "key" ) );
+    assertEquals( 1234, rows.getLong( "bytes" ) );
+    assertEquals( 1, rows.getInt( "faces" ) );
+    assertEquals( 12, rows.getLong( "rows" ) );
+  }
+
+  private static List<RecordedEvent> record( Runnable action ) throws Exception {
+    File file = File.createTempFile( "faces", ".jfr" );
+    try ( Recording recording = new Recording() ) {
+      for ( String name : new String[] { "RekognitionCall", "Listing", "ImageRows" } ) {
+        recording.enable( "org.pentaho.di.rekognition." + name ).withThreshold( Duration.ZERO );
+      }
+      recording.start();
+      action.run();
+      recording.stop();
+      recording.dump( file.toPath() );
+    }
+    List<RecordedEvent> events = new ArrayList<>();
+    for ( RecordedEvent event : RecordingFile.readAllEvents( file.toPath() ) ) {
+      if ( event.getEventType().getName().startsWith( "org.pentaho.di.rekognition." ) ) {
+        events.add( event );
+      }
+    }
+    events.sort( ( a, b ) -> a.getStartTime().compareTo( b.getStartTime() ) );
+    Files.delete( file.toPath() );
+    return events;
+  }
+}
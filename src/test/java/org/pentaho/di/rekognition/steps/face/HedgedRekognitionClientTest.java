@@ -0,0 +1,110 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HedgedRekognitionClientTest {
+
+  @Test
+  public void testPercentile() {
+    LatencyTracker tracker = new LatencyTracker();
+    assertEquals( -1, tracker.percentile( 50 ) );
+    for ( int i = 100; i > 0; i-- ) {
+      tracker.record( i );
+    }
+    assertEquals( 50, tracker.percentile( 50 ) );
+    assertEquals( 99, tracker.percentile( 99 ) );
+    assertEquals( 100, tracker.percentile( 100 ) );
+  }
+
+  @Test
+  public void testSlowCallIsHedged() {
+    HedgedRekognitionClient client = new HedgedRekognitionClient( null, 90, 1 );
+    warmUp( client );
+    final CountDownLatch never = new CountDownLatch( 1 );
+    final AtomicInteger attempts = new AtomicInteger();
+    String result = client.call( "op", () -> {
+      if ( attempts.getAndIncrement() == 0 ) {
+        // the straggler: only ends when cancelled
+        never.await( 1, TimeUnit.MINUTES );
+        return "primary";
+      }
+      return "hedge";
+    } );
+    assertEquals( "hedge", result );
+    assertEquals( 2, attempts.get() );
+    assertEquals( 1, client.getHedges() );
+    assertEquals( 1, client.getHedgesWon() );
+  }
+
+  @Test
+  public void testHedgeRatioCap() {
+    HedgedRekognitionClient client = new HedgedRekognitionClient( null, 50, 0 );
+    warmUp( client );
+    final AtomicInteger attempts = new AtomicInteger();
+    String result = client.call( "op", () -> {
+      attempts.incrementAndGet();
+      Thread.sleep( 50 );
+      return "primary";
+    } );
+    assertEquals( "primary", result );
+    assertEquals( 1, attempts.get() );
+    assertEquals( 0, client.getHedges() );
+  }
+
+  @Test
+  public void testHedgeBudgetDoesNotBuildUp() {
+    HedgedRekognitionClient client = new HedgedRekognitionClient( null, 50, 0.05 );
+    // a long quiet period earns at most the hedges of the last BUDGET_CALLS calls
+    for ( int i = 0; i < 10 * HedgedRekognitionClient.BUDGET_CALLS; i++ ) {
+      client.addHedgeToken();
+    }
+    int granted = 0;
+    while ( client.tryAcquireHedge() ) {
+      granted++;
+    }
+    assertEquals( 5, granted );
+    // then one hedge per 20 calls again
+    for ( int i = 0; i < 19; i++ ) {
+      client.addHedgeToken();
+    }
+    assertFalse( client.tryAcquireHedge() );
+    client.addHedgeToken();
+    client.addHedgeToken();
+    assertTrue( client.tryAcquireHedge() );
+  }
+
+  private static void warmUp( HedgedRekognitionClient client ) {
+    for ( int i = 0; i < LatencyTracker.MIN_SAMPLES; i++ ) {
+      client.call( "op", () -> "fast" );
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.AmazonRekognitionException;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectLabelsResult;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectModerationLabelsResult;
+import com.amazonaws.services.rekognition.model.DetectTextRequest;
+import com.amazonaws.services.rekognition.model.DetectTextResult;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Label;
+import com.amazonaws.services.rekognition.model.ModerationLabel;
+import com.amazonaws.services.rekognition.model.TextDetection;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class ImageAnalyzerTest {
+
+  private static final Executor DIRECT = Runnable::run;
+
+  @Test
+  public void testEverySelectedAnalysisOnOneResult() throws Exception {
+    AmazonRekognition client = client();
+    ImageAnalyzer analyzer = new ImageAnalyzer( client, EnumSet.allOf( AnalysisType.class ) );
+
+    ImageAnalysisResult result = analyzer.submit( image( "photos/a.jpg" ), DIRECT ).get();
+    assertEquals( "photos/a.jpg", result.getKey() );
+    assertEquals( 1, result.getFaceDetails().size() );
+    assertEquals( "Person", result.getLabels().get( 0 ).getName() );
+    assertEquals( "EXIT", result.getTextDetections().get( 0 ).getDetectedText() );
+    assertEquals( "Suggestive", result.getModerationLabels().get( 0 ).getName() );
+    for ( AnalysisType analysisType : AnalysisType.values() ) {
+      assertTrue( analysisType.isDone( result ) );
+    }
+    verify( client, times( 1 ) ).detectFaces( any( DetectFacesRequest.class ) );
+    verify( client, times( 1 ) ).detectLabels( any( DetectLabelsRequest.class ) );
+    verify( client, times( 1 ) ).detectText( any( DetectTextRequest.class ) );
+    verify( client, times( 1 ) ).detectModerationLabels( any( DetectModerationLabelsRequest.class ) );
+  }
+
+  @Test
+  public void testOnlySelectedAnalysesAreCalled() throws Exception {
+    AmazonRekognition client = client();
+    ImageAnalyzer analyzer = new ImageAnalyzer( client, EnumSet.of( AnalysisType.LABELS, AnalysisType.TEXT ) );
+
+    ImageAnalysisResult result = analyzer.submit( image( "photos/a.jpg" ), DIRECT ).get();
+    assertNull( result.getFaceDetails() );
+    assertEquals( 1, result.getLabels().size() );
+    assertEquals( 1, result.getTextDetections().size() );
+    assertNull( result.getModerationLabels() );
+    verify( client, never() ).detectFaces( any( DetectFacesRequest.class ) );
+    verify( client, never() ).detectModerationLabels( any( DetectModerationLabelsRequest.class ) );
+  }
+
+  @Test
+  public void testFailedAnalysisFailsTheImage() throws Exception {
+    AmazonRekognition client = client();
+    AmazonRekognitionException failure = new AmazonRekognitionException( "Throttled" );
+    // the first image's call fails, the next one succeeds
+    when( client.detectText( any( DetectTextRequest.class ) ) ).thenThrow( failure ).thenReturn(
+        new DetectTextResult().withTextDetections( new TextDetection().withDetectedText( "EXIT" ) ) );
+    ImageAnalyzer analyzer = new ImageAnalyzer( client, EnumSet.allOf( AnalysisType.class ) );
+
+    CompletableFuture<ImageAnalysisResult> result = analyzer.submit( image( "photos/a.jpg" ), DIRECT );
+    try {
+      result.get();
+      fail( "a failed analysis must not yield a partial result" );
+    } catch ( ExecutionException e ) {
+      assertSame( failure, e.getCause() );
+    }
+    // the next image is analyzed as usual
+    ImageAnalysisResult other = analyzer.submit( image( "photos/b.jpg" ), DIRECT ).get();
+    assertEquals( "photos/b.jpg", other.getKey() );
+    assertEquals( 1, other.getFaceDetails().size() );
+    assertEquals( 1, other.getLabels().size() );
+    assertEquals( "EXIT", other.getTextDetections().get( 0 ).getDetectedText() );
+    assertEquals( 1, other.getModerationLabels().size() );
+    verify( client, times( 2 ) ).detectText( any( DetectTextRequest.class ) );
+  }
+
+  private static AmazonRekognition client() {
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.detectFaces( any( DetectFacesRequest.class ) ) ).thenReturn(
+        new DetectFacesResult().withFaceDetails( new FaceDetail().withConfidence( 99f ) ) );
+    when( client.detectLabels( any( DetectLabelsRequest.class ) ) ).thenReturn(
+        new DetectLabelsResult().withLabels( new Label().withName( "Person" ).withConfidence( 98f ) ) );
+    when( client.detectText( any( DetectTextRequest.class ) ) ).thenReturn(
+        new DetectTextResult().withTextDetections( new TextDetection().withDetectedText( "EXIT" ) ) );
+    when( client.detectModerationLabels( any( DetectModerationLabelsRequest.class ) ) ).thenReturn(
+        new DetectModerationLabelsResult().withModerationLabels( new ModerationLabel().withName( "Suggestive" ) ) );
+    return client;
+  }
+
+  private static S3ObjectSummary image( String key ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( "bucket" );
+    summary.setKey( key );
+    summary.setSize( 1000 );
+    return summary;
+  }
+}
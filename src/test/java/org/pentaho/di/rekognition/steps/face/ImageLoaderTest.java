@@ -0,0 +1,198 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class ImageLoaderTest {
+
+  // larger than the probe, so loading needs a second ranged GET
+  private static final int OBJECT_SIZE = 3 * ImageLoader.PROBE_BYTES;
+
+  /**
+   * Stand-in for S3 serving a single object, recording the requested ranges.
+   */
+  private static class RangeS3 extends AbstractAmazonS3 {
+    final byte[] content;
+    final List<long[]> ranges = new ArrayList<>();
+
+    RangeS3( byte[] content ) {
+      this.content = content;
+    }
+
+    @Override
+    public S3Object getObject( GetObjectRequest request ) {
+      long[] range = request.getRange();
+      ranges.add( range );
+      int start = range == null ? 0 : (int) range[0];
+      int end = range == null ? content.length - 1 : (int) Math.min( range[1], content.length - 1 );
+      ObjectMetadata metadata = new ObjectMetadata();
+      metadata.setContentLength( end - start + 1 );
+      if ( range != null ) {
+        metadata.setHeader( Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length );
+      }
+      S3Object object = new S3Object();
+      object.setKey( request.getKey() );
+      object.setObjectMetadata( metadata );
+      object.setObjectContent( new ByteArrayInputStream( content, start, end - start + 1 ) );
+      return object;
+    }
+  }
+
+  @Test
+  public void testDimensions() throws Exception {
+    byte[] jpeg = encode( 300, 200, "jpg" );
+    assertArrayEquals( new int[] { 300, 200 }, ImageLoader.dimensions( ByteBuffer.wrap( jpeg ), jpeg.length ) );
+    byte[] png = encode( 30, 20, "png" );
+    assertArrayEquals( new int[] { 30, 20 }, ImageLoader.dimensions( ByteBuffer.wrap( png ), png.length ) );
+
+    // the frame header comes after an application segment, and past the available bytes when cut short
+    byte[] withApp = withSegment( jpeg, 0xe1, 5000 );
+    assertArrayEquals( new int[] { 300, 200 }, ImageLoader.dimensions( ByteBuffer.wrap( withApp ), withApp.length ) );
+    assertNull( ImageLoader.dimensions( ByteBuffer.wrap( withApp ), 4000 ) );
+    assertNull( ImageLoader.dimensions( ByteBuffer.wrap( "GIF89a......".getBytes( "US-ASCII" ) ), 12 ) );
+  }
+
+  @Test
+  public void testSmallImageOnlyProbed() throws Exception {
+    RangeS3 s3 = new RangeS3( padded( encode( 60, 40, "jpg" ) ) );
+    ImageLoader loader = new ImageLoader( s3, new BufferPool( 1 << 20, 1 << 20 ), 80 );
+
+    assertNull( loader.load( summary( s3 ) ) );
+    assertEquals( 1, s3.ranges.size() );
+    assertEquals( 1, loader.getTooSmall() );
+    assertEquals( OBJECT_SIZE - ImageLoader.PROBE_BYTES, loader.getBytesSkipped() );
+  }
+
+  @Test
+  public void testLargeImageLoadedInTwoRanges() throws Exception {
+    RangeS3 s3 = new RangeS3( padded( encode( 300, 200, "jpg" ) ) );
+    ImageLoader loader = new ImageLoader( s3, new BufferPool( 1 << 20, 1 << 20 ), 80 );
+
+    ByteBuffer image = loader.load( summary( s3 ) );
+    assertEquals( OBJECT_SIZE, image.remaining() );
+    byte[] loaded = new byte[image.remaining()];
+    image.duplicate().get( loaded );
+    assertArrayEquals( s3.content, loaded );
+    assertEquals( 2, s3.ranges.size() );
+    assertEquals( ImageLoader.PROBE_BYTES, s3.ranges.get( 1 )[0] );
+    assertEquals( 300, ImageIO.read( ImageLoader.stream( image ) ).getWidth() );
+    loader.release( image );
+
+    assertTrue( loader.isLargeEnough( summary( s3 ) ) );
+    assertEquals( 3, s3.ranges.size() );
+    assertEquals( 0, loader.getTooSmall() );
+  }
+
+  @Test
+  public void testWithoutMinimumSizeLoadsWithOneGet() throws Exception {
+    RangeS3 s3 = new RangeS3( encode( 60, 40, "png" ) );
+    ImageLoader loader = new ImageLoader( s3 );
+
+    ByteBuffer image = loader.load( summary( s3 ) );
+    assertEquals( s3.content.length, image.remaining() );
+    assertEquals( Arrays.asList( (long[]) null ), s3.ranges );
+    assertEquals( 0, loader.getProbes() );
+  }
+
+  @Test
+  public void testPoolReusesBuffers() {
+    BufferPool pool = new BufferPool( 2 * BufferPool.GRANULE, BufferPool.GRANULE );
+    ByteBuffer first = pool.acquire( 1000 );
+    assertTrue( first.isDirect() );
+    assertEquals( 1000, first.remaining() );
+    pool.release( first );
+
+    ByteBuffer second = pool.acquire( 2000 );
+    assertSame( first, second );
+    assertEquals( 2000, second.remaining() );
+    assertEquals( 1, pool.getReused() );
+
+    // larger than a pooled buffer may be, or past the pool capacity: plain heap buffers
+    assertFalse( pool.acquire( BufferPool.GRANULE + 1 ).isDirect() );
+    ByteBuffer third = pool.acquire( 1000 );
+    assertTrue( third.isDirect() );
+    assertNotSame( second, third );
+    assertFalse( pool.acquire( 1000 ).isDirect() );
+    assertEquals( 5, pool.getAcquired() );
+  }
+
+  private static S3ObjectSummary summary( RangeS3 s3 ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( "bucket" );
+    summary.setKey( "image.jpg" );
+    summary.setSize( s3.content.length );
+    return summary;
+  }
+
+  private static byte[] encode( int width, int height, String format ) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB ), format, out );
+    return out.toByteArray();
+  }
+
+  /**
+   * @return the image followed by zeros up to OBJECT_SIZE bytes, which decoders ignore
+   */
+  private static byte[] padded( byte[] image ) {
+    return Arrays.copyOf( image, OBJECT_SIZE );
+  }
+
+  /**
+   * @return the JPEG with a segment of the given marker and length inserted right after its start marker
+   */
+  private static byte[] withSegment( byte[] jpeg, int marker, int length ) {
+    byte[] result = new byte[jpeg.length + 2 + length];
+    result[0] = jpeg[0];
+    result[1] = jpeg[1];
+    result[2] = (byte) 0xff;
+    result[3] = (byte) marker;
+    result[4] = (byte) ( length >> 8 );
+    result[5] = (byte) length;
+    System.arraycopy( jpeg, 2, result, 4 + length, jpeg.length - 2 );
+    return result;
+  }
+}
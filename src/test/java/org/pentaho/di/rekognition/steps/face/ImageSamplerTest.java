@@ -0,0 +1,128 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class ImageSamplerTest {
+
+  @Test
+  public void testStratum() {
+    ImageSampler sampler = new ImageSampler.RateSampler( 1, 1, 2 );
+    assertEquals( "photos/", sampler.stratum( "photos", "a.jpg" ) );
+    assertEquals( "photos/2018/", sampler.stratum( "photos", "2018/a.jpg" ) );
+    assertEquals( "photos/2018/01/", sampler.stratum( "photos", "2018/01/02/a.jpg" ) );
+    assertEquals( "photos/", new ImageSampler.RateSampler( 1, 1, 0 ).stratum( "photos", "2018/01/a.jpg" ) );
+  }
+
+  @Test
+  public void testRateSamplingIsReproducible() {
+    List<String> keys = keys( "img/", 10000 );
+    List<String> first = rateSample( keys, 7 );
+    Collections.reverse( keys );
+    List<String> reversed = rateSample( keys, 7 );
+    Collections.sort( first );
+    Collections.sort( reversed );
+    assertEquals( first, reversed );
+    // about 10% of the keys, a different seed picks other keys
+    assertEquals( 1000, first.size(), 100 );
+    assertFalse( first.equals( rateSample( keys, 8 ) ) );
+  }
+
+  @Test
+  public void testSizeSamplingPerStratum() {
+    ImageSampler sampler = new ImageSampler.SizeSampler( 10, 3, 1 );
+    List<String> keys = keys( "big/", 1000 );
+    keys.addAll( keys( "small/", 4 ) );
+    Collections.shuffle( keys, new Random( 1 ) );
+    for ( String key : keys ) {
+      assertFalse( sampler.offer( summary( key ) ) );
+    }
+    List<S3ObjectSummary> sample = sampler.drain();
+    assertEquals( 14, sample.size() );
+    assertEquals( 0.01, sampler.getSampleRate( "bucket", "big/x.jpg" ), 1e-9 );
+    assertEquals( 1, sampler.getSampleRate( "bucket", "small/x.jpg" ), 1e-9 );
+
+    // listing order is kept
+    List<String> sampled = new ArrayList<>();
+    for ( S3ObjectSummary summary : sample ) {
+      sampled.add( summary.getKey() );
+    }
+    List<String> inListingOrder = new ArrayList<>( keys );
+    inListingOrder.retainAll( sampled );
+    assertEquals( inListingOrder, sampled );
+  }
+
+  @Test
+  public void testSizeSamplingPerBucket() {
+    ImageSampler sampler = new ImageSampler.SizeSampler( 10, 3, 0 );
+    for ( String key : keys( "img/", 1000 ) ) {
+      sampler.offer( summary( "big", key ) );
+    }
+    for ( String key : keys( "img/", 4 ) ) {
+      sampler.offer( summary( "small", key ) );
+    }
+    // the same keys in a small bucket are not drowned in the big one
+    assertEquals( 14, sampler.drain().size() );
+    assertEquals( 0.01, sampler.getSampleRate( "big", "img/0.jpg" ), 1e-9 );
+    assertEquals( 1, sampler.getSampleRate( "small", "img/0.jpg" ), 1e-9 );
+  }
+
+  private static List<String> rateSample( List<String> keys, long seed ) {
+    ImageSampler sampler = new ImageSampler.RateSampler( 0.1, seed, 0 );
+    List<String> picked = new ArrayList<>();
+    for ( String key : keys ) {
+      if ( sampler.offer( summary( key ) ) ) {
+        picked.add( key );
+      }
+    }
+    return picked;
+  }
+
+  private static List<String> keys( String prefix, int count ) {
+    List<String> keys = new ArrayList<>();
+    for ( int i = 0; i < count; i++ ) {
+      keys.add( prefix + i + ".jpg" );
+    }
+    return keys;
+  }
+
+  private static S3ObjectSummary summary( String key ) {
+    return summary( "bucket", key );
+  }
+
+  private static S3ObjectSummary summary( String bucketName, String key ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( bucketName );
+    summary.setKey( key );
+    return summary;
+  }
+}
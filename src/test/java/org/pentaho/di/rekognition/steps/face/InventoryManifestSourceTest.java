@@ -0,0 +1,99 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class InventoryManifestSourceTest {
+
+  @Test
+  public void testParseCsvLine() {
+    assertEquals( Arrays.asList( "bucket", "a,b", "say \"hi\"", "" ),
+        InventoryManifestSource.parseCsvLine( "\"bucket\",\"a,b\",\"say \"\"hi\"\"\",\"\"" ) );
+  }
+
+  @Test
+  public void testLocalManifest() throws IOException, KettleException {
+    File dir = Files.createTempDirectory( "inventory" ).toFile();
+    writeDataFile( new File( dir, "part-1.csv.gz" ),
+        "\"images\",\"faces/a%20b.jpg\",\"\",\"true\",\"false\",\"100\",\"2018-12-01T10:00:00.000Z\",\"e1\"\n"
+        + "\"images\",\"faces/old.jpg\",\"v1\",\"false\",\"false\",\"5\",\"2018-12-01T10:00:00.000Z\",\"e2\"\n" );
+    writeDataFile( new File( dir, "part-2.csv.gz" ),
+        "\"images\",\"faces/deleted.jpg\",\"v2\",\"true\",\"true\",\"\",\"2018-12-01T10:00:00.000Z\",\"\"\n"
+        + "\"images\",\"faces/c.png\",\"\",\"true\",\"false\",\"300\",\"2018-12-02T10:00:00.000Z\",\"e3\"\n" );
+    File manifest = new File( dir, "manifest.json" );
+    Files.write( manifest.toPath(), ( "{\"sourceBucket\":\"images\",\"destinationBucket\":\"arn:aws:s3:::reports\","
+        + "\"fileFormat\":\"CSV\","
+        + "\"fileSchema\":\"Bucket, Key, VersionId, IsLatest, IsDeleteMarker, Size, LastModifiedDate, ETag\","
+        + "\"files\":[{\"key\":\"images/inv/data/part-1.csv.gz\"},{\"key\":\"images/inv/data/part-2.csv.gz\"}]}" )
+        .getBytes( StandardCharsets.UTF_8 ) );
+
+    final List<String> keys = new ArrayList<>();
+    new InventoryManifestSource( null, manifest.getPath(), 2 ).list( objectSummary -> {
+      keys.add( objectSummary.getKey() + ":" + objectSummary.getSize() );
+      return true;
+    } );
+    Collections.sort( keys );
+    assertEquals( Arrays.asList( "faces/a b.jpg:100", "faces/c.png:300" ), keys );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testUnsupportedFormat() throws IOException, KettleException {
+    File manifest = File.createTempFile( "manifest", ".json" );
+    Files.write( manifest.toPath(), "{\"fileFormat\":\"Parquet\",\"files\":[]}".getBytes( StandardCharsets.UTF_8 ) );
+    new InventoryManifestSource( null, manifest.getPath(), 1 ).list( objectSummary -> true );
+  }
+
+  @Test
+  public void testSkipsRowsWithoutKey() throws IOException {
+    InventoryManifestSource.Manifest manifest = new InventoryManifestSource.Manifest();
+    manifest.fileSchema = new String[] { "Bucket", "Size" };
+    S3ObjectSummary objectSummary = InventoryManifestSource.toObjectSummary( manifest, Arrays.asList( "b", "1" ) );
+    assertNull( objectSummary );
+  }
+
+  private static void writeDataFile( File file, String content ) throws IOException {
+    try ( Writer writer =
+        new OutputStreamWriter( new GZIPOutputStream( new FileOutputStream( file ) ), StandardCharsets.UTF_8 ) ) {
+      writer.write( content );
+    }
+  }
+}
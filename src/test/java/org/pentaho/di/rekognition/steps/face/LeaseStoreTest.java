@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class LeaseStoreTest {
+
+  @Test
+  public void testCompareAndSwap() throws IOException {
+    LeaseStore store = new LeaseStore.FileStore( Files.createTempDirectory( "leases" ).toFile() );
+    assertNull( store.read( "bucket/plan" ) );
+    String first = store.create( "bucket/plan", new byte[] { 1 } );
+    assertNotNull( first );
+    assertNull( store.create( "bucket/plan", new byte[] { 2 } ) );
+
+    String second = store.replace( "bucket/plan", first, new byte[] { 3 } );
+    assertNotNull( second );
+    // a writer still holding the first version loses
+    assertNull( store.replace( "bucket/plan", first, new byte[] { 4 } ) );
+    LeaseStore.Record record = store.read( "bucket/plan" );
+    assertEquals( second, record.version );
+    assertEquals( 3, record.content[0] );
+  }
+
+  @Test
+  public void testReplacedRecordCannotBeCreatedAgain() throws IOException {
+    LeaseStore store = new LeaseStore.FileStore( Files.createTempDirectory( "leases" ).toFile() );
+    String first = store.create( "bucket/plan", new byte[] { 1 } );
+    String second = store.replace( "bucket/plan", first, new byte[] { 2 } );
+    assertNull( store.create( "bucket/plan", new byte[] { 3 } ) );
+    assertNotNull( store.replace( "bucket/plan", second, new byte[] { 4 } ) );
+    assertNull( store.create( "bucket/plan", new byte[] { 5 } ) );
+    assertEquals( 4, store.read( "bucket/plan" ).content[0] );
+  }
+
+  @Test
+  public void testClaimRenewComplete() throws IOException {
+    AtomicLong now = new AtomicLong( 1000 );
+    LeaseStore store = new LeaseStore.FileStore( Files.createTempDirectory( "leases" ).toFile() );
+    store.setClock( now::get );
+
+    LeaseStore.Lease a = store.claim( "unit-1", "a", 100 );
+    assertNotNull( a );
+    assertEquals( 1100, a.expiresAt );
+    assertNull( store.claim( "unit-1", "b", 100 ) );
+
+    now.set( 1050 );
+    a = store.renew( "unit-1", a, 100 );
+    assertEquals( 1150, a.expiresAt );
+    now.set( 1120 );
+    assertNull( store.claim( "unit-1", "b", 100 ) );
+
+    assertTrue( store.complete( "unit-1", a ) );
+    LeaseStore.Lease done = store.claim( "unit-1", "b", 100 );
+    assertTrue( done.done );
+    assertEquals( "a", done.owner );
+  }
+
+  @Test
+  public void testExpiredLeaseIsTakenOver() throws IOException {
+    AtomicLong now = new AtomicLong( 1000 );
+    LeaseStore store = new LeaseStore.FileStore( Files.createTempDirectory( "leases" ).toFile() );
+    store.setClock( now::get );
+
+    LeaseStore.Lease crashed = store.claim( "unit-1", "a", 100 );
+    now.set( 1200 );
+    LeaseStore.Lease b = store.claim( "unit-1", "b", 100 );
+    assertNotNull( b );
+    assertEquals( "b", b.owner );
+
+    // the old owner can neither renew nor complete the unit any more
+    assertNull( store.renew( "unit-1", crashed, 100 ) );
+    assertFalse( store.complete( "unit-1", crashed ) );
+    assertTrue( store.complete( "unit-1", b ) );
+  }
+
+  @Test
+  public void testOpen() {
+    assertTrue( LeaseStore.open( "/tmp/leases", null ) instanceof LeaseStore.FileStore );
+    assertTrue( LeaseStore.open( "s3://coordination/leases", null ) instanceof LeaseStore.S3Store );
+  }
+}
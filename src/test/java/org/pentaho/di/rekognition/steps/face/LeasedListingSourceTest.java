@@ -0,0 +1,201 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class LeasedListingSourceTest {
+
+  private static final int PAGE_SIZE = 2;
+
+  private static final List<String> FLAT_KEYS = flatKeys();
+
+  @Test
+  public void testInstancesSplitTheBucket() throws Exception {
+    final File dir = Files.createTempDirectory( "leases" ).toFile();
+    final AmazonS3 s3 = fakeS3( FLAT_KEYS );
+    final List<String> listedByA = Collections.synchronizedList( new ArrayList<String>() );
+    final List<String> listedByB = Collections.synchronizedList( new ArrayList<String>() );
+    final LeasedListingSource a = source( s3, dir, "a" );
+    final LeasedListingSource b = source( s3, dir, "b" );
+    ExecutorService instances = Executors.newFixedThreadPool( 2 );
+    try {
+      Future<?> runA = instances.submit( () -> listSlowly( a, listedByA ) );
+      Future<?> runB = instances.submit( () -> listSlowly( b, listedByB ) );
+      runA.get( 30, TimeUnit.SECONDS );
+      runB.get( 30, TimeUnit.SECONDS );
+    } finally {
+      instances.shutdownNow();
+    }
+
+    List<String> all = new ArrayList<>( listedByA );
+    all.addAll( listedByB );
+    // every key was listed exactly once, by one of the instances
+    assertEquals( sorted( FLAT_KEYS ), sorted( all ) );
+    assertEquals( 8, a.getUnitsDone() + b.getUnitsDone() );
+  }
+
+  @Test
+  public void testDoneUnitsAreNotListedAgain() throws KettleException, IOException {
+    File dir = Files.createTempDirectory( "leases" ).toFile();
+    AmazonS3 s3 = fakeS3( Arrays.asList( "2017/a.jpg", "2018/b.jpg", "2018/c.jpg", "root.jpg" ) );
+    assertEquals( 4, listAll( s3, dir, "a" ).size() );
+    assertEquals( 0, listAll( s3, dir, "b" ).size() );
+  }
+
+  @Test
+  public void testCrashedInstanceIsTakenOver() throws KettleException, IOException {
+    File dir = Files.createTempDirectory( "leases" ).toFile();
+    AmazonS3 s3 = fakeS3( FLAT_KEYS );
+    AtomicLong now = new AtomicLong( 1000 );
+    LeaseStore store = new LeaseStore.FileStore( dir );
+    store.setClock( now::get );
+
+    // "a" stops after its first image, leaving the unit it worked on claimed but not done
+    List<String> listedByA = new ArrayList<>();
+    new LeasedListingSource( s3, "bucket", store, "a", 1000, 4, () -> true ).list( objectSummary -> {
+      listedByA.add( objectSummary.getKey() );
+      return false;
+    } );
+    assertEquals( 1, listedByA.size() );
+
+    now.addAndGet( 5000 );
+    List<String> listedByB = new ArrayList<>();
+    LeasedListingSource b = new LeasedListingSource( s3, "bucket", store, "b", 1000, 4, () -> true );
+    b.list( objectSummary -> {
+      listedByB.add( objectSummary.getKey() );
+      return true;
+    } );
+    assertEquals( sorted( FLAT_KEYS ), sorted( listedByB ) );
+    assertEquals( 4, b.getUnitsDone() );
+  }
+
+  private static LeasedListingSource source( AmazonS3 s3, File dir, String owner ) {
+    return new LeasedListingSource( s3, "bucket", new LeaseStore.FileStore( dir ), owner, 400, 8, () -> true );
+  }
+
+  private static Void listSlowly( LeasedListingSource source, List<String> listed ) throws KettleException {
+    source.list( objectSummary -> {
+      listed.add( objectSummary.getKey() );
+      try {
+        Thread.sleep( 20 );
+      } catch ( InterruptedException e ) {
+        return false;
+      }
+      return true;
+    } );
+    return null;
+  }
+
+  private static List<String> listAll( AmazonS3 s3, File dir, String owner ) throws KettleException {
+    final List<String> listed = new ArrayList<>();
+    new LeasedListingSource( s3, "bucket", new LeaseStore.FileStore( dir ), owner, 60000, 4, () -> true )
+        .list( objectSummary -> {
+          listed.add( objectSummary.getKey() );
+          return true;
+        } );
+    return listed;
+  }
+
+  /**
+   * @return a flat bucket with enough keys (IMG_0001.jpg ...) to be split into the requested number of ranges
+   */
+  private static List<String> flatKeys() {
+    List<String> keys = new ArrayList<>( Arrays.asList( "0001.jpg", "a.jpg", "b.jpg", "B.png", "cat.jpg",
+        "zebra.jpg", "~tmp.jpg", "été.jpg" ) );
+    for ( int i = 1; i <= 24; i++ ) {
+      keys.add( String.format( "IMG_%04d.jpg", i ) );
+    }
+    return keys;
+  }
+
+  private static List<String> sorted( List<String> keys ) {
+    List<String> sorted = new ArrayList<>( keys );
+    Collections.sort( sorted );
+    return sorted;
+  }
+
+  /**
+   * Simulates ListObjectsV2 paging, prefix, delimiter and StartAfter handling over a fixed key set.
+   */
+  private static AmazonS3 fakeS3( List<String> keys ) {
+    final TreeSet<String> bucket = new TreeSet<>( keys );
+    AmazonS3 s3 = mock( AmazonS3.class );
+    when( s3.listObjectsV2( any( ListObjectsV2Request.class ) ) ).thenAnswer( invocation -> {
+      ListObjectsV2Request req = (ListObjectsV2Request) invocation.getArguments()[0];
+      String prefix = req.getPrefix() == null ? "" : req.getPrefix();
+      String after = req.getContinuationToken() != null ? req.getContinuationToken() : req.getStartAfter();
+      ListObjectsV2Result result = new ListObjectsV2Result();
+      int count = 0;
+      for ( String key : after == null ? bucket : bucket.tailSet( after, false ) ) {
+        if ( !key.startsWith( prefix ) ) {
+          continue;
+        }
+        if ( count == PAGE_SIZE ) {
+          result.setTruncated( true );
+          break;
+        }
+        int slash = req.getDelimiter() == null ? -1 : key.indexOf( req.getDelimiter(), prefix.length() );
+        if ( slash >= 0 ) {
+          String commonPrefix = key.substring( 0, slash + 1 );
+          if ( !result.getCommonPrefixes().contains( commonPrefix ) ) {
+            result.getCommonPrefixes().add( commonPrefix );
+          }
+        } else {
+          S3ObjectSummary objectSummary = new S3ObjectSummary();
+          objectSummary.setBucketName( "bucket" );
+          objectSummary.setKey( key );
+          result.getObjectSummaries().add( objectSummary );
+        }
+        result.setNextContinuationToken( slash >= 0 ? key.substring( 0, slash + 1 ) + '\uffff' : key );
+        count++;
+      }
+      return result;
+    } );
+    return s3;
+  }
+}
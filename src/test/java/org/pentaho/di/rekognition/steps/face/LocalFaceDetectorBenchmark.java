@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * Measures the throughput of the local face detector on a directory of images, the way the step uses it: one
+ * image per worker thread. Not a unit test, run it by hand:
+ *
+ *   LocalFaceDetectorBenchmark haarcascade_frontalface_default.xml /path/to/images [maxThreads]
+ *
+ * Prints the images per second overall and per thread for 1, 2, 4, ... threads up to maxThreads (the number of
+ * cores by default).
+ */
+public class LocalFaceDetectorBenchmark {
+
+  public static void main( String[] args ) throws Exception {
+    if ( args.length < 2 ) {
+      System.err.println( "Usage: LocalFaceDetectorBenchmark <cascade.xml> <image directory> [maxThreads]" );
+      System.exit( 1 );
+    }
+    LocalFaceDetector detector = new LocalFaceDetector( HaarCascade.load( new File( args[0] ) ), 3, 1 );
+    int maxThreads = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+
+    List<BufferedImage> images = new ArrayList<>();
+    File[] files = new File( args[1] ).listFiles();
+    if ( files != null ) {
+      for ( File file : files ) {
+        BufferedImage image = file.isFile() ? ImageIO.read( file ) : null;
+        if ( image != null ) {
+          images.add( image );
+        }
+      }
+    }
+    if ( images.isEmpty() ) {
+      System.err.println( "No readable images in " + args[1] );
+      System.exit( 1 );
+    }
+    System.out.println( images.size() + " images, " + Runtime.getRuntime().availableProcessors() + " cores" );
+
+    // warm up the JIT before measuring
+    run( detector, images, 1 );
+    for ( int threads = 1; threads <= maxThreads; threads *= 2 ) {
+      long start = System.nanoTime();
+      int faces = run( detector, images, threads );
+      double seconds = ( System.nanoTime() - start ) / 1e9;
+      double rate = images.size() / seconds;
+      System.out.printf( "%3d threads: %8.1f images/s, %8.1f images/s per thread, %d faces%n", threads, rate,
+          rate / threads, faces );
+    }
+  }
+
+  private static int run( LocalFaceDetector detector, List<BufferedImage> images, int threads ) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool( threads );
+    try {
+      AtomicInteger faces = new AtomicInteger();
+      List<Future<?>> futures = new ArrayList<>();
+      for ( BufferedImage image : images ) {
+        futures.add( pool.submit( () -> faces.addAndGet( detector.detect( image ).size() ) ) );
+      }
+      for ( Future<?> future : futures ) {
+        future.get();
+      }
+      return faces.get();
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
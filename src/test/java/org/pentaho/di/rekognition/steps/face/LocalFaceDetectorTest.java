@@ -0,0 +1,219 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import javax.imageio.ImageIO;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.DetectLabelsRequest;
+import com.amazonaws.services.rekognition.model.DetectLabelsResult;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Label;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class LocalFaceDetectorTest {
+
+  private static final Executor DIRECT = Runnable::run;
+
+  // one stage with a single stump: accepts windows whose right half is brighter than their left half
+  private static final String EDGE_CASCADE = "<?xml version=\"1.0\"?>\n"
+      + "<opencv_storage><cascade type_id=\"opencv-cascade-classifier\">\n"
+      + "<stageType>BOOST</stageType><featureType>HAAR</featureType><height>4</height><width>4</width>\n"
+      + "<stageNum>1</stageNum><stages><_><maxWeakCount>1</maxWeakCount><stageThreshold>0.</stageThreshold>\n"
+      + "<weakClassifiers><_><internalNodes>0 -1 0 1.</internalNodes><leafValues>-1. 1.</leafValues></_>\n"
+      + "</weakClassifiers></_></stages>\n"
+      + "<features><_><rects><_>0 0 4 4 -1.</_><_>2 0 2 4 2.</_></rects>%s</_></features>\n"
+      + "</cascade></opencv_storage>\n";
+
+  @Test
+  public void testLoad() throws Exception {
+    HaarCascade cascade = HaarCascade.load( cascadeFile( "" ) );
+    assertEquals( 4, cascade.width );
+    assertEquals( 4, cascade.height );
+    assertEquals( 1, cascade.getStageCount() );
+    assertEquals( 1.0f, cascade.nodeThresholds[0], 0 );
+    assertEquals( 2, cascade.leafValues.length );
+    assertEquals( 2.0f, cascade.featureWeights[1], 0 );
+    assertEquals( 0.0f, cascade.featureWeights[2], 0 );
+  }
+
+  @Test
+  public void testTiltedFeaturesRejected() throws Exception {
+    try {
+      HaarCascade.load( cascadeFile( "<tilted>1</tilted>" ) );
+      fail( "tilted features are not supported" );
+    } catch ( IOException e ) {
+      assertTrue( e.getMessage().contains( "Tilted" ) );
+    }
+  }
+
+  @Test
+  public void testRectSum() {
+    // integral image of a 2x2 image [1 2; 3 4]
+    int[] sums = { 0, 0, 0, 0, 1, 3, 0, 4, 10 };
+    assertEquals( 10, HaarCascade.rectSum( sums, 3, 0, 0, 2, 2 ) );
+    assertEquals( 4, HaarCascade.rectSum( sums, 3, 1, 1, 1, 1 ) );
+    assertEquals( 6, HaarCascade.rectSum( sums, 3, 1, 0, 1, 2 ) );
+  }
+
+  @Test
+  public void testFlatImageHasNoFaces() throws Exception {
+    LocalFaceDetector detector = new LocalFaceDetector( HaarCascade.load( cascadeFile( "" ) ), 1, 1 );
+    assertTrue( detector.detect( image( false ) ).isEmpty() );
+  }
+
+  @Test
+  public void testDetectsPatternPosition() throws Exception {
+    for ( int threads : new int[] { 1, 3 } ) {
+      LocalFaceDetector detector = new LocalFaceDetector( HaarCascade.load( cascadeFile( "" ) ), 1, threads );
+      List<FaceDetail> faces = detector.detect( image( true ) );
+      detector.shutdown();
+      assertFalse( faces.isEmpty() );
+      for ( FaceDetail face : faces ) {
+        BoundingBox box = face.getBoundingBox();
+        // the dark to bright edge runs down the middle of the pattern at x = 60
+        assertEquals( 60, ( box.getLeft() + box.getWidth() / 2 ) * 120, 15 );
+        assertTrue( box.getTop() * 120 < 80 && ( box.getTop() + box.getHeight() ) * 120 > 40 );
+      }
+    }
+  }
+
+  @Test
+  public void testGroup() {
+    List<int[]> windows = Arrays.asList( new int[] { 10, 10, 20, 20 }, new int[] { 11, 10, 20, 20 },
+        new int[] { 12, 12, 20, 20 }, new int[] { 80, 80, 20, 20 } );
+    List<int[]> groups = LocalFaceDetector.group( windows, 1 );
+    assertEquals( 1, groups.size() );
+    assertEquals( Arrays.toString( new int[] { 11, 11, 20, 20 } ), Arrays.toString( groups.get( 0 ) ) );
+    assertEquals( 2, LocalFaceDetector.group( windows, 0 ).size() );
+  }
+
+  @Test
+  public void testPrescreenSkipsImagesWithoutFaces() throws Exception {
+    ImageLoader loader = mock( ImageLoader.class );
+    when( loader.load( any( S3ObjectSummary.class ) ) ).thenReturn( ByteBuffer.wrap( png( false ) ) );
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.detectLabels( any( DetectLabelsRequest.class ) ) ).thenReturn(
+        new DetectLabelsResult().withLabels( new Label().withName( "Wall" ) ) );
+
+    ImageAnalyzer analyzer = new ImageAnalyzer( client, EnumSet.of( AnalysisType.FACES, AnalysisType.LABELS ) );
+    analyzer.setImageLoader( loader, false );
+    analyzer.setFaceDetector( new LocalFaceDetector( HaarCascade.load( cascadeFile( "" ) ), 1, 1 ),
+        LocalFaceDetector.Mode.PRESCREEN );
+    ImageAnalysisResult result = analyzer.submit( summary( "flat.png" ), DIRECT ).get();
+
+    assertTrue( result.getFaceDetails().isEmpty() );
+    assertTrue( AnalysisType.LABELS.isDone( result ) );
+    assertEquals( 1, analyzer.getLocallyDetected() );
+    verify( client, never() ).detectFaces( any( DetectFacesRequest.class ) );
+
+    // an image with a local hit still goes to Rekognition for the face attributes
+    when( loader.load( any( S3ObjectSummary.class ) ) ).thenReturn( ByteBuffer.wrap( png( true ) ) );
+    when( client.detectFaces( any( DetectFacesRequest.class ) ) ).thenReturn( new DetectFacesResult() );
+    analyzer.submit( summary( "pattern.png" ), DIRECT ).get();
+    verify( client, times( 1 ) ).detectFaces( any( DetectFacesRequest.class ) );
+    assertEquals( 1, analyzer.getLocallyDetected() );
+  }
+
+  @Test
+  public void testOfflineUsesLocalBoxes() throws Exception {
+    ImageLoader loader = mock( ImageLoader.class );
+    when( loader.load( any( S3ObjectSummary.class ) ) ).thenReturn( ByteBuffer.wrap( png( true ) ) );
+    AmazonRekognition client = mock( AmazonRekognition.class );
+
+    ImageAnalyzer analyzer = new ImageAnalyzer( client, EnumSet.of( AnalysisType.FACES ) );
+    analyzer.setImageLoader( loader, false );
+    analyzer.setFaceDetector( new LocalFaceDetector( HaarCascade.load( cascadeFile( "" ) ), 1, 1 ),
+        LocalFaceDetector.Mode.OFFLINE );
+    ImageAnalysisResult result = analyzer.submit( summary( "pattern.png" ), DIRECT ).get();
+
+    assertFalse( result.getFaceDetails().isEmpty() );
+    verify( client, never() ).detectFaces( any( DetectFacesRequest.class ) );
+  }
+
+  private static File cascadeFile( String featureExtra ) throws IOException {
+    File file = File.createTempFile( "cascade", ".xml" );
+    file.deleteOnExit();
+    Files.write( file.toPath(), String.format( EDGE_CASCADE, featureExtra ).getBytes( StandardCharsets.UTF_8 ) );
+    return file;
+  }
+
+  /**
+   * A 120x120 gray image, optionally with a 40x40 square at (40, 40): black on its left half, white on its right.
+   */
+  private static BufferedImage image( boolean pattern ) {
+    BufferedImage image = new BufferedImage( 120, 120, BufferedImage.TYPE_INT_RGB );
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor( Color.GRAY );
+    graphics.fillRect( 0, 0, 120, 120 );
+    if ( pattern ) {
+      graphics.setColor( Color.BLACK );
+      graphics.fillRect( 40, 40, 20, 40 );
+      graphics.setColor( Color.WHITE );
+      graphics.fillRect( 60, 40, 20, 40 );
+    }
+    graphics.dispose();
+    return image;
+  }
+
+  private static byte[] png( boolean pattern ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( image( pattern ), "png", out );
+    return out.toByteArray();
+  }
+
+  private static S3ObjectSummary summary( String key ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( "bucket" );
+    summary.setKey( key );
+    return summary;
+  }
+}
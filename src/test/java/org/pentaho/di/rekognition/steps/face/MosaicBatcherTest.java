@@ -0,0 +1,169 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import javax.imageio.ImageIO;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.rekognition.model.Landmark;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+public class MosaicBatcherTest {
+
+  private static final Executor DIRECT = Runnable::run;
+
+  @Test
+  public void testPlace() {
+    MosaicBatcher batcher = new MosaicBatcher( null, null, null, 2, 2, 100, 4, 1000 );
+    assertEquals( new Rectangle( 0, 25, 100, 50 ), batcher.place( 0, 400, 200 ) );
+    assertEquals( new Rectangle( 125, 0, 50, 100 ), batcher.place( 1, 100, 200 ) );
+    assertEquals( new Rectangle( 0, 100, 100, 100 ), batcher.place( 2, 50, 50 ) );
+  }
+
+  @Test
+  public void testFaceMappedBackToItsTile() {
+    List<Rectangle> placements = Arrays.asList( new Rectangle( 0, 0, 100, 100 ), new Rectangle( 100, 0, 100, 100 ) );
+    // 200x100 composite: face at x 120..170, y 10..60 lies in the second tile
+    FaceDetail face = new FaceDetail()
+        .withBoundingBox( box( 0.6f, 0.1f, 0.25f, 0.5f ) )
+        .withLandmarks( new Landmark().withX( 0.7f ).withY( 0.3f ) );
+    assertEquals( 1, MosaicBatcher.findTile( face.getBoundingBox(), 200, 100, placements ) );
+    MosaicBatcher.toTile( face, placements.get( 1 ), 200, 100 );
+    assertEquals( 0.2f, face.getBoundingBox().getLeft(), 1e-4 );
+    assertEquals( 0.1f, face.getBoundingBox().getTop(), 1e-4 );
+    assertEquals( 0.5f, face.getBoundingBox().getWidth(), 1e-4 );
+    assertEquals( 0.5f, face.getBoundingBox().getHeight(), 1e-4 );
+    assertEquals( 0.4f, face.getLandmarks().get( 0 ).getX(), 1e-4 );
+    assertEquals( 0.3f, face.getLandmarks().get( 0 ).getY(), 1e-4 );
+  }
+
+  @Test
+  public void testFaceAcrossTilesDiscarded() {
+    List<Rectangle> placements = Arrays.asList( new Rectangle( 0, 0, 100, 100 ), new Rectangle( 100, 0, 100, 100 ) );
+    assertEquals( -1, MosaicBatcher.findTile( box( 0.4f, 0.1f, 0.2f, 0.2f ), 200, 100, placements ) );
+  }
+
+  @Test
+  public void testBatchUsesOneCall() throws Exception {
+    ImageLoader loader = mock( ImageLoader.class );
+    when( loader.load( any( S3ObjectSummary.class ) ) ).thenReturn( ByteBuffer.wrap( png( 64, 64 ) ) );
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    // 2x1 grid of 100 pixel tiles: one face in the second tile, one across the border
+    when( client.detectFaces( any( DetectFacesRequest.class ) ) ).thenReturn( new DetectFacesResult().withFaceDetails(
+        new FaceDetail().withBoundingBox( box( 0.6f, 0.2f, 0.2f, 0.4f ) ),
+        new FaceDetail().withBoundingBox( box( 0.45f, 0.2f, 0.1f, 0.4f ) ) ) );
+
+    MosaicBatcher batcher = new MosaicBatcher( client, loader, null, 2, 1, 100, 4, 1000 );
+    assertTrue( batcher.accepts( summary( "a.jpg", 10 ) ) );
+    assertFalse( batcher.accepts( summary( "big.jpg", 2000 ) ) );
+    CompletableFuture<ImageAnalysisResult> first = batcher.add( summary( "a.jpg", 10 ), DIRECT );
+    assertFalse( first.isDone() );
+    CompletableFuture<ImageAnalysisResult> second = batcher.add( summary( "b.jpg", 10 ), DIRECT );
+
+    assertEquals( Collections.emptyList(), first.get().getFaceDetails() );
+    assertEquals( "b.jpg", second.get().getKey() );
+    assertEquals( 1, second.get().getFaceDetails().size() );
+    assertEquals( 1, batcher.getCalls() );
+    assertEquals( 2, batcher.getBatchedImages() );
+    verify( client, times( 1 ) ).detectFaces( any( DetectFacesRequest.class ) );
+  }
+
+  @Test
+  public void testPartialBatchFlushedWhenWaitedOn() throws Exception {
+    ImageLoader loader = mock( ImageLoader.class );
+    when( loader.load( any( S3ObjectSummary.class ) ) ).thenReturn( ByteBuffer.wrap( png( 32, 32 ) ) );
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.detectFaces( any( DetectFacesRequest.class ) ) ).thenReturn( new DetectFacesResult() );
+
+    MosaicBatcher batcher = new MosaicBatcher( client, loader, null, 4, 4, 64, 16, 1000 );
+    CompletableFuture<ImageAnalysisResult> result = batcher.add( summary( "a.jpg", 10 ), DIRECT );
+    batcher.flushIfWaitingOn( new CompletableFuture<>(), DIRECT );
+    assertFalse( result.isDone() );
+    batcher.flushIfWaitingOn( result, DIRECT );
+    assertTrue( result.isDone() );
+  }
+
+  @Test
+  public void testPartialBatchFlushedBehindSidecarUpload() throws Exception {
+    ImageLoader loader = mock( ImageLoader.class );
+    when( loader.load( any( S3ObjectSummary.class ) ) ).thenReturn( ByteBuffer.wrap( png( 32, 32 ) ) );
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.detectFaces( any( DetectFacesRequest.class ) ) ).thenReturn(
+        new DetectFacesResult().withFaceDetails( Collections.<FaceDetail>emptyList() ) );
+    SidecarStoreTest.LocalS3 s3 = new SidecarStoreTest.LocalS3();
+    SidecarStore sidecars = new SidecarStore( s3, "", ".faces.json", EnumSet.of( AnalysisType.FACES ) );
+
+    MosaicBatcher batcher = new MosaicBatcher( client, loader, null, 4, 4, 64, 16, 1000 );
+    CompletableFuture<ImageAnalysisResult> tile = batcher.add( summary( "a.jpg", 10 ), DIRECT );
+    FaceAnalysisData.PendingImage image = new FaceAnalysisData.PendingImage( summary( "a.jpg", 10 ), null, false,
+        sidecars.upload( tile, DIRECT ) );
+    image.tile = tile;
+    // the upload is a stage of its own, the batcher does not know it
+    batcher.flushIfWaitingOn( image.result, DIRECT );
+    assertFalse( image.result.isDone() );
+    batcher.flushIfWaitingOn( image.tile, DIRECT );
+    assertEquals( "a.jpg", image.result.get().getKey() );
+    assertTrue( s3.objects.containsKey( "bucket/a.jpg.faces.json" ) );
+  }
+
+  private static BoundingBox box( float left, float top, float width, float height ) {
+    return new BoundingBox().withLeft( left ).withTop( top ).withWidth( width ).withHeight( height );
+  }
+
+  private static S3ObjectSummary summary( String key, long size ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( "bucket" );
+    summary.setKey( key );
+    summary.setSize( size );
+    return summary;
+  }
+
+  private static byte[] png( int width, int height ) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB ), "png", out );
+    return out.toByteArray();
+  }
+}
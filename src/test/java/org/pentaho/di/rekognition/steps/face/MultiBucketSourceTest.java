@@ -0,0 +1,145 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class MultiBucketSourceTest {
+
+  private static final int PAGE_SIZE = 1000;
+
+  @Test
+  public void testParseList() {
+    List<BucketPrefix> sources = BucketPrefix.parseList( "photos/2018/@3, s3://avatars ,,logs/x" );
+    assertEquals( 3, sources.size() );
+    assertEquals( "photos", sources.get( 0 ).getBucketName() );
+    assertEquals( "2018/", sources.get( 0 ).getPrefix() );
+    assertEquals( 3, sources.get( 0 ).getWeight() );
+    assertEquals( "avatars", sources.get( 1 ).toString() );
+    assertEquals( 1, sources.get( 1 ).getWeight() );
+    assertEquals( "logs/x", sources.get( 2 ).toString() );
+    assertTrue( BucketPrefix.parseList( " " ).isEmpty() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testParseRejectsInvalidWeight() {
+    BucketPrefix.parseList( "photos@0" );
+  }
+
+  @Test
+  public void testFindPicksLongestPrefix() {
+    List<BucketPrefix> sources = BucketPrefix.parseList( "photos, photos/2018/, avatars/x/" );
+    assertEquals( "photos/2018/", BucketPrefix.find( sources, "photos", "2018/a.jpg" ).toString() );
+    assertEquals( "photos", BucketPrefix.find( sources, "photos", "2017/a.jpg" ).toString() );
+    assertNull( BucketPrefix.find( sources, "avatars", "y/a.jpg" ) );
+  }
+
+  @Test
+  public void testSmallBucketIsNotStarvedByHugeOne() throws KettleException {
+    // the huge bucket only lists past its first page once an image of the small one came through
+    CountDownLatch smallSeen = new CountDownLatch( 1 );
+    AmazonS3 s3 = fakeS3( 5000, 10, smallSeen );
+    List<String> buckets = new ArrayList<>();
+    new MultiBucketSource( s3, BucketPrefix.parseList( "huge, small" ) ).list( objectSummary -> {
+      buckets.add( objectSummary.getBucketName() );
+      if ( objectSummary.getBucketName().equals( "small" ) ) {
+        smallSeen.countDown();
+      }
+      return true;
+    } );
+    assertEquals( 5010, buckets.size() );
+    assertTrue( buckets.indexOf( "small" ) <= PAGE_SIZE );
+  }
+
+  @Test
+  public void testWeightsShareTheTurns() {
+    ParallelProducers.WeightedTurns turns = new ParallelProducers.WeightedTurns( new int[] { 2, 1 } );
+    boolean[] ready = { true, true };
+    List<Integer> picks = new ArrayList<>();
+    for ( int i = 0; i < 300; i++ ) {
+      picks.add( turns.next( ready ) );
+    }
+    // spread rather than bunched, in proportion to the weights
+    assertEquals( Arrays.asList( 0, 1, 0, 0, 1, 0 ), picks.subList( 0, 6 ) );
+    assertEquals( 200, picks.stream().filter( pick -> pick == 0 ).count() );
+    assertEquals( 100, picks.stream().filter( pick -> pick == 1 ).count() );
+  }
+
+  @Test
+  public void testTurnsSkipProducersWithNothingWaiting() {
+    ParallelProducers.WeightedTurns turns = new ParallelProducers.WeightedTurns( new int[] { 1, 5 } );
+    boolean[] ready = { true, false };
+    for ( int i = 0; i < 10; i++ ) {
+      assertEquals( 0, turns.next( ready ) );
+    }
+    // the waiting producer did not build up credits meanwhile
+    ready[1] = true;
+    assertEquals( 1, turns.next( ready ) );
+    assertEquals( 1, turns.next( ready ) );
+  }
+
+  /**
+   * @return S3 with a bucket "huge" and a bucket "small" holding the given numbers of keys, the huge one listing
+   *         its later pages only once the latch is released
+   */
+  private static AmazonS3 fakeS3( int hugeKeys, int smallKeys, CountDownLatch smallSeen ) {
+    AmazonS3 s3 = mock( AmazonS3.class );
+    when( s3.listObjectsV2( any( ListObjectsV2Request.class ) ) ).thenAnswer( invocation -> {
+      ListObjectsV2Request req = (ListObjectsV2Request) invocation.getArguments()[0];
+      if ( req.getBucketName().equals( "huge" ) && req.getContinuationToken() != null ) {
+        assertTrue( smallSeen.await( 10, TimeUnit.SECONDS ) );
+      }
+      int keys = req.getBucketName().equals( "huge" ) ? hugeKeys : smallKeys;
+      int start = req.getContinuationToken() == null ? 0 : Integer.parseInt( req.getContinuationToken() );
+      ListObjectsV2Result result = new ListObjectsV2Result();
+      for ( int i = start; i < Math.min( keys, start + PAGE_SIZE ); i++ ) {
+        S3ObjectSummary objectSummary = new S3ObjectSummary();
+        objectSummary.setBucketName( req.getBucketName() );
+        objectSummary.setKey( String.format( "%06d.jpg", i ) );
+        result.getObjectSummaries().add( objectSummary );
+      }
+      result.setTruncated( start + PAGE_SIZE < keys );
+      result.setNextContinuationToken( String.valueOf( start + PAGE_SIZE ) );
+      return result;
+    } );
+    return s3;
+  }
+}
@@ -0,0 +1,130 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.DetectFacesRequest;
+import com.amazonaws.services.rekognition.model.DetectFacesResult;
+import com.amazonaws.services.rekognition.model.Image;
+import com.amazonaws.services.rekognition.model.S3Object;
+import org.junit.Test;
+
+public class MultiRegionRekognitionClientTest {
+
+  @Test
+  public void testParseRegions() {
+    List<RegionEndpoint> regions =
+        RegionEndpoint.parseList( "us-east-1@50, eu-west-1=http://localhost:4566 ,us-west-2=http://u:p@host@2.5" );
+    assertEquals( 3, regions.size() );
+    assertEquals( "us-east-1", regions.get( 0 ).getRegion() );
+    assertNull( regions.get( 0 ).getEndpoint() );
+    assertEquals( 50, regions.get( 0 ).getRateLimit(), 0 );
+    assertEquals( "http://localhost:4566", regions.get( 1 ).getEndpoint() );
+    assertEquals( 0, regions.get( 1 ).getRateLimit(), 0 );
+    assertEquals( "http://u:p@host", regions.get( 2 ).getEndpoint() );
+    assertEquals( 2.5, regions.get( 2 ).getRateLimit(), 0 );
+    assertEquals( "us-east-1", RegionEndpoint.parseList( "" ).get( 0 ).getRegion() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testUnknownRegion() {
+    RegionEndpoint.parseList( "us-east-1,mars-north-1" );
+  }
+
+  @Test
+  public void testWeightFollowsLatencyAndThrottling() {
+    MultiRegionRekognitionClient.Region fast = region( "us-east-1", null );
+    MultiRegionRekognitionClient.Region slow = region( "eu-west-1", null );
+    MultiRegionRekognitionClient client = new MultiRegionRekognitionClient( Arrays.asList( fast, slow ) );
+    fast.onSuccess( 100 );
+    slow.onSuccess( 300 );
+    // the fast region gets three quarters of the calls
+    assertSame( fast, client.pick( 0.74 ) );
+    assertSame( slow, client.pick( 0.76 ) );
+    for ( int i = 0; i < 10; i++ ) {
+      fast.onThrottled();
+    }
+    assertSame( slow, client.pick( 0.5 ) );
+  }
+
+  @Test
+  public void testS3ReferencesStayInHomeRegion() {
+    MultiRegionRekognitionClient.Region home = region( "us-east-1", null );
+    MultiRegionRekognitionClient.Region other = region( "eu-west-1", null );
+    other.onSuccess( 1 );
+    home.onSuccess( 1000000000L );
+    MultiRegionRekognitionClient client = new MultiRegionRekognitionClient( Arrays.asList( home, other ) );
+    for ( int i = 0; i < 20; i++ ) {
+      client.detectFaces(
+          new DetectFacesRequest().withImage( new Image().withS3Object( new S3Object().withName( "a.jpg" ) ) ) );
+    }
+    verify( other.client, never() ).detectFaces( any( DetectFacesRequest.class ) );
+    assertEquals( 21, home.getCalls() );
+  }
+
+  @Test
+  public void testRateLimitedRegionIsSkipped() {
+    AtomicLong clock = new AtomicLong();
+    MultiRegionRekognitionClient.Region limited = region( "us-east-1", new RateLimiter( 1, clock::get ) );
+    MultiRegionRekognitionClient.Region other = region( "eu-west-1", null );
+    MultiRegionRekognitionClient client = new MultiRegionRekognitionClient( Arrays.asList( limited, other ) );
+    for ( int i = 0; i < 10; i++ ) {
+      client.detectFaces( new DetectFacesRequest().withImage( new Image() ) );
+    }
+    assertEquals( 1, limited.getCalls() );
+    assertEquals( 9, other.getCalls() );
+  }
+
+  @Test
+  public void testRateLimiter() {
+    AtomicLong clock = new AtomicLong();
+    RateLimiter limiter = new RateLimiter( 2, clock::get );
+    assertTrue( limiter.tryAcquire() );
+    assertTrue( limiter.tryAcquire() );
+    assertFalse( limiter.tryAcquire() );
+    clock.addAndGet( TimeUnit.MILLISECONDS.toNanos( 500 ) );
+    assertTrue( limiter.tryAcquire() );
+    assertFalse( limiter.tryAcquire() );
+  }
+
+  private static MultiRegionRekognitionClient.Region region( String name, RateLimiter rateLimiter ) {
+    AmazonRekognition client = mock( AmazonRekognition.class );
+    when( client.detectFaces( any( DetectFacesRequest.class ) ) ).thenReturn( new DetectFacesResult() );
+    return new MultiRegionRekognitionClient.Region( new RegionEndpoint( name, null, 0 ), client, rateLimiter );
+  }
+}
@@ -0,0 +1,119 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CompletableFuture;
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class NearDuplicateFilterTest {
+
+  @Test
+  public void testSimilarImagesHashClose() throws Exception {
+    long original = NearDuplicateFilter.dHash( encode( gradient( 640, 480, 0 ) ) );
+    long brighter = NearDuplicateFilter.dHash( gradient( 640, 480, 6 ) );
+    long resized = NearDuplicateFilter.dHash( gradient( 320, 240, 0 ) );
+    long other = NearDuplicateFilter.dHash( checkerboard( 640, 480 ) );
+    assertTrue( Long.bitCount( original ^ brighter ) <= 4 );
+    assertTrue( Long.bitCount( original ^ resized ) <= 4 );
+    assertTrue( Long.bitCount( original ^ other ) > 10 );
+  }
+
+  @Test
+  public void testFindOrRegister() {
+    NearDuplicateFilter filter = new NearDuplicateFilter( 2, 10 );
+    CompletableFuture<ImageAnalysisResult> first = new CompletableFuture<>();
+    assertNull( filter.findOrRegister( 0xF0L, first ) );
+    assertSame( first, filter.findOrRegister( 0xF3L, new CompletableFuture<>() ) );
+    assertNull( filter.findOrRegister( 0x0FL, new CompletableFuture<>() ) );
+    assertEquals( 1, filter.getNearDuplicates() );
+  }
+
+  @Test
+  public void testFailedResultIsNotShared() {
+    NearDuplicateFilter filter = new NearDuplicateFilter( 2, 10 );
+    CompletableFuture<ImageAnalysisResult> failed = new CompletableFuture<>();
+    assertNull( filter.findOrRegister( 0xF0L, failed ) );
+    failed.completeExceptionally( new IllegalStateException( "circuit open" ) );
+    // the near-identical image is analyzed itself, and becomes the one the next images share
+    CompletableFuture<ImageAnalysisResult> retried = new CompletableFuture<>();
+    assertNull( filter.findOrRegister( 0xF3L, retried ) );
+    assertSame( retried, filter.findOrRegister( 0xF1L, new CompletableFuture<>() ) );
+  }
+
+  @Test
+  public void testWindowIsBounded() {
+    NearDuplicateFilter filter = new NearDuplicateFilter( 0, 2 );
+    assertNull( filter.findOrRegister( 1L, new CompletableFuture<>() ) );
+    assertNull( filter.findOrRegister( 2L, new CompletableFuture<>() ) );
+    assertNull( filter.findOrRegister( 4L, new CompletableFuture<>() ) );
+    // the first hash has been pushed out of the window
+    assertNull( filter.findOrRegister( 1L, new CompletableFuture<>() ) );
+    assertEquals( 0, filter.getNearDuplicates() );
+  }
+
+  private static BufferedImage gradient( int width, int height, int brightness ) {
+    BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+    for ( int y = 0; y < height; y++ ) {
+      for ( int x = 0; x < width; x++ ) {
+        // a wave across the image, so neighbouring cells differ in both directions
+        int value = (int) ( 120 + 100 * Math.sin( x * 6.0 * Math.PI / width ) * Math.cos( y * 2.0 / height ) );
+        value = Math.min( 255, value + brightness );
+        image.setRGB( x, y, new Color( value, value, value ).getRGB() );
+      }
+    }
+    return image;
+  }
+
+  private static BufferedImage checkerboard( int width, int height ) {
+    BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor( Color.BLACK );
+    graphics.fillRect( 0, 0, width, height );
+    graphics.setColor( Color.WHITE );
+    for ( int y = 0; y < 8; y++ ) {
+      for ( int x = 0; x < 9; x++ ) {
+        if ( ( x * 7 + y * 3 ) % 5 < 2 ) {
+          graphics.fillRect( x * width / 9, y * height / 8, width / 9, height / 8 );
+        }
+      }
+    }
+    graphics.dispose();
+    return image;
+  }
+
+  private static byte[] encode( BufferedImage image ) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( image, "png", out );
+    return out.toByteArray();
+  }
+}
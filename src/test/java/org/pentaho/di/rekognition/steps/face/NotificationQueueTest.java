@@ -0,0 +1,172 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import org.junit.Test;
+
+public class NotificationQueueTest {
+
+  static String event( String eventName, String key ) {
+    return "{\"Records\":[{\"eventName\":\"" + eventName + "\",\"eventTime\":\"2018-11-05T10:15:30.123Z\","
+        + "\"s3\":{\"bucket\":{\"name\":\"photos\"},\"object\":{\"key\":\"" + key + "\",\"size\":1234,"
+        + "\"eTag\":\"abc\"}}}]}";
+  }
+
+  @Test
+  public void testParseObjectCreated() throws IOException {
+    NotificationQueue.Batch batch = new NotificationQueue.Batch();
+    NotificationQueue.parseMessage( event( "ObjectCreated:Put", "2018/my+photo%C3%A9.jpg" ), batch );
+    assertEquals( 1, batch.images.size() );
+    assertEquals( "photos", batch.images.get( 0 ).getBucketName() );
+    assertEquals( "2018/my photoé.jpg", batch.images.get( 0 ).getKey() );
+    assertEquals( 1234, batch.images.get( 0 ).getSize() );
+    assertEquals( "abc", batch.images.get( 0 ).getETag() );
+    assertEquals( 1541412930123L, batch.images.get( 0 ).getLastModified().getTime() );
+  }
+
+  @Test
+  public void testParseSkipsOtherEvents() throws IOException {
+    NotificationQueue.Batch batch = new NotificationQueue.Batch();
+    NotificationQueue.parseMessage( event( "ObjectRemoved:Delete", "a.jpg" ), batch );
+    NotificationQueue.parseMessage( "{\"Service\":\"Amazon S3\",\"Event\":\"s3:TestEvent\"}", batch );
+    assertTrue( batch.images.isEmpty() );
+  }
+
+  @Test
+  public void testParseSnsEnvelope() throws IOException {
+    String message = event( "ObjectCreated:CompleteMultipartUpload", "b.jpg" ).replace( "\"", "\\\"" );
+    NotificationQueue.Batch batch = new NotificationQueue.Batch();
+    NotificationQueue.parseMessage( "{\"Type\":\"Notification\",\"Message\":\"" + message + "\"}", batch );
+    assertEquals( 1, batch.images.size() );
+    assertEquals( "b.jpg", batch.images.get( 0 ).getKey() );
+  }
+
+  @Test( expected = IOException.class )
+  public void testParseRejectsMalformedMessage() throws IOException {
+    NotificationQueue.parseMessage( "{\"Records\":[", new NotificationQueue.Batch() );
+  }
+
+  @Test
+  public void testSqsRegion() {
+    assertEquals( "eu-west-1",
+        NotificationQueue.sqsRegion( "https://sqs.eu-west-1.amazonaws.com/123456789012/images" ) );
+    assertEquals( "us-east-2",
+        NotificationQueue.sqsRegion( "https://us-east-2.queue.amazonaws.com/123456789012/images" ) );
+    assertNull( NotificationQueue.sqsRegion( "https://localhost:9324/queue/images" ) );
+  }
+
+  @Test
+  public void testDirectoryQueue() throws Exception {
+    File dir = Files.createTempDirectory( "queue" ).toFile();
+    write( dir, "0002.json", event( "ObjectCreated:Put", "b.jpg" ) );
+    write( dir, "0001.json", event( "ObjectCreated:Put", "a.jpg" ) );
+    write( dir, "0003.json", event( "ObjectCreated:Put", "c.jpg" ) );
+    write( dir, ".0004.json", event( "ObjectCreated:Put", "d.jpg" ) );
+    NotificationQueue queue = NotificationQueue.open( dir.getPath(), region -> null );
+
+    NotificationQueue.Batch batch = queue.receive( 2, 0 );
+    assertEquals( 2, batch.images.size() );
+    assertEquals( "a.jpg", batch.images.get( 0 ).getKey() );
+    assertEquals( "b.jpg", batch.images.get( 1 ).getKey() );
+    queue.acknowledge( batch );
+
+    batch = queue.receive( 10, 0 );
+    assertEquals( 1, batch.images.size() );
+    assertEquals( "c.jpg", batch.images.get( 0 ).getKey() );
+    queue.acknowledge( batch );
+
+    long start = System.currentTimeMillis();
+    assertTrue( queue.receive( 10, 300 ).isEmpty() );
+    assertTrue( System.currentTimeMillis() - start >= 300 );
+  }
+
+  @Test
+  public void testSqsQueueFillsAndAcknowledgesLargeBatches() throws Exception {
+    AmazonSQS sqs = mock( AmazonSQS.class );
+    when( sqs.receiveMessage( any( ReceiveMessageRequest.class ) ) )
+        .thenReturn( messages( 0, 10 ), messages( 10, 10 ), messages( 20, 3 ) );
+    when( sqs.deleteMessageBatch( any( DeleteMessageBatchRequest.class ) ) )
+        .thenReturn( new DeleteMessageBatchResult() );
+    NotificationQueue queue = new NotificationQueue.SqsQueue( sqs, "https://sqs.eu-west-1.amazonaws.com/1/q" );
+
+    NotificationQueue.Batch batch = queue.receive( 25, 20000 );
+    assertEquals( 23, batch.images.size() );
+    assertEquals( 23, batch.receipts.size() );
+    verify( sqs, times( 3 ) ).receiveMessage( any( ReceiveMessageRequest.class ) );
+
+    queue.acknowledge( batch );
+    verify( sqs, times( 3 ) ).deleteMessageBatch( any( DeleteMessageBatchRequest.class ) );
+  }
+
+  @Test
+  public void testSqsQueueReportsMalformedMessages() throws Exception {
+    ReceiveMessageResult received = messages( 0, 3 );
+    received.getMessages().set( 1, new Message().withMessageId( "m1" ).withReceiptHandle( "r1" )
+        .withBody( "{\"Records\":[" ) );
+    AmazonSQS sqs = mock( AmazonSQS.class );
+    when( sqs.receiveMessage( any( ReceiveMessageRequest.class ) ) ).thenReturn( received );
+    NotificationQueue queue = new NotificationQueue.SqsQueue( sqs, "https://sqs.eu-west-1.amazonaws.com/1/q" );
+
+    NotificationQueue.Batch batch = queue.receive( 10, 20000 );
+    assertEquals( 2, batch.images.size() );
+    // acknowledged with the batch, so it is not received again
+    assertEquals( 3, batch.receipts.size() );
+    assertEquals( 1, batch.malformed.size() );
+    assertTrue( batch.malformed.get( 0 ).startsWith( "m1: " ) );
+  }
+
+  private static ReceiveMessageResult messages( int first, int count ) {
+    List<Message> messages = new ArrayList<>();
+    for ( int i = first; i < first + count; i++ ) {
+      messages.add( new Message().withReceiptHandle( "r" + i )
+          .withBody( event( "ObjectCreated:Put", "image" + i + ".jpg" ) ) );
+    }
+    return new ReceiveMessageResult().withMessages( messages );
+  }
+
+  private static void write( File dir, String name, String content ) throws IOException {
+    Files.write( new File( dir, name ).toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+  }
+}
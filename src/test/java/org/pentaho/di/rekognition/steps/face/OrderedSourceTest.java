@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class OrderedSourceTest {
+
+  @Test
+  public void testNoneKeepsTheSource() {
+    ImageSource source = sink -> { };
+    assertSame( source, OrderedSource.create( source, OrderedSource.Policy.parse( " " ), 10, 1 ) );
+  }
+
+  @Test
+  public void testNewestFirstWithinWindow() throws KettleException {
+    List<S3ObjectSummary> images = Arrays.asList( image( "a", 0, 1 ), image( "b", 0, 3 ), image( "c", 0, 2 ),
+        image( "d", 0, 5 ), image( "e", 0, 4 ) );
+    assertEquals( Arrays.asList( "b", "d", "e", "c", "a" ), keys( images, OrderedSource.Policy.NEWEST, 3 ) );
+    assertEquals( Arrays.asList( "d", "e", "b", "c", "a" ), keys( images, OrderedSource.Policy.NEWEST, 10 ) );
+  }
+
+  @Test
+  public void testSmallestFirst() throws KettleException {
+    List<S3ObjectSummary> images = Arrays.asList( image( "a", 30, 0 ), image( "b", 10, 0 ), image( "c", 20, 0 ) );
+    assertEquals( Arrays.asList( "b", "c", "a" ), keys( images, OrderedSource.Policy.SMALLEST, 10 ) );
+  }
+
+  @Test
+  public void testInterleavesPrefixes() throws KettleException {
+    List<S3ObjectSummary> images = Arrays.asList( image( "x/1", 0, 0 ), image( "x/2", 0, 0 ), image( "x/3", 0, 0 ),
+        image( "y/1", 0, 0 ), image( "y/2", 0, 0 ), image( "z/1", 0, 0 ) );
+    assertEquals( Arrays.asList( "x/1", "y/1", "z/1", "x/2", "y/2", "x/3" ),
+        keys( images, OrderedSource.Policy.INTERLEAVE, 10 ) );
+  }
+
+  @Test
+  public void testStopsWhenSinkAsks() throws KettleException {
+    List<S3ObjectSummary> images = Arrays.asList( image( "a", 3, 0 ), image( "b", 2, 0 ), image( "c", 1, 0 ) );
+    List<String> keys = new ArrayList<>();
+    OrderedSource.create( listing( images ), OrderedSource.Policy.SMALLEST, 10, 1 ).list( objectSummary -> {
+      keys.add( objectSummary.getKey() );
+      return keys.size() < 2;
+    } );
+    assertEquals( Arrays.asList( "c", "b" ), keys );
+  }
+
+  private static List<String> keys( List<S3ObjectSummary> images, OrderedSource.Policy policy, int window )
+    throws KettleException {
+    List<String> keys = new ArrayList<>();
+    OrderedSource.create( listing( images ), policy, window, 1 ).list( objectSummary -> {
+      keys.add( objectSummary.getKey() );
+      return true;
+    } );
+    return keys;
+  }
+
+  private static ImageSource listing( List<S3ObjectSummary> images ) {
+    return sink -> {
+      for ( S3ObjectSummary objectSummary : images ) {
+        if ( !sink.accept( objectSummary ) ) {
+          return;
+        }
+      }
+    };
+  }
+
+  private static S3ObjectSummary image( String key, long size, long lastModified ) {
+    S3ObjectSummary objectSummary = new S3ObjectSummary();
+    objectSummary.setBucketName( "bucket" );
+    objectSummary.setKey( key );
+    objectSummary.setSize( size );
+    objectSummary.setLastModified( new Date( lastModified ) );
+    return objectSummary;
+  }
+}
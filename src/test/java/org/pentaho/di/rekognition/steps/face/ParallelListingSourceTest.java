@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class ParallelListingSourceTest {
+
+  private static final int PAGE_SIZE = 2;
+
+  @Test
+  public void testMidpoint() {
+    assertEquals( "b", ParallelListingSource.midpoint( "a", "c" ) );
+    String middle = ParallelListingSource.midpoint( "IMG_0001.jpg", "IMG_0999.jpg" );
+    assertTrue( middle.compareTo( "IMG_04" ) > 0 && middle.compareTo( "IMG_06" ) < 0 );
+    assertEquals( "a ", ParallelListingSource.midpoint( "a", "a!" ) );
+    assertNull( ParallelListingSource.midpoint( "a", "a" ) );
+    assertNull( ParallelListingSource.midpoint( "b", "a" ) );
+  }
+
+  @Test
+  public void testBoundariesFollowTheKeysPresent() {
+    List<String> keys = new ArrayList<>();
+    for ( int i = 1; i <= 400; i++ ) {
+      keys.add( String.format( "IMG_%04d.jpg", i ) );
+    }
+    List<String> boundaries = ParallelListingSource.findBoundaries( fakeS3( keys ), "bucket", 8 );
+    assertEquals( 7, boundaries.size() );
+    assertEquals( sorted( boundaries ), boundaries );
+    // every range gets a share of the keys: none holds more than twice the even share
+    String lower = null;
+    for ( int i = 0; i <= boundaries.size(); i++ ) {
+      String upper = i < boundaries.size() ? boundaries.get( i ) : null;
+      int inRange = 0;
+      for ( String key : keys ) {
+        if ( ( lower == null || key.compareTo( lower ) > 0 ) && ( upper == null || key.compareTo( upper ) <= 0 ) ) {
+          inRange++;
+        }
+      }
+      assertTrue( "range ending at " + upper + " holds " + inRange, inRange > 0 && inRange <= 100 );
+      lower = upper;
+    }
+  }
+
+  @Test
+  public void testFlatBucketWithCommonPrefix() throws KettleException {
+    List<String> keys = new ArrayList<>();
+    for ( int i = 0; i < 50; i++ ) {
+      keys.add( String.format( "2023-05-%02d-%03d.jpg", i % 28 + 1, i ) );
+    }
+    assertEquals( sorted( keys ), listAll( keys, 3 ) );
+  }
+
+  @Test
+  public void testFlatBucket() throws KettleException {
+    List<String> keys = Arrays.asList( "0001.jpg", "a.jpg", "b.jpg", "B.png", "cat.jpg", "zebra.jpg", "~tmp.jpg",
+        "été.jpg", "dir/x.jpg" );
+    assertEquals( sorted( keys ), listAll( keys, 3 ) );
+  }
+
+  @Test
+  public void testPrefixedBucket() throws KettleException {
+    List<String> keys = Arrays.asList( "2017/01/a.jpg", "2017/02/b.jpg", "2018/01/c.jpg", "2018/01/d.jpg",
+        "2018/02/e.jpg", "root.jpg", "thumbs/f.jpg" );
+    assertEquals( sorted( keys ), listAll( keys, 2 ) );
+  }
+
+  private static List<String> listAll( List<String> keys, int threads ) throws KettleException {
+    final List<String> listed = new ArrayList<>();
+    new ParallelListingSource( fakeS3( keys ), "bucket", threads ).list( objectSummary -> {
+      listed.add( objectSummary.getKey() );
+      return true;
+    } );
+    return sorted( listed );
+  }
+
+  private static List<String> sorted( List<String> keys ) {
+    List<String> sorted = new ArrayList<>( keys );
+    Collections.sort( sorted );
+    return sorted;
+  }
+
+  /**
+   * Simulates ListObjectsV2 paging (MaxKeys capped at PAGE_SIZE), prefix, delimiter and StartAfter handling
+   * over a fixed key set.
+   */
+  private static AmazonS3 fakeS3( List<String> keys ) {
+    final TreeSet<String> bucket = new TreeSet<>( keys );
+    AmazonS3 s3 = mock( AmazonS3.class );
+    when( s3.listObjectsV2( any( ListObjectsV2Request.class ) ) ).thenAnswer( invocation -> {
+      ListObjectsV2Request req = (ListObjectsV2Request) invocation.getArguments()[0];
+      String prefix = req.getPrefix() == null ? "" : req.getPrefix();
+      String after = req.getContinuationToken() != null ? req.getContinuationToken() : req.getStartAfter();
+      int pageSize = req.getMaxKeys() == null ? PAGE_SIZE : Math.min( PAGE_SIZE, req.getMaxKeys() );
+      ListObjectsV2Result result = new ListObjectsV2Result();
+      int count = 0;
+      for ( String key : after == null ? bucket : bucket.tailSet( after, false ) ) {
+        if ( !key.startsWith( prefix ) ) {
+          continue;
+        }
+        if ( count == pageSize ) {
+          result.setTruncated( true );
+          break;
+        }
+        int slash = req.getDelimiter() == null ? -1 : key.indexOf( req.getDelimiter(), prefix.length() );
+        if ( slash >= 0 ) {
+          String commonPrefix = key.substring( 0, slash + 1 );
+          if ( !result.getCommonPrefixes().contains( commonPrefix ) ) {
+            result.getCommonPrefixes().add( commonPrefix );
+          }
+        } else {
+          S3ObjectSummary objectSummary = new S3ObjectSummary();
+          objectSummary.setBucketName( "bucket" );
+          objectSummary.setKey( key );
+          result.getObjectSummaries().add( objectSummary );
+        }
+        result.setNextContinuationToken( slash >= 0 ? key.substring( 0, slash + 1 ) + '\uffff' : key );
+        count++;
+      }
+      return result;
+    } );
+    return s3;
+  }
+}
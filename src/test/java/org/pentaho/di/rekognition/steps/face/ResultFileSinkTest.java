@@ -0,0 +1,118 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ResultFileSinkTest {
+
+  private static final String[] FIELDS = { "ImageFile", "FaceId", "Property", "Value", "Confidence", "Modified" };
+
+  @Test
+  public void testCsv() throws IOException {
+    File dir = Files.createTempDirectory( "results" ).toFile();
+    ResultFileSink sink = new ResultFileSink( dir, "faces", ResultFileSink.Format.CSV, false, 0, FIELDS );
+    assertNull( sink.write( new Object[] { "a,b.jpg", "1", "EMOTION", "say \"hi\"", 99.5, new Date( 0 ) } ) );
+    assertNull( sink.write( new Object[] { "c.jpg", null, "LABEL", "Person", null, null } ) );
+    ResultFileSink.OutputFile file = sink.closeFile();
+
+    assertEquals( new File( dir, "faces-00001.csv" ), file.file );
+    assertEquals( 2, file.rows );
+    assertEquals( file.file.length(), file.bytes );
+    assertEquals( Arrays.asList( "ImageFile,FaceId,Property,Value,Confidence,Modified",
+        "\"a,b.jpg\",1,EMOTION,\"say \"\"hi\"\"\",99.5,1970-01-01T00:00:00Z",
+        "c.jpg,,LABEL,Person,," ), Files.readAllLines( file.file.toPath(), StandardCharsets.UTF_8 ) );
+    assertNull( sink.closeFile() );
+  }
+
+  @Test
+  public void testJsonLines() throws IOException {
+    File dir = Files.createTempDirectory( "results" ).toFile();
+    ResultFileSink sink = new ResultFileSink( dir, "faces", ResultFileSink.Format.JSON, false, 0, FIELDS );
+    sink.write( new Object[] { "a\\b.jpg", "1", "TEXT_LINE", "line\n2", 80.25, null } );
+    sink.write( new Object[] { "c.jpg", "2", "AGE", null, Double.NaN, null } );
+    ResultFileSink.OutputFile file = sink.closeFile();
+
+    assertEquals( "faces-00001.jsonl", file.file.getName() );
+    assertEquals( Arrays.asList(
+        "{\"ImageFile\":\"a\\\\b.jpg\",\"FaceId\":\"1\",\"Property\":\"TEXT_LINE\",\"Value\":\"line\\n2\","
+            + "\"Confidence\":80.25}",
+        "{\"ImageFile\":\"c.jpg\",\"FaceId\":\"2\",\"Property\":\"AGE\",\"Confidence\":\"NaN\"}" ),
+        Files.readAllLines( file.file.toPath(), StandardCharsets.UTF_8 ) );
+  }
+
+  @Test
+  public void testCompressedRolling() throws IOException {
+    File dir = Files.createTempDirectory( "results" ).toFile();
+    ResultFileSink sink = new ResultFileSink( dir, "faces", ResultFileSink.Format.CSV, true, 64 * 1024, FIELDS );
+    List<ResultFileSink.OutputFile> files = new ArrayList<>();
+    // random values do not compress, so the roll size is reached quickly
+    Random random = new Random( 42 );
+    for ( int i = 0; i < 20000; i++ ) {
+      ResultFileSink.OutputFile completed = sink.write( new Object[] { "img" + i + ".jpg", "0", "RANDOM",
+          Long.toHexString( random.nextLong() ) + Long.toHexString( random.nextLong() ), null, null } );
+      if ( completed != null ) {
+        files.add( completed );
+      }
+    }
+    ResultFileSink.OutputFile last = sink.closeFile();
+    assertNotNull( last );
+    files.add( last );
+    assertTrue( files.size() > 1 );
+
+    long rows = 0;
+    for ( ResultFileSink.OutputFile file : files ) {
+      assertTrue( file.file.getName().endsWith( ".csv.gz" ) );
+      try ( BufferedReader reader = new BufferedReader( new InputStreamReader(
+          new GZIPInputStream( new FileInputStream( file.file ) ), StandardCharsets.UTF_8 ) ) ) {
+        assertEquals( String.join( ",", FIELDS ), reader.readLine() );
+        long fileRows = 0;
+        while ( reader.readLine() != null ) {
+          fileRows++;
+        }
+        assertEquals( file.rows, fileRows );
+        rows += fileRows;
+      }
+    }
+    assertEquals( 20000, rows );
+  }
+}
@@ -0,0 +1,155 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.IOUtils;
+import org.junit.Test;
+
+public class SidecarStoreTest {
+
+  /**
+   * Minimal in-memory stand-in for S3, holding objects by bucket and key.
+   */
+  static class LocalS3 extends AbstractAmazonS3 {
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    @Override
+    public PutObjectResult putObject( String bucket, String key, InputStream input, ObjectMetadata metadata ) {
+      try {
+        objects.put( bucket + "/" + key, IOUtils.toByteArray( input ) );
+      } catch ( IOException e ) {
+        throw new IllegalStateException( e );
+      }
+      return new PutObjectResult();
+    }
+
+    @Override
+    public S3Object getObject( String bucket, String key ) {
+      byte[] content = objects.get( bucket + "/" + key );
+      if ( content == null ) {
+        AmazonS3Exception notFound = new AmazonS3Exception( "Not Found" );
+        notFound.setStatusCode( 404 );
+        throw notFound;
+      }
+      S3Object object = new S3Object();
+      object.setBucketName( bucket );
+      object.setKey( key );
+      object.setObjectContent( new ByteArrayInputStream( content ) );
+      return object;
+    }
+  }
+
+  @Test
+  public void testSidecarKeys() {
+    SidecarStore store = new SidecarStore( new LocalS3(), "faces/", ".json", EnumSet.of( AnalysisType.FACES ) );
+    assertEquals( "faces/photos/a.jpg.json", store.sidecarKey( "photos/a.jpg" ) );
+    assertTrue( store.isSidecar( "faces/photos/a.jpg.json" ) );
+    assertFalse( store.isSidecar( "photos/a.jpg" ) );
+    assertFalse( store.isSidecar( "photos/a.json" ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testNoPrefixOrSuffix() {
+    new SidecarStore( new LocalS3(), "", "", EnumSet.of( AnalysisType.FACES ) );
+  }
+
+  @Test
+  public void testUploadThenReuse() throws Exception {
+    LocalS3 s3 = new LocalS3();
+    SidecarStore store = new SidecarStore( s3, "", ".faces.json", EnumSet.of( AnalysisType.FACES ) );
+    S3ObjectSummary image = image( "photos/a.jpg", "etag-1" );
+    ExecutorService workers = Executors.newFixedThreadPool( 2 );
+    try {
+      assertNull( store.lookup( image, workers ).get() );
+
+      ImageAnalysisResult result = new ImageAnalysisResult( image );
+      result.setFaceDetails( Collections.singletonList( new FaceDetail().withConfidence( 99f ) ) );
+      store.upload( CompletableFuture.completedFuture( result ), workers ).get();
+      assertNotNull( s3.objects.get( "images/photos/a.jpg.faces.json" ) );
+      assertEquals( 1, store.getUploads() );
+
+      ImageAnalysisResult cached = store.lookup( image, workers ).get();
+      assertEquals( "photos/a.jpg", cached.getKey() );
+      assertEquals( 99f, cached.getFaceDetails().get( 0 ).getConfidence(), 0f );
+      assertEquals( 1, store.getHits() );
+
+      // the image changed since the sidecar was written
+      assertNull( store.lookup( image( "photos/a.jpg", "etag-2" ), workers ).get() );
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMissingAnalysisIsNotUpToDate() throws IOException {
+    LocalS3 s3 = new LocalS3();
+    S3ObjectSummary image = image( "a.jpg", "etag-1" );
+    ImageAnalysisResult result = new ImageAnalysisResult( image );
+    result.setFaceDetails( Collections.<FaceDetail>emptyList() );
+    new SidecarStore( s3, "", ".json", EnumSet.of( AnalysisType.FACES ) ).save( result );
+
+    assertNotNull( new SidecarStore( s3, "", ".json", EnumSet.of( AnalysisType.FACES ) ).load( image ) );
+    assertNull( new SidecarStore( s3, "", ".json", EnumSet.of( AnalysisType.FACES, AnalysisType.LABELS ) )
+        .load( image ) );
+  }
+
+  @Test
+  public void testUnreadableSidecar() throws IOException {
+    LocalS3 s3 = new LocalS3();
+    s3.objects.put( "images/a.jpg.json", "not json".getBytes( "UTF-8" ) );
+    assertNull( new SidecarStore( s3, "", ".json", EnumSet.of( AnalysisType.FACES ) ).load( image( "a.jpg", "e" ) ) );
+  }
+
+  private static S3ObjectSummary image( String key, String eTag ) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName( "images" );
+    summary.setKey( key );
+    summary.setETag( eTag );
+    summary.setSize( 1000 );
+    return summary;
+  }
+}
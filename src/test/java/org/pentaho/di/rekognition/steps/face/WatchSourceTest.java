@@ -0,0 +1,139 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class WatchSourceTest {
+
+  @Test
+  public void testParseMode() {
+    assertEquals( WatchSource.Mode.NONE, WatchSource.Mode.parse( "" ) );
+    assertEquals( WatchSource.Mode.QUEUE, WatchSource.Mode.parse( " queue " ) );
+    assertEquals( WatchSource.Mode.POLL, WatchSource.Mode.parse( "POLL" ) );
+  }
+
+  @Test
+  public void testQueueAcknowledgesProcessedBatches() throws Exception {
+    File dir = Files.createTempDirectory( "queue" ).toFile();
+    for ( int i = 0; i < 5; i++ ) {
+      Files.write( new File( dir, "000" + i + ".json" ).toPath(),
+          NotificationQueueTest.event( "ObjectCreated:Put", "image" + i + ".jpg" ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+    List<String> received = new ArrayList<>();
+    List<Integer> leftAtCheckpoint = new ArrayList<>();
+    // the checkpoint stops the source once every notification was handed over
+    WatchSource source = new WatchSource.QueueSource( NotificationQueue.open( dir.getPath(), region -> null ), 2, 0,
+        () -> {
+          leftAtCheckpoint.add( dir.list().length );
+          return received.size() < 5;
+        }, message -> { } );
+    source.list( objectSummary -> received.add( objectSummary.getKey() ) );
+
+    assertEquals( Arrays.asList( "image0.jpg", "image1.jpg", "image2.jpg", "image3.jpg", "image4.jpg" ), received );
+    // each batch is acknowledged after its checkpoint, the last one is kept since the step stopped
+    assertEquals( Arrays.asList( 5, 3, 1 ), leftAtCheckpoint );
+    assertEquals( 1, dir.list().length );
+    assertEquals( 2, source.getBatches() );
+    assertEquals( 5, source.getImages() );
+  }
+
+  @Test
+  public void testQueueStopsWhenTheSinkDoes() throws Exception {
+    File dir = Files.createTempDirectory( "queue" ).toFile();
+    Files.write( new File( dir, "0001.json" ).toPath(),
+        NotificationQueueTest.event( "ObjectCreated:Put", "a.jpg" ).getBytes( StandardCharsets.UTF_8 ) );
+    new WatchSource.QueueSource( NotificationQueue.open( dir.getPath(), region -> null ), 10, 0, () -> true,
+        message -> { } ).list( objectSummary -> false );
+    assertEquals( 1, dir.list().length );
+  }
+
+  @Test
+  public void testQueueSkipsMalformedMessages() throws Exception {
+    File dir = Files.createTempDirectory( "queue" ).toFile();
+    Files.write( new File( dir, "0001.json" ).toPath(),
+        NotificationQueueTest.event( "ObjectCreated:Put", "a.jpg" ).getBytes( StandardCharsets.UTF_8 ) );
+    Files.write( new File( dir, "0002.json" ).toPath(), "{\"Records\":[".getBytes( StandardCharsets.UTF_8 ) );
+    Files.write( new File( dir, "0003.json" ).toPath(),
+        NotificationQueueTest.event( "ObjectCreated:Put", "c.jpg" ).getBytes( StandardCharsets.UTF_8 ) );
+    List<String> received = new ArrayList<>();
+    List<String> reported = new ArrayList<>();
+    final int[] checkpoints = new int[1];
+    WatchSource.QueueSource source = new WatchSource.QueueSource(
+        NotificationQueue.open( dir.getPath(), region -> null ), 10, 0, () -> ++checkpoints[0] < 2, reported::add );
+    source.list( objectSummary -> received.add( objectSummary.getKey() ) );
+
+    // the other messages of the batch are handed over, and the malformed one is acknowledged with them
+    assertEquals( Arrays.asList( "a.jpg", "c.jpg" ), received );
+    assertEquals( 1, reported.size() );
+    assertTrue( reported.get( 0 ).startsWith( "0002.json: " ) );
+    assertEquals( 1, source.getMalformed() );
+    assertEquals( 0, dir.list().length );
+  }
+
+  @Test
+  public void testPollingListsUntilStopped() throws KettleException {
+    final int[] listings = new int[1];
+    ImageSource delegate = sink -> {
+      listings[0]++;
+      S3ObjectSummary summary = new S3ObjectSummary();
+      summary.setKey( "image" + listings[0] + ".jpg" );
+      sink.accept( summary );
+    };
+    List<String> received = new ArrayList<>();
+    final int[] checkpoints = new int[1];
+    long start = System.currentTimeMillis();
+    WatchSource source = new WatchSource.PollingSource( delegate, 150, () -> ++checkpoints[0] < 5 );
+    source.list( objectSummary -> received.add( objectSummary.getKey() ) );
+
+    // the wait after the first listing checks the step in slices, the fifth checkpoint stops it
+    assertTrue( listings[0] >= 1 );
+    assertEquals( listings[0], received.size() );
+    assertEquals( 5, checkpoints[0] );
+    assertTrue( System.currentTimeMillis() - start >= WatchSource.STOP_CHECK_MILLIS );
+  }
+
+  @Test
+  public void testPollingStopsWhenTheSinkDoes() throws KettleException {
+    final int[] listings = new int[1];
+    ImageSource delegate = sink -> {
+      listings[0]++;
+      sink.accept( new S3ObjectSummary() );
+    };
+    new WatchSource.PollingSource( delegate, 0, () -> true ).list( objectSummary -> listings[0] < 3 );
+    assertEquals( 3, listings[0] );
+  }
+}
@@ -0,0 +1,95 @@
+/*! ******************************************************************************
+*
+* Pentaho Data Integration
+*
+* Copyright (C) 2002-2017 by Hitachi Vantara : http://www.pentaho.com
+*
+*******************************************************************************
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*
+******************************************************************************/
+
+package org.pentaho.di.rekognition.steps.face;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class WatermarkStoreTest {
+
+  @Test
+  public void testFileStoreRoundTrip() throws Exception {
+    File file = new File( Files.createTempDirectory( "watermark" ).toFile(), "nightly/watermark.txt" );
+    WatermarkStore store = new WatermarkStore.FileStore( file );
+    assertNull( store.load() );
+
+    Date watermark = new Date( 1543659330000L );
+    store.save( watermark );
+    assertEquals( watermark, store.load() );
+    assertEquals( "2018-12-01T10:15:30Z", new String( Files.readAllBytes( file.toPath() ), "UTF-8" ) );
+  }
+
+  @Test
+  public void testParse() throws KettleException {
+    assertNull( WatermarkStore.parse( null ) );
+    assertNull( WatermarkStore.parse( " " ) );
+    assertEquals( new Date( 1543659330500L ), WatermarkStore.parse( "2018-12-01T10:15:30.500Z" ) );
+  }
+
+  @Test
+  public void testCapKeepsImagesUploadedBehindTheListing() {
+    Date listingStart = new Date( 1543659330000L );
+    // listed late in the run, uploaded a minute after it started
+    Date lastListed = new Date( listingStart.getTime() + 60000 );
+    // uploaded half a minute into the run under a key the listing had already passed
+    Date missed = new Date( listingStart.getTime() + 30000 );
+
+    Date watermark = WatermarkStore.cap( lastListed, listingStart );
+    assertEquals( new Date( listingStart.getTime() - WatermarkStore.CLOCK_SKEW_MILLIS ), watermark );
+    assertTrue( missed.after( watermark ) );
+
+    // a run that only emitted older images keeps their watermark
+    Date old = new Date( listingStart.getTime() - 2 * WatermarkStore.CLOCK_SKEW_MILLIS );
+    assertEquals( old, WatermarkStore.cap( old, listingStart ) );
+    assertNull( WatermarkStore.cap( null, listingStart ) );
+  }
+
+  @Test
+  public void testCapBeforeKeepsDivertedImages() {
+    Date lastEmitted = new Date( 1543659330000L );
+    // refused by the open circuit breaker and sent to the error hop
+    Date diverted = new Date( lastEmitted.getTime() - 60000 );
+
+    Date watermark = WatermarkStore.capBefore( lastEmitted, diverted );
+    assertTrue( diverted.after( watermark ) );
+    assertEquals( new Date( diverted.getTime() - 1 ), watermark );
+
+    // nothing diverted, or only images newer than the watermark
+    assertEquals( lastEmitted, WatermarkStore.capBefore( lastEmitted, null ) );
+    assertEquals( lastEmitted, WatermarkStore.capBefore( lastEmitted, new Date( lastEmitted.getTime() + 1 ) ) );
+    assertNull( WatermarkStore.capBefore( null, diverted ) );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testParseInvalid() throws KettleException {
+    WatermarkStore.parse( "yesterday" );
+  }
+}